@@ -36,6 +36,9 @@ import java.util.concurrent.ConcurrentMap;
 
 import javax.security.auth.Subject;
 import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.login.AccountException;
+import javax.security.auth.login.CredentialException;
+import javax.security.auth.login.FailedLoginException;
 import javax.security.auth.login.LoginContext;
 import javax.security.auth.login.LoginException;
 
@@ -48,11 +51,13 @@ import org.jboss.security.SecurityContext;
 import org.jboss.security.SecurityContextAssociation;
 import org.jboss.security.auth.callback.JBossCallbackHandler;
 import org.jboss.security.auth.login.BaseAuthenticationInfo;
+import org.jboss.security.cache.CredentialFingerprint;
 import org.jboss.security.authentication.JBossCachedAuthenticationManager.DomainInfo;
 import org.jboss.security.config.ApplicationPolicy;
 import org.jboss.security.config.SecurityConfiguration;
 import org.jboss.security.plugins.ClassLoaderLocator;
 import org.jboss.security.plugins.ClassLoaderLocatorFactory;
+import org.jboss.security.plugins.auth.LoginCoalescer;
 
 /**
  * {@link AuthenticationManager} implementation that uses {@code CacheableManager} as the cache provider.
@@ -75,6 +80,9 @@ public class JBossCachedAuthenticationManager implements AuthenticationManager,
 
    private boolean deepCopySubjectOption = false;
 
+   /** Concurrent logins of the same principal and credential share a single JAAS login */
+   private final LoginCoalescer inFlightLogins = new LoginCoalescer();
+
    /**
     * Create a new JBossCachedAuthenticationManager using the
     * default security domain and {@link CallbackHandler} implementation.
@@ -141,9 +149,16 @@ public class JBossCachedAuthenticationManager implements AuthenticationManager,
       if (cachedEntry != null)
       {
          isValid = validateCache(cachedEntry, credential, activeSubject);
+         if (isValid)
+            refreshAhead(principal, credential);
       }
       if (!isValid)
+      {
+         long start = System.nanoTime();
          isValid = authenticate(principal, credential, activeSubject);
+         if (domainCache instanceof LocalAuthenticationCache)
+            ((LocalAuthenticationCache) domainCache).recordLoad(System.nanoTime() - start);
+      }
 
       PicketBoxLogger.LOGGER.traceEndIsValid(isValid);
       return isValid;
@@ -177,6 +192,23 @@ public class JBossCachedAuthenticationManager implements AuthenticationManager,
       this.domainCache = cache;
    }
 
+   /**
+    * Use a built-in {@link LocalAuthenticationCache} instead of an injected cache.
+    * 
+    * @param maxEntries maximum number of cached principals, 0 for unbounded
+    * @param lifespan time in ms after which an entry expires once inserted, 0 for no limit
+    * @param refreshAhead time in ms before the end of the lifespan at which a used entry is refreshed
+    * in the background, 0 to disable refresh-ahead
+    * @return the created cache, which exposes the hit ratio and load latency statistics
+    */
+   public LocalAuthenticationCache enableLocalCache(int maxEntries, long lifespan, long refreshAhead)
+   {
+      LocalAuthenticationCache cache = new LocalAuthenticationCache(maxEntries, lifespan, 0);
+      cache.setRefreshAhead(refreshAhead);
+      setCache(cache);
+      return cache;
+   }
+
    public boolean containsKey(Principal key)
    {
       if (domainCache != null && key != null)
@@ -215,6 +247,75 @@ public class JBossCachedAuthenticationManager implements AuthenticationManager,
       return null;
    }
 
+   /**
+    * If the local cache reports the entry of the principal is close to its expiration, re-run
+    * the login stack in the background so that the entry is replaced before it expires. The
+    * refresh leaves the security context of the pool thread as it found it. A refresh rejecting
+    * the credential flushes the entry, so the next request goes through a regular login. Any
+    * other failure, such as the backing store being unavailable, keeps the entry until it expires.
+    */
+   private void refreshAhead(final Principal principal, final Object credential)
+   {
+      if (!(domainCache instanceof LocalAuthenticationCache))
+         return;
+      final LocalAuthenticationCache cache = (LocalAuthenticationCache) domainCache;
+      final Principal key = principal != null ? principal : new org.jboss.security.SimplePrincipal("null");
+      if (!cache.claimRefresh(key))
+         return;
+
+      final ClassLoader callerTccl = SubjectActions.getContextClassLoader();
+      cache.refresh(key, new Runnable()
+      {
+         public void run()
+         {
+            ClassLoader currentTccl = SubjectActions.getContextClassLoader();
+            SecurityContext currentContext = SubjectActions.getSecurityContext();
+            try
+            {
+               SubjectActions.setContextClassLoader(callerTccl);
+               long start = System.nanoTime();
+               boolean rejected = refreshLogin(principal, credential);
+               cache.recordLoad(System.nanoTime() - start);
+               if (rejected)
+                  flushCache(key);
+            }
+            finally
+            {
+               SubjectActions.setSecurityContext(currentContext);
+               SubjectActions.setContextClassLoader(currentTccl);
+            }
+         }
+      });
+   }
+
+   /**
+    * Re-run the login of a cached principal, replacing its cache entry on success. Unlike
+    * {@link #authenticate(Principal, Object, Subject)} the outcome is not recorded in the
+    * security context of the thread.
+    *
+    * @return true if the login modules rejected the credential
+    */
+   private boolean refreshLogin(Principal principal, Object credential)
+   {
+      ClassLoader moduleClassLoader = getModuleClassLoader();
+      ClassLoader currentTccl = SubjectActions.getContextClassLoader();
+      try
+      {
+         if (moduleClassLoader != null)
+            SubjectActions.setContextClassLoader(moduleClassLoader);
+         return coalescedLogin(principal, credential, moduleClassLoader) == null;
+      }
+      catch (LoginException e)
+      {
+         PicketBoxLogger.LOGGER.debugFailedLogin(e);
+         return e instanceof FailedLoginException || e instanceof AccountException || e instanceof CredentialException;
+      }
+      finally
+      {
+         SubjectActions.setContextClassLoader(currentTccl);
+      }
+   }
+
    /**
     * Validate the cache credential value against the provided credential
     */
@@ -229,8 +330,13 @@ public class JBossCachedAuthenticationManager implements AuthenticationManager,
 
       Object subjectCredential = info.credential;
       boolean isValid = false;
+      // Password-like credentials are only cached as a fingerprint
+      if (info.credentialFingerprint != null)
+      {
+         isValid = info.credentialFingerprint.matches(credential);
+      }
       // Check for a null credential as can be the case for an anonymous user
-      if (credential == null || subjectCredential == null)
+      else if (credential == null || subjectCredential == null)
       {
          // Both credentials must be null
          isValid = (credential == null) && (subjectCredential == null);
@@ -303,6 +409,30 @@ public class JBossCachedAuthenticationManager implements AuthenticationManager,
     */
    private boolean authenticate(Principal principal, Object credential, Subject theSubject)
    { 
+	   ClassLoader newTCCL = getModuleClassLoader();
+	   if(newTCCL != null)
+	   {
+		   ClassLoader currentTccl = SubjectActions.getContextClassLoader();
+		   try
+		   {
+			   SubjectActions.setContextClassLoader(newTCCL);
+			   return proceedWithJaasLogin(principal, credential, theSubject, newTCCL);
+		   }
+		   finally
+		   {
+			   SubjectActions.setContextClassLoader(currentTccl);
+		   }
+	   }
+	   return proceedWithJaasLogin(principal, credential, theSubject, null);
+   }
+
+   /**
+    * Get the class loader of the JBoss modules configured for the login modules of the domain.
+    *
+    * @return the class loader, null if the domain does not name any module
+    */
+   private ClassLoader getModuleClassLoader()
+   {
 	   ApplicationPolicy theAppPolicy = SecurityConfiguration.getApplicationPolicy(securityDomain);
 	   if(theAppPolicy != null)
 	   {
@@ -310,31 +440,17 @@ public class JBossCachedAuthenticationManager implements AuthenticationManager,
 		   List<String> jbossModuleNames = authInfo.getJBossModuleNames();
 		   if(!jbossModuleNames.isEmpty())
 		   {
-			   ClassLoader currentTccl = SubjectActions.getContextClassLoader();
 			   ClassLoaderLocator theCLL = ClassLoaderLocatorFactory.get();
 			   if(theCLL != null)
-			   {
-				   ClassLoader newTCCL = theCLL.get(jbossModuleNames);
-				   if(newTCCL != null)
-				   {
-					   try
-					   {
-						   SubjectActions.setContextClassLoader(newTCCL);
-						   return proceedWithJaasLogin(principal, credential, theSubject, newTCCL);
-					   }
-					   finally
-					   {
-						   SubjectActions.setContextClassLoader(currentTccl);
-					   }
-				   }
-			   }
+				   return theCLL.get(jbossModuleNames);
 		   }
 	   }
-	   return proceedWithJaasLogin(principal, credential, theSubject, null);
+	   return null;
    }
    
 
-   private boolean proceedWithJaasLogin(Principal principal, Object credential, Subject theSubject, ClassLoader contextClassLoader)
+   private boolean proceedWithJaasLogin(final Principal principal, final Object credential, Subject theSubject,
+         final ClassLoader contextClassLoader)
    {
 	   Subject subject = null;
 	   boolean authenticated = false;
@@ -342,8 +458,7 @@ public class JBossCachedAuthenticationManager implements AuthenticationManager,
 	   try 
 	   {
 		   // Validate the principal using the login configuration for this domain
-		   LoginContext lc = defaultLogin(principal, credential);
-		   subject = lc.getSubject();
+		   subject = coalescedLogin(principal, credential, contextClassLoader);
 
 		   // Set the current subject if login was successful
 		   if (subject != null)
@@ -359,8 +474,6 @@ public class JBossCachedAuthenticationManager implements AuthenticationManager,
 			   }
 
 			   authenticated = true;
-			   // Build the Subject based DomainInfo cache value
-			   updateCache(lc, subject, principal, credential, contextClassLoader);
 		   }
 	   }
 	   catch (LoginException e)
@@ -374,6 +487,28 @@ public class JBossCachedAuthenticationManager implements AuthenticationManager,
 	   return authenticated;
    }
 
+   /**
+    * Run the JAAS login of the domain and cache its outcome. Identical concurrent logins wait
+    * for this one and share its outcome, the cache being updated only once.
+    *
+    * @return the authenticated Subject
+    */
+   private Subject coalescedLogin(final Principal principal, final Object credential,
+         final ClassLoader contextClassLoader) throws LoginException
+   {
+      return inFlightLogins.login(principal, credential, new LoginCoalescer.Login()
+      {
+         public Subject login() throws LoginException
+         {
+            LoginContext lc = defaultLogin(principal, credential);
+            Subject authenticatedSubject = lc.getSubject();
+            if (authenticatedSubject != null)
+               updateCache(lc, authenticatedSubject, principal, credential, contextClassLoader);
+            return authenticatedSubject;
+         }
+      });
+   }
+
    /** 
     * Pass the security info to the login modules configured for
     * this security domain using our SecurityAssociationHandler.
@@ -431,7 +566,10 @@ public class JBossCachedAuthenticationManager implements AuthenticationManager,
       info.loginContext = loginContext;
       info.subject = new Subject();
       SubjectActions.copySubject(subject, info.subject, true, this.deepCopySubjectOption);
-      info.credential = credential;
+      // keep only a fingerprint of password-like credentials
+      info.credentialFingerprint = CredentialFingerprint.create(credential);
+      if (info.credentialFingerprint == null)
+         info.credential = credential;
       if (lcClassLoader == null) 
       {
             lcClassLoader = java.security.AccessController.doPrivileged(new java.security.PrivilegedAction<ClassLoader>() {
@@ -525,6 +663,8 @@ public class JBossCachedAuthenticationManager implements AuthenticationManager,
 
       protected Object credential;
 
+      protected CredentialFingerprint credentialFingerprint;
+
       protected Principal callerPrincipal;
 
       protected ClassLoader contextClassLoader = null;
@@ -0,0 +1,460 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2026, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.security.authentication;
+
+import java.security.Principal;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.security.authentication.JBossCachedAuthenticationManager.DomainInfo;
+
+/**
+ * Self-contained, in-memory cache for the {@link JBossCachedAuthenticationManager}, to be used when no external
+ * cache (e.g. Infinispan) is injected through {@code setCache}.
+ * <p>
+ * The cache is bounded by a maximum number of entries (the least recently used entry is evicted on overflow) and
+ * entries expire after a fixed lifespan and/or a maximum idle time. When a refresh-ahead time is configured, a hit on
+ * an entry that is about to reach its lifespan lets the manager re-run the login stack in the background, so that
+ * the entry is replaced before it expires. Hit/miss counters and the latency of the logins that populate the cache
+ * are recorded.
+ * </p>
+ * <p>
+ * The entries are kept in access order under a single lock, so that a lookup and the eviction of the least recently
+ * used entry are constant time operations.
+ * </p>
+ */
+public class LocalAuthenticationCache extends AbstractMap<Principal, DomainInfo> implements ConcurrentMap<Principal, DomainInfo>
+{
+   private static final AtomicInteger threadCount = new AtomicInteger();
+
+   private final LinkedHashMap<Principal, CacheEntry> entries;
+
+   private final int maxEntries;
+
+   private final long lifespan;
+
+   private final long maxIdle;
+
+   private long refreshAhead = 0;
+
+   private int refreshThreads = 1;
+
+   private volatile ThreadPoolExecutor refreshExecutor;
+
+   private final AtomicLong hits = new AtomicLong();
+
+   private final AtomicLong misses = new AtomicLong();
+
+   private final AtomicLong evictions = new AtomicLong();
+
+   private final AtomicLong loads = new AtomicLong();
+
+   private final AtomicLong totalLoadTime = new AtomicLong();
+
+   /**
+    * Create a new LocalAuthenticationCache.
+    *
+    * @param maxEntries maximum number of cached principals, 0 for unbounded
+    * @param lifespan time in ms after which an entry expires once inserted, 0 for no limit
+    * @param maxIdle time in ms after which an entry expires once last read, 0 for no limit
+    */
+   public LocalAuthenticationCache(int maxEntries, long lifespan, long maxIdle)
+   {
+      this.maxEntries = maxEntries;
+      this.lifespan = lifespan;
+      this.maxIdle = maxIdle;
+      this.entries = new LinkedHashMap<Principal, CacheEntry>(16, 0.75f, true)
+      {
+         private static final long serialVersionUID = 1L;
+
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<Principal, CacheEntry> eldest)
+         {
+            boolean evict = maxEntries > 0 && size() > maxEntries;
+            if (evict)
+               evictions.incrementAndGet();
+            return evict;
+         }
+      };
+   }
+
+   /**
+    * Set how long before the end of its lifespan an entry that is still being used gets refreshed in the
+    * background. Has no effect if no lifespan is configured.
+    *
+    * @param refreshAhead time in ms, 0 to disable refresh-ahead
+    */
+   public void setRefreshAhead(long refreshAhead)
+   {
+      this.refreshAhead = refreshAhead;
+   }
+
+   /**
+    * Set the number of background threads used for refresh-ahead logins.
+    *
+    * @param refreshThreads number of threads (at least 1)
+    */
+   public void setRefreshThreads(int refreshThreads)
+   {
+      this.refreshThreads = Math.max(1, refreshThreads);
+   }
+
+   @Override
+   public DomainInfo get(Object key)
+   {
+      CacheEntry entry = key != null ? getLive(key, System.currentTimeMillis()) : null;
+      if (entry == null)
+      {
+         misses.incrementAndGet();
+         return null;
+      }
+      hits.incrementAndGet();
+      return entry.info;
+   }
+
+   @Override
+   public boolean containsKey(Object key)
+   {
+      synchronized (entries)
+      {
+         CacheEntry entry = key != null ? entries.get(key) : null;
+         return entry != null && !isExpired(entry, System.currentTimeMillis());
+      }
+   }
+
+   @Override
+   public DomainInfo put(Principal key, DomainInfo value)
+   {
+      CacheEntry previous;
+      synchronized (entries)
+      {
+         previous = entries.put(key, new CacheEntry(value, System.currentTimeMillis()));
+      }
+      return previous != null ? previous.info : null;
+   }
+
+   @Override
+   public DomainInfo putIfAbsent(Principal key, DomainInfo value)
+   {
+      long now = System.currentTimeMillis();
+      synchronized (entries)
+      {
+         CacheEntry existing = getLive(key, now);
+         if (existing != null)
+            return existing.info;
+         entries.put(key, new CacheEntry(value, now));
+         return null;
+      }
+   }
+
+   @Override
+   public DomainInfo remove(Object key)
+   {
+      CacheEntry previous;
+      synchronized (entries)
+      {
+         previous = key != null ? entries.remove(key) : null;
+      }
+      return previous != null ? previous.info : null;
+   }
+
+   public boolean remove(Object key, Object value)
+   {
+      synchronized (entries)
+      {
+         CacheEntry entry = key != null ? entries.get(key) : null;
+         if (entry == null || entry.info != value)
+            return false;
+         entries.remove(key);
+         return true;
+      }
+   }
+
+   public boolean replace(Principal key, DomainInfo oldValue, DomainInfo newValue)
+   {
+      synchronized (entries)
+      {
+         CacheEntry entry = entries.get(key);
+         if (entry == null || entry.info != oldValue)
+            return false;
+         entries.put(key, new CacheEntry(newValue, System.currentTimeMillis()));
+         return true;
+      }
+   }
+
+   public DomainInfo replace(Principal key, DomainInfo value)
+   {
+      synchronized (entries)
+      {
+         CacheEntry previous = entries.get(key);
+         if (previous == null)
+            return null;
+         entries.put(key, new CacheEntry(value, System.currentTimeMillis()));
+         return previous.info;
+      }
+   }
+
+   @Override
+   public int size()
+   {
+      synchronized (entries)
+      {
+         return entries.size();
+      }
+   }
+
+   @Override
+   public void clear()
+   {
+      synchronized (entries)
+      {
+         entries.clear();
+      }
+   }
+
+   /**
+    * Returns a snapshot of the live (non expired) entries.
+    */
+   @Override
+   public Set<Entry<Principal, DomainInfo>> entrySet()
+   {
+      Map<Principal, DomainInfo> snapshot = new HashMap<Principal, DomainInfo>();
+      long now = System.currentTimeMillis();
+      synchronized (entries)
+      {
+         for (Entry<Principal, CacheEntry> entry : entries.entrySet())
+         {
+            if (!isExpired(entry.getValue(), now))
+               snapshot.put(entry.getKey(), entry.getValue().info);
+         }
+      }
+      return Collections.unmodifiableMap(snapshot).entrySet();
+   }
+
+   /**
+    * Check if the entry of the given principal is due for a refresh-ahead and, if so, mark it as being refreshed
+    * so that only one caller schedules the background login.
+    *
+    * @param key the cached principal
+    * @return true if the caller should refresh the entry
+    */
+   boolean claimRefresh(Principal key)
+   {
+      if (refreshAhead <= 0 || lifespan <= 0)
+         return false;
+      CacheEntry entry;
+      synchronized (entries)
+      {
+         entry = entries.get(key);
+      }
+      if (entry == null || System.currentTimeMillis() - entry.created < lifespan - refreshAhead)
+         return false;
+      return entry.refreshing.compareAndSet(false, true);
+   }
+
+   /**
+    * Run the refresh-ahead task of an entry claimed with {@link #claimRefresh(Principal)} in the background. The claim
+    * is released once the task is done, or right away if the refresh queue is full, so that a later hit can try again
+    * if the entry was not replaced.
+    *
+    * @param key the cached principal
+    * @param task the refresh task
+    */
+   void refresh(Principal key, final Runnable task)
+   {
+      final CacheEntry entry;
+      synchronized (entries)
+      {
+         entry = entries.get(key);
+      }
+      try
+      {
+         getRefreshExecutor().execute(new Runnable()
+         {
+            public void run()
+            {
+               try
+               {
+                  task.run();
+               }
+               finally
+               {
+                  if (entry != null)
+                     entry.refreshing.set(false);
+               }
+            }
+         });
+      }
+      catch (RejectedExecutionException e)
+      {
+         if (entry != null)
+            entry.refreshing.set(false);
+      }
+   }
+
+   /**
+    * Record the time spent in a login that populated (or refreshed) the cache.
+    *
+    * @param nanos duration in nanoseconds
+    */
+   void recordLoad(long nanos)
+   {
+      loads.incrementAndGet();
+      totalLoadTime.addAndGet(nanos);
+   }
+
+   /**
+    * Stop the refresh-ahead threads, if any.
+    */
+   public void shutdown()
+   {
+      ThreadPoolExecutor executor = refreshExecutor;
+      if (executor != null)
+         executor.shutdown();
+   }
+
+   public long getHitCount()
+   {
+      return hits.get();
+   }
+
+   public long getMissCount()
+   {
+      return misses.get();
+   }
+
+   public long getEvictionCount()
+   {
+      return evictions.get();
+   }
+
+   public long getLoadCount()
+   {
+      return loads.get();
+   }
+
+   /**
+    * @return ratio of cache lookups that found a valid entry, between 0 and 1
+    */
+   public double getHitRatio()
+   {
+      long h = hits.get();
+      long total = h + misses.get();
+      return total == 0 ? 0 : (double) h / total;
+   }
+
+   /**
+    * @return average duration of the logins that populated the cache, in milliseconds
+    */
+   public double getAverageLoadTime()
+   {
+      long count = loads.get();
+      return count == 0 ? 0 : totalLoadTime.get() / (count * 1000000.0);
+   }
+
+   private boolean isExpired(CacheEntry entry, long now)
+   {
+      return (lifespan > 0 && now - entry.created >= lifespan) || (maxIdle > 0 && now - entry.lastAccess >= maxIdle);
+   }
+
+   /**
+    * Get the entry of a key, moving it to the most recently used end, or drop it if it has expired.
+    */
+   private CacheEntry getLive(Object key, long now)
+   {
+      synchronized (entries)
+      {
+         CacheEntry entry = entries.get(key);
+         if (entry == null)
+            return null;
+         if (isExpired(entry, now))
+         {
+            entries.remove(key);
+            evictions.incrementAndGet();
+            return null;
+         }
+         entry.lastAccess = now;
+         return entry;
+      }
+   }
+
+   private ThreadPoolExecutor getRefreshExecutor()
+   {
+      ThreadPoolExecutor executor = refreshExecutor;
+      if (executor == null)
+      {
+         synchronized (this)
+         {
+            executor = refreshExecutor;
+            if (executor == null)
+            {
+               executor = new ThreadPoolExecutor(refreshThreads, refreshThreads, 60, TimeUnit.SECONDS,
+                     new LinkedBlockingQueue<Runnable>(Math.max(16, maxEntries)), new RefreshThreadFactory());
+               executor.allowCoreThreadTimeOut(true);
+               refreshExecutor = executor;
+            }
+         }
+      }
+      return executor;
+   }
+
+   private static class CacheEntry
+   {
+      private final DomainInfo info;
+
+      private final long created;
+
+      private volatile long lastAccess;
+
+      private final AtomicBoolean refreshing = new AtomicBoolean();
+
+      CacheEntry(DomainInfo info, long created)
+      {
+         this.info = info;
+         this.created = created;
+         this.lastAccess = created;
+      }
+   }
+
+   private static class RefreshThreadFactory implements ThreadFactory
+   {
+      public Thread newThread(Runnable r)
+      {
+         Thread thread = new Thread(r, "picketbox-auth-cache-refresh-" + threadCount.incrementAndGet());
+         thread.setDaemon(true);
+         return thread;
+      }
+   }
+}
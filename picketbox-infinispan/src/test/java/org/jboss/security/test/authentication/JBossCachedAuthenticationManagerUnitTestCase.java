@@ -22,10 +22,12 @@
 package org.jboss.security.test.authentication;
 
 import java.security.Principal;
+import java.security.acl.Group;
 import java.util.HashMap;
 import javax.security.auth.login.AppConfigurationEntry;
 import javax.security.auth.login.AppConfigurationEntry.LoginModuleControlFlag;
 import javax.security.auth.login.Configuration;
+import javax.security.auth.login.LoginException;
 
 import junit.framework.TestCase;
 import org.infinispan.Cache;
@@ -38,8 +40,10 @@ import org.jboss.security.AuthenticationManager;
 import org.jboss.security.CacheableManager;
 import org.jboss.security.SimplePrincipal;
 import org.jboss.security.auth.callback.AppCallbackHandler;
+import org.jboss.security.auth.spi.UsernamePasswordLoginModule;
 import org.jboss.security.authentication.JBossCachedAuthenticationManager;
 import org.jboss.security.authentication.JBossCachedAuthenticationManager.DomainInfo;
+import org.jboss.security.authentication.LocalAuthenticationCache;
 
 /**
  *  Unit tests for the JBossCachedAuthenticationManager.
@@ -230,6 +234,109 @@ public class JBossCachedAuthenticationManagerUnitTestCase extends TestCase
       cacheManager.stop();
    }
 
+   public void testLocalCache() throws Exception
+   {
+      Principal p = new SimplePrincipal("jduke");
+      AppCallbackHandler acbh = new AppCallbackHandler("jduke", "theduke".toCharArray());
+      JBossCachedAuthenticationManager am = new JBossCachedAuthenticationManager("test", acbh);
+      LocalAuthenticationCache cache = am.enableLocalCache(10, 0, 0);
+
+      assertTrue(am.isValid(p, "theduke"));
+      assertTrue(am.containsKey(p));
+      assertTrue(am.isValid(p, "theduke"));
+      assertFalse(am.isValid(p, "bad"));
+      assertEquals(2, cache.getHitCount());
+      assertEquals(2, cache.getLoadCount());
+      assertTrue(cache.getHitRatio() > 0);
+   }
+
+   public void testLocalCacheMaxEntries() throws Exception
+   {
+      AppCallbackHandler acbh = new AppCallbackHandler("jduke", "theduke".toCharArray());
+      JBossCachedAuthenticationManager am = new JBossCachedAuthenticationManager("test", acbh);
+      LocalAuthenticationCache cache = am.enableLocalCache(1, 0, 0);
+
+      Principal p = new SimplePrincipal("jduke");
+      Principal p2 = new SimplePrincipal("scott");
+      assertTrue(am.isValid(p, "theduke"));
+      assertTrue(am.isValid(p2, "echoman"));
+      assertEquals(1, cache.size());
+      assertTrue(am.containsKey(p2));
+      assertFalse(am.containsKey(p));
+   }
+
+   public void testLocalCacheRefreshAhead() throws Exception
+   {
+      Principal p = new SimplePrincipal("jduke");
+      AppCallbackHandler acbh = new AppCallbackHandler("jduke", "theduke".toCharArray());
+      JBossCachedAuthenticationManager am = new JBossCachedAuthenticationManager("test", acbh);
+      // the refresh-ahead window covers the whole lifespan, so every hit is due for a refresh
+      LocalAuthenticationCache cache = am.enableLocalCache(10, 60000, 60000);
+
+      assertTrue(am.isValid(p, "theduke"));
+      assertEquals(1, cache.getLoadCount());
+      // a hit re-runs the login in the background
+      assertTrue(am.isValid(p, "theduke"));
+      awaitLoadCount(cache, 2);
+      // the refreshed entry replaced the original one and can be refreshed in turn
+      assertTrue(am.isValid(p, "theduke"));
+      awaitLoadCount(cache, 3);
+      assertTrue(am.containsKey(p));
+
+      // a refresh that cannot be scheduled does not fail the login
+      cache.shutdown();
+      assertTrue(am.isValid(p, "theduke"));
+      assertTrue(am.isValid(p, "theduke"));
+      assertEquals(3, cache.getLoadCount());
+   }
+
+   public void testLocalCacheRefreshFailure() throws Exception
+   {
+      Principal p = new SimplePrincipal("jduke");
+      AppCallbackHandler acbh = new AppCallbackHandler("jduke", "theduke".toCharArray());
+      JBossCachedAuthenticationManager am = new JBossCachedAuthenticationManager("refresh", acbh);
+      LocalAuthenticationCache cache = am.enableLocalCache(10, 60000, 60000);
+      StoreLoginModule.password = "theduke";
+      StoreLoginModule.available = true;
+      assertTrue(am.isValid(p, "theduke"));
+
+      // a refresh failing because the store is unavailable keeps the entry until it expires
+      StoreLoginModule.available = false;
+      refreshUntilLoadCount(am, p, cache, 2);
+      assertTrue(am.containsKey(p));
+
+      // a refresh rejecting the credential flushes the entry
+      StoreLoginModule.available = true;
+      StoreLoginModule.password = "changed";
+      refreshUntilLoadCount(am, p, cache, 3);
+      long deadline = System.currentTimeMillis() + 10000;
+      while (am.containsKey(p) && System.currentTimeMillis() < deadline)
+         Thread.sleep(10);
+      assertFalse(am.containsKey(p));
+      assertFalse(am.isValid(p, "theduke"));
+   }
+
+   private void refreshUntilLoadCount(AuthenticationManager am, Principal p, LocalAuthenticationCache cache, long count)
+         throws InterruptedException
+   {
+      // a hit only refreshes once the previous refresh has released the entry
+      long deadline = System.currentTimeMillis() + 10000;
+      while (cache.getLoadCount() < count && System.currentTimeMillis() < deadline)
+      {
+         assertTrue(am.isValid(p, "theduke"));
+         Thread.sleep(10);
+      }
+      assertEquals(count, cache.getLoadCount());
+   }
+
+   private void awaitLoadCount(LocalAuthenticationCache cache, long count) throws InterruptedException
+   {
+      long deadline = System.currentTimeMillis() + 10000;
+      while (cache.getLoadCount() < count && System.currentTimeMillis() < deadline)
+         Thread.sleep(10);
+      assertEquals(count, cache.getLoadCount());
+   }
+
    private void establishSecurityConfiguration()
    {
       SecurityActions.setJAASConfiguration((Configuration) new TestConfig());
@@ -241,6 +348,9 @@ public class JBossCachedAuthenticationManagerUnitTestCase extends TestCase
       public AppConfigurationEntry[] getAppConfigurationEntry(String name)
       {
          HashMap<String, Object> map = new HashMap<String, Object>();
+         if ("refresh".equals(name))
+            return new AppConfigurationEntry[]
+                    {new AppConfigurationEntry(StoreLoginModule.class.getName(), LoginModuleControlFlag.REQUIRED, map)};
          map.put("usersProperties", "users.properties");
          map.put("rolesProperties", "roles.properties");
          String moduleName = "org.jboss.security.auth.spi.UsersRolesLoginModule";
@@ -255,4 +365,28 @@ public class JBossCachedAuthenticationManagerUnitTestCase extends TestCase
       {
       }
    }
+
+   /**
+    * A login module checking the password held by a store that can be made unavailable
+    */
+   public static class StoreLoginModule extends UsernamePasswordLoginModule
+   {
+      static volatile String password;
+
+      static volatile boolean available;
+
+      @Override
+      protected String getUsersPassword() throws LoginException
+      {
+         if (!available)
+            throw new LoginException("The store is unavailable");
+         return password;
+      }
+
+      @Override
+      protected Group[] getRoleSets() throws LoginException
+      {
+         return new Group[0];
+      }
+   }
 }
\ No newline at end of file
@@ -24,8 +24,10 @@ package org.jboss.security.acl;
 import java.security.AccessController;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -95,13 +97,49 @@ public class ACLProviderImpl implements ACLProvider
          return null;
 
       Set<EntitlementEntry> entitlements = new HashSet<EntitlementEntry>();
+      // retrieve the ACLs of the whole resource hierarchy at once.
+      Map<Resource, ACL> acls = this.getHierarchyACLs(resource);
       // get the initial permissions - those that apply to the specified resource.
-      ACLPermission permission = this.getInitialPermissions(resource, identity.getName());
+      ACLPermission permission = this.getInitialPermissions(resource, identity.getName(), acls);
       if (permission != null)
-         this.fillEntitlements(entitlements, resource, identity.getName(), permission);
+         this.fillEntitlements(entitlements, resource, identity.getName(), permission, acls);
       return (Set<T>) entitlements;
    }
 
+   /**
+    * <p>
+    * Retrieves the ACLs of the specified resource, of its parent resources and of all its child resources with a
+    * single call to the persistence strategy.
+    * </p>
+    * 
+    * @param resource the {@code Resource} whose hierarchy is to be retrieved.
+    * @return the {@code Map} returned by {@link ACLPersistenceStrategy#getACLs(Collection)} for the resource,
+    *         its parents and its children. It maps each resource that has been looked up to its {@code ACL}, or
+    *         to null if the resource has no ACL.
+    */
+   @SuppressWarnings("unchecked")
+   protected Map<Resource, ACL> getHierarchyACLs(Resource resource)
+   {
+      List<Resource> resources = new ArrayList<Resource>();
+      Resource parent = (Resource) resource.getMap().get(ResourceKeys.PARENT_RESOURCE);
+      while (parent != null)
+      {
+         resources.add(parent);
+         parent = (Resource) parent.getMap().get(ResourceKeys.PARENT_RESOURCE);
+      }
+      // breadth-first walk through the sub-resources.
+      int first = resources.size();
+      resources.add(resource);
+      for (int i = first; i < resources.size(); i++)
+      {
+         Collection<Resource> childResources = (Collection<Resource>) resources.get(i).getMap().get(
+               ResourceKeys.CHILD_RESOURCES);
+         if (childResources != null)
+            resources.addAll(childResources);
+      }
+      return this.strategy.getACLs(resources);
+   }
+
    /**
     * <p>
     * Helper method that populates the {@code entitlements} collection as it traverses through the resources. The
@@ -132,13 +170,32 @@ public class ACLProviderImpl implements ACLProvider
     * @param identityName a {@code String} representing the identity for which the entitlements are being built.
     * @param permission the {@code ACLPermission} to be used in case no ACL is found for the resource being visited.
     */
-   @SuppressWarnings("unchecked")
    protected void fillEntitlements(Set<EntitlementEntry> entitlements, Resource resource, String identityName,
          ACLPermission permission)
+   {
+      this.fillEntitlements(entitlements, resource, identityName, permission, null);
+   }
+
+   /**
+    * <p>
+    * Populates the {@code entitlements} collection as {@link #fillEntitlements(Set, Resource, String, ACLPermission)}
+    * does, looking up the ACLs in the specified map first.
+    * </p>
+    * 
+    * @param entitlements a reference for the collection of {@code EntitlementEntry} objects that is being constructed.
+    * @param resource the {@code Resource} being visited.
+    * @param identityName a {@code String} representing the identity for which the entitlements are being built.
+    * @param permission the {@code ACLPermission} to be used in case no ACL is found for the resource being visited.
+    * @param acls the ACLs already retrieved for the resources (see {@link #getHierarchyACLs(Resource)}), or
+    *            {@code null}.
+    */
+   @SuppressWarnings("unchecked")
+   protected void fillEntitlements(Set<EntitlementEntry> entitlements, Resource resource, String identityName,
+         ACLPermission permission, Map<Resource, ACL> acls)
    {
       ACLPermission currentPermission = permission;
 
-      ACL acl = this.strategy.getACL(resource);
+      ACL acl = this.getACL(resource, acls);
       if (acl != null)
       {
          ACLEntry entry = acl.getEntry(identityName);
@@ -159,7 +216,7 @@ public class ACLProviderImpl implements ACLProvider
       if (childResources != null)
       {
          for (Resource childResource : childResources)
-            fillEntitlements(entitlements, childResource, identityName, currentPermission);
+            fillEntitlements(entitlements, childResource, identityName, currentPermission, acls);
       }
    }
 
@@ -186,13 +243,31 @@ public class ACLProviderImpl implements ACLProvider
     */
    protected ACLPermission getInitialPermissions(Resource resource, String identityName)
    {
-      ACL acl = this.strategy.getACL(resource);
+      return this.getInitialPermissions(resource, identityName, null);
+   }
+
+   /**
+    * <p>
+    * Retrieves the permissions of the identity as {@link #getInitialPermissions(Resource, String)} does, looking up
+    * the ACLs in the specified map first.
+    * </p>
+    * 
+    * @param resource the {@code Resource} for which we want to discover the permissions of the identity.
+    * @param identityName a {@code String} representing the identity.
+    * @param acls the ACLs already retrieved for the resources (see {@link #getHierarchyACLs(Resource)}), or
+    *            {@code null}.
+    * @return an {@code ACLPermission} containing the permissions of the identity, or {@code null} if the identity
+    *         has no permissions at all.
+    */
+   protected ACLPermission getInitialPermissions(Resource resource, String identityName, Map<Resource, ACL> acls)
+   {
+      ACL acl = this.getACL(resource, acls);
       // if no ACL was found, try to find a parent ACL.
       if (acl == null)
       {
          Resource parent = (Resource) resource.getMap().get(ResourceKeys.PARENT_RESOURCE);
          if (parent != null)
-            return getInitialPermissions(parent, identityName);
+            return getInitialPermissions(parent, identityName, acls);
          // no ACL was found and no parent resource exists - identity has all permissions as resource is not protected.
          return new CompositeACLPermission(BasicACLPermission.values());
       }
@@ -204,6 +279,13 @@ public class ACLProviderImpl implements ACLProvider
       return null;
    }
 
+   private ACL getACL(Resource resource, Map<Resource, ACL> acls)
+   {
+      if (acls != null && acls.containsKey(resource))
+         return acls.get(resource);
+      return this.strategy.getACL(resource);
+   }
+
    /*
     * (non-Javadoc)
     * 
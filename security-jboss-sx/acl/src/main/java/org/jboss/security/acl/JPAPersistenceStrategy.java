@@ -2,7 +2,10 @@ package org.jboss.security.acl;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.persistence.EntityManager;
@@ -19,14 +22,27 @@ import org.jboss.security.authorization.Resource;
  * Implementation of {@code ACLPersistenceStrategy} that uses the Java Persistence API (JPA) to
  * persist the {@code ACL}s.
  * </p>
+ * <p>
+ * The {@code ACL}s that have been read or written are kept in a bounded, least recently used cache, along with
+ * the resources that are known not to have an {@code ACL}.
+ * </p>
  * 
  * @author <a href="mailto:sguilhen@redhat.com">Stefan Guilhen</a>
  */
 public class JPAPersistenceStrategy implements ACLPersistenceStrategy
 {
 
-   // in memory cache of the created ACLs.
-   private final Map<Resource, ACL> aclMap;
+   /** default maximum number of resources kept in the cache */
+   public static final int DEFAULT_CACHE_SIZE = 10000;
+
+   // marks the cached resources that have no ACL.
+   private static final Object NO_ACL = new Object();
+
+   // maximum number of resources looked up by a single query.
+   private static final int MAX_BATCH_SIZE = 500;
+
+   // in memory cache of the ACLs, holding NO_ACL for the unprotected resources.
+   private final Map<Resource, Object> aclMap;
 
    private final EntityManagerFactory managerFactory;
 
@@ -39,7 +55,29 @@ public class JPAPersistenceStrategy implements ACLPersistenceStrategy
 
    public JPAPersistenceStrategy(ACLResourceFactory resourceFactory)
    {
-      this.aclMap = new HashMap<Resource, ACL>();
+      this(resourceFactory, DEFAULT_CACHE_SIZE);
+   }
+
+   /**
+    * <p>
+    * Creates a strategy that caches up to {@code cacheSize} resources.
+    * </p>
+    * 
+    * @param resourceFactory    the {@code ACLResourceFactory} used to instantiate the resources of {@link #getACLs()}.
+    * @param cacheSize  the maximum number of resources (with or without an ACL) kept in the cache, 0 to disable it.
+    */
+   public JPAPersistenceStrategy(ACLResourceFactory resourceFactory, final int cacheSize)
+   {
+      this.aclMap = Collections.synchronizedMap(new LinkedHashMap<Resource, Object>(16, 0.75f, true)
+      {
+         private static final long serialVersionUID = 1L;
+
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<Resource, Object> eldest)
+         {
+            return this.size() > cacheSize;
+         }
+      });
       this.managerFactory = Persistence.createEntityManagerFactory("ACL");
       this.resourceFactory = resourceFactory;
    }
@@ -63,7 +101,8 @@ public class JPAPersistenceStrategy implements ACLPersistenceStrategy
          throw PicketBoxMessages.MESSAGES.invalidNullArgument("resource");
 
       // check the cache first.
-      ACL acl = this.aclMap.get(resource);
+      Object cached = this.aclMap.get(resource);
+      ACL acl = cached instanceof ACL ? (ACL) cached : null;
       if (acl == null)
       {
          EntityManager entityManager = this.managerFactory.createEntityManager();
@@ -82,6 +121,8 @@ public class JPAPersistenceStrategy implements ACLPersistenceStrategy
          {
             re.printStackTrace();
             transaction.rollback();
+            acl = null;
+            this.aclMap.remove(resource);
          }
          finally
          {
@@ -118,8 +159,9 @@ public class JPAPersistenceStrategy implements ACLPersistenceStrategy
          if (acl != null)
          {
             entityManager.remove(acl);
-            // remove the ACL from the cache.
-            result = this.aclMap.remove(resource) != null;
+            // the resource no longer has an ACL.
+            this.aclMap.put(resource, NO_ACL);
+            result = true;
          }
          transaction.commit();
       }
@@ -127,6 +169,8 @@ public class JPAPersistenceStrategy implements ACLPersistenceStrategy
       {
          re.printStackTrace();
          transaction.rollback();
+         result = false;
+         this.aclMap.remove(resource);
       }
       finally
       {
@@ -142,15 +186,17 @@ public class JPAPersistenceStrategy implements ACLPersistenceStrategy
    public ACL getACL(Resource resource)
    {
       // check the cache first.
-      ACL acl = this.aclMap.get(resource);
+      Object cached = this.aclMap.get(resource);
+      if (cached == NO_ACL)
+         return null;
+      ACL acl = (ACL) cached;
       if (acl == null)
       {
          EntityManager entityManager = this.managerFactory.createEntityManager();
          try
          {
             acl = this.findACLByResource(resource, entityManager);
-            if (acl != null)
-               this.aclMap.put(resource, acl);
+            this.aclMap.put(resource, acl != null ? acl : NO_ACL);
          }
          finally
          {
@@ -160,6 +206,78 @@ public class JPAPersistenceStrategy implements ACLPersistenceStrategy
       return acl;
    }
 
+   /*
+    * (non-Javadoc)
+    * @see org.jboss.security.acl.ACLPersistenceStrategy#getACLs(java.util.Collection)
+    */
+   public Map<Resource, ACL> getACLs(Collection<Resource> resources)
+   {
+      Map<Resource, ACL> acls = new HashMap<Resource, ACL>();
+      // the resources that are not cached, by their string representation.
+      Map<String, Resource> missing = new LinkedHashMap<String, Resource>();
+      for (Resource resource : resources)
+      {
+         Object cached = this.aclMap.get(resource);
+         if (cached == NO_ACL)
+            acls.put(resource, null);
+         else if (cached != null)
+            acls.put(resource, (ACL) cached);
+         else
+         {
+            String resourceString = Util.getResourceAsString(resource);
+            // resources sharing a string representation are left to getACL.
+            if (!missing.containsKey(resourceString))
+               missing.put(resourceString, resource);
+         }
+      }
+      if (missing.isEmpty())
+         return acls;
+
+      EntityManager entityManager = this.managerFactory.createEntityManager();
+      try
+      {
+         List<String> resourceStrings = new ArrayList<String>(missing.keySet());
+         for (int i = 0; i < resourceStrings.size(); i += MAX_BATCH_SIZE)
+         {
+            List<String> batch = resourceStrings.subList(i, Math.min(i + MAX_BATCH_SIZE, resourceStrings.size()));
+            List<ACLImpl> found = entityManager.createQuery(
+                  "SELECT a FROM ACLImpl a WHERE a.resourceAsString IN :resources", ACLImpl.class)
+                  .setParameter("resources", batch).getResultList();
+            for (ACLImpl acl : found)
+            {
+               Resource resource = missing.remove(acl.getResourceAsString());
+               if (resource != null)
+               {
+                  acl.setResource(resource);
+                  this.aclMap.put(resource, acl);
+                  acls.put(resource, acl);
+               }
+            }
+         }
+         // the remaining resources have no ACL.
+         for (Resource resource : missing.values())
+         {
+            this.aclMap.put(resource, NO_ACL);
+            acls.put(resource, null);
+         }
+      }
+      finally
+      {
+         entityManager.close();
+      }
+      return acls;
+   }
+
+   /**
+    * <p>
+    * Discards the cached {@code ACL}s, so that changes made to the database by other means become visible.
+    * </p>
+    */
+   public void flushCache()
+   {
+      this.aclMap.clear();
+   }
+
    /*
     * (non-Javadoc)
     * @see org.jboss.security.acl.ACLPersistenceStrategy#getACLs()
@@ -243,9 +361,9 @@ public class JPAPersistenceStrategy implements ACLPersistenceStrategy
       ACLImpl acl = null;
       try
       {
-         acl = (ACLImpl) entityManager.createQuery(
-               "SELECT a FROM ACLImpl a WHERE a.resourceAsString LIKE '" + Util.getResourceAsString(resource) + "'")
-               .getSingleResult();
+         acl = entityManager.createQuery(
+               "SELECT a FROM ACLImpl a WHERE a.resourceAsString = :resource", ACLImpl.class)
+               .setParameter("resource", Util.getResourceAsString(resource)).getSingleResult();
          acl.setResource(resource);
       }
       catch (NoResultException nre)
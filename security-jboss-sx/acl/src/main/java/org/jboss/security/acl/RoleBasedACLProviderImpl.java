@@ -24,6 +24,7 @@ package org.jboss.security.acl;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.jboss.security.PicketBoxMessages;
@@ -63,12 +64,14 @@ public class RoleBasedACLProviderImpl extends ACLProviderImpl
       List<Role> roles = new ArrayList<Role>();
       this.getAllRoles(identity.getRole(), roles);
 
+      // the ACLs of the resource hierarchy are retrieved once for all the roles.
+      Map<Resource, ACL> acls = super.getHierarchyACLs(resource);
       for (Role role : roles)
       {
          // get the initial permissions - those that apply to the specified resource.
-         ACLPermission permission = super.getInitialPermissions(resource, role.getRoleName());
+         ACLPermission permission = super.getInitialPermissions(resource, role.getRoleName(), acls);
          if (permission != null)
-            super.fillEntitlements(entitlements, resource, role.getRoleName(), permission);
+            super.fillEntitlements(entitlements, resource, role.getRoleName(), permission, acls);
       }
       return (Set<T>) entitlements;
    }
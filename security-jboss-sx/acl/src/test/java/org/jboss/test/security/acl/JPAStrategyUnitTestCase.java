@@ -28,7 +28,9 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Map;
 
 import junit.framework.TestCase;
 
@@ -39,6 +41,7 @@ import org.jboss.security.acl.ACLImpl;
 import org.jboss.security.acl.ACLPersistenceStrategy;
 import org.jboss.security.acl.BasicACLPermission;
 import org.jboss.security.acl.JPAPersistenceStrategy;
+import org.jboss.security.authorization.Resource;
 import org.jboss.security.identity.plugins.IdentityFactory;
 import org.junit.After;
 import org.junit.Before;
@@ -197,6 +200,44 @@ public class JPAStrategyUnitTestCase {
          assertNotNull(this.strategy.getACL(this.resources[index]));
    }
 
+   /**
+    * <p>
+    * Tests the retrieval of the ACLs of several resources at once.
+    * </p>
+    *
+    * @throws Exception if an error occurs when running the test.
+    */
+   @Test
+   public void testBulkACLRetrieval() throws Exception
+   {
+      // create ACLs for half of the resources.
+      for (int index = 0; index < this.resources.length / 2; index++)
+         this.createdACLs.add(this.strategy.createACL(this.resources[index]));
+
+      // a new strategy does not have the ACLs in its cache.
+      ACLPersistenceStrategy otherStrategy = new JPAPersistenceStrategy();
+      Map<Resource, ACL> acls = otherStrategy.getACLs(Arrays.<Resource>asList(this.resources));
+      assertEquals("Unexpected number of resources", this.resources.length, acls.size());
+      for (int index = 0; index < this.resources.length; index++)
+      {
+         assertTrue(acls.containsKey(this.resources[index]));
+         if (index < this.resources.length / 2)
+         {
+            assertNotNull(acls.get(this.resources[index]));
+            assertEquals("Unexpected resource", this.resources[index], acls.get(this.resources[index]).getResource());
+         }
+         else
+            assertNull(acls.get(this.resources[index]));
+         // single lookups agree with the bulk retrieval.
+         assertEquals(acls.get(this.resources[index]), otherStrategy.getACL(this.resources[index]));
+      }
+
+      // creating an ACL for a resource known not to have one makes it visible.
+      ACL acl = otherStrategy.createACL(this.resources[this.resources.length - 1]);
+      this.createdACLs.add(acl);
+      assertEquals(acl, otherStrategy.getACL(this.resources[this.resources.length - 1]));
+   }
+
    /**
     * <p>
     * Tests the search functionality of the {@code JPAPersistenceStrategy} when a {@code ResourceFactory}
@@ -0,0 +1,187 @@
+/*
+  * JBoss, Home of Professional Open Source
+  * Copyright 2026, Red Hat, Inc., and individual contributors as indicated
+  * by the @authors tag. See the copyright.txt in the distribution for a
+  * full listing of individual contributors.
+  *
+  * This is free software; you can redistribute it and/or modify it
+  * under the terms of the GNU Lesser General Public License as
+  * published by the Free Software Foundation; either version 2.1 of
+  * the License, or (at your option) any later version.
+  *
+  * This software is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+  * Lesser General Public License for more details.
+  *
+  * You should have received a copy of the GNU Lesser General Public
+  * License along with this software; if not, write to the Free
+  * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+  */
+package org.jboss.security.audit.providers;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jboss.security.PicketBoxMessages;
+
+/**
+ * Decodes the segments written by {@link BinaryFileAuditProvider} to JSON lines, one object
+ * per audit event:
+ * <pre>
+ *   {"time":1500000000000,"level":"Success","context":{"Action":"authorization"},"exception":null}
+ * </pre>
+ * Usage: {@code BinaryAuditExporter <segment file or directory>...}, the lines are written to
+ * the standard output. The segments of a directory are exported oldest first.
+ */
+public class BinaryAuditExporter
+{
+   public static void main(String[] args) throws IOException
+   {
+      if (args.length == 0)
+      {
+         System.err.println("Usage: BinaryAuditExporter <segment file or directory>...");
+         System.exit(1);
+      }
+      Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+      for (String arg : args)
+         export(new File(arg), out);
+      out.flush();
+   }
+
+   /**
+    * Export a segment, or the segments of a directory.
+    *
+    * @param file - a segment or a directory
+    * @param out - the writer of the JSON lines
+    * @return the number of records exported
+    * @throws IOException if a file is not a segment or cannot be read
+    */
+   public static int export(File file, Writer out) throws IOException
+   {
+      if (file.isDirectory() == false)
+         return exportSegment(file, out);
+      List<File> segments = new ArrayList<File>();
+      File[] files = file.listFiles();
+      if (files != null)
+      {
+         for (File f : files)
+         {
+            if (f.getName().endsWith(BinaryFileAuditProvider.SEGMENT_SUFFIX))
+               segments.add(f);
+         }
+      }
+      File[] sorted = segments.toArray(new File[segments.size()]);
+      Arrays.sort(sorted);
+      int count = 0;
+      for (File f : sorted)
+         count += exportSegment(f, out);
+      return count;
+   }
+
+   private static int exportSegment(File file, Writer out) throws IOException
+   {
+      MappedByteBuffer segment;
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try
+      {
+         segment = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+      }
+      finally
+      {
+         raf.close();
+      }
+      if (segment.remaining() < BinaryFileAuditProvider.HEADER_SIZE
+            || segment.getInt() != BinaryFileAuditProvider.MAGIC
+            || segment.getInt() != BinaryFileAuditProvider.VERSION)
+         throw PicketBoxMessages.MESSAGES.invalidAuditSegment(file.getPath());
+      StringBuilder line = new StringBuilder();
+      int count = 0;
+      while (segment.remaining() >= 4)
+      {
+         int length = segment.getInt();
+         if (length <= 0 || length > segment.remaining())
+            break;
+         line.setLength(0);
+         line.append("{\"time\":").append(segment.getLong());
+         line.append(",\"level\":");
+         appendString(line, readString(segment));
+         line.append(",\"context\":{");
+         int entries = segment.getInt();
+         for (int i = 0; i < entries; i++)
+         {
+            if (i > 0)
+               line.append(',');
+            appendString(line, readString(segment));
+            line.append(':');
+            appendString(line, readString(segment));
+         }
+         line.append("},\"exception\":");
+         appendString(line, readString(segment));
+         line.append("}\n");
+         out.write(line.toString());
+         count++;
+      }
+      return count;
+   }
+
+   private static String readString(ByteBuffer buffer)
+   {
+      int length = buffer.getInt();
+      if (length < 0)
+         return null;
+      byte[] bytes = new byte[length];
+      buffer.get(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+   }
+
+   private static void appendString(StringBuilder sb, String s)
+   {
+      if (s == null)
+      {
+         sb.append("null");
+         return;
+      }
+      sb.append('"');
+      for (int i = 0; i < s.length(); i++)
+      {
+         char c = s.charAt(i);
+         switch (c)
+         {
+            case '"':
+               sb.append("\\\"");
+               break;
+            case '\\':
+               sb.append("\\\\");
+               break;
+            case '\n':
+               sb.append("\\n");
+               break;
+            case '\r':
+               sb.append("\\r");
+               break;
+            case '\t':
+               sb.append("\\t");
+               break;
+            default:
+               if (c < 0x20)
+                  sb.append(String.format("\\u%04x", (int) c));
+               else
+                  sb.append(c);
+         }
+      }
+      sb.append('"');
+   }
+}
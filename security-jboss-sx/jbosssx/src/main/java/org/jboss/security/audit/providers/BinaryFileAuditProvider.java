@@ -0,0 +1,393 @@
+/*
+  * JBoss, Home of Professional Open Source
+  * Copyright 2026, Red Hat, Inc., and individual contributors as indicated
+  * by the @authors tag. See the copyright.txt in the distribution for a
+  * full listing of individual contributors.
+  *
+  * This is free software; you can redistribute it and/or modify it
+  * under the terms of the GNU Lesser General Public License as
+  * published by the Free Software Foundation; either version 2.1 of
+  * the License, or (at your option) any later version.
+  *
+  * This software is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+  * Lesser General Public License for more details.
+  *
+  * You should have received a copy of the GNU Lesser General Public
+  * License along with this software; if not, write to the Free
+  * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+  */
+package org.jboss.security.audit.providers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jboss.security.PicketBoxLogger;
+import org.jboss.security.audit.AbstractAuditProvider;
+import org.jboss.security.audit.AuditEvent;
+
+/**
+ * An audit provider that appends the events as compact, length prefixed binary records
+ * to rolling memory mapped segment files. {@link BinaryAuditExporter} decodes the
+ * segments to JSON lines.
+ * <p>
+ * The module options are:
+ * <ul>
+ * <li><em>directory</em>: the directory of the segments, defaults to the audit directory
+ * of jboss.server.log.dir, or of the working directory
+ * <li><em>prefix</em>: the file name prefix of the segments, defaults to audit
+ * <li><em>segmentSize</em>: the size of a segment in bytes, defaults to 64 MB
+ * <li><em>maxSegments</em>: the number of segments kept, the oldest are deleted when a new
+ * segment is started. Defaults to 0, which keeps all the segments
+ * <li><em>fsync</em>: none, segment to force a segment to disk when it is full, or always to
+ * force it after every record. Defaults to segment
+ * </ul>
+ * The providers writing to the same directory and prefix, e.g. those of several security
+ * domains, share the segments.
+ * <p>
+ * A segment starts with a magic number and the format version, followed by the records:
+ * <pre>
+ *   int length, long time, string level, int entries, (string key, string value) * entries, string exception
+ * </pre>
+ * A string is its int UTF-8 byte length, -1 for null, followed by the bytes. The length of a
+ * record is written after its content, a zero length marks the end of the records.
+ */
+public class BinaryFileAuditProvider extends AbstractAuditProvider
+{
+   /** When the segments are forced to disk */
+   public enum FsyncPolicy
+   {
+      NONE, SEGMENT, ALWAYS
+   }
+
+   public static final String SEGMENT_SUFFIX = ".seg";
+
+   public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+   static final int MAGIC = 0x50424155;
+
+   static final int VERSION = 1;
+
+   static final int HEADER_SIZE = 8;
+
+   private static final int MIN_SEGMENT_SIZE = 4096;
+
+   /** The writers by directory and prefix */
+   private static final ConcurrentMap<String, SegmentWriter> writers = new ConcurrentHashMap<String, SegmentWriter>();
+
+   private static final ThreadLocal<RecordEncoder> encoders = new ThreadLocal<RecordEncoder>()
+   {
+      @Override
+      protected RecordEncoder initialValue()
+      {
+         return new RecordEncoder();
+      }
+   };
+
+   private volatile SegmentWriter writer;
+
+   @Override
+   public void init(Map<String, Object> options)
+   {
+      String directory = (String) options.get("directory");
+      if (directory == null)
+      {
+         String logDir = System.getProperty("jboss.server.log.dir");
+         directory = new File(logDir != null ? logDir : ".", "audit").getPath();
+      }
+      String prefix = (String) options.get("prefix");
+      if (prefix == null)
+         prefix = "audit";
+      Object tmp = options.get("segmentSize");
+      int segmentSize = Math.max(MIN_SEGMENT_SIZE, tmp != null ? Integer.parseInt(tmp.toString()) : DEFAULT_SEGMENT_SIZE);
+      tmp = options.get("maxSegments");
+      int maxSegments = tmp != null ? Integer.parseInt(tmp.toString()) : 0;
+      tmp = options.get("fsync");
+      FsyncPolicy fsync = tmp != null ? FsyncPolicy.valueOf(tmp.toString().toUpperCase(Locale.ENGLISH)) : FsyncPolicy.SEGMENT;
+
+      File dir = new File(directory).getAbsoluteFile();
+      String key = new File(dir, prefix).getPath();
+      SegmentWriter w = writers.get(key);
+      if (w == null)
+      {
+         w = new SegmentWriter(dir, prefix, segmentSize, maxSegments, fsync);
+         SegmentWriter existing = writers.putIfAbsent(key, w);
+         if (existing != null)
+            w = existing;
+         else if (fsync != FsyncPolicy.NONE)
+            Runtime.getRuntime().addShutdownHook(new Thread(w, "AuditSegmentSync"));
+      }
+      writer = w;
+   }
+
+   public void audit(AuditEvent auditEvent)
+   {
+      SegmentWriter w = writer;
+      if (w == null)
+      {
+         init(Collections.<String, Object>emptyMap());
+         w = writer;
+      }
+      RecordEncoder encoder = encoders.get();
+      encoder.encode(auditEvent);
+      w.append(encoder.buffer, encoder.size);
+   }
+
+   /**
+    * Force the current segment to disk.
+    */
+   public void flush()
+   {
+      SegmentWriter w = writer;
+      if (w != null)
+         w.run();
+   }
+
+   /**
+    * Appends the records to the current segment, starting a new one when it is full.
+    * Run on shutdown to force the segment to disk.
+    */
+   private static class SegmentWriter implements Runnable
+   {
+      private final File directory;
+
+      private final String prefix;
+
+      private final int segmentSize;
+
+      private final int maxSegments;
+
+      private final FsyncPolicy fsync;
+
+      private long sequence = -1;
+
+      private File file;
+
+      private MappedByteBuffer segment;
+
+      SegmentWriter(File directory, String prefix, int segmentSize, int maxSegments, FsyncPolicy fsync)
+      {
+         this.directory = directory;
+         this.prefix = prefix;
+         this.segmentSize = segmentSize;
+         this.maxSegments = maxSegments;
+         this.fsync = fsync;
+      }
+
+      synchronized void append(byte[] record, int length)
+      {
+         if (length > segmentSize - HEADER_SIZE)
+         {
+            PicketBoxLogger.LOGGER.warnAuditRecordTooLarge(length, segmentSize);
+            return;
+         }
+         try
+         {
+            if (segment == null || segment.remaining() < length)
+               roll();
+            // the length is written last so that a reader never sees a partial record
+            int start = segment.position();
+            segment.position(start + 4);
+            segment.put(record, 4, length - 4);
+            segment.putInt(start, length - 4);
+            if (fsync == FsyncPolicy.ALWAYS)
+               segment.force();
+         }
+         catch (IOException e)
+         {
+            PicketBoxLogger.LOGGER.warnFailedToWriteAuditSegment(String.valueOf(file), e);
+            segment = null;
+         }
+      }
+
+      public synchronized void run()
+      {
+         if (segment != null)
+            segment.force();
+      }
+
+      private void roll() throws IOException
+      {
+         if (segment != null && fsync != FsyncPolicy.NONE)
+            segment.force();
+         segment = null;
+         if (sequence < 0)
+         {
+            if (!directory.isDirectory() && !directory.mkdirs())
+               throw new IOException(directory.getPath());
+            for (File f : listSegments())
+               sequence = Math.max(sequence, sequenceOf(f));
+         }
+         sequence++;
+         file = new File(directory, String.format("%s-%019d%s", prefix, sequence, SEGMENT_SUFFIX));
+         RandomAccessFile raf = new RandomAccessFile(file, "rw");
+         try
+         {
+            segment = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+         }
+         finally
+         {
+            raf.close();
+         }
+         segment.putInt(MAGIC).putInt(VERSION);
+         if (maxSegments > 0)
+         {
+            File[] segments = listSegments();
+            for (int i = 0; i < segments.length - maxSegments; i++)
+               segments[i].delete();
+         }
+      }
+
+      /** @return the segments of the prefix, oldest first */
+      private File[] listSegments()
+      {
+         File[] files = directory.listFiles();
+         if (files == null)
+            return new File[0];
+         int count = 0;
+         for (File f : files)
+         {
+            if (sequenceOf(f) >= 0)
+               files[count++] = f;
+         }
+         files = Arrays.copyOf(files, count);
+         Arrays.sort(files);
+         return files;
+      }
+
+      private long sequenceOf(File f)
+      {
+         String name = f.getName();
+         if (!name.startsWith(prefix + "-") || !name.endsWith(SEGMENT_SUFFIX))
+            return -1;
+         try
+         {
+            return Long.parseLong(name.substring(prefix.length() + 1, name.length() - SEGMENT_SUFFIX.length()));
+         }
+         catch (NumberFormatException e)
+         {
+            return -1;
+         }
+      }
+   }
+
+   /**
+    * Encodes the records of a thread, reusing its buffer.
+    */
+   private static class RecordEncoder
+   {
+      byte[] buffer = new byte[1024];
+
+      int size;
+
+      void encode(AuditEvent ae)
+      {
+         // the length is filled in by the writer
+         size = 4;
+         writeLong(System.currentTimeMillis());
+         writeString(ae.getAuditLevel());
+         Map<String, Object> map = ae.getContextMap();
+         if (map == null)
+            writeInt(0);
+         else
+         {
+            int countPos = size;
+            writeInt(0);
+            int count = 0;
+            for (Map.Entry<String, Object> entry : map.entrySet())
+            {
+               writeString(entry.getKey());
+               Object value = entry.getValue();
+               if (value instanceof Object[])
+                  value = Arrays.asList((Object[]) value);
+               writeString(value != null ? value.toString() : null);
+               count++;
+            }
+            putInt(countPos, count);
+         }
+         Exception e = ae.getUnderlyingException();
+         writeString(e != null ? e.toString() : null);
+      }
+
+      private void ensure(int length)
+      {
+         if (size + length > buffer.length)
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + length));
+      }
+
+      private void writeInt(int v)
+      {
+         ensure(4);
+         putInt(size, v);
+         size += 4;
+      }
+
+      private void putInt(int pos, int v)
+      {
+         buffer[pos] = (byte) (v >>> 24);
+         buffer[pos + 1] = (byte) (v >>> 16);
+         buffer[pos + 2] = (byte) (v >>> 8);
+         buffer[pos + 3] = (byte) v;
+      }
+
+      private void writeLong(long v)
+      {
+         writeInt((int) (v >>> 32));
+         writeInt((int) v);
+      }
+
+      /** Write the UTF-8 bytes of a string without creating a byte array */
+      private void writeString(String s)
+      {
+         if (s == null)
+         {
+            writeInt(-1);
+            return;
+         }
+         int len = s.length();
+         ensure(4 + len * 3);
+         int start = size;
+         size += 4;
+         byte[] b = buffer;
+         for (int i = 0; i < len; i++)
+         {
+            char c = s.charAt(i);
+            if (c < 0x80)
+               b[size++] = (byte) c;
+            else if (c < 0x800)
+            {
+               b[size++] = (byte) (0xC0 | (c >> 6));
+               b[size++] = (byte) (0x80 | (c & 0x3F));
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1)))
+            {
+               int cp = Character.toCodePoint(c, s.charAt(++i));
+               b[size++] = (byte) (0xF0 | (cp >> 18));
+               b[size++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+               b[size++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+               b[size++] = (byte) (0x80 | (cp & 0x3F));
+            }
+            else if (Character.isSurrogate(c))
+               b[size++] = '?';
+            else
+            {
+               b[size++] = (byte) (0xE0 | (c >> 12));
+               b[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+               b[size++] = (byte) (0x80 | (c & 0x3F));
+            }
+         }
+         putInt(start, size - start - 4);
+      }
+   }
+}
@@ -27,6 +27,12 @@ import org.jboss.security.audit.AuditEvent;
 public class LogAuditProvider extends AbstractAuditProvider
 { 
 
+   @Override
+   public boolean isEnabled(String level)
+   {
+      return PicketBoxLogger.AUDIT_LOGGER.isTraceEnabled();
+   }
+
    public void audit(AuditEvent auditEvent)
    {
       if(!PicketBoxLogger.AUDIT_LOGGER.isTraceEnabled())
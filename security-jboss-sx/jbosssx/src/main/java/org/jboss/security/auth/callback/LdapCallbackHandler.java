@@ -43,6 +43,7 @@ import javax.security.auth.callback.UnsupportedCallbackException;
 
 import org.jboss.security.PicketBoxLogger;
 import org.jboss.security.PicketBoxMessages;
+import org.jboss.security.util.LdapConnectionPool;
 
 /**
  * <p>
@@ -78,6 +79,7 @@ import org.jboss.security.PicketBoxMessages;
  *                          The org.jboss.security.plugins.PBEUtils can also be used to generate the encrypted form.</li>
  * <li>distinguishedNameAttribute : Used in ldap servers such as Active Directory where the ldap provider has a property (distinguishedName)
  *                                  to return the relative CN of the user. Default: distinguishedName</li>
+ * <li>ldapConnectionPool : true to pool the LDAP connections, see org.jboss.security.util.LdapConnectionPool. Default: false</li>
  * </ol>
  * </p>
  * <p>
@@ -239,6 +241,7 @@ public class LdapCallbackHandler extends AbstractCallbackHandler implements Call
 
 
 		NamingEnumeration<SearchResult> results = null;
+		NamingException failure = null;
 
 		Object[] filterArgs = {userName};
 		try
@@ -283,12 +286,13 @@ public class LdapCallbackHandler extends AbstractCallbackHandler implements Call
 		}
 		catch(NamingException ne)
 		{
+			failure = ne;
 			PicketBoxLogger.LOGGER.error(ne);
 		}
 		finally
 		{
 			safeClose(results);
-			safeClose(ctx);
+			safeClose(ctx, failure);
 			if (currentTCCL != null)
 				SecurityActions.setContextClassLoader(currentTCCL);
 		}
@@ -305,9 +309,25 @@ public class LdapCallbackHandler extends AbstractCallbackHandler implements Call
 		String  baseDN = options.get(BASE_CTX_DN);
 		String  baseFilter = options.get(BASE_FILTER_OPT);
 
-		InitialLdapContext ctx= this.constructInitialLdapContext(bindDN, bindCredential);
-		bindDNAuthentication(ctx, userName, credential, baseDN, baseFilter);
-		vpc.setVerified(true);
+		InitialLdapContext ctx = null;
+		NamingException failure = null;
+		try
+		{
+			ctx = this.constructInitialLdapContext(bindDN, bindCredential);
+			bindDNAuthentication(ctx, userName, credential, baseDN, baseFilter);
+			vpc.setVerified(true);
+		}
+		catch (NamingException e)
+		{
+			failure = e;
+			throw e;
+		}
+		finally
+		{
+			safeClose(ctx, failure);
+			if (currentTCCL != null)
+				SecurityActions.setContextClassLoader(currentTCCL);
+		}
 	}
 
 	protected String getBindDN()
@@ -375,6 +395,11 @@ public class LdapCallbackHandler extends AbstractCallbackHandler implements Call
 	}
 
 	private InitialLdapContext constructInitialLdapContext(String dn, Object credential) throws NamingException
+	{
+		return LdapConnectionPool.getContext(constructLdapContextEnvironment(dn, credential));
+	}
+
+	private Properties constructLdapContextEnvironment(String dn, Object credential)
 	{
 		Properties env = new Properties();
 		for (Entry<String, String> entry : options.entrySet())
@@ -410,7 +435,7 @@ public class LdapCallbackHandler extends AbstractCallbackHandler implements Call
 		if (credential != null)
 			env.put(Context.SECURITY_CREDENTIALS, credential);
         this.traceLDAPEnv(env);
-        return new InitialLdapContext(env, null);
+        return env;
 	}
 
 	/**
@@ -465,7 +490,7 @@ public class LdapCallbackHandler extends AbstractCallbackHandler implements Call
       safeClose(results);
       results = null;
 
-      InitialLdapContext userCtx = constructInitialLdapContext(userDN, credential);
+      InitialLdapContext userCtx = LdapConnectionPool.getUserContext(constructLdapContextEnvironment(userDN, credential));
       safeClose(userCtx);
 
       return userDN;
@@ -503,15 +528,17 @@ public class LdapCallbackHandler extends AbstractCallbackHandler implements Call
 
 	protected void safeClose(InitialLdapContext ic)
 	{
-		if(ic != null)
+		safeClose(ic, null);
+	}
+
+	private void safeClose(InitialLdapContext ic, NamingException failure)
+	{
+		try
+		{
+			LdapConnectionPool.close(ic, failure);
+		}
+		catch (NamingException e)
 		{
-			try
-			{
-				ic.close();
-			}
-			catch (NamingException e)
-			{
-			}
 		}
 	}
 }
\ No newline at end of file
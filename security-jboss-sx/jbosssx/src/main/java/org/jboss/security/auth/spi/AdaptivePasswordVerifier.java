@@ -0,0 +1,344 @@
+/*
+  * JBoss, Home of Professional Open Source
+  * Copyright 2026, Red Hat, Inc., and individual contributors as indicated
+  * by the @authors tag. See the copyright.txt in the distribution for a
+  * full listing of individual contributors.
+  *
+  * This is free software; you can redistribute it and/or modify it
+  * under the terms of the GNU Lesser General Public License as
+  * published by the Free Software Foundation; either version 2.1 of
+  * the License, or (at your option) any later version.
+  *
+  * This software is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+  * Lesser General Public License for more details.
+  *
+  * You should have received a copy of the GNU Lesser General Public
+  * License along with this software; if not, write to the Free
+  * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+  */
+package org.jboss.security.auth.spi;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.security.auth.login.LoginException;
+
+import org.jboss.security.PicketBoxMessages;
+
+/**
+ * Verifies passwords against adaptive, i.e. intentionally slow, hashes of a {@link PasswordHashFormat}.
+ * <p>
+ * The formats are recognized from the {@code $name$} prefix of a stored hash. The PBKDF2 formats are
+ * built in. Others such as bcrypt or scrypt are passed to {@link #findFormat(String, Map)} by their
+ * users, e.g. the login modules of a security domain, so that they are only known to those users and
+ * cannot replace the built in formats of other domains.
+ * <p>
+ * A verifier runs the hashing on a bounded pool of threads so that a burst of logins cannot take
+ * all the CPUs, a login is rejected when the queue of the pool is full. Successful verifications
+ * can be remembered for a while: the cache holds an HMAC of the password, keyed with a random
+ * per verifier secret, so that a repeated login costs a single HMAC instead of a full hash.
+ */
+public final class AdaptivePasswordVerifier
+{
+   /** The number of iterations of the built in PBKDF2 formats */
+   public static final int DEFAULT_PBKDF2_ITERATIONS = 100000;
+
+   private static final int MAX_CACHED = 10000;
+
+   private static final int QUEUE_PER_THREAD = 64;
+
+   /** The built in formats by name */
+   private static final Map<String, PasswordHashFormat> formats;
+
+   private static final ConcurrentMap<String, AdaptivePasswordVerifier> verifiers = new ConcurrentHashMap<String, AdaptivePasswordVerifier>();
+
+   static
+   {
+      Map<String, PasswordHashFormat> builtIn = new HashMap<String, PasswordHashFormat>();
+      for (String name : new String[] {Pbkdf2PasswordHashFormat.PBKDF2_SHA1, Pbkdf2PasswordHashFormat.PBKDF2_SHA256,
+            Pbkdf2PasswordHashFormat.PBKDF2_SHA512})
+         builtIn.put(name, new Pbkdf2PasswordHashFormat(name, DEFAULT_PBKDF2_ITERATIONS));
+      formats = Collections.unmodifiableMap(builtIn);
+   }
+
+   /** The hashing threads, null to hash on the calling thread */
+   private final ThreadPoolExecutor executor;
+
+   private final long cacheTimeout;
+
+   /** The successful verifications by hash, the least recently used is dropped above MAX_CACHED */
+   private final Map<String, Verified> verified = new LinkedHashMap<String, Verified>(16, 0.75f, true)
+   {
+      private static final long serialVersionUID = 1L;
+
+      protected boolean removeEldestEntry(Map.Entry<String, Verified> eldest)
+      {
+         return size() > MAX_CACHED;
+      }
+   };
+
+   private final SecretKeySpec cacheKey;
+
+   private final ThreadLocal<Mac> macs = new ThreadLocal<Mac>();
+
+   private AdaptivePasswordVerifier(int threads, long cacheTimeout)
+   {
+      if (threads > 0)
+      {
+         final AtomicInteger count = new AtomicInteger();
+         executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+               new ArrayBlockingQueue<Runnable>(threads * QUEUE_PER_THREAD), new ThreadFactory()
+               {
+                  public Thread newThread(Runnable r)
+                  {
+                     Thread t = new Thread(r, "PasswordHash-" + count.incrementAndGet());
+                     t.setDaemon(true);
+                     return t;
+                  }
+               });
+         executor.allowCoreThreadTimeOut(true);
+      }
+      else
+         executor = null;
+      this.cacheTimeout = cacheTimeout;
+      byte[] key = new byte[32];
+      new SecureRandom().nextBytes(key);
+      cacheKey = new SecretKeySpec(key, "HmacSHA256");
+   }
+
+   /**
+    * Get a built in format by name.
+    *
+    * @param name - the name of the format, e.g. pbkdf2-sha256
+    * @return the format, null if no built in format has that name
+    */
+   public static PasswordHashFormat getFormat(String name)
+   {
+      return formats.get(name);
+   }
+
+   /**
+    * Get a format by name.
+    *
+    * @param name - the name of the format
+    * @param additionalFormats - the formats of the caller by name, they take precedence over the built in ones
+    * @return the format, null if no format has that name
+    */
+   public static PasswordHashFormat getFormat(String name, Map<String, PasswordHashFormat> additionalFormats)
+   {
+      PasswordHashFormat format = additionalFormats.get(name);
+      return format != null ? format : formats.get(name);
+   }
+
+   /**
+    * Find the built in format of a stored password from its {@code $name$} prefix.
+    *
+    * @param hash - the stored password
+    * @return the format, null if the password is not a hash of a built in format
+    */
+   public static PasswordHashFormat findFormat(String hash)
+   {
+      return findFormat(hash, Collections.<String, PasswordHashFormat>emptyMap());
+   }
+
+   /**
+    * Find the format of a stored password from its {@code $name$} prefix.
+    *
+    * @param hash - the stored password
+    * @param additionalFormats - the formats of the caller by name, they take precedence over the built in ones
+    * @return the format, null if the password is not a hash of a known format
+    */
+   public static PasswordHashFormat findFormat(String hash, Map<String, PasswordHashFormat> additionalFormats)
+   {
+      if (hash == null || hash.length() < 3 || hash.charAt(0) != '$')
+         return null;
+      int end = hash.indexOf('$', 1);
+      return end > 1 ? getFormat(hash.substring(1, end), additionalFormats) : null;
+   }
+
+   /**
+    * Obtain the shared verifier of a configuration.
+    *
+    * @param threads - the maximum number of concurrent hash computations, 0 to hash on the calling thread
+    * @param cacheTimeout - the time in milliseconds a successful verification is remembered, 0 to disable
+    * @return the verifier
+    */
+   public static AdaptivePasswordVerifier getVerifier(int threads, long cacheTimeout)
+   {
+      String key = threads + ":" + cacheTimeout;
+      AdaptivePasswordVerifier verifier = verifiers.get(key);
+      if (verifier == null)
+      {
+         verifier = new AdaptivePasswordVerifier(threads, cacheTimeout);
+         AdaptivePasswordVerifier existing = verifiers.putIfAbsent(key, verifier);
+         if (existing != null)
+         {
+            if (verifier.executor != null)
+               verifier.executor.shutdown();
+            verifier = existing;
+         }
+      }
+      return verifier;
+   }
+
+   /**
+    * Check a password against a stored hash.
+    *
+    * @param format - the format of the hash
+    * @param password - the password entered by the user
+    * @param hash - the stored hash
+    * @return true if the password matches the hash
+    * @throws LoginException if the hash cannot be verified or too many verifications are pending
+    */
+   public boolean verify(final PasswordHashFormat format, final String password, final String hash) throws LoginException
+   {
+      byte[] mac = null;
+      if (cacheTimeout > 0)
+      {
+         mac = mac(password, hash);
+         Verified v;
+         synchronized (verified)
+         {
+            v = verified.get(hash);
+         }
+         if (v != null && v.expires > System.currentTimeMillis() && MessageDigest.isEqual(v.mac, mac))
+            return true;
+      }
+      boolean valid = execute(new Callable<Boolean>()
+      {
+         public Boolean call() throws GeneralSecurityException
+         {
+            return Boolean.valueOf(format.verify(password, hash));
+         }
+      }).booleanValue();
+      if (valid && mac != null)
+      {
+         Verified v = new Verified(mac, System.currentTimeMillis() + cacheTimeout);
+         synchronized (verified)
+         {
+            verified.put(hash, v);
+         }
+      }
+      return valid;
+   }
+
+   /**
+    * Hash a password.
+    *
+    * @param format - the format of the hash
+    * @param password - the password to hash
+    * @return the hash
+    * @throws LoginException if the hash cannot be computed or too many verifications are pending
+    */
+   public String hash(final PasswordHashFormat format, final String password) throws LoginException
+   {
+      return execute(new Callable<String>()
+      {
+         public String call() throws GeneralSecurityException
+         {
+            return format.hash(password);
+         }
+      });
+   }
+
+   private <T> T execute(Callable<T> task) throws LoginException
+   {
+      try
+      {
+         if (executor == null)
+            return task.call();
+         Future<T> result;
+         try
+         {
+            result = executor.submit(task);
+         }
+         catch (RejectedExecutionException e)
+         {
+            throw PicketBoxMessages.MESSAGES.tooManyPasswordHashVerifications();
+         }
+         return result.get();
+      }
+      catch (LoginException e)
+      {
+         throw e;
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         LoginException le = new LoginException();
+         le.initCause(e);
+         throw le;
+      }
+      catch (ExecutionException e)
+      {
+         LoginException le = new LoginException();
+         le.initCause(e.getCause());
+         throw le;
+      }
+      catch (Exception e)
+      {
+         LoginException le = new LoginException();
+         le.initCause(e);
+         throw le;
+      }
+   }
+
+   private byte[] mac(String password, String hash) throws LoginException
+   {
+      try
+      {
+         Mac mac = macs.get();
+         if (mac == null)
+         {
+            mac = Mac.getInstance("HmacSHA256");
+            mac.init(cacheKey);
+            macs.set(mac);
+         }
+         mac.update(hash.getBytes(StandardCharsets.UTF_8));
+         mac.update((byte) 0);
+         return mac.doFinal(password.getBytes(StandardCharsets.UTF_8));
+      }
+      catch (GeneralSecurityException e)
+      {
+         LoginException le = new LoginException();
+         le.initCause(e);
+         throw le;
+      }
+   }
+
+   /** A successful verification */
+   private static class Verified
+   {
+      final byte[] mac;
+
+      final long expires;
+
+      Verified(byte[] mac, long expires)
+      {
+         this.mac = mac;
+         this.expires = expires;
+      }
+   }
+}
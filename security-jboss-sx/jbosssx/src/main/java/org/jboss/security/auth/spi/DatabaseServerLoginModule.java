@@ -26,20 +26,21 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.HashMap;
 import java.util.Map;
 
-import javax.naming.InitialContext;
 import javax.naming.NamingException;
 import javax.security.auth.Subject;
 import javax.security.auth.callback.CallbackHandler;
 import javax.security.auth.login.LoginException;
-import javax.sql.DataSource;
 import javax.transaction.SystemException;
 import javax.transaction.Transaction;
 import javax.transaction.TransactionManager;
 
 import org.jboss.security.PicketBoxLogger;
 import org.jboss.security.PicketBoxMessages;
+import org.jboss.security.SimpleGroup;
+import org.jboss.security.plugins.DataSourceLocator;
 import org.jboss.security.plugins.TransactionManagerLocator;
 
 
@@ -63,7 +64,21 @@ import org.jboss.security.plugins.TransactionManagerLocator;
  * <pre>
  *    "select Role, RoleGroup from Roles where PrincipalID=?"
  * </pre>
+ * <li><em>principalsAndRolesQuery</em>: A prepared statement query returning the
+ * password and the roles in a single round trip, one row per role, used instead
+ * of the principalsQuery and rolesQuery. The role group column is optional and the
+ * role is null for a user without roles, e.g.:
+ * <pre>
+ *    "select p.Password, r.Role, r.RoleGroup from Principals p
+ *       left outer join Roles r on r.PrincipalID = p.PrincipalID where p.PrincipalID=?"
+ * </pre>
+ * <li><em>updatePasswordQuery</em>: The prepared statement storing the password hash
+ * created by the rehashOnLogin option, the first parameter is the hash, e.g.:
+ * <pre>
+ *    "update Principals set Password=? where PrincipalID=?"
+ * </pre>
  * </ul>
+ * The DataSource is looked up once and shared by the logins, see {@link DataSourceLocator}.
  *
  * @author <a href="mailto:on@ibis.odessa.ua">Oleg Nitz</a>
  * @author Scott.Stark@jboss.org
@@ -76,11 +91,14 @@ public class DatabaseServerLoginModule extends UsernamePasswordLoginModule
    private static final String ROLES_QUERY = "rolesQuery";
    private static final String SUSPEND_RESUME = "suspendResume";
    private static final String PRINCIPALS_QUERY = "principalsQuery";
+   private static final String PRINCIPALS_AND_ROLES_QUERY = "principalsAndRolesQuery";
+   private static final String UPDATE_PASSWORD_QUERY = "updatePasswordQuery";
    private static final String TRANSACTION_MANAGER_JNDI_NAME = "transactionManagerJndiName";
 
    private static final String[] ALL_VALID_OPTIONS =
    {
-      DS_JNDI_NAME,ROLES_QUERY,SUSPEND_RESUME,PRINCIPALS_QUERY,TRANSACTION_MANAGER_JNDI_NAME
+      DS_JNDI_NAME,ROLES_QUERY,SUSPEND_RESUME,PRINCIPALS_QUERY,PRINCIPALS_AND_ROLES_QUERY,UPDATE_PASSWORD_QUERY,
+      TRANSACTION_MANAGER_JNDI_NAME
    };
    
    /** The JNDI name of the DataSource to use */
@@ -89,6 +107,10 @@ public class DatabaseServerLoginModule extends UsernamePasswordLoginModule
    protected String principalsQuery = "select Password from Principals where PrincipalID=?";
    /** The sql query to obtain the user roles */
    protected String rolesQuery;
+   /** The sql query to obtain the user password and roles together */
+   protected String principalsAndRolesQuery;
+   /** The sql statement to store a new password hash of the user */
+   protected String updatePasswordQuery;
    /** Whether to suspend resume transactions during database operations */
    protected boolean suspendResume = true;
    /** The JNDI name of the transaction manager */
@@ -96,6 +118,10 @@ public class DatabaseServerLoginModule extends UsernamePasswordLoginModule
    /** The TransactionManagaer instance to be used */
    protected TransactionManager tm = null;
 
+   /** The role sets returned by the principalsAndRolesQuery and the user they belong to */
+   private Group[] loadedRoleSets;
+   private String loadedRolesUser;
+
    /**
     * Initialize this LoginModule.
     * 
@@ -121,6 +147,12 @@ public class DatabaseServerLoginModule extends UsernamePasswordLoginModule
       tmp = options.get(ROLES_QUERY);
       if( tmp != null )
          rolesQuery = tmp.toString();
+      tmp = options.get(PRINCIPALS_AND_ROLES_QUERY);
+      if( tmp != null )
+         principalsAndRolesQuery = tmp.toString();
+      tmp = options.get(UPDATE_PASSWORD_QUERY);
+      if( tmp != null )
+         updatePasswordQuery = tmp.toString();
       tmp = options.get(SUSPEND_RESUME);
       if( tmp != null )
          suspendResume = Boolean.valueOf(tmp.toString()).booleanValue();
@@ -152,6 +184,19 @@ public class DatabaseServerLoginModule extends UsernamePasswordLoginModule
    protected String getUsersPassword() throws LoginException
    {
       String username = getUsername();
+      String password = executePrincipalsQuery(username);
+      if (password == null)
+         throw PicketBoxMessages.MESSAGES.noMatchingUsernameFoundInPrincipals();
+      return convertRawPassword(password);
+   }
+
+   /** Execute the principalsQuery, or the principalsAndRolesQuery which also
+    loads the role sets of the user.
+    @return the raw password, null if the user was not found
+    */
+   private String executePrincipalsQuery(String username) throws LoginException
+   {
+      String query = (principalsAndRolesQuery != null ? principalsAndRolesQuery : principalsQuery);
       String password = null;
       Connection conn = null;
       PreparedStatement ps = null;
@@ -175,21 +220,34 @@ public class DatabaseServerLoginModule extends UsernamePasswordLoginModule
 
       try
       {
-         InitialContext ctx = new InitialContext();
-         DataSource ds = (DataSource) ctx.lookup(dsJndiName);
-         conn = ds.getConnection();
+         conn = DataSourceLocator.getConnection(dsJndiName);
          // Get the password
-         PicketBoxLogger.LOGGER.traceExecuteQuery(principalsQuery, username);
-         ps = conn.prepareStatement(principalsQuery);
+         PicketBoxLogger.LOGGER.traceExecuteQuery(query, username);
+         ps = conn.prepareStatement(query);
          ps.setString(1, username);
          rs = ps.executeQuery();
-         if( rs.next() == false )
+         HashMap<String,Group> setsMap = new HashMap<String,Group>();
+         if( rs.next() )
          {
-            throw PicketBoxMessages.MESSAGES.noMatchingUsernameFoundInPrincipals();
+            password = rs.getString(1);
+            if (principalsAndRolesQuery != null)
+            {
+               // One row per role, the role group is optional
+               boolean hasGroups = rs.getMetaData().getColumnCount() > 2;
+               do
+               {
+                  String name = rs.getString(2);
+                  if (name != null)
+                     DbUtil.addRole(setsMap, name, hasGroups ? rs.getString(3) : null, this);
+               } while (rs.next());
+            }
+         }
+         if (principalsAndRolesQuery != null)
+         {
+            loadedRoleSets = new Group[setsMap.size()];
+            setsMap.values().toArray(loadedRoleSets);
+            loadedRolesUser = username;
          }
-         
-         password = rs.getString(1);
-         password = convertRawPassword(password);
       }
       catch(NamingException ex)
       {
@@ -248,6 +306,87 @@ public class DatabaseServerLoginModule extends UsernamePasswordLoginModule
       return password;
    }
 
+   /** Execute the updatePasswordQuery to store the password hash created on
+    login, if the option is set.
+    */
+   @Override
+   protected void updatePasswordHash(String username, String passwordHash) throws LoginException
+   {
+      if (updatePasswordQuery == null)
+         return;
+      Connection conn = null;
+      PreparedStatement ps = null;
+
+      Transaction tx = null;
+      if (suspendResume)
+      {
+         try
+         {
+            if(tm == null)
+               throw PicketBoxMessages.MESSAGES.invalidNullTransactionManager();
+            tx = tm.suspend();
+         }
+         catch (SystemException e)
+         {
+            throw new RuntimeException(e);
+         }
+      }
+
+      try
+      {
+         conn = DataSourceLocator.getConnection(dsJndiName);
+         PicketBoxLogger.LOGGER.traceExecuteQuery(updatePasswordQuery, username);
+         ps = conn.prepareStatement(updatePasswordQuery);
+         ps.setString(1, passwordHash);
+         ps.setString(2, username);
+         ps.executeUpdate();
+      }
+      catch(NamingException ex)
+      {
+         LoginException le = new LoginException(PicketBoxMessages.MESSAGES.failedToLookupDataSourceMessage(dsJndiName));
+         le.initCause(ex);
+         throw le;
+      }
+      catch(SQLException ex)
+      {
+         LoginException le = new LoginException(PicketBoxMessages.MESSAGES.failedToProcessQueryMessage());
+         le.initCause(ex);
+         throw le;
+      }
+      finally
+      {
+         if( ps != null )
+         {
+            try
+            {
+               ps.close();
+            }
+            catch(SQLException e)
+            {}
+         }
+         if( conn != null )
+         {
+            try
+            {
+               conn.close();
+            }
+            catch (SQLException ex)
+            {}
+         }
+         if (suspendResume)
+         {
+            try
+            {
+               tm.resume(tx);
+            }
+            catch (Exception e)
+            {
+               throw new RuntimeException(e);
+            }
+         }
+      }
+   }
+
    /** Execute the rolesQuery against the dsJndiName to obtain the roles for
     the authenticated user.
      
@@ -255,12 +394,28 @@ public class DatabaseServerLoginModule extends UsernamePasswordLoginModule
     */
    protected Group[] getRoleSets() throws LoginException
    {
+      String username = getUsername();
+      if (principalsAndRolesQuery != null)
+      {
+         // The roles are normally loaded with the password
+         if (loadedRoleSets == null || !username.equals(loadedRolesUser))
+            executePrincipalsQuery(username);
+         Group[] roleSets = loadedRoleSets;
+         loadedRoleSets = null;
+         loadedRolesUser = null;
+         if (roleSets.length == 0)
+         {
+            if( getUnauthenticatedIdentity() == null )
+               throw PicketBoxMessages.MESSAGES.noMatchingUsernameFoundInRoles();
+            /* We are running with an unauthenticatedIdentity so create an empty Roles set and return. */
+            roleSets = new Group[] { new SimpleGroup("Roles") };
+         }
+         return roleSets;
+      }
       if (rolesQuery != null)
       {
-         String username = getUsername();
          PicketBoxLogger.LOGGER.traceExecuteQuery(rolesQuery, username);
-         Group[] roleSets = Util.getRoleSets(username, dsJndiName, txManagerJndiName, rolesQuery, this,
-               suspendResume);
+         Group[] roleSets = Util.getRoleSets(username, dsJndiName, tm, rolesQuery, this, suspendResume);
          return roleSets;
       }
       return new Group[0];
@@ -28,11 +28,10 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.HashMap;
+import java.util.Map;
 
-import javax.naming.InitialContext;
 import javax.naming.NamingException;
 import javax.security.auth.login.LoginException;
-import javax.sql.DataSource;
 import javax.transaction.SystemException;
 import javax.transaction.Transaction;
 import javax.transaction.TransactionManager;
@@ -40,6 +39,7 @@ import javax.transaction.TransactionManager;
 import org.jboss.security.PicketBoxLogger;
 import org.jboss.security.PicketBoxMessages;
 import org.jboss.security.SimpleGroup;
+import org.jboss.security.plugins.DataSourceLocator;
 import org.jboss.security.plugins.TransactionManagerLocator;
 
 /**
@@ -58,11 +58,6 @@ class DbUtil
      String rolesQuery, AbstractServerLoginModule aslm, boolean suspendResume)
      throws LoginException
   {
-     Connection conn = null;
-     HashMap<String,Group> setsMap = new HashMap<String,Group>();
-     PreparedStatement ps = null;
-     ResultSet rs = null;
-     
      TransactionManager tm = null;
      
      if(suspendResume)
@@ -76,9 +71,26 @@ class DbUtil
         {
            throw new RuntimeException(e1);
         }
-        if(tm == null)
-           throw PicketBoxMessages.MESSAGES.invalidNullTransactionManager();
      }
+     return getRoleSets(username, dsJndiName, tm, rolesQuery, aslm, suspendResume);
+  }
+
+  /** Execute the rolesQuery against the dsJndiName to obtain the roles for
+   the authenticated user, using the given transaction manager.
+
+   @return Group[] containing the sets of roles
+   */
+  static Group[] getRoleSets(String username, String dsJndiName, TransactionManager tm,
+     String rolesQuery, AbstractServerLoginModule aslm, boolean suspendResume)
+     throws LoginException
+  {
+     Connection conn = null;
+     HashMap<String,Group> setsMap = new HashMap<String,Group>();
+     PreparedStatement ps = null;
+     ResultSet rs = null;
+
+     if(suspendResume && tm == null)
+        throw PicketBoxMessages.MESSAGES.invalidNullTransactionManager();
      Transaction tx = null;
      if (suspendResume)
      {
@@ -95,9 +107,7 @@ class DbUtil
 
      try
      {
-        InitialContext ctx = new InitialContext();
-        DataSource ds = (DataSource) ctx.lookup(dsJndiName);
-        conn = ds.getConnection();
+        conn = DataSourceLocator.getConnection(dsJndiName);
         // Get the user role names
         PicketBoxLogger.LOGGER.traceExecuteQuery(rolesQuery, username);
         ps = conn.prepareStatement(rolesQuery);
@@ -121,26 +131,7 @@ class DbUtil
 
         do
         {
-           String name = rs.getString(1);
-           String groupName = rs.getString(2);
-           if( groupName == null || groupName.length() == 0 )
-              groupName = "Roles";
-           Group group = (Group) setsMap.get(groupName);
-           if( group == null )
-           {
-              group = new SimpleGroup(groupName);
-              setsMap.put(groupName, group);
-           }
-
-           try
-           {
-              Principal p = aslm.createIdentity(name);
-              group.addMember(p);
-           }
-           catch(Exception e)
-           {
-              PicketBoxLogger.LOGGER.debugFailureToCreatePrincipal(name, e);
-           }
+           addRole(setsMap, rs.getString(1), rs.getString(2), aslm);
         } while( rs.next() );
      }
      catch(NamingException ex)
@@ -202,4 +193,29 @@ class DbUtil
      setsMap.values().toArray(roleSets);
      return roleSets;
   }
+
+  /** Add a role returned by a roles query to its role group, "Roles" if the
+   group name is empty.
+   */
+  static void addRole(Map<String,Group> setsMap, String name, String groupName, AbstractServerLoginModule aslm)
+  {
+     if( groupName == null || groupName.length() == 0 )
+        groupName = "Roles";
+     Group group = (Group) setsMap.get(groupName);
+     if( group == null )
+     {
+        group = new SimpleGroup(groupName);
+        setsMap.put(groupName, group);
+     }
+
+     try
+     {
+        Principal p = aslm.createIdentity(name);
+        group.addMember(p);
+     }
+     catch(Exception e)
+     {
+        PicketBoxLogger.LOGGER.debugFailureToCreatePrincipal(name, e);
+     }
+  }
 }
\ No newline at end of file
@@ -25,11 +25,21 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.security.Principal;
 import java.security.acl.Group;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.management.ObjectName;
 import javax.naming.Context;
@@ -51,6 +61,9 @@ import org.jboss.security.PicketBoxLogger;
 import org.jboss.security.PicketBoxMessages;
 import org.jboss.security.SimpleGroup;
 import org.jboss.security.Util;
+import org.jboss.security.util.LdapConnectionPool;
+import org.jboss.security.util.LdapGroupCache;
+import org.jboss.security.util.LdapRoleSearchSupport;
 import org.jboss.security.vault.SecurityVaultUtil;
 
 /**
@@ -129,7 +142,18 @@ import org.jboss.security.vault.SecurityVaultUtil;
  set to true, this property is used to find the role object's name attribute. If
  the __roleAttributeIsDN__ property is set to false, this property is ignored.
  * __roleRecursion__ : How deep the role search will go below a given matching
- context. Disable with 0, which is the default.
+ context. Disable with 0, which is the default. The role entries of a nesting level
+ are looked up with a single search.
+ * __roleSearchThreads__ : The number of searches a nesting level of the role
+ search is split in, run concurrently on their own connections. The default is 1,
+ see org.jboss.security.util.LdapRoleSearchSupport.
+ * __groupCacheTimeout__ : The time in milliseconds the role names and parent
+ groups of a group entry are cached, shared by the logins using the same
+ directory and role search settings. Only the direct memberships of the user are
+ then searched. Disabled with 0, which is the default. The cache is not used if
+ the roleFilter depends on the user name ("{0}"). The directory can be polled for
+ modified entries with the groupCachePollInterval and groupCacheChangeAttribute
+ options, see org.jboss.security.util.LdapGroupCache.
  * __searchTimeLimit__ : The timeout in milliseconds for the user/role searches.
  Defaults to 10000 (10 seconds).
  * __searchScope__ : Sets the search scope to one of the strings. The default is
@@ -144,6 +168,11 @@ import org.jboss.security.vault.SecurityVaultUtil;
  anonymous login by some ldap servers and this may not be a desirable feature.
  Set this to false to reject empty passwords, true to have the ldap server
  validate the empty password. The default is true.
+ * __ldapConnectionPool__ : A flag indicating if the connections used for the
+ searches and the user binds should be pooled. The pool is tuned with the
+ ldapConnectionPoolMinSize, ldapConnectionPoolMaxSize,
+ ldapConnectionPoolIdleTimeout and ldapConnectionPoolValidate options, see
+ org.jboss.security.util.LdapConnectionPool. The default is false.
 
  @author Andy Oliver
  @author Scott.Stark@jboss.org
@@ -236,6 +265,8 @@ public class LdapExtLoginModule extends UsernamePasswordLoginModule
 
    protected int recursion = 0;
 
+   protected int roleSearchThreads = 1;
+
    protected int searchTimeLimit = 10000;
 
    protected int searchScope = SearchControls.SUBTREE_SCOPE;
@@ -263,6 +294,9 @@ public class LdapExtLoginModule extends UsernamePasswordLoginModule
    public void initialize(Subject subject, CallbackHandler callbackHandler, Map sharedState, Map options)
    {
       addValidOptions(ALL_VALID_OPTIONS);
+      addValidOptions(LdapConnectionPool.ALL_VALID_OPTIONS);
+      addValidOptions(LdapRoleSearchSupport.ALL_VALID_OPTIONS);
+      addValidOptions(LdapGroupCache.ALL_VALID_OPTIONS);
       super.initialize(subject, callbackHandler, sharedState, options);
    }
 
@@ -432,6 +466,7 @@ public class LdapExtLoginModule extends UsernamePasswordLoginModule
          // its okay for this to be 0 as this just disables recursion
          recursion = 0;
       }
+      roleSearchThreads = LdapRoleSearchSupport.getThreads(options);
       String timeLimit = (String) options.get(SEARCH_TIME_LIMIT_OPT);
       if (timeLimit != null)
       {
@@ -458,6 +493,7 @@ public class LdapExtLoginModule extends UsernamePasswordLoginModule
 
       // Get the admin context for searching
       InitialLdapContext ctx = null;
+      Exception failure = null;
       try
       {
          ctx = constructInitialLdapContext(bindDN, bindCredential);
@@ -480,12 +516,12 @@ public class LdapExtLoginModule extends UsernamePasswordLoginModule
       }
       catch(Exception e)
       {
+    	  failure = e;
     	  throw e;
       }
 	  finally
       {
-         if (ctx != null)
-            ctx.close();
+         LdapConnectionPool.close(ctx, failure);
       }
       return true;
    }
@@ -562,8 +598,7 @@ public class LdapExtLoginModule extends UsernamePasswordLoginModule
               if (isPasswordValidated)
               {
                  // Bind as the user dn to authenticate the user
-                 InitialLdapContext userCtx = constructInitialLdapContext(userDN, credential);
-                 userCtx.close();
+                 bindUser(userDN, credential);
               }
           }
           else {
@@ -577,8 +612,7 @@ public class LdapExtLoginModule extends UsernamePasswordLoginModule
          if (sr.isRelative() == true) {
             if (isPasswordValidated) {
                // Bind as the user dn to authenticate the user
-               InitialLdapContext userCtx = constructInitialLdapContext(userDN, credential);
-               userCtx.close();
+               bindUser(userDN, credential);
             }
          }
          else {
@@ -631,6 +665,11 @@ public class LdapExtLoginModule extends UsernamePasswordLoginModule
    }
 
    /**
+    Search the roles of the user. The role graph is walked breadth first: the entries of a
+    nesting level are looked up with one search whose filter is the OR of the role filter
+    applied to each of them, and an entry is only searched once even if it is reached through
+    several paths.
+
     @param ctx
     @param constraints
     @param user
@@ -647,131 +686,328 @@ public class LdapExtLoginModule extends UsernamePasswordLoginModule
           return;
       }
 
-      LdapContext ldapCtx = ctx;
+      LdapGroupCache cache = getGroupCache();
+      if (cache != null)
+         cache.checkForChanges(ctx, rolesCtxDN, searchTimeLimit);
+
+      // the entries whose roles were collected, includes the entries of the current level
+      Set<String> visited = new HashSet<String>();
+      visited.add(userDN);
+      // the role names of the role DNs queried so far
+      Map<String, List<String>> roleNames = new ConcurrentHashMap<String, List<String>>();
+      List<String> level = Collections.singletonList(userDN);
+      while (!level.isEmpty())
+      {
+         List<String> nextLevel = new ArrayList<String>();
+         List<String> misses = level;
+         int batchSize = LdapRoleSearchSupport.BATCH_SIZE;
+         if (cache != null && nesting > 0)
+         {
+            misses = expandFromCache(cache, level, visited, nesting < recursionMax, nextLevel);
+            // the entries missing from the cache are searched one by one to learn their groups
+            batchSize = 1;
+         }
+         List<List<String>> batches = LdapRoleSearchSupport.partition(misses, roleSearchThreads, batchSize);
+         PicketBoxLogger.LOGGER.traceLdapRoleSearchLevel(level.size(), nesting, batches.size());
+         List<RolesSearch> searches = new ArrayList<RolesSearch>(batches.size());
+         for (List<String> batch : batches)
+         {
+            // only the first search runs on the calling thread and can use its context
+            LdapContext searchCtx = (searches.isEmpty() ? ctx : null);
+            searches.add(new RolesSearch(searchCtx, constraints, user, batch, nesting, visited, roleNames));
+         }
 
-      Object[] filterArgs = {user, sanitizeDN(userDN)};
-      boolean referralsExist = true;
-      while (referralsExist) {
-         NamingEnumeration results = ldapCtx.search(rolesCtxDN, roleFilter, filterArgs, constraints);
-         try
+         for (RolesSearch search : LdapRoleSearchSupport.search(searches, roleSearchThreads))
          {
-            while (results.hasMore())
+            for (String roleName : search.roles)
+               addRole(roleName);
+            if (cache != null && search.cacheable)
             {
-               SearchResult sr = (SearchResult) results.next();
+               for (Entry<String, List<String>> entry : search.entryRoles.entrySet())
+                  cache.putRoles(entry.getKey(), entry.getValue());
+               if (nesting > 0 && search.dns.size() == 1)
+                  cache.putParents(search.dns.get(0), new ArrayList<String>(search.parents));
+            }
+            for (String dn : search.entries)
+            {
+               if (visited.add(dn) && nesting < recursionMax)
+                  nextLevel.add(dn);
+            }
+         }
+         level = nextLevel;
+         nesting++;
+      }
+   }
 
-               String dn;
-               if (sr.isRelative()) {
-                  dn = canonicalize(sr.getName());
-               }
-               else {
-                  dn = sr.getNameInNamespace();
-               }
-               if (nesting == 0 && roleAttributeIsDN && roleNameAttributeID != null)
+   /**
+    Add the roles of the groups of the given entries found in the group cache.
+
+    @return the entries whose groups are not cached
+    */
+   private List<String> expandFromCache(LdapGroupCache cache, List<String> level, Set<String> visited,
+         boolean expand, List<String> nextLevel)
+   {
+      List<String> misses = new ArrayList<String>();
+      for (String dn : level)
+      {
+         List<String> parents = cache.getParents(dn);
+         Map<String, List<String>> parentRoles = new LinkedHashMap<String, List<String>>();
+         boolean cached = (parents != null);
+         for (int i = 0; cached && i < parents.size(); i++)
+         {
+            String parent = parents.get(i);
+            if (visited.contains(parent))
+               continue;
+            List<String> roleNames = cache.getRoles(parent);
+            if (roleNames == null)
+               cached = false;
+            else
+               parentRoles.put(parent, roleNames);
+         }
+         if (!cached)
+         {
+            misses.add(dn);
+            continue;
+         }
+         for (Entry<String, List<String>> entry : parentRoles.entrySet())
+         {
+            if (!visited.add(entry.getKey()))
+               continue;
+            for (String roleName : entry.getValue())
+               addRole(roleName);
+            if (expand)
+               nextLevel.add(entry.getKey());
+         }
+      }
+      return misses;
+   }
+
+   /**
+    @return the group cache shared by the logins searching the same roles, null if it is
+    not enabled or if the role filter depends on the user name
+    */
+   private LdapGroupCache getGroupCache()
+   {
+      if (roleFilter.indexOf("{0}") >= 0)
+         return null;
+      String name = options.get(Context.PROVIDER_URL) + "/" + rolesCtxDN + "?" + roleFilter + "?" + searchScope
+         + "?" + roleAttributeID + "?" + roleAttributeIsDN + "?" + roleNameAttributeID + "?" + parseRoleNameFromDN
+         + "?" + bindDN;
+      return LdapGroupCache.getCache(name, options);
+   }
+
+   /**
+    The search of the role entries matching a batch of entries of a nesting level. The roles
+    are collected and added by the calling thread as the search may run on another thread.
+    */
+   private class RolesSearch implements LdapRoleSearchSupport.Search<RolesSearch>
+   {
+      private final LdapContext ctx;
+      private final SearchControls constraints;
+      private final String user;
+      private final List<String> dns;
+      private final int nesting;
+      private final Set<String> visited;
+      private final Map<String, List<String>> roleNames;
+      // the role entries found, which make the next nesting level
+      private final Set<String> entries = new LinkedHashSet<String>();
+      private final List<String> roles = new ArrayList<String>();
+      // all the role entries matched, including the visited ones
+      private final Set<String> parents = new LinkedHashSet<String>();
+      // the roles granted by each of the entries found
+      private final Map<String, List<String>> entryRoles = new HashMap<String, List<String>>();
+      // false if a referral was followed, the results then depend on the user
+      private boolean cacheable = true;
+
+      RolesSearch(LdapContext ctx, SearchControls constraints, String user, List<String> dns, int nesting,
+            Set<String> visited, Map<String, List<String>> roleNames)
+      {
+         this.ctx = ctx;
+         this.constraints = constraints;
+         this.user = user;
+         this.dns = dns;
+         this.nesting = nesting;
+         this.visited = visited;
+         this.roleNames = roleNames;
+      }
+
+      public RolesSearch execute() throws NamingException
+      {
+         if (ctx != null)
+         {
+            search(ctx);
+            return this;
+         }
+         InitialLdapContext searchCtx = null;
+         NamingException failure = null;
+         try
+         {
+            searchCtx = constructInitialLdapContext(bindDN, bindCredential);
+            search(searchCtx);
+         }
+         catch (NamingException e)
+         {
+            failure = e;
+            throw e;
+         }
+         finally
+         {
+            LdapConnectionPool.close(searchCtx, failure);
+         }
+         return this;
+      }
+
+      private void search(LdapContext ctx) throws NamingException
+      {
+         LdapContext ldapCtx = ctx;
+
+         Object[] filterArgs = new Object[dns.size() + 1];
+         // the users a referral entity can belong to
+         String[] users = new String[dns.size() + 1];
+         filterArgs[0] = users[0] = user;
+         for (int i = 0; i < dns.size(); i++)
+         {
+            filterArgs[i + 1] = sanitizeDN(dns.get(i));
+            users[i + 1] = dns.get(i);
+         }
+         String filter = LdapRoleSearchSupport.batchFilter(roleFilter, 1, dns.size());
+         boolean referralsExist = true;
+         while (referralsExist) {
+            NamingEnumeration results = ldapCtx.search(rolesCtxDN, filter, filterArgs, constraints);
+            try
+            {
+               while (results.hasMore())
                {
-                  if(parseRoleNameFromDN)
-                  {
-                     parseRole(dn);
+                  SearchResult sr = (SearchResult) results.next();
+
+                  String dn;
+                  if (sr.isRelative()) {
+                     dn = canonicalize(sr.getName());
                   }
-                  else
+                  else {
+                     dn = sr.getNameInNamespace();
+                  }
+                  // the entries reached through another path or already returned before a referral
+                  if (!parents.add(dn) || visited.contains(dn))
+                     continue;
+                  entries.add(dn);
+
+                  if (nesting == 0 && roleAttributeIsDN && roleNameAttributeID != null)
                   {
-                     // Check the top context for role names
-                     String[] attrNames = {roleNameAttributeID};
-                     Attributes result2 = null;
-                     if (sr.isRelative()) {
-                        result2 = ldapCtx.getAttributes(quoteDN(dn), attrNames);
-                     }
-                     else {
-                        result2 = getAttributesFromReferralEntity(sr, user, userDN);
+                     if(parseRoleNameFromDN)
+                     {
+                        parseRole(dn, roles);
                      }
-                     Attribute roles2 = (result2 != null ? result2.get(roleNameAttributeID) : null);
-                     if( roles2 != null )
+                     else
                      {
-                        for(int m = 0; m < roles2.size(); m ++)
+                        // Check the top context for role names
+                        String[] attrNames = {roleNameAttributeID};
+                        Attributes result2 = null;
+                        if (sr.isRelative()) {
+                           result2 = ldapCtx.getAttributes(quoteDN(dn), attrNames);
+                        }
+                        else {
+                           result2 = getAttributesFromReferralEntity(sr, users);
+                        }
+                        Attribute roles2 = (result2 != null ? result2.get(roleNameAttributeID) : null);
+                        if( roles2 != null )
                         {
-                           String roleName = (String) roles2.get(m);
-                           addRole(roleName);
+                           for(int m = 0; m < roles2.size(); m ++)
+                           {
+                              roles.add((String) roles2.get(m));
+                           }
                         }
                      }
                   }
-               }
 
-               // Query the context for the roleDN values
-               String[] attrNames = {roleAttributeID};
-               Attributes result = null;
-               if (sr.isRelative()) {
-                  // SECURITY-891
-                  result = sr.getAttributes();
-                  if (result.size() == 0) {
-                     result = ldapCtx.getAttributes(quoteDN(dn), attrNames);
+                  // Query the context for the roleDN values
+                  String[] attrNames = {roleAttributeID};
+                  Attributes result = null;
+                  if (sr.isRelative()) {
+                     // SECURITY-891
+                     result = sr.getAttributes();
+                     if (result.size() == 0) {
+                        result = ldapCtx.getAttributes(quoteDN(dn), attrNames);
+                     }
                   }
-               }
-               else {
-                  result = getAttributesFromReferralEntity(sr, user, userDN);
-               }
-               if (result != null && result.size() > 0)
-               {
-                  Attribute roles = result.get(roleAttributeID);
-                  for (int n = 0; n < roles.size(); n++)
+                  else {
+                     result = getAttributesFromReferralEntity(sr, users);
+                  }
+                  Attribute roleValues = (result != null ? result.get(roleAttributeID) : null);
+                  List<String> granted = new ArrayList<String>();
+                  for (int n = 0; roleValues != null && n < roleValues.size(); n++)
                   {
-                     String roleName = (String) roles.get(n);
+                     String roleName = (String) roleValues.get(n);
                      if(roleAttributeIsDN && parseRoleNameFromDN)
                      {
-                         parseRole(roleName);
+                         parseRole(roleName, granted);
                      }
                      else if (roleAttributeIsDN)
                      {
-                        // Query the roleDN location for the value of roleNameAttributeID
-                        String roleDN = quoteDN(roleName);
-                        String[] returnAttribute = {roleNameAttributeID};
-                        try
-                        {
-                           Attributes result2 = null;
-                           if (sr.isRelative()) {
-                              result2 = ldapCtx.getAttributes(roleDN, returnAttribute);
-                           }
-                           else {
-                              result2 = getAttributesFromReferralEntity(sr, user, userDN);
-                           }
-
+                        if (sr.isRelative()) {
+                           granted.addAll(getRoleNames(ldapCtx, quoteDN(roleName)));
+                        }
+                        else {
+                           Attributes result2 = getAttributesFromReferralEntity(sr, users);
                            Attribute roles2 = (result2 != null ? result2.get(roleNameAttributeID) : null);
-                           if (roles2 != null)
+                           for (int m = 0; roles2 != null && m < roles2.size(); m++)
                            {
-                              for (int m = 0; m < roles2.size(); m++)
-                              {
-                                 roleName = (String) roles2.get(m);
-                                 addRole(roleName);
-                              }
+                              granted.add((String) roles2.get(m));
                            }
                         }
-                        catch (NamingException e)
-                        {
-                           PicketBoxLogger.LOGGER.debugFailureToQueryLDAPAttribute(roleNameAttributeID, roleDN, e);
-                        }
                      }
                      else
                      {
                         // The role attribute value is the role name
-                        addRole(roleName);
+                        granted.add(roleName);
                      }
                   }
+                  roles.addAll(granted);
+                  if (sr.isRelative())
+                     entryRoles.put(dn, granted);
+                  else
+                     cacheable = false;
                }
+               referralsExist = false;
+            }
+            catch (ReferralException e) {
+               ldapCtx = (LdapContext) e.getReferralContext();
+               cacheable = false;
+            }
+            finally
+            {
+               if (results != null)
+                  results.close();
+            }
+         } // while (referralsExist)
+      }
 
-               if (nesting < recursionMax)
-               {
-                  rolesSearch(ldapCtx, constraints, user, dn, recursionMax, nesting + 1);
-               }
+      /**
+       Query the roleDN location for the value of roleNameAttributeID, once per login.
+       */
+      private List<String> getRoleNames(LdapContext ldapCtx, String roleDN)
+      {
+         List<String> names = roleNames.get(roleDN);
+         if (names != null)
+            return names;
+         names = new ArrayList<String>();
+         String[] returnAttribute = {roleNameAttributeID};
+         try
+         {
+            Attributes result2 = ldapCtx.getAttributes(roleDN, returnAttribute);
+            Attribute roles2 = result2.get(roleNameAttributeID);
+            for (int m = 0; roles2 != null && m < roles2.size(); m++)
+            {
+               names.add((String) roles2.get(m));
             }
-            referralsExist = false;
-         }
-         catch (ReferralException e) {
-            ldapCtx = (LdapContext) e.getReferralContext();
          }
-         finally
+         catch (NamingException e)
          {
-            if (results != null)
-               results.close();
+            PicketBoxLogger.LOGGER.debugFailureToQueryLDAPAttribute(roleNameAttributeID, roleDN, e);
          }
-      } // while (referralsExist)
+         roleNames.put(roleDN, names);
+         return names;
+      }
    }
 
    /**
@@ -834,14 +1070,24 @@ public class LdapExtLoginModule extends UsernamePasswordLoginModule
    }
 
    private InitialLdapContext constructInitialLdapContext(String dn, Object credential) throws NamingException
+   {
+       return LdapConnectionPool.getContext(constructLdapContextEnvironment(dn, credential));
+   }
+
+   private void bindUser(String dn, Object credential) throws NamingException
+   {
+       InitialLdapContext userCtx = LdapConnectionPool.getUserContext(constructLdapContextEnvironment(dn, credential));
+       LdapConnectionPool.close(userCtx, null);
+   }
+
+   private Properties constructLdapContextEnvironment(String dn, Object credential)
    {
        String protocol = (String)options.get(Context.SECURITY_PROTOCOL);
        String providerURL = (String) options.get(Context.PROVIDER_URL);
        if (providerURL == null)
           providerURL = "ldap://localhost:" + ((protocol != null && protocol.equals("ssl")) ? "636" : "389");
 
-       Properties env = constructLdapContextEnvironment(providerURL, dn, credential);
-       return new InitialLdapContext(env, null);
+       return constructLdapContextEnvironment(providerURL, dn, credential);
    }
 
    private Properties constructLdapContextEnvironment(String namingProviderURL, String principalDN, Object credential) {
@@ -931,12 +1177,12 @@ public class LdapExtLoginModule extends UsernamePasswordLoginModule
       }
    }
 
-   private void parseRole(String dn)
+   private void parseRole(String dn, Collection<String> roleNames)
    {
-      parseRole(dn, roleNameAttributeID);
+      parseRole(dn, roleNameAttributeID, roleNames);
    }
 
-   private void parseRole(String dn, String roleNameAttributeIdentifier)
+   private void parseRole(String dn, String roleNameAttributeIdentifier, Collection<String> roleNames)
    {
       StringTokenizer st = new StringTokenizer(dn, ",");
       while(st != null && st.hasMoreTokens())
@@ -946,7 +1192,7 @@ public class LdapExtLoginModule extends UsernamePasswordLoginModule
          {
             StringTokenizer kst = new StringTokenizer(keyVal,"=");
             kst.nextToken();
-            addRole(kst.nextToken());
+            roleNames.add(kst.nextToken());
          }
       }
    }
@@ -44,6 +44,7 @@ import javax.security.auth.callback.CallbackHandler;
 
 import org.jboss.security.PicketBoxLogger;
 import org.jboss.security.SimpleGroup;
+import org.jboss.security.util.LdapConnectionPool;
 import org.jboss.security.vault.SecurityVaultUtil;
 
 /**
@@ -124,6 +125,9 @@ import org.jboss.security.vault.SecurityVaultUtil;
  * of the password is that returned by the JaasSecurityDomain#encrypt64(byte[])
  * method. The org.jboss.security.plugins.PBEUtils can also be used to generate
  * the encrypted form.
+ * <li>ldapConnectionPool : A flag indicating if the LDAP connections should be
+ * pooled, see org.jboss.security.util.LdapConnectionPool for the options tuning
+ * the pool. The default is false.
  * </ul>
  * A sample login config:
  * <p>
@@ -228,6 +232,7 @@ public class LdapLoginModule extends UsernamePasswordLoginModule
       Map<String,?> sharedState, Map<String,?> options)
    {
       addValidOptions(ALL_VALID_OPTIONS);
+      addValidOptions(LdapConnectionPool.ALL_VALID_OPTIONS);
       super.initialize(subject, callbackHandler, sharedState, options);
    }
 
@@ -354,12 +359,13 @@ public class LdapLoginModule extends UsernamePasswordLoginModule
       this.traceLDAPEnv(env);
 
       InitialLdapContext ctx = null;
+      NamingException failure = null;
       ClassLoader currentTCCL = SecurityActions.getContextClassLoader();
       try
       {
          if (currentTCCL != null)
             SecurityActions.setContextClassLoader(null);
-         ctx = new InitialLdapContext(env, null);
+         ctx = LdapConnectionPool.getUserContext(env);
          if (PicketBoxLogger.LOGGER.isTraceEnabled())
          {
             PicketBoxLogger.LOGGER.traceSuccessfulLogInToLDAP(ctx.toString());
@@ -368,17 +374,18 @@ public class LdapLoginModule extends UsernamePasswordLoginModule
          if (bindDN != null)
          {
             try {
-               ctx.close();
+               LdapConnectionPool.close(ctx, null);
             }
             catch (NamingException e) {
                PicketBoxLogger.LOGGER.warnProblemClosingOriginalLdapContextDuringRebind(e);
             }
+            ctx = null;
 
             // Rebind the ctx to the bind dn/credentials for the roles searches
             PicketBoxLogger.LOGGER.traceRebindWithConfiguredPrincipal(bindDN);
             env.setProperty(Context.SECURITY_PRINCIPAL, bindDN);
             env.put(Context.SECURITY_CREDENTIALS, bindCredential);
-            ctx = new InitialLdapContext(env, null);
+            ctx = LdapConnectionPool.getContext(env);
          }
 
          /* If a userRolesCtxDNAttributeName was speocified, see if there is a
@@ -531,11 +538,15 @@ public class LdapLoginModule extends UsernamePasswordLoginModule
             }
          }
       }
+      catch (NamingException e)
+      {
+         failure = e;
+         throw e;
+      }
       finally
       {
          // Close the context to release the connection
-         if (ctx != null)
-            ctx.close();
+         LdapConnectionPool.close(ctx, failure);
          if (currentTCCL != null)
             SecurityActions.setContextClassLoader(currentTCCL);
       }
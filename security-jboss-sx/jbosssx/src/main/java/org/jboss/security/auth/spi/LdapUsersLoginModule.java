@@ -42,6 +42,7 @@ import javax.security.auth.login.LoginException;
 import org.jboss.security.PicketBoxLogger;
 import org.jboss.security.PicketBoxMessages;
 import org.jboss.security.Util;
+import org.jboss.security.util.LdapConnectionPool;
 
 /**
  * A login module to authenticate users using a LDAP server.
@@ -137,6 +138,7 @@ public class LdapUsersLoginModule extends UsernamePasswordLoginModule
          Map<String, ?> options)
    {
       addValidOptions(ALL_VALID_OPTIONS);
+      addValidOptions(LdapConnectionPool.ALL_VALID_OPTIONS);
       super.initialize(subject, callbackHandler, sharedState, options);
       bindDN = (String) options.get(BIND_DN);
       bindCredential = (String) options.get(BIND_CREDENTIAL);
@@ -223,6 +225,7 @@ public class LdapUsersLoginModule extends UsernamePasswordLoginModule
    {
       // Get the admin context for searching
       InitialLdapContext ctx = null;
+      Exception failure = null;
       ClassLoader currentTCCL = SecurityActions.getContextClassLoader();
       try
       {
@@ -234,20 +237,25 @@ public class LdapUsersLoginModule extends UsernamePasswordLoginModule
       }
       catch(Exception e)
       {
+    	  failure = e;
     	  throw e;
       }
 	  finally
       {
-         if (ctx != null)
-            ctx.close();
+         LdapConnectionPool.close(ctx, failure);
          if (currentTCCL != null)
             SecurityActions.setContextClassLoader(currentTCCL);
       }
       return true;
    }
    
-   @SuppressWarnings("rawtypes")
    private InitialLdapContext constructInitialLdapContext(String dn, Object credential) throws NamingException
+   {
+      return LdapConnectionPool.getContext(constructLdapContextEnvironment(dn, credential));
+   }
+
+   @SuppressWarnings("rawtypes")
+   private Properties constructLdapContextEnvironment(String dn, Object credential)
    {
       Properties env = new Properties();
       Iterator iter = options.entrySet().iterator();
@@ -279,7 +287,7 @@ public class LdapUsersLoginModule extends UsernamePasswordLoginModule
       if (credential != null)
          env.put(Context.SECURITY_CREDENTIALS, credential);
       this.traceLDAPEnv(env);
-      return new InitialLdapContext(env, null);
+      return env;
    }
    
    protected String bindDNAuthentication(InitialLdapContext ctx, String user, Object credential, String baseDN,
@@ -324,8 +332,8 @@ public class LdapUsersLoginModule extends UsernamePasswordLoginModule
       results.close();
       results = null;
       // Bind as the user dn to authenticate the user
-      InitialLdapContext userCtx = constructInitialLdapContext(userDN, credential);
-      userCtx.close();
+      InitialLdapContext userCtx = LdapConnectionPool.getUserContext(constructLdapContextEnvironment(userDN, credential));
+      LdapConnectionPool.close(userCtx, null);
 
       return userDN;
    }
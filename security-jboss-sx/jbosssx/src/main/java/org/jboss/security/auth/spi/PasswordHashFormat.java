@@ -0,0 +1,76 @@
+/*
+  * JBoss, Home of Professional Open Source
+  * Copyright 2026, Red Hat, Inc., and individual contributors as indicated
+  * by the @authors tag. See the copyright.txt in the distribution for a
+  * full listing of individual contributors.
+  *
+  * This is free software; you can redistribute it and/or modify it
+  * under the terms of the GNU Lesser General Public License as
+  * published by the Free Software Foundation; either version 2.1 of
+  * the License, or (at your option) any later version.
+  *
+  * This software is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+  * Lesser General Public License for more details.
+  *
+  * You should have received a copy of the GNU Lesser General Public
+  * License along with this software; if not, write to the Free
+  * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+  */
+package org.jboss.security.auth.spi;
+
+import java.security.GeneralSecurityException;
+
+/**
+ * A self describing, salted password hash format such as PBKDF2, bcrypt or scrypt. Hashes of a
+ * format start with {@code $name$} so that the format of a stored password can be recognized
+ * from its prefix, see {@link AdaptivePasswordVerifier#findFormat(String)}.
+ * <p>
+ * Implementations must be thread safe.
+ */
+public interface PasswordHashFormat
+{
+   /**
+    * Get the name of the format, i.e. the text between the first two {@code $} of its hashes.
+    *
+    * @return the name of the format
+    */
+   String getName();
+
+   /**
+    * Check a password against a hash of this format.
+    *
+    * @param password - the password entered by the user
+    * @param hash - the stored hash
+    * @return true if the hash was created from the password
+    * @throws GeneralSecurityException if the hash cannot be parsed or computed
+    */
+   boolean verify(String password, String hash) throws GeneralSecurityException;
+
+   /**
+    * Create a hash of a password with a new random salt and the cost of this format.
+    *
+    * @param password - the password to hash
+    * @return the hash, including its {@code $name$} prefix
+    * @throws GeneralSecurityException if the hash cannot be computed
+    */
+   String hash(String password) throws GeneralSecurityException;
+
+   /**
+    * Check whether a hash of this format was created with a lower cost than the current one.
+    *
+    * @param hash - the stored hash
+    * @return true if the password should be hashed again
+    */
+   boolean needsRehash(String hash);
+
+   /**
+    * Get a format that creates hashes with the given cost, e.g. the number of iterations.
+    *
+    * @param cost - the format specific cost
+    * @return the format with the given cost
+    */
+   PasswordHashFormat withCost(int cost);
+}
@@ -0,0 +1,208 @@
+/*
+  * JBoss, Home of Professional Open Source
+  * Copyright 2026, Red Hat, Inc., and individual contributors as indicated
+  * by the @authors tag. See the copyright.txt in the distribution for a
+  * full listing of individual contributors.
+  *
+  * This is free software; you can redistribute it and/or modify it
+  * under the terms of the GNU Lesser General Public License as
+  * published by the Free Software Foundation; either version 2.1 of
+  * the License, or (at your option) any later version.
+  *
+  * This software is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+  * Lesser General Public License for more details.
+  *
+  * You should have received a copy of the GNU Lesser General Public
+  * License along with this software; if not, write to the Free
+  * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+  */
+package org.jboss.security.auth.spi;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jboss.crypto.digest.DigestCallback;
+import org.jboss.security.PicketBoxLogger;
+
+/**
+ * A password hash calculator for one hashAlgorithm/hashEncoding/hashCharset combination. The charset
+ * and the encoding are resolved once and each thread digests through its own clone of a prototype
+ * {@code MessageDigest}, so hashing a password does not look up the JCA providers again.
+ * <p>
+ * Hashers are shared: use {@link #getHasher(String, String, String)} to obtain the one for a
+ * configuration. The hashes are identical to the ones computed by earlier versions of
+ * {@link Util#createPasswordHash(String, String, String, String, String, DigestCallback)}.
+ */
+public final class PasswordHasher
+{
+   private static final int MAX_HASHERS = 256;
+
+   /** The hashers by configuration, the least recently used is dropped above MAX_HASHERS */
+   private static final Map<String, PasswordHasher> hashers = new LinkedHashMap<String, PasswordHasher>(16, 0.75f, true)
+   {
+      private static final long serialVersionUID = 1L;
+
+      protected boolean removeEldestEntry(Map.Entry<String, PasswordHasher> eldest)
+      {
+         return size() > MAX_HASHERS;
+      }
+   };
+
+   private static final int BASE64 = 0;
+   private static final int BASE16 = 1;
+   private static final int RFC2617 = 2;
+   private static final int UNSUPPORTED = -1;
+
+   private final String hashAlgorithm;
+
+   private final String hashEncoding;
+
+   private final int encoding;
+
+   private final Charset charset;
+
+   /** The digest the per thread ones are cloned from, null if it cannot be cloned */
+   private final MessageDigest prototype;
+
+   private final ThreadLocal<MessageDigest> digests = new ThreadLocal<MessageDigest>();
+
+   private PasswordHasher(String hashAlgorithm, String hashEncoding, String hashCharset)
+   {
+      this.hashAlgorithm = hashAlgorithm;
+      this.hashEncoding = hashEncoding;
+      if (Util.BASE64_ENCODING.equalsIgnoreCase(hashEncoding))
+         encoding = BASE64;
+      else if (Util.BASE16_ENCODING.equalsIgnoreCase(hashEncoding))
+         encoding = BASE16;
+      else if (Util.RFC2617_ENCODING.equalsIgnoreCase(hashEncoding))
+         encoding = RFC2617;
+      else
+         encoding = UNSUPPORTED;
+
+      Charset cs = Charset.defaultCharset();
+      if (hashCharset != null)
+      {
+         try
+         {
+            cs = Charset.forName(hashCharset);
+         }
+         catch (IllegalArgumentException e)
+         {
+            PicketBoxLogger.LOGGER.errorFindingCharset(hashCharset, e);
+         }
+      }
+      charset = cs;
+
+      MessageDigest md = null;
+      try
+      {
+         md = MessageDigest.getInstance(hashAlgorithm);
+         md.clone();
+      }
+      catch (NoSuchAlgorithmException e)
+      {
+         // reported on every hash, as before
+         md = null;
+      }
+      catch (CloneNotSupportedException e)
+      {
+         md = null;
+      }
+      prototype = md;
+   }
+
+   /**
+    * Obtain the shared hasher of a configuration.
+    *
+    * @param hashAlgorithm - the MessageDigest algorithm name
+    * @param hashEncoding - base64, hex or rfc2617
+    * @param hashCharset - the charset used to convert the password to bytes, null for the platform default
+    * @return the hasher
+    */
+   public static PasswordHasher getHasher(String hashAlgorithm, String hashEncoding, String hashCharset)
+   {
+      String key = hashAlgorithm + '\n' + hashEncoding + '\n' + hashCharset;
+      PasswordHasher hasher;
+      synchronized (hashers)
+      {
+         hasher = hashers.get(key);
+      }
+      if (hasher == null)
+      {
+         hasher = new PasswordHasher(hashAlgorithm, hashEncoding, hashCharset);
+         synchronized (hashers)
+         {
+            PasswordHasher existing = hashers.get(key);
+            if (existing != null)
+               hasher = existing;
+            else
+               hashers.put(key, hasher);
+         }
+      }
+      return hasher;
+   }
+
+   /**
+    * Calculate the hash of a password.
+    *
+    * @param password - the password string to be hashed
+    * @param callback - the callback used to add pre/post digest content, may be null
+    * @return the hashed string if successful, null if there is a digest exception or the
+    *  encoding is not supported
+    */
+   public String hash(String password, DigestCallback callback)
+   {
+      byte[] passBytes = password.getBytes(charset);
+      try
+      {
+         MessageDigest md = getDigest();
+         if( callback != null )
+            callback.preDigest(md);
+         md.update(passBytes);
+         if( callback != null )
+            callback.postDigest(md);
+         byte[] hash = md.digest();
+         switch (encoding)
+         {
+            case BASE64:
+               return Util.encodeBase64(hash);
+            case BASE16:
+               return Util.encodeBase16(hash);
+            case RFC2617:
+               return Util.encodeRFC2617(hash);
+            default:
+               PicketBoxLogger.LOGGER.unsupportedHashEncodingFormat(hashEncoding);
+               return null;
+         }
+      }
+      catch(Exception e)
+      {
+         PicketBoxLogger.LOGGER.errorCalculatingPasswordHash(e);
+         return null;
+      }
+   }
+
+   private MessageDigest getDigest() throws NoSuchAlgorithmException, CloneNotSupportedException
+   {
+      if (prototype == null)
+         return MessageDigest.getInstance(hashAlgorithm);
+      MessageDigest md = digests.get();
+      if (md == null)
+      {
+         md = (MessageDigest) prototype.clone();
+         digests.set(md);
+      }
+      else
+      {
+         // a callback may have failed part way through the previous hash
+         md.reset();
+      }
+      return md;
+   }
+}
@@ -0,0 +1,183 @@
+/*
+  * JBoss, Home of Professional Open Source
+  * Copyright 2026, Red Hat, Inc., and individual contributors as indicated
+  * by the @authors tag. See the copyright.txt in the distribution for a
+  * full listing of individual contributors.
+  *
+  * This is free software; you can redistribute it and/or modify it
+  * under the terms of the GNU Lesser General Public License as
+  * published by the Free Software Foundation; either version 2.1 of
+  * the License, or (at your option) any later version.
+  *
+  * This software is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+  * Lesser General Public License for more details.
+  *
+  * You should have received a copy of the GNU Lesser General Public
+  * License along with this software; if not, write to the Free
+  * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+  */
+package org.jboss.security.auth.spi;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import org.jboss.security.PicketBoxMessages;
+
+/**
+ * The PBKDF2 password hash formats, with hashes of the form
+ * <pre>
+ *    $pbkdf2-sha256$iterations$salt$checksum
+ * </pre>
+ * where the salt and the checksum use base64 without padding, with '.' in place of '+'. The
+ * formats are {@code pbkdf2} (HMAC-SHA1), {@code pbkdf2-sha256} and {@code pbkdf2-sha512}, the
+ * hashes are compatible with the ones of the passlib library.
+ */
+public class Pbkdf2PasswordHashFormat implements PasswordHashFormat
+{
+   public static final String PBKDF2_SHA1 = "pbkdf2";
+
+   public static final String PBKDF2_SHA256 = "pbkdf2-sha256";
+
+   public static final String PBKDF2_SHA512 = "pbkdf2-sha512";
+
+   private static final int SALT_LENGTH = 16;
+
+   private static final SecureRandom random = new SecureRandom();
+
+   private final String name;
+
+   private final String prefix;
+
+   private final String algorithm;
+
+   private final int keyLength;
+
+   private final int iterations;
+
+   /**
+    * Create a format.
+    *
+    * @param name - one of {@link #PBKDF2_SHA1}, {@link #PBKDF2_SHA256} or {@link #PBKDF2_SHA512}
+    * @param iterations - the number of iterations of the hashes created
+    */
+   public Pbkdf2PasswordHashFormat(String name, int iterations)
+   {
+      if (PBKDF2_SHA1.equals(name))
+      {
+         algorithm = "PBKDF2WithHmacSHA1";
+         keyLength = 20;
+      }
+      else if (PBKDF2_SHA256.equals(name))
+      {
+         algorithm = "PBKDF2WithHmacSHA256";
+         keyLength = 32;
+      }
+      else if (PBKDF2_SHA512.equals(name))
+      {
+         algorithm = "PBKDF2WithHmacSHA512";
+         keyLength = 64;
+      }
+      else
+         throw PicketBoxMessages.MESSAGES.unsupportedAlgorithm(name);
+      this.name = name;
+      this.prefix = "$" + name + "$";
+      this.iterations = iterations;
+   }
+
+   public String getName()
+   {
+      return name;
+   }
+
+   public boolean verify(String password, String hash) throws GeneralSecurityException
+   {
+      String[] parts = parse(hash);
+      int rounds = rounds(parts[0]);
+      byte[] salt = decode(parts[1]);
+      byte[] expected = decode(parts[2]);
+      return MessageDigest.isEqual(expected, derive(password, salt, rounds, expected.length));
+   }
+
+   public String hash(String password) throws GeneralSecurityException
+   {
+      byte[] salt = new byte[SALT_LENGTH];
+      random.nextBytes(salt);
+      byte[] checksum = derive(password, salt, iterations, keyLength);
+      return prefix + iterations + "$" + encode(salt) + "$" + encode(checksum);
+   }
+
+   public boolean needsRehash(String hash)
+   {
+      try
+      {
+         return rounds(parse(hash)[0]) < iterations;
+      }
+      catch (GeneralSecurityException e)
+      {
+         return true;
+      }
+   }
+
+   public PasswordHashFormat withCost(int cost)
+   {
+      return new Pbkdf2PasswordHashFormat(name, cost);
+   }
+
+   private String[] parse(String hash) throws GeneralSecurityException
+   {
+      String[] parts = hash.startsWith(prefix) ? hash.substring(prefix.length()).split("\\$") : null;
+      if (parts == null || parts.length != 3)
+         throw new GeneralSecurityException(PicketBoxMessages.MESSAGES.invalidPasswordHashMessage(name));
+      return parts;
+   }
+
+   private int rounds(String rounds) throws GeneralSecurityException
+   {
+      try
+      {
+         return Integer.parseInt(rounds);
+      }
+      catch (NumberFormatException e)
+      {
+         throw new GeneralSecurityException(PicketBoxMessages.MESSAGES.invalidPasswordHashMessage(name), e);
+      }
+   }
+
+   private byte[] derive(String password, byte[] salt, int rounds, int length) throws GeneralSecurityException
+   {
+      PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, rounds, length * 8);
+      try
+      {
+         return SecretKeyFactory.getInstance(algorithm).generateSecret(spec).getEncoded();
+      }
+      finally
+      {
+         spec.clearPassword();
+      }
+   }
+
+   private static String encode(byte[] data)
+   {
+      return Base64.getEncoder().withoutPadding().encodeToString(data).replace('+', '.');
+   }
+
+   private static byte[] decode(String data) throws GeneralSecurityException
+   {
+      try
+      {
+         return Base64.getDecoder().decode(data.replace('.', '+'));
+      }
+      catch (IllegalArgumentException e)
+      {
+         throw new GeneralSecurityException(e);
+      }
+   }
+}
@@ -0,0 +1,588 @@
+/*
+  * JBoss, Home of Professional Open Source
+  * Copyright 2026, Red Hat, Inc., and individual contributors as indicated
+  * by the @authors tag. See the copyright.txt in the distribution for a
+  * full listing of individual contributors.
+  *
+  * This is free software; you can redistribute it and/or modify it
+  * under the terms of the GNU Lesser General Public License as
+  * published by the Free Software Foundation; either version 2.1 of
+  * the License, or (at your option) any later version.
+  *
+  * This software is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+  * Lesser General Public License for more details.
+  *
+  * You should have received a copy of the GNU Lesser General Public
+  * License along with this software; if not, write to the Free
+  * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+  */
+package org.jboss.security.auth.spi;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.PrivilegedActionException;
+import java.security.acl.Group;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.WeakHashMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jboss.security.PicketBoxLogger;
+import org.jboss.security.PicketBoxMessages;
+import org.jboss.security.SimpleGroup;
+
+/**
+ * A process wide store of parsed users/roles properties files keyed by the class loader the
+ * file was resolved through and the resolved URL of the file. JAAS creates a new login module for every authentication, so loading the
+ * files through this store means a login is reduced to hash lookups against an already
+ * parsed snapshot instead of re-reading and re-parsing the files.
+ * <p>
+ * A store backed by a {@code file:} URL checks the modification time and length of the
+ * file on access and atomically swaps in a freshly parsed snapshot when they change. Any
+ * other URL (e.g. a jar entry) is considered immutable until {@link #flush()} is called.
+ * The stores of a class loader are only weakly reachable through it, so they are released
+ * along with the loader of an undeployed application.
+ * <p>
+ * The {@code Properties} returned by {@link #getProperties()} are shared by all callers
+ * and reject any modification.
+ */
+public final class PropertiesStore
+{
+   private static final String ROLES_GROUP = "Roles";
+
+   private static final Map<ClassLoader, ConcurrentMap<String, PropertiesStore>> stores =
+      new WeakHashMap<ClassLoader, ConcurrentMap<String, PropertiesStore>>();
+
+   private final URL url;
+
+   private final String propertiesName;
+
+   /** The file backing the store, or null if the URL is not a file URL */
+   private final File file;
+
+   private volatile Snapshot snapshot;
+
+   private PropertiesStore(URL url, String propertiesName, Snapshot snapshot)
+   {
+      this.url = url;
+      this.propertiesName = propertiesName;
+      this.file = toFile(url);
+      this.snapshot = snapshot;
+   }
+
+   /**
+    * Obtain the store for the given properties resource. The resource is located the same way
+    * as {@code Util.loadProperties(String)} does, i.e. through the thread context class loader,
+    * then as a URL and finally as a file path.
+    *
+    * @param propertiesName - the name of the properties file resource
+    * @return the shared store of the resolved properties file
+    * @throws IOException if the properties file cannot be found or loaded
+    */
+   public static PropertiesStore getStore(String propertiesName) throws IOException
+   {
+      ClassLoader loader = SecurityActions.getContextClassLoader();
+      URL url = findResource(loader, propertiesName);
+      if (url == null)
+         throw PicketBoxMessages.MESSAGES.unableToFindPropertiesFile(propertiesName);
+      return getStore(loader, url, propertiesName);
+   }
+
+   /**
+    * Obtain the store for the given properties resource falling back to the defaults resource
+    * when the former cannot be found. This mirrors {@code Util.loadProperties(String, String)}:
+    * a defaults file that cannot be loaded results in an empty (and uncached) store.
+    *
+    * @param defaultsName - the name of the default properties file resource
+    * @param propertiesName - the name of the properties file resource
+    * @return the store of the resolved properties file
+    * @throws IOException if neither file can be found or the properties file cannot be loaded
+    */
+   public static PropertiesStore getStore(String defaultsName, String propertiesName) throws IOException
+   {
+      ClassLoader loader = SecurityActions.getContextClassLoader();
+      URL url = findResource(loader, propertiesName);
+      if (url != null)
+         return getStore(loader, url, propertiesName);
+      URL defaultUrl = findResource(loader, defaultsName);
+      if (defaultUrl == null)
+         throw PicketBoxMessages.MESSAGES.unableToFindPropertiesFile(propertiesName + "/" + defaultsName);
+      try
+      {
+         return getStore(loader, defaultUrl, defaultsName);
+      }
+      catch (Throwable e)
+      {
+         PicketBoxLogger.LOGGER.debugFailureToLoadPropertiesFile(defaultsName, e);
+         return new PropertiesStore(defaultUrl, defaultsName, new Snapshot(new ReadOnlyProperties(new Properties()), 0, 0));
+      }
+   }
+
+   /**
+    * Discard all the cached properties files, forcing them to be loaded again on next use.
+    */
+   public static void flush()
+   {
+      synchronized (stores)
+      {
+         stores.clear();
+      }
+   }
+
+   /**
+    * Get the current parsed contents of the properties file, reloading it first if the
+    * backing file has been modified.
+    *
+    * @return the shared properties, which throw an {@code UnsupportedOperationException}
+    *    on any attempt to modify them
+    */
+   public Properties getProperties()
+   {
+      return getSnapshot().properties;
+   }
+
+   /**
+    * Get the roles assigned to the given user by a {@code username=role1,role2,...} entry
+    * of the current contents of the properties file.
+    *
+    * @param username - the name of the user
+    * @return the role names, or null if the user has no entry
+    */
+   public String[] getRoles(String username)
+   {
+      Snapshot current = getSnapshot();
+      Map<String, String[]> roles = current.roles;
+      if (roles == null)
+      {
+         roles = new HashMap<String, String[]>();
+         for (String name : current.properties.stringPropertyNames())
+            roles.put(name, current.properties.getProperty(name).split(","));
+         current.roles = roles;
+      }
+      return roles.get(username);
+   }
+
+   /**
+    * Create the role sets of the given user using the index of the roles properties
+    * by user and role group. The result is the same as the one of
+    * {@code Util.getRoleSets(String, Properties, char, AbstractServerLoginModule)}.
+    *
+    * @param properties - the properties previously obtained from this store
+    * @param targetUser - the username to obtain roles for
+    * @param roleGroupSeperator - the character that seperates a username from a group name
+    * @param aslm - the login module to use for Principal creation
+    * @return the role sets, or null if the given properties are not the current contents
+    *    of this store
+    */
+   Group[] getRoleSets(Properties properties, String targetUser, char roleGroupSeperator,
+      AbstractServerLoginModule aslm)
+   {
+      Snapshot current = this.snapshot;
+      if (current.properties != properties)
+         return null;
+      Map<String, Map<String, List<String>>> index = current.getRoleSetsIndex(roleGroupSeperator);
+      Map<String, List<String>> roleSets = targetUser != null ? index.get(targetUser) : null;
+      if (roleSets == null)
+         return new Group[] {new SimpleGroup(ROLES_GROUP)};
+
+      Group[] groups = new Group[roleSets.containsKey(ROLES_GROUP) ? roleSets.size() : roleSets.size() + 1];
+      groups[0] = new SimpleGroup(ROLES_GROUP);
+      int i = 1;
+      for (Map.Entry<String, List<String>> entry : roleSets.entrySet())
+      {
+         Group group = ROLES_GROUP.equals(entry.getKey()) ? groups[0] : (groups[i++] = new SimpleGroup(entry.getKey()));
+         for (String role : entry.getValue())
+         {
+            try
+            {
+               group.addMember(aslm.createIdentity(role));
+            }
+            catch (Exception e)
+            {
+               PicketBoxLogger.LOGGER.debugFailureToCreatePrincipal(role, e);
+            }
+         }
+      }
+      return groups;
+   }
+
+   private Snapshot getSnapshot()
+   {
+      Snapshot current = this.snapshot;
+      if (file == null)
+         return current;
+      long lastModified = file.lastModified();
+      long length = file.length();
+      if (lastModified == current.lastModified && length == current.length)
+         return current;
+      synchronized (this)
+      {
+         current = this.snapshot;
+         if (lastModified != current.lastModified || length != current.length)
+         {
+            PicketBoxLogger.LOGGER.tracePropertiesFileModified(propertiesName);
+            try
+            {
+               current = load(url, propertiesName, file);
+               this.snapshot = current;
+            }
+            catch (IOException e)
+            {
+               // keep serving the last good contents
+               PicketBoxLogger.LOGGER.debugFailureToLoadPropertiesFile(propertiesName, e);
+            }
+         }
+      }
+      return current;
+   }
+
+   private static PropertiesStore getStore(ClassLoader loader, URL url, String propertiesName) throws IOException
+   {
+      ConcurrentMap<String, PropertiesStore> loaderStores;
+      synchronized (stores)
+      {
+         loaderStores = stores.get(loader);
+         if (loaderStores == null)
+         {
+            loaderStores = new ConcurrentHashMap<String, PropertiesStore>();
+            stores.put(loader, loaderStores);
+         }
+      }
+      String key = url.toExternalForm();
+      PropertiesStore store = loaderStores.get(key);
+      if (store == null)
+      {
+         store = new PropertiesStore(url, propertiesName, load(url, propertiesName, toFile(url)));
+         PropertiesStore existing = loaderStores.putIfAbsent(key, store);
+         if (existing != null)
+            store = existing;
+      }
+      return store;
+   }
+
+   private static Snapshot load(URL url, String propertiesName, File file) throws IOException
+   {
+      // read the file attributes first so a concurrent modification triggers another reload
+      long lastModified = file != null ? file.lastModified() : 0;
+      long length = file != null ? file.length() : 0;
+      Properties bundle = new Properties();
+      InputStream is = null;
+      try
+      {
+         is = SecurityActions.openStream(url);
+      }
+      catch (PrivilegedActionException e)
+      {
+         throw new IOException(e.getLocalizedMessage());
+      }
+      if (is == null)
+         throw PicketBoxMessages.MESSAGES.unableToLoadPropertiesFile(propertiesName);
+      try
+      {
+         bundle.load(is);
+      }
+      finally
+      {
+         try
+         {
+            is.close();
+         }
+         catch (IOException ignored)
+         {
+         }
+      }
+      if (PicketBoxLogger.LOGGER.isTraceEnabled())
+      {
+         PicketBoxLogger.LOGGER.tracePropertiesFileLoaded(propertiesName, bundle.keySet());
+      }
+      return new Snapshot(new ReadOnlyProperties(bundle), lastModified, length);
+   }
+
+   private static URL findResource(ClassLoader loader, String propertiesName) throws IOException
+   {
+      URL url = null;
+      // First check for local visibility via a URLClassLoader.findResource
+      if (loader instanceof URLClassLoader)
+      {
+         url = SecurityActions.findResource((URLClassLoader) loader, propertiesName);
+         PicketBoxLogger.LOGGER.traceAttemptToLoadResource(propertiesName);
+      }
+      // Do a general resource search
+      if (url == null)
+         url = loader.getResource(propertiesName);
+      if (url == null)
+      {
+         try
+         {
+            url = new URL(propertiesName);
+         }
+         catch (MalformedURLException mue)
+         {
+            PicketBoxLogger.LOGGER.debugFailureToOpenPropertiesFromURL(mue);
+            File tmp = new File(propertiesName);
+            if (tmp.exists())
+               url = tmp.toURI().toURL();
+         }
+      }
+      return url;
+   }
+
+   private static File toFile(URL url)
+   {
+      if (!"file".equals(url.getProtocol()))
+         return null;
+      try
+      {
+         return new File(url.toURI());
+      }
+      catch (URISyntaxException e)
+      {
+         return new File(url.getPath());
+      }
+      catch (IllegalArgumentException e)
+      {
+         return null;
+      }
+   }
+
+   /**
+    * The parsed contents of a properties file as handed out to the login modules and mapping
+    * providers. The entries are copied in on creation and every mutator, including those of
+    * the key, value and entry views, throws an {@code UnsupportedOperationException}.
+    */
+   private static final class ReadOnlyProperties extends Properties
+   {
+      private static final long serialVersionUID = 1L;
+
+      private final boolean sealed;
+
+      ReadOnlyProperties(Properties contents)
+      {
+         super.putAll(contents);
+         this.sealed = true;
+      }
+
+      @Override
+      public synchronized Object put(Object key, Object value)
+      {
+         // Hashtable.putAll goes through put while the entries are being copied in
+         if (sealed)
+            throw new UnsupportedOperationException();
+         return super.put(key, value);
+      }
+
+      @Override
+      public synchronized void putAll(Map<?, ?> t)
+      {
+         if (sealed)
+            throw new UnsupportedOperationException();
+         super.putAll(t);
+      }
+
+      @Override
+      public synchronized Object remove(Object key)
+      {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public synchronized boolean remove(Object key, Object value)
+      {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public synchronized void clear()
+      {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public synchronized Object putIfAbsent(Object key, Object value)
+      {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public synchronized boolean replace(Object key, Object oldValue, Object newValue)
+      {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public synchronized Object replace(Object key, Object value)
+      {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public synchronized void replaceAll(BiFunction<? super Object, ? super Object, ?> function)
+      {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public synchronized Object computeIfAbsent(Object key, Function<? super Object, ?> mappingFunction)
+      {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public synchronized Object computeIfPresent(Object key, BiFunction<? super Object, ? super Object, ?> remappingFunction)
+      {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public synchronized Object compute(Object key, BiFunction<? super Object, ? super Object, ?> remappingFunction)
+      {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public synchronized Object merge(Object key, Object value, BiFunction<? super Object, ? super Object, ?> remappingFunction)
+      {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public synchronized void load(Reader reader) throws IOException
+      {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public synchronized void load(InputStream inStream) throws IOException
+      {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public synchronized void loadFromXML(InputStream in) throws IOException
+      {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public Set<Object> keySet()
+      {
+         return Collections.unmodifiableSet(super.keySet());
+      }
+
+      @Override
+      public Set<Map.Entry<Object, Object>> entrySet()
+      {
+         return Collections.unmodifiableSet(super.entrySet());
+      }
+
+      @Override
+      public Collection<Object> values()
+      {
+         return Collections.unmodifiableCollection(super.values());
+      }
+   }
+
+   /**
+    * An immutable parsed version of the properties file along with the lazily built
+    * lookup structures derived from it.
+    */
+   private static class Snapshot
+   {
+      private final Properties properties;
+
+      private final long lastModified;
+
+      private final long length;
+
+      /** The username=role1,role2 entries already split, see getRoles */
+      private volatile Map<String, String[]> roles;
+
+      /** The user -> role group -> role names indexes by role group separator */
+      private final ConcurrentMap<Character, Map<String, Map<String, List<String>>>> roleSets =
+         new ConcurrentHashMap<Character, Map<String, Map<String, List<String>>>>();
+
+      Snapshot(Properties properties, long lastModified, long length)
+      {
+         this.properties = properties;
+         this.lastModified = lastModified;
+         this.length = length;
+      }
+
+      Map<String, Map<String, List<String>>> getRoleSetsIndex(char roleGroupSeperator)
+      {
+         Map<String, Map<String, List<String>>> index = roleSets.get(roleGroupSeperator);
+         if (index == null)
+         {
+            index = buildRoleSetsIndex(roleGroupSeperator);
+            roleSets.putIfAbsent(roleGroupSeperator, index);
+         }
+         return index;
+      }
+
+      /**
+       * An entry user[.GroupName]=roles applies to "user" with the group "GroupName" for every
+       * position of the separator in the key (JBAS-3742 - a username may itself contain the
+       * separator) and to the whole key with the default "Roles" group.
+       */
+      private Map<String, Map<String, List<String>>> buildRoleSetsIndex(char roleGroupSeperator)
+      {
+         Map<String, Map<String, List<String>>> index = new HashMap<String, Map<String, List<String>>>();
+         for (String key : properties.stringPropertyNames())
+         {
+            List<String> roles = parseRoles(properties.getProperty(key));
+            addRoles(index, key, ROLES_GROUP, roles);
+            for (int i = key.indexOf(roleGroupSeperator, 1); i > 0; i = key.indexOf(roleGroupSeperator, i + 1))
+               addRoles(index, key.substring(0, i), key.substring(i + 1), roles);
+         }
+         return index;
+      }
+
+      private static void addRoles(Map<String, Map<String, List<String>>> index, String user, String group,
+         List<String> roles)
+      {
+         Map<String, List<String>> groups = index.get(user);
+         if (groups == null)
+         {
+            groups = new HashMap<String, List<String>>();
+            index.put(user, groups);
+         }
+         List<String> members = groups.get(group);
+         if (members == null)
+            groups.put(group, roles);
+         else
+         {
+            List<String> merged = new ArrayList<String>(members);
+            merged.addAll(roles);
+            groups.put(group, Collections.unmodifiableList(merged));
+         }
+      }
+
+      private static List<String> parseRoles(String roles)
+      {
+         List<String> names = new ArrayList<String>();
+         StringTokenizer tokenizer = new StringTokenizer(roles, ",");
+         while (tokenizer.hasMoreTokens())
+            names.add(tokenizer.nextToken());
+         return Collections.unmodifiableList(names);
+      }
+   }
+}
@@ -35,9 +35,13 @@ import javax.security.auth.login.LoginException;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.ref.WeakReference;
 import java.security.Principal;
+import java.security.PrivilegedActionException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.WeakHashMap;
 
 
 /** An abstract subclass of AbstractServerLoginModule that imposes
@@ -71,6 +75,12 @@ public abstract class UsernamePasswordLoginModule extends AbstractServerLoginMod
    private static final String THROW_VALIDATE_ERROR = "throwValidateError";
    private static final String INPUT_VALIDATOR = "inputValidator";
    private static final String PASS_IS_A1_HASH = "passwordIsA1Hash";
+   private static final String ADAPTIVE_HASHING = "adaptiveHashing";
+   private static final String ADAPTIVE_HASH_FORMATS = "adaptiveHashFormats";
+   private static final String ADAPTIVE_HASH_THREADS = "adaptiveHashThreads";
+   private static final String ADAPTIVE_HASH_CACHE_TIMEOUT = "adaptiveHashCacheTimeout";
+   private static final String ADAPTIVE_HASH_COST = "adaptiveHashCost";
+   private static final String REHASH_ON_LOGIN = "rehashOnLogin";
 
    private static final String[] ALL_VALID_OPTIONS =
    {
@@ -78,9 +88,15 @@ public abstract class UsernamePasswordLoginModule extends AbstractServerLoginMod
      HASH_STORE_PASSWORD,HASH_USER_PASSWORD,
      DIGEST_CALLBACK,STORE_DIGEST_CALLBACK,
      IGNORE_PASSWORD_CASE,LEGACY_CREATE_PASSWORD_HASH,
-     THROW_VALIDATE_ERROR,INPUT_VALIDATOR, PASS_IS_A1_HASH
+     THROW_VALIDATE_ERROR,INPUT_VALIDATOR, PASS_IS_A1_HASH,
+     ADAPTIVE_HASHING,ADAPTIVE_HASH_FORMATS,ADAPTIVE_HASH_THREADS,
+     ADAPTIVE_HASH_CACHE_TIMEOUT,ADAPTIVE_HASH_COST,REHASH_ON_LOGIN
    };
    
+   /** The DigestCallback classes by class name and module, by thread context class loader */
+   private static final Map<ClassLoader, Map<String, WeakReference<Class<?>>>> digestCallbackClasses =
+      new WeakHashMap<ClassLoader, Map<String, WeakReference<Class<?>>>>();
+
    /** The login identity */
    private Principal identity;
    /** The proof of login identity */
@@ -94,6 +110,8 @@ public abstract class UsernamePasswordLoginModule extends AbstractServerLoginMod
    private String hashCharset = null;
    /** the string encoding format to use. Defaults to base64. */
    private String hashEncoding = null;
+   /** The shared hasher of the hashAlgorithm/hashEncoding/hashCharset combination */
+   private PasswordHasher passwordHasher;
    /** A flag indicating if the password comparison should ignore case */
    private boolean ignorePasswordCase;
    /** A flag indicating if the store password should be hashed using the hashAlgorithm  */
@@ -111,6 +129,13 @@ public abstract class UsernamePasswordLoginModule extends AbstractServerLoginMod
 
    /** The input validator instance used to validate the username and password supplied by the client. */
    private InputValidator inputValidator = null;
+
+   /** The verifier of the adaptive password hashes, null if adaptive hashing is disabled */
+   private AdaptivePasswordVerifier adaptiveVerifier;
+   /** The formats of the adaptiveHashFormats option by name, only known to this login module */
+   private Map<String, PasswordHashFormat> adaptiveFormats = Collections.emptyMap();
+   /** The format the password of a user is rehashed to on a successful login, null to keep the stored password */
+   private PasswordHashFormat rehashFormat;
    
    /** Override the superclass method to look for the following options after
     first invoking the super version.
@@ -133,6 +158,18 @@ public abstract class UsernamePasswordLoginModule extends AbstractServerLoginMod
       implementation that includes pre/post digest content like salts for hashing
       the store/expected password. Only used if hashStorePassword or hashUserPassword is true and
       hashAlgorithm has been specified.
+    option: adaptiveHashing - A flag indicating if stored passwords with a {@code $name$} prefix of a
+      {@link PasswordHashFormat}, e.g. {@code $pbkdf2-sha256$}, are verified by that format.
+    option: adaptiveHashFormats - A comma separated list of the class names of additional
+      {@link PasswordHashFormat} implementations, e.g. bcrypt or scrypt.
+    option: adaptiveHashThreads - The maximum number of concurrent adaptive hash computations.
+      Defaults to the number of processors, 0 computes the hashes on the login thread.
+    option: adaptiveHashCacheTimeout - The time in milliseconds a successful adaptive hash verification
+      is remembered. Defaults to 0, i.e. every login computes the hash.
+    option: rehashOnLogin - The name of the format the password of a user is rehashed to on a successful
+      login if it is stored in another format, implies adaptiveHashing. The new hash is passed to
+      {@link #updatePasswordHash(String, String)}.
+    option: adaptiveHashCost - The cost, e.g. the number of iterations, of the rehashOnLogin format.
     */
    @Override
    public void initialize(Subject subject, CallbackHandler callbackHandler,
@@ -150,6 +187,7 @@ public abstract class UsernamePasswordLoginModule extends AbstractServerLoginMod
          if( hashEncoding == null )
             hashEncoding = Util.BASE64_ENCODING;
          hashCharset = (String) options.get(HASH_CHARSET);
+         passwordHasher = PasswordHasher.getHasher(hashAlgorithm, hashEncoding, hashCharset);
 
          PicketBoxLogger.LOGGER.debugPasswordHashing(hashAlgorithm, hashEncoding, hashCharset,
                  (String) options.get(DIGEST_CALLBACK), (String) options.get(STORE_DIGEST_CALLBACK));
@@ -181,6 +219,43 @@ public abstract class UsernamePasswordLoginModule extends AbstractServerLoginMod
             PicketBoxLogger.LOGGER.debugFailureToInstantiateClass(flag, e);
          }
       }
+      flag = (String) options.get(ADAPTIVE_HASH_FORMATS);
+      if(flag != null)
+      {
+         adaptiveFormats = new HashMap<String, PasswordHashFormat>();
+         for (String className : flag.split(","))
+         {
+            className = className.trim();
+            try
+            {
+               Class<?> formatClass = SecurityActions.loadClass(className, jbossModuleName);
+               PasswordHashFormat format = (PasswordHashFormat) formatClass.newInstance();
+               adaptiveFormats.put(format.getName(), format);
+            }
+            catch(Exception e)
+            {
+               PicketBoxLogger.LOGGER.debugFailureToInstantiateClass(className, e);
+            }
+         }
+      }
+      flag = (String) options.get(REHASH_ON_LOGIN);
+      if(flag != null)
+      {
+         rehashFormat = AdaptivePasswordVerifier.getFormat(flag, adaptiveFormats);
+         if (rehashFormat == null)
+            throw PicketBoxMessages.MESSAGES.unsupportedAlgorithm(flag);
+         String cost = (String) options.get(ADAPTIVE_HASH_COST);
+         if (cost != null)
+            rehashFormat = rehashFormat.withCost(Integer.parseInt(cost));
+      }
+      if(rehashFormat != null || Boolean.valueOf((String) options.get(ADAPTIVE_HASHING)).booleanValue())
+      {
+         flag = (String) options.get(ADAPTIVE_HASH_THREADS);
+         int threads = flag != null ? Integer.parseInt(flag) : Runtime.getRuntime().availableProcessors();
+         flag = (String) options.get(ADAPTIVE_HASH_CACHE_TIMEOUT);
+         long cacheTimeout = flag != null ? Long.parseLong(flag) : 0;
+         adaptiveVerifier = AdaptivePasswordVerifier.getVerifier(threads, cacheTimeout);
+      }
    }
 
    /** Perform the authentication of the username and password.
@@ -258,6 +333,7 @@ public abstract class UsernamePasswordLoginModule extends AbstractServerLoginMod
             throw le;
          }
 
+         String enteredPassword = password;
          // Hash the user entered password if password hashing is in use
          if( hashAlgorithm != null && hashUserPassword == true )
             password = createPasswordHash(username, password, DIGEST_CALLBACK);
@@ -277,17 +353,36 @@ public abstract class UsernamePasswordLoginModule extends AbstractServerLoginMod
         		 throw le;
         	 }
          }
-         // Allow the storeDigestCallback to hash the expected password
-         if( hashAlgorithm != null && hashStorePassword == true )
-            expectedPassword = createPasswordHash(username, expectedPassword, STORE_DIGEST_CALLBACK);
-         if( validatePassword(password, expectedPassword) == false )
+         PasswordHashFormat format = adaptiveVerifier != null ? AdaptivePasswordVerifier.findFormat(expectedPassword, adaptiveFormats) : null;
+         if( format != null )
+         {
+            // Adaptive hashes are verified by their format, not compared to a digest
+            if( enteredPassword == null || adaptiveVerifier.verify(format, enteredPassword, expectedPassword) == false )
+            {
+               PicketBoxLogger.LOGGER.debugBadPasswordForUsername(username);
+               throw PicketBoxMessages.MESSAGES.invalidPassword();
+            }
+         }
+         else
+         {
+            // Allow the storeDigestCallback to hash the expected password
+            if( hashAlgorithm != null && hashStorePassword == true )
+               expectedPassword = createPasswordHash(username, expectedPassword, STORE_DIGEST_CALLBACK);
+            if( validatePassword(password, expectedPassword) == false )
+            {
+               Throwable ex = getValidateError();
+               FailedLoginException fle = PicketBoxMessages.MESSAGES.invalidPassword();
+               PicketBoxLogger.LOGGER.debugBadPasswordForUsername(username);
+               if( ex != null && this.throwValidateError)
+                  fle.initCause(ex);
+               throw fle;
+            }
+         }
+         if( rehashFormat != null && enteredPassword != null )
          {
-            Throwable ex = getValidateError();
-            FailedLoginException fle = PicketBoxMessages.MESSAGES.invalidPassword();
-            PicketBoxLogger.LOGGER.debugBadPasswordForUsername(username);
-            if( ex != null && this.throwValidateError)
-               fle.initCause(ex);
-            throw fle;
+            if( format == null || format.getName().equals(rehashFormat.getName()) == false
+                  || rehashFormat.needsRehash(expectedPassword) )
+               rehash(username, enteredPassword);
          }
       }
 
@@ -411,7 +506,7 @@ public abstract class UsernamePasswordLoginModule extends AbstractServerLoginMod
       {
          try
          {
-            Class<?> callbackClass = SecurityActions.loadClass(callbackClassName, jbossModuleName);
+            Class<?> callbackClass = loadDigestCallbackClass(callbackClassName);
             callback = (DigestCallback) callbackClass.newInstance();
             PicketBoxLogger.LOGGER.traceCreateDigestCallback(callbackClassName);
          }
@@ -421,8 +516,7 @@ public abstract class UsernamePasswordLoginModule extends AbstractServerLoginMod
             le.initCause(e);
             throw le;
          }
-         Map<String,Object> tmp = new HashMap<String,Object>();
-         tmp.putAll(options);
+         Map<String,Object> tmp = new HashMap<String,Object>(options);
          tmp.put("javax.security.auth.login.name", username);
          tmp.put("javax.security.auth.login.password", password);
 
@@ -449,11 +543,72 @@ public abstract class UsernamePasswordLoginModule extends AbstractServerLoginMod
             }
          }
       }
-      String passwordHash = Util.createPasswordHash(hashAlgorithm, hashEncoding,
-         hashCharset, username, password, callback);
+      if( passwordHasher == null )
+         passwordHasher = PasswordHasher.getHasher(hashAlgorithm, hashEncoding, hashCharset);
+      String passwordHash = passwordHasher.hash(password, callback);
       return passwordHash;
    }
 
+   /**
+    * A hook that allows subclasses to store the password hash of a user, called after a successful
+    * login if the rehashOnLogin option is set and the stored password is not a current hash of the
+    * rehashOnLogin format. This version does nothing.
+    *
+    * @param username - the name of the user
+    * @param passwordHash - the new password hash
+    * @throws LoginException if the hash cannot be stored
+    */
+   protected void updatePasswordHash(String username, String passwordHash) throws LoginException
+   {
+   }
+
+   /**
+    * Rehash the password of a user with the rehashOnLogin format. A failure does not fail the login,
+    * the user is rehashed by a later login.
+    */
+   private void rehash(String username, String password)
+   {
+      try
+      {
+         updatePasswordHash(username, adaptiveVerifier.hash(rehashFormat, password));
+         PicketBoxLogger.LOGGER.tracePasswordHashUpdated(username, rehashFormat.getName());
+      }
+      catch (LoginException e)
+      {
+         PicketBoxLogger.LOGGER.warnFailedToUpdatePasswordHash(username, e);
+      }
+   }
+
+   /**
+    * Load a DigestCallback class, reusing the class loaded by an earlier login with the
+    * same thread context class loader.
+    */
+   private Class<?> loadDigestCallbackClass(String callbackClassName) throws PrivilegedActionException
+   {
+      ClassLoader tcl = SecurityActions.getContextClassLoader();
+      String key = jbossModuleName == null ? callbackClassName : callbackClassName + "@" + jbossModuleName;
+      synchronized (digestCallbackClasses)
+      {
+         Map<String, WeakReference<Class<?>>> classes = digestCallbackClasses.get(tcl);
+         WeakReference<Class<?>> ref = classes != null ? classes.get(key) : null;
+         Class<?> callbackClass = ref != null ? ref.get() : null;
+         if (callbackClass != null)
+            return callbackClass;
+      }
+      Class<?> callbackClass = SecurityActions.loadClass(callbackClassName, jbossModuleName);
+      synchronized (digestCallbackClasses)
+      {
+         Map<String, WeakReference<Class<?>>> classes = digestCallbackClasses.get(tcl);
+         if (classes == null)
+         {
+            classes = new HashMap<String, WeakReference<Class<?>>>();
+            digestCallbackClasses.put(tcl, classes);
+         }
+         classes.put(key, new WeakReference<Class<?>>(callbackClass));
+      }
+      return callbackClass;
+   }
+
    /**
     * Get the error associated with the validatePassword failure
     * @return the Throwable seen during validatePassword, null if no
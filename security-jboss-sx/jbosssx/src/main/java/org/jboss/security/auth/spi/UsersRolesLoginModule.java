@@ -94,6 +94,8 @@ public class UsersRolesLoginModule extends UsernamePasswordLoginModule
    private Properties users;
    /** The roles.properties mappings */
    private Properties roles;
+   /** The shared store the roles were loaded from, if any */
+   private PropertiesStore rolesStore;
    /** The character used to seperate the role group name from the username
     * e.g., '.' in jduke.CallerPrincipal=...
     */
@@ -179,7 +181,12 @@ public class UsersRolesLoginModule extends UsernamePasswordLoginModule
    protected Group[] getRoleSets() throws LoginException
    {
       String targetUser = getUsername();
-      Group[] roleSets = Util.getRoleSets(targetUser, roles, roleGroupSeperator, this);
+      Group[] roleSets = null;
+      // use the pre-parsed role groups unless a subclass replaced the roles
+      if (rolesStore != null)
+         roleSets = rolesStore.getRoleSets(roles, targetUser, roleGroupSeperator, this);
+      if (roleSets == null)
+         roleSets = Util.getRoleSets(targetUser, roles, roleGroupSeperator, this);
       return roleSets;
    }
 
@@ -196,13 +203,14 @@ public class UsersRolesLoginModule extends UsernamePasswordLoginModule
 
    /**
     * Loads the users Properties from the defaultUsersRsrcName and usersRsrcName
-    * resource settings.
+    * resource settings. The files are parsed once and shared through the
+    * {@link PropertiesStore}, so the resulting Properties are read only.
     * 
     * @throws IOException - thrown on failure to load the properties file.
     */ 
    protected void loadUsers() throws IOException
    {
-      users = Util.loadProperties(defaultUsersRsrcName, usersRsrcName);
+      users = PropertiesStore.getStore(defaultUsersRsrcName, usersRsrcName).getProperties();
    }
    /**
     * A hook to allow subclasses to create the users Properties map. This
@@ -222,13 +230,15 @@ public class UsersRolesLoginModule extends UsernamePasswordLoginModule
 
    /**
     * Loads the roles Properties from the defaultRolesRsrcName and rolesRsrcName
-    * resource settings.
+    * resource settings. The files are parsed once and shared through the
+    * {@link PropertiesStore}, so the resulting Properties are read only.
     * 
     * @throws IOException - thrown on failure to load the properties file.
     */ 
    protected void loadRoles() throws IOException
    {
-      roles = Util.loadProperties(defaultRolesRsrcName, rolesRsrcName);
+      rolesStore = PropertiesStore.getStore(defaultRolesRsrcName, rolesRsrcName);
+      roles = rolesStore.getProperties();
    }
    /**
     * A hook to allow subclasses to create the roles Properties map. This
@@ -24,11 +24,9 @@ package org.jboss.security.auth.spi;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
-import java.security.MessageDigest;
 import java.security.Principal;
 import java.security.PrivilegedActionException;
 import java.security.acl.Group;
@@ -38,6 +36,7 @@ import java.util.Properties;
 import java.util.StringTokenizer;
 
 import javax.security.auth.login.LoginException;
+import javax.transaction.TransactionManager;
 
 import org.jboss.crypto.digest.DigestCallback;
 import org.jboss.security.Base64Encoder;
@@ -149,6 +148,19 @@ public class Util
       return DbUtil.getRoleSets(username, dsJndiName, txManagerJndiName, rolesQuery, aslm, suspendResume);
    }
 
+   /** Execute the rolesQuery against the dsJndiName to obtain the roles for
+    the authenticated user, suspending the transaction with the given
+    transaction manager.
+
+    @return Group[] containing the sets of roles
+    */
+   static Group[] getRoleSets(String username, String dsJndiName, TransactionManager tm,
+      String rolesQuery, AbstractServerLoginModule aslm, boolean suspendResume)
+      throws LoginException
+   {
+      return DbUtil.getRoleSets(username, dsJndiName, tm, rolesQuery, aslm, suspendResume);
+   }
+
    /** Utility method which loads the given properties file and returns a
     * Properties object containing the key,value pairs in that file.
     * The properties files should be in the class path as this method looks
@@ -403,55 +415,7 @@ public class Util
     public static String createPasswordHash(String hashAlgorithm, String hashEncoding,
        String hashCharset, String username, String password, DigestCallback callback)
     {
-       byte[] passBytes;
-       String passwordHash = null;
-
-       // convert password to byte data
-       try
-       {
-          if(hashCharset == null)
-             passBytes = password.getBytes();
-          else
-             passBytes = password.getBytes(hashCharset);
-       }
-       catch(UnsupportedEncodingException uee)
-       {
-          PicketBoxLogger.LOGGER.errorFindingCharset(hashCharset, uee);
-          passBytes = password.getBytes();
-       }
-
-       // calculate the hash and apply the encoding.
-       try
-       {
-          MessageDigest md = MessageDigest.getInstance(hashAlgorithm);
-          if( callback != null )
-             callback.preDigest(md);
-          md.update(passBytes);
-          if( callback != null )
-             callback.postDigest(md);
-          byte[] hash = md.digest();
-          if(hashEncoding.equalsIgnoreCase(BASE64_ENCODING))
-          {
-             passwordHash = Util.encodeBase64(hash);
-          }
-          else if(hashEncoding.equalsIgnoreCase(BASE16_ENCODING))
-          {
-             passwordHash = Util.encodeBase16(hash);
-          }
-          else if(hashEncoding.equalsIgnoreCase(RFC2617_ENCODING))
-          {
-             passwordHash = Util.encodeRFC2617(hash);
-          }
-          else
-          {
-             PicketBoxLogger.LOGGER.unsupportedHashEncodingFormat(hashEncoding);
-          }
-       }
-       catch(Exception e)
-       {
-          PicketBoxLogger.LOGGER.errorCalculatingPasswordHash(e);
-       }
-       return passwordHash;
+       return PasswordHasher.getHasher(hashAlgorithm, hashEncoding, hashCharset).hash(password, callback);
     }
     
     /**
@@ -22,16 +22,16 @@
 package org.jboss.security.auth.spi.otp;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.security.GeneralSecurityException;
 import java.security.acl.Group;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
-import java.util.Properties;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.security.auth.Subject;
 import javax.security.auth.callback.Callback;
@@ -47,8 +47,9 @@ import org.jboss.security.PicketBoxLogger;
 import org.jboss.security.PicketBoxMessages;
 import org.jboss.security.SecurityConstants;
 import org.jboss.security.SimplePrincipal;
+import org.jboss.security.auth.spi.PropertiesStore;
 import org.jboss.security.otp.TimeBasedOTP;
-import org.jboss.security.otp.TimeBasedOTPUtil;
+import org.jboss.security.otp.TimeBasedOTPVerifier;
 
 /**
  * <p>
@@ -88,6 +89,11 @@ import org.jboss.security.otp.TimeBasedOTPUtil;
  * <li>numOfDigits:  Number of digits in the TOTP.  Default is 6.</li>
  * <li>additionalRoles: any additional roles that you want to add into the authenticated subject (on success). For multiple roles,
  * separate with a comma</li>
+ * <li>timeStepWindow: the number of 30 second time steps before and after the current one for which a TOTP is still accepted,
+ * to allow for clock drift. Default is 1.</li>
+ * <li>usedCodeCacheSize: the number of users for which the last accepted TOTP is remembered so that it cannot be replayed.
+ * Default is 0, which accepts a TOTP as long as it is within the window. The used codes are remembered per security
+ * domain, as given by the jboss.security.security_domain option.</li>
  * </ul>
  * </p>
  * 
@@ -95,6 +101,9 @@ import org.jboss.security.otp.TimeBasedOTPUtil;
  * This login module requires the presence of "otp-users.properties" on the class path with the format:
  * username=key
  * </p>
+ * <p>
+ * The file is loaded once through {@code PropertiesStore} and is reloaded when it changes on disk.
+ * </p>
  * 
  * <p>
  * An example of otp-users.properties is:
@@ -117,12 +126,23 @@ public class JBossTimeBasedOTPLoginModule implements LoginModule
    private static final String NUM_OF_DIGITS_OPT = "numOfDigits";
    private static final String ALGORITHM = "algorithm";
    private static final String ADDITIONAL_ROLES = "additionalRoles";
+   private static final String TIME_STEP_WINDOW_OPT = "timeStepWindow";
+   private static final String USED_CODE_CACHE_SIZE_OPT = "usedCodeCacheSize";
    
    private static final String[] ALL_VALID_OPTIONS =
    {
-	   PASSWORD_STACKING,USE_FIRST_PASSWORD,NUM_OF_DIGITS_OPT,ALGORITHM,ADDITIONAL_ROLES
+	   PASSWORD_STACKING,USE_FIRST_PASSWORD,NUM_OF_DIGITS_OPT,ALGORITHM,ADDITIONAL_ROLES,
+	   TIME_STEP_WINDOW_OPT,USED_CODE_CACHE_SIZE_OPT,SecurityConstants.SECURITY_DOMAIN_OPTION
    };
    
+   private static final String OTP_USERS_PROPERTIES = "otp-users.properties";
+   
+   /**
+    * The verifiers by security domain and configuration, shared by all the module instances of a
+    * domain so that the used codes are remembered across logins, but not across user stores
+    */
+   private static final ConcurrentMap<String, TimeBasedOTPVerifier> verifiers = new ConcurrentHashMap<String, TimeBasedOTPVerifier>();
+   
    public static final String TOTP = "totp";
 
    private Map<String,Object> lmSharedState = new HashMap<String,Object>();
@@ -135,6 +155,12 @@ public class JBossTimeBasedOTPLoginModule implements LoginModule
    
    private String additionalRoles = null;
    
+   private int timeStepWindow = 1;
+   
+   private int usedCodeCacheSize = 0;
+   
+   private String securityDomain;
+   
    /**
     * Default algorithm is HMAC_SHA1
     */
@@ -183,6 +209,16 @@ public class JBossTimeBasedOTPLoginModule implements LoginModule
       }
       
       additionalRoles = (String) options.get(ADDITIONAL_ROLES); 
+      
+      String windowString = (String) options.get(TIME_STEP_WINDOW_OPT);
+      if( windowString != null && windowString.length() > 0 )
+         timeStepWindow = Integer.parseInt( windowString );
+      
+      String cacheSizeString = (String) options.get(USED_CODE_CACHE_SIZE_OPT);
+      if( cacheSizeString != null && cacheSizeString.length() > 0 )
+         usedCodeCacheSize = Integer.parseInt( cacheSizeString );
+      
+      securityDomain = (String) options.get(SecurityConstants.SECURITY_DOMAIN_OPTION);
    }
 
    /**
@@ -215,15 +251,11 @@ public class JBossTimeBasedOTPLoginModule implements LoginModule
          username = nc.getName();
       }
       
-      //Load the otp-users.properties file
-      ClassLoader tcl = SecurityActions.getContextClassLoader();
-      InputStream is = null;
-      
-      Properties otp = new Properties();
+      //Get the key from the otp-users.properties file
+      String seed;
       try
       {
-    	 is = tcl.getResourceAsStream( "otp-users.properties" );
-         otp.load(is);
+         seed = PropertiesStore.getStore( OTP_USERS_PROPERTIES ).getProperties().getProperty( username );
       }
       catch (IOException e)
       {
@@ -231,12 +263,10 @@ public class JBossTimeBasedOTPLoginModule implements LoginModule
          le.initCause(e);
          throw le;
       }
-      finally
+      if( seed == null )
       {
-    	  safeClose(is);
+         throw new LoginException();
       }
-      
-      String seed = otp.getProperty( username );
 
       String submittedTOTP = this.getTimeBasedOTPFromRequest();
       if( submittedTOTP == null || submittedTOTP.length() == 0 )
@@ -246,20 +276,7 @@ public class JBossTimeBasedOTPLoginModule implements LoginModule
   
       try
       {
-         boolean result =  false;
-         
-         if( algorithm.equals( TimeBasedOTP.HMAC_SHA1 ))
-         {
-            result =  TimeBasedOTPUtil.validate( submittedTOTP, seed.getBytes() , NUMBER_OF_DIGITS ); 
-         }
-         else if( algorithm.equals( TimeBasedOTP.HMAC_SHA256 ))
-         {
-            result =  TimeBasedOTPUtil.validate256( submittedTOTP, seed.getBytes() , NUMBER_OF_DIGITS ); 
-         }
-         else if( algorithm.equals( TimeBasedOTP.HMAC_SHA512 ))
-         {
-            result =  TimeBasedOTPUtil.validate512( submittedTOTP, seed.getBytes() , NUMBER_OF_DIGITS ); 
-         }
+         boolean result = getVerifier().verify( username, seed, submittedTOTP );
          
          if(!result)
             throw new LoginException();
@@ -305,6 +322,20 @@ public class JBossTimeBasedOTPLoginModule implements LoginModule
       return true;
    } 
 
+   private TimeBasedOTPVerifier getVerifier() throws GeneralSecurityException
+   {
+      String key = securityDomain + ":" + algorithm + ":" + NUMBER_OF_DIGITS + ":" + timeStepWindow + ":" + usedCodeCacheSize;
+      TimeBasedOTPVerifier verifier = verifiers.get( key );
+      if( verifier == null )
+      {
+         verifier = new TimeBasedOTPVerifier( algorithm, NUMBER_OF_DIGITS, timeStepWindow, usedCodeCacheSize );
+         TimeBasedOTPVerifier existing = verifiers.putIfAbsent( key, verifier );
+         if( existing != null )
+            verifier = existing;
+      }
+      return verifier;
+   }
+
    private String getTimeBasedOTPFromRequest()
    {
       String totp = null;
@@ -338,16 +369,4 @@ public class JBossTimeBasedOTPLoginModule implements LoginModule
          }
       }
    }
-   private void safeClose(InputStream fis)
-   {
-      try
-      {
-         if(fis != null)
-         {
-            fis.close();
-         }
-      }
-      catch(Exception ignored)
-      {}
-   }
 }
\ No newline at end of file
@@ -21,28 +21,68 @@
   */
 package org.jboss.security.authorization.modules;
    
+import java.util.Map;
+
+import javax.security.auth.Subject;
+import javax.security.auth.callback.CallbackHandler;
+
 import org.jboss.security.authorization.AuthorizationModule;
 import org.jboss.security.authorization.Resource;
 import org.jboss.security.authorization.ResourceType;
 import org.jboss.security.authorization.modules.ejb.EJBXACMLPolicyModuleDelegate;
 import org.jboss.security.authorization.modules.web.WebXACMLPolicyModuleDelegate;
+import org.jboss.security.authorization.util.XACMLDecisionCache;
+import org.jboss.security.identity.RoleGroup;
 
 //$Id$
 
 /**
  *  Authorization Module that utilizes XACML
+ *  <p>
+ *  Module options:
+ *  <ul>
+ *  <li>decisionCacheSize - the maximum number of decisions cached in front of the PDP,
+ *  the default 0 disables the cache</li>
+ *  <li>decisionCacheTimeout - the time in milliseconds a decision is cached, 60000 by default</li>
+ *  </ul>
  *  @author <a href="mailto:Anil.Saldhana@jboss.org">Anil Saldhana</a>
  *  @since  Jun 11, 2006 
  *  @version $Revision$
  */
 public class XACMLAuthorizationModule extends AbstractAuthorizationModule
 { 
+   private static final String DECISION_CACHE_SIZE = "decisionCacheSize";
+
+   private static final String DECISION_CACHE_TIMEOUT = "decisionCacheTimeout";
+
+   private XACMLDecisionCache decisionCache;
+
    public XACMLAuthorizationModule()
    {
       delegateMap.put(ResourceType.WEB, WebXACMLPolicyModuleDelegate.class.getName());
       delegateMap.put(ResourceType.EJB, EJBXACMLPolicyModuleDelegate.class.getName());
    }  
 
+   /**
+    * @see AuthorizationModule#initialize(Subject, CallbackHandler, Map, Map, RoleGroup)
+    */
+   @Override
+   public void initialize(Subject subject, CallbackHandler handler, Map<String,Object> sharedState,
+         Map<String,Object> options, RoleGroup subjectRole)
+   {
+      super.initialize(subject, handler, sharedState, options, subjectRole);
+      if(options != null)
+      {
+         String size = (String)options.get(DECISION_CACHE_SIZE);
+         if(size != null && Integer.parseInt(size) > 0)
+         {
+            String timeout = (String)options.get(DECISION_CACHE_TIMEOUT);
+            decisionCache = XACMLDecisionCache.getCache(Integer.parseInt(size),
+                  timeout != null ? Long.parseLong(timeout) : 60000);
+         }
+      }
+   }
+
    /**
     * @see AuthorizationModule#authorize(Resource)
     */
@@ -50,4 +90,18 @@ public class XACMLAuthorizationModule extends AbstractAuthorizationModule
    { 
       return this.invokeDelegate(resource);
    } 
+
+   /**
+    * Hand the decision cache to the XACML delegates
+    */
+   @Override
+   protected AuthorizationModuleDelegate getDelegate(String delegateStr) throws Exception
+   {
+      AuthorizationModuleDelegate delegate = super.getDelegate(delegateStr);
+      if(delegate instanceof EJBXACMLPolicyModuleDelegate)
+         ((EJBXACMLPolicyModuleDelegate) delegate).setDecisionCache(decisionCache);
+      else if(delegate instanceof WebXACMLPolicyModuleDelegate)
+         ((WebXACMLPolicyModuleDelegate) delegate).setDecisionCache(decisionCache);
+      return delegate;
+   }
 }
\ No newline at end of file
@@ -33,6 +33,7 @@ import org.jboss.security.authorization.Resource;
 import org.jboss.security.authorization.ResourceKeys;
 import org.jboss.security.authorization.modules.AuthorizationModuleDelegate;
 import org.jboss.security.authorization.resources.EJBResource;
+import org.jboss.security.authorization.util.XACMLDecisionCache;
 import org.jboss.security.identity.RoleGroup;
 import org.jboss.security.xacml.interfaces.PolicyDecisionPoint;
 import org.jboss.security.xacml.interfaces.RequestContext;
@@ -51,7 +52,21 @@ import org.jboss.security.xacml.interfaces.XACMLConstants;
  */
 public class EJBXACMLPolicyModuleDelegate extends EJBPolicyModuleDelegate
 {   
+   /** The request builder, it holds no per request state */
+   private static final EJBXACMLUtil util = new EJBXACMLUtil();
+
    private String policyContextID;
+
+   private XACMLDecisionCache decisionCache;
+
+   /**
+    * Set the cache of the decisions, null to evaluate every request
+    * @param decisionCache
+    */
+   public void setDecisionCache(XACMLDecisionCache decisionCache)
+   {
+      this.decisionCache = decisionCache;
+   }
    
    /**
     * @see AuthorizationModuleDelegate#authorize(org.jboss.security.authorization.Resource, javax.security.auth.Subject, org.jboss.security.identity.RoleGroup)
@@ -101,7 +116,17 @@ public class EJBXACMLPolicyModuleDelegate extends EJBPolicyModuleDelegate
    private int process(RoleGroup callerRoles) 
    { 
       int result = AuthorizationContext.DENY;
-      EJBXACMLUtil util = new EJBXACMLUtil();
+      XACMLDecisionCache.Key key = null;
+      if(decisionCache != null)
+      {
+         // Keyed on the method signature so the cache does not hold the bean classes
+         key = decisionCache.createKey(policyRegistration, this.policyContextID, this.ejbName,
+               this.ejbMethod != null ? this.ejbMethod.toString() : null,
+               this.ejbPrincipal != null ? this.ejbPrincipal.getName() : null, callerRoles);
+         Integer decision = key != null ? decisionCache.get(key) : null;
+         if(decision != null)
+            return decision.intValue();
+      }
       try
       {
          RequestContext requestCtx = util.createXACMLRequest(this.ejbName,
@@ -114,6 +139,8 @@ public class EJBXACMLPolicyModuleDelegate extends EJBPolicyModuleDelegate
          ResponseContext response = pdp.evaluate(requestCtx);
          result = response.getDecision() == XACMLConstants.DECISION_PERMIT ? 
                AuthorizationContext.PERMIT : AuthorizationContext.DENY;
+         if(key != null)
+            decisionCache.put(key, result);
       }
       catch(Exception e)
       {
@@ -27,6 +27,10 @@ import java.io.OutputStream;
 import java.lang.reflect.Method;
 import java.security.Principal;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.jboss.security.PicketBoxLogger;
 import org.jboss.security.PicketBoxMessages;
@@ -54,34 +58,38 @@ import org.jboss.security.xacml.interfaces.XACMLConstants;
  */
 public class EJBXACMLUtil extends JBossXACMLUtil
 {
+   private static final int MAX_NAMED_ATTRIBUTES = 1024;
 
-   public RequestContext createXACMLRequest( String ejbName, Method ejbMethod, Principal principal, RoleGroup callerRoles )
-   throws Exception
+   /**
+    * The resource and action attributes of the bean methods, by declaring class so they go away
+    * with the bean classes
+    */
+   private static final ClassValue<ConcurrentMap<Method, Attributes>> methodAttributes =
+      new ClassValue<ConcurrentMap<Method, Attributes>>()
    {
-      String action = ejbMethod.getName();
-      
-      //Let us look at the number of arguments
-      Class<?>[] paramTypes = ejbMethod.getParameterTypes();
-      if( paramTypes.length == 0 )
-         return this.createXACMLRequest(ejbName, action, principal, callerRoles );
-      
-      StringBuilder builder = new StringBuilder( "(" ); 
-      int i = 0;
-      for( Class<?> paramClass: paramTypes )
-      { 
-         if( i > 0 )
-            builder.append( "," );
-         builder.append( paramClass.getSimpleName() ); 
-         i++;
+      @Override
+      protected ConcurrentMap<Method, Attributes> computeValue(Class<?> type)
+      {
+         return new ConcurrentHashMap<Method, Attributes>();
       }
-      
-      builder.append( ")" );
-      
-      //Create an action type
-      ActionType actionType = getActionType( action + builder.toString() );
-      //actionType.
+   };
+
+   /** The resource and action attributes by bean and method name, the least recently used evicted */
+   private static final Map<String, Attributes> namedAttributes = new LinkedHashMap<String, Attributes>(16, 0.75f, true)
+   {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Attributes> eldest)
+      {
+         return size() > MAX_NAMED_ATTRIBUTES;
+      }
+   };
 
-      RequestContext requestCtx = this.getRequestContext( ejbName, actionType, principal, callerRoles );
+   public RequestContext createXACMLRequest( String ejbName, Method ejbMethod, Principal principal, RoleGroup callerRoles )
+   throws Exception
+   {
+      RequestContext requestCtx = this.getRequestContext( getAttributes( ejbName, ejbMethod ), principal, callerRoles );
   
       if(PicketBoxLogger.LOGGER.isDebugEnabled())
       {
@@ -115,11 +123,7 @@ public class EJBXACMLUtil extends JBossXACMLUtil
    public RequestContext createXACMLRequest(String ejbName, String methodName,
          Principal principal, RoleGroup callerRoles) throws Exception
    {  
-      String action = methodName;
-      //Create an action type
-      ActionType actionType = getActionType( action );
-
-      RequestContext requestCtx = this.getRequestContext(ejbName, actionType, principal, callerRoles);
+      RequestContext requestCtx = this.getRequestContext(getAttributes(ejbName, methodName), principal, callerRoles);
 
       if(PicketBoxLogger.LOGGER.isDebugEnabled())
       {
@@ -131,7 +135,66 @@ public class EJBXACMLUtil extends JBossXACMLUtil
       return requestCtx;
   }
    
-   private RequestContext getRequestContext( String ejbName, ActionType actionType,
+   /**
+    * Get the attributes of the calls of a bean method, whose action is the method name followed
+    * by the simple names of its parameter types.
+    */
+   private static Attributes getAttributes( String ejbName, Method ejbMethod )
+   {
+      ConcurrentMap<Method, Attributes> methods = methodAttributes.get( ejbMethod.getDeclaringClass() );
+      Attributes attributes = methods.get( ejbMethod );
+      // a bean class deployed under several names keeps the attributes of the last one used
+      if( attributes == null || !attributes.isFor( ejbName ) )
+      {
+         attributes = new Attributes( ejbName, createAction( ejbMethod ) );
+         methods.put( ejbMethod, attributes );
+      }
+      return attributes;
+   }
+
+   private static Attributes getAttributes( String ejbName, String methodName )
+   {
+      String key = ejbName + '\n' + methodName;
+      Attributes attributes;
+      synchronized( namedAttributes )
+      {
+         attributes = namedAttributes.get( key );
+      }
+      if( attributes == null )
+      {
+         attributes = new Attributes( ejbName, methodName );
+         synchronized( namedAttributes )
+         {
+            namedAttributes.put( key, attributes );
+         }
+      }
+      return attributes;
+   }
+
+   private static String createAction( Method ejbMethod )
+   {
+      String action = ejbMethod.getName();
+      
+      //Let us look at the number of arguments
+      Class<?>[] paramTypes = ejbMethod.getParameterTypes();
+      if( paramTypes.length == 0 )
+         return action;
+      
+      StringBuilder builder = new StringBuilder( action ).append( "(" ); 
+      int i = 0;
+      for( Class<?> paramClass: paramTypes )
+      { 
+         if( i > 0 )
+            builder.append( "," );
+         builder.append( paramClass.getSimpleName() ); 
+         i++;
+      }
+      
+      builder.append( ")" );
+      return builder.toString();
+   }
+
+   private RequestContext getRequestContext( Attributes attributes,
          Principal principal, RoleGroup callerRoles ) throws IOException
    {
       if(principal == null)
@@ -142,14 +205,11 @@ public class EJBXACMLUtil extends JBossXACMLUtil
       //Create a subject type
       SubjectType subject = this.getSubjectType( principal, callerRoles ); 
 
-      //Create a resource type
-      ResourceType resourceType = getResourceType( ejbName ); 
-
       //Create an Environment Type (Optional)
       EnvironmentType environmentType = getEnvironmentType();
 
       //Create a Request Type
-      RequestType requestType = getRequestType( subject, resourceType, actionType, environmentType );
+      RequestType requestType = getRequestType( subject, attributes.resource, attributes.action, environmentType );
 
       requestCtx.setRequest( requestType );
       
@@ -176,7 +236,7 @@ public class EJBXACMLUtil extends JBossXACMLUtil
       return environmentType;
    }
 
-   private ActionType getActionType(String action)
+   private static ActionType getActionType(String action)
    {
       String actionID_NS = XACMLConstants.ATTRIBUTEID_ACTION_ID;
       
@@ -186,7 +246,7 @@ public class EJBXACMLUtil extends JBossXACMLUtil
       return actionType;
    }
 
-   private ResourceType getResourceType(String ejbName)
+   private static ResourceType getResourceType(String ejbName)
    {
       String resourceID_NS = XACMLConstants.ATTRIBUTEID_RESOURCE_ID;
       
@@ -232,4 +292,30 @@ public class EJBXACMLUtil extends JBossXACMLUtil
      catch(Exception e)
      {}
   }
+
+  /**
+   * The resource and action of the requests for a bean method. They never change, so they are
+   * built once and shared, read only, by all the requests: only the subject and the environment
+   * are built per request.
+   */
+  private static final class Attributes
+  {
+     private final String ejbName;
+
+     private final ResourceType resource;
+
+     private final ActionType action;
+
+     Attributes( String ejbName, String action )
+     {
+        this.ejbName = ejbName;
+        this.resource = getResourceType( ejbName );
+        this.action = getActionType( action );
+     }
+
+     boolean isFor( String ejbName )
+     {
+        return ejbName == null ? this.ejbName == null : ejbName.equals( this.ejbName );
+     }
+  }
 }
\ No newline at end of file
@@ -22,7 +22,10 @@
 package org.jboss.security.authorization.modules.web;
 
 import java.security.Principal;
+import java.util.Arrays;
+import java.util.Enumeration;
 import java.util.Map;
+import java.util.TreeMap;
 
 import javax.security.auth.Subject;
 import javax.security.jacc.PolicyContext;
@@ -36,6 +39,7 @@ import org.jboss.security.authorization.Resource;
 import org.jboss.security.authorization.ResourceKeys;
 import org.jboss.security.authorization.modules.AuthorizationModuleDelegate;
 import org.jboss.security.authorization.resources.WebResource;
+import org.jboss.security.authorization.util.XACMLDecisionCache;
 import org.jboss.security.identity.RoleGroup;
 import org.jboss.security.xacml.interfaces.PolicyDecisionPoint;
 import org.jboss.security.xacml.interfaces.RequestContext;
@@ -53,7 +57,21 @@ import org.jboss.security.xacml.interfaces.XACMLConstants;
  */
 public class WebXACMLPolicyModuleDelegate extends AuthorizationModuleDelegate
 { 
+   /** The request builder, it holds no per request state */
+   private static final WebXACMLUtil util = new WebXACMLUtil();
+
    private String policyContextID = null;
+
+   private XACMLDecisionCache decisionCache;
+
+   /**
+    * Set the cache of the decisions, null to evaluate every request
+    * @param decisionCache
+    */
+   public void setDecisionCache(XACMLDecisionCache decisionCache)
+   {
+      this.decisionCache = decisionCache;
+   }
    
    /**
     * @see AuthorizationModuleDelegate#authorize(org.jboss.security.authorization.Resource, javax.security.auth.Subject, org.jboss.security.identity.RoleGroup)
@@ -114,17 +132,28 @@ public class WebXACMLPolicyModuleDelegate extends AuthorizationModuleDelegate
          throw PicketBoxMessages.MESSAGES.invalidNullProperty("userPrincipal");
 
       int result = AuthorizationContext.DENY;
-      WebXACMLUtil util = new WebXACMLUtil();
+      XACMLDecisionCache.Key key = null;
       try
       {
-         RequestContext requestCtx = util.createXACMLRequest(request,callerRoles);
          if(this.policyContextID == null)
            this.policyContextID = PolicyContext.getContextID();
+         if(decisionCache != null)
+         {
+            key = decisionCache.createKey(this.policyRegistration, this.policyContextID, request.getRequestURI(),
+                  getAction(request), userP.getName(), callerRoles);
+            Integer decision = key != null ? decisionCache.get(key) : null;
+            if(decision != null)
+               return decision.intValue();
+         }
+
+         RequestContext requestCtx = util.createXACMLRequest(request,callerRoles);
           
          PolicyDecisionPoint pdp = util.getPDP(this.policyRegistration, this.policyContextID);
          ResponseContext response = pdp.evaluate(requestCtx);
          result = response.getDecision() == XACMLConstants.DECISION_PERMIT ? 
                AuthorizationContext.PERMIT : AuthorizationContext.DENY; 
+         if(key != null)
+            decisionCache.put(key, result);
       }
       catch(Exception e)
       {
@@ -133,4 +162,25 @@ public class WebXACMLPolicyModuleDelegate extends AuthorizationModuleDelegate
       }  
       return result;
    } 
+
+   /**
+    * Get the action attributes of the request, as they are sent to the PDP, for the decision cache
+    * @param request
+    * @return the action, or the action and the sorted request parameters
+    */
+   @SuppressWarnings("unchecked")
+   private Object getAction(HttpServletRequest request)
+   {
+      String action = "GET".equals(request.getMethod()) ? "read" : "write";
+      Enumeration<String> enumer = request.getParameterNames();
+      if(enumer.hasMoreElements() == false)
+         return action;
+      Map<String,String> params = new TreeMap<String,String>();
+      while(enumer.hasMoreElements())
+      {
+         String paramName = enumer.nextElement();
+         params.put(paramName, request.getParameter(paramName));
+      }
+      return Arrays.asList(action, params);
+   }
  }
\ No newline at end of file
@@ -25,9 +25,12 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
+import java.net.URISyntaxException;
 import java.security.Principal;
 import java.util.Collection;
 import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -57,6 +60,27 @@ import org.jboss.security.xacml.interfaces.XACMLConstants;
  */
 public class WebXACMLUtil extends JBossXACMLUtil
 {
+   private static final int MAX_RESOURCES = 1024;
+
+   /**
+    * The action-id attributes of the GET requests and of the other requests. Like the resources,
+    * they never change and are shared, read only, by all the requests.
+    */
+   private static final AttributeType READ_ACTION = createActionAttribute("read");
+
+   private static final AttributeType WRITE_ACTION = createActionAttribute("write");
+
+   /** The resources by request URI, the least recently used evicted as the URIs come from the clients */
+   private static final Map<String, ResourceType> resources = new LinkedHashMap<String, ResourceType>(16, 0.75f, true)
+   {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, ResourceType> eldest)
+      {
+         return size() > MAX_RESOURCES;
+      }
+   };
 
    @SuppressWarnings("unchecked")
    public RequestContext createXACMLRequest(HttpServletRequest request,
@@ -67,7 +91,6 @@ public class WebXACMLUtil extends JBossXACMLUtil
       if(callerRoles == null)
          throw PicketBoxMessages.MESSAGES.invalidNullArgument("callerRoles");
       String httpMethod = request.getMethod();
-      String action = "GET".equals(httpMethod) ? "read" : "write";
 
       //Non-standard uri
       String actionURIBase = "urn:oasis:names:tc:xacml:2.0:request-param:attribute:";
@@ -97,21 +120,12 @@ public class WebXACMLUtil extends JBossXACMLUtil
          }
       } 
 
-      //Create a resource type
-      ResourceType resourceType = new ResourceType();
-      resourceType.getAttribute().add(
-            RequestAttributeFactory.createAnyURIAttributeType(
-                  XACMLConstants.ATTRIBUTEID_RESOURCE_ID, 
-                  null, 
-                  new URI(request.getRequestURI())));
+      //Get the resource type of the URI
+      ResourceType resourceType = getResourceType(request.getRequestURI());
 
-      //Create an action type
+      //Create an action type, only the request parameters differ between the requests
       ActionType actionType = new ActionType();
-      actionType.getAttribute().add(
-            RequestAttributeFactory.createStringAttributeType(
-                  XACMLConstants.ATTRIBUTEID_ACTION_ID, 
-                  "jboss.org", 
-                  action));
+      actionType.getAttribute().add("GET".equals(httpMethod) ? READ_ACTION : WRITE_ACTION);
 
       Enumeration<String> enumer = request.getParameterNames();
       while(enumer.hasMoreElements())
@@ -162,6 +176,37 @@ public class WebXACMLUtil extends JBossXACMLUtil
       return requestCtx;
    }
    
+   private static ResourceType getResourceType(String requestURI) throws URISyntaxException
+   {
+      ResourceType resourceType;
+      synchronized (resources)
+      {
+         resourceType = resources.get(requestURI);
+      }
+      if (resourceType == null)
+      {
+         resourceType = new ResourceType();
+         resourceType.getAttribute().add(
+               RequestAttributeFactory.createAnyURIAttributeType(
+                     XACMLConstants.ATTRIBUTEID_RESOURCE_ID, 
+                     null, 
+                     new URI(requestURI)));
+         synchronized (resources)
+         {
+            resources.put(requestURI, resourceType);
+         }
+      }
+      return resourceType;
+   }
+
+   private static AttributeType createActionAttribute(String action)
+   {
+      return RequestAttributeFactory.createStringAttributeType(
+            XACMLConstants.ATTRIBUTEID_ACTION_ID, 
+            "jboss.org", 
+            action);
+   }
+   
    private void safeClose(OutputStream os)
    {
       try
@@ -21,13 +21,17 @@
   */
 package org.jboss.security.authorization.util;
 
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.jboss.security.PicketBoxMessages;
 import org.jboss.security.authorization.PolicyRegistration;
+import org.jboss.security.plugins.JBossPolicyRegistration;
 import org.jboss.security.xacml.core.JBossPDP;
 import org.jboss.security.xacml.interfaces.PolicyDecisionPoint;
 import org.jboss.security.xacml.interfaces.PolicyLocator;
@@ -43,39 +47,85 @@ import org.jboss.security.xacml.locators.JBossPolicySetLocator;
  */
 public class JBossXACMLUtil
 {
+   /** The context map asking the policy registration for a registered PDP */
+   private static final Map<String,Object> PDP_CONTEXT = Collections.<String,Object>singletonMap("PDP", "PDP");
+
+   /** The PDPs created from the registered policies, by policy registration and context ID */
+   private static final Map<PolicyRegistration, ConcurrentMap<String, CachedPDP>> createdPDPs =
+      new WeakHashMap<PolicyRegistration, ConcurrentMap<String, CachedPDP>>();
+
+   /**
+    * Get the PDP of a policy context. A PDP created from the policies of a
+    * {@link JBossPolicyRegistration}, which reports its policy changes to the
+    * {@link XACMLDecisionCache}, is reused until the policies of the context change.
+    */
    @SuppressWarnings("unchecked")
    public PolicyDecisionPoint getPDP(PolicyRegistration policyRegistration, String contextID)
    {
       //See if a PDP exists already
-      Map<String,Object> contextMap = new HashMap<String,Object>();
-      contextMap.put("PDP", "PDP");
-      
       PolicyDecisionPoint pdp = null;
       try
       {
          pdp = policyRegistration.getPolicy(contextID,
-               PolicyRegistration.XACML, contextMap); 
+               PolicyRegistration.XACML, PDP_CONTEXT); 
       }
       catch(Exception ignore)
       {   
       } 
       if(pdp == null)
       {
+         boolean reuse = contextID != null && policyRegistration instanceof JBossPolicyRegistration;
+         long generation = reuse ? XACMLDecisionCache.getGeneration(policyRegistration, contextID) : 0;
          Set<XACMLPolicy> policies = (Set<XACMLPolicy>)policyRegistration.getPolicy(contextID,
                PolicyRegistration.XACML, null);
          if(policies == null)
             throw PicketBoxMessages.MESSAGES.missingXACMLPolicyForContextId(contextID);
+         if(!reuse)
+            return createPDP(policies);
 
-         JBossPolicyLocator jpl = new JBossPolicyLocator(policies);
-         JBossPolicySetLocator jpsl = new JBossPolicySetLocator(policies);
-         HashSet<PolicyLocator> plset = new HashSet<PolicyLocator>();
-         plset.add(jpl);
-         plset.add(jpsl);
-         
-         pdp = new JBossPDP();
-         pdp.setPolicies(policies);
-         pdp.setLocators(plset); 
+         ConcurrentMap<String, CachedPDP> pdps;
+         synchronized(createdPDPs)
+         {
+            pdps = createdPDPs.get(policyRegistration);
+            if(pdps == null)
+            {
+               pdps = new ConcurrentHashMap<String, CachedPDP>();
+               createdPDPs.put(policyRegistration, pdps);
+            }
+         }
+         CachedPDP cached = pdps.get(contextID);
+         if(cached != null && cached.generation == generation)
+            return cached.pdp;
+         pdp = createPDP(policies);
+         pdps.put(contextID, new CachedPDP(generation, pdp));
       }
       return pdp;
    } 
+
+   private PolicyDecisionPoint createPDP(Set<XACMLPolicy> policies)
+   {
+      JBossPolicyLocator jpl = new JBossPolicyLocator(policies);
+      JBossPolicySetLocator jpsl = new JBossPolicySetLocator(policies);
+      HashSet<PolicyLocator> plset = new HashSet<PolicyLocator>();
+      plset.add(jpl);
+      plset.add(jpsl);
+      
+      PolicyDecisionPoint pdp = new JBossPDP();
+      pdp.setPolicies(policies);
+      pdp.setLocators(plset); 
+      return pdp;
+   }
+
+   private static class CachedPDP
+   {
+      final long generation;
+
+      final PolicyDecisionPoint pdp;
+
+      CachedPDP(long generation, PolicyDecisionPoint pdp)
+      {
+         this.generation = generation;
+         this.pdp = pdp;
+      }
+   }
 }
\ No newline at end of file
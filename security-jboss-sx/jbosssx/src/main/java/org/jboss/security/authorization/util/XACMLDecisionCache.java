@@ -0,0 +1,361 @@
+/*
+  * JBoss, Home of Professional Open Source
+  * Copyright 2026, Red Hat, Inc., and individual contributors as indicated
+  * by the @authors tag. See the copyright.txt in the distribution for a
+  * full listing of individual contributors.
+  *
+  * This is free software; you can redistribute it and/or modify it
+  * under the terms of the GNU Lesser General Public License as
+  * published by the Free Software Foundation; either version 2.1 of
+  * the License, or (at your option) any later version.
+  *
+  * This software is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+  * Lesser General Public License for more details.
+  *
+  * You should have received a copy of the GNU Lesser General Public
+  * License along with this software; if not, write to the Free
+  * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+  */
+package org.jboss.security.authorization.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.security.authorization.PolicyRegistration;
+import org.jboss.security.identity.Role;
+import org.jboss.security.identity.RoleGroup;
+
+/**
+ * A cache of XACML authorization decisions in front of the policy decision point.
+ * <p>
+ * A decision is keyed by the policy registration and context ID, the resource, the action, the principal name
+ * and the sorted role names of the request. It is reused until it times out or until the policies of its context
+ * are changed, which the policy registration reports through {@link #invalidate(PolicyRegistration, String)}.
+ * Other request attributes, such as the current time, are not part of the key: the timeout bounds how long a
+ * decision depending on them is reused.
+ * <p>
+ * When the cache is full the oldest decision is dropped, and the decisions that have timed out are dropped each
+ * time a decision is cached.
+ */
+public final class XACMLDecisionCache
+{
+   private static final ConcurrentMap<String, XACMLDecisionCache> caches = new ConcurrentHashMap<String, XACMLDecisionCache>();
+
+   /** The generations of the policy contexts, by policy registration and context ID */
+   private static final Map<PolicyRegistration, ConcurrentMap<String, Generation>> generations =
+      new WeakHashMap<PolicyRegistration, ConcurrentMap<String, Generation>>();
+
+   private final long timeout;
+
+   /** The decisions in the order they were cached, which is also the order they time out */
+   private final Map<Key, Decision> decisions;
+
+   private XACMLDecisionCache(final int maxSize, long timeout)
+   {
+      this.timeout = timeout;
+      this.decisions = new LinkedHashMap<Key, Decision>()
+      {
+         private static final long serialVersionUID = 1L;
+
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<Key, Decision> eldest)
+         {
+            return size() > maxSize;
+         }
+      };
+   }
+
+   /**
+    * Get the cache of the given settings, shared by all the callers using the same settings.
+    *
+    * @param maxSize - the maximum number of cached decisions
+    * @param timeout - the time in milliseconds a decision is cached
+    * @return the cache
+    */
+   public static XACMLDecisionCache getCache(int maxSize, long timeout)
+   {
+      String name = maxSize + ":" + timeout;
+      XACMLDecisionCache cache = caches.get(name);
+      if (cache == null)
+      {
+         cache = new XACMLDecisionCache(maxSize, timeout);
+         XACMLDecisionCache existing = caches.putIfAbsent(name, cache);
+         if (existing != null)
+            cache = existing;
+      }
+      return cache;
+   }
+
+   /**
+    * Drop the cached decisions of a policy context, to be called when its policies change.
+    *
+    * @param registration - the policy registration holding the policies
+    * @param contextID - the policy context ID, null for all the contexts of the registration
+    */
+   public static void invalidate(PolicyRegistration registration, String contextID)
+   {
+      ConcurrentMap<String, Generation> contexts;
+      synchronized (generations)
+      {
+         contexts = generations.get(registration);
+      }
+      if (contexts == null)
+         return;
+      if (contextID == null)
+      {
+         for (Generation generation : contexts.values())
+            generation.incrementAndGet();
+      }
+      else
+      {
+         Generation generation = contexts.get(contextID);
+         if (generation != null)
+            generation.incrementAndGet();
+      }
+   }
+
+   /**
+    * Get the generation of a policy context, which changes each time the policy registration reports a change
+    * of its policies through {@link #invalidate(PolicyRegistration, String)}. It must be read before the policies
+    * are so that anything built from them can be dropped when it no longer matches.
+    *
+    * @param registration - the policy registration holding the policies
+    * @param contextID - the policy context ID
+    * @return the generation
+    */
+   public static long getGeneration(PolicyRegistration registration, String contextID)
+   {
+      return getContext(registration, contextID).get();
+   }
+
+   private static Generation getContext(PolicyRegistration registration, String contextID)
+   {
+      ConcurrentMap<String, Generation> contexts;
+      synchronized (generations)
+      {
+         contexts = generations.get(registration);
+         if (contexts == null)
+         {
+            contexts = new ConcurrentHashMap<String, Generation>();
+            generations.put(registration, contexts);
+         }
+      }
+      Generation generation = contexts.get(contextID);
+      if (generation == null)
+      {
+         generation = new Generation();
+         Generation existing = contexts.putIfAbsent(contextID, generation);
+         if (existing != null)
+            generation = existing;
+      }
+      return generation;
+   }
+
+   /**
+    * Create the key of a request. The key must be created before the request is evaluated so that a
+    * decision made while the policies change is not cached.
+    *
+    * @param registration - the policy registration
+    * @param contextID - the policy context ID
+    * @param resource - the resource, compared with equals
+    * @param action - the action, compared with equals
+    * @param principalName - the name of the caller
+    * @param roles - the roles of the caller
+    * @return the key, null if the request cannot be cached
+    */
+   public Key createKey(PolicyRegistration registration, String contextID, Object resource, Object action,
+         String principalName, RoleGroup roles)
+   {
+      if (registration == null || contextID == null)
+         return null;
+      Generation generation = getContext(registration, contextID);
+
+      String[] roleNames;
+      Collection<Role> rolesList = roles != null ? roles.getRoles() : null;
+      if (rolesList == null)
+         roleNames = new String[0];
+      else
+      {
+         roleNames = new String[rolesList.size()];
+         int i = 0;
+         for (Role role : rolesList)
+         {
+            // The collection may have grown since its size was taken
+            if (i == roleNames.length)
+               roleNames = Arrays.copyOf(roleNames, i + 1);
+            roleNames[i++] = role.getRoleName();
+         }
+         if (i < roleNames.length)
+            roleNames = Arrays.copyOf(roleNames, i);
+         Arrays.sort(roleNames, NullsFirst.INSTANCE);
+      }
+      return new Key(generation, generation.get(), resource, action, principalName, roleNames);
+   }
+
+   /**
+    * Get a cached decision.
+    *
+    * @param key - the key of the request
+    * @return the decision, null if none is cached
+    */
+   public Integer get(Key key)
+   {
+      Decision decision;
+      synchronized (decisions)
+      {
+         decision = decisions.get(key);
+         if (decision != null
+               && (decision.generation != key.context.get() || decision.expires <= System.currentTimeMillis()))
+         {
+            decisions.remove(key);
+            decision = null;
+         }
+      }
+      return decision != null ? decision.result : null;
+   }
+
+   /**
+    * Cache a decision.
+    *
+    * @param key - the key of the request, created before it was evaluated
+    * @param result - the decision
+    */
+   public void put(Key key, int result)
+   {
+      if (key.generation != key.context.get())
+         return;
+      long now = System.currentTimeMillis();
+      synchronized (decisions)
+      {
+         Iterator<Decision> it = decisions.values().iterator();
+         while (it.hasNext() && it.next().expires <= now)
+            it.remove();
+         // Cached again at the end of the order
+         decisions.remove(key);
+         decisions.put(key, new Decision(Integer.valueOf(result), key.generation, now + timeout));
+      }
+   }
+
+   /**
+    * Drop all the cached decisions.
+    */
+   public void clear()
+   {
+      synchronized (decisions)
+      {
+         decisions.clear();
+      }
+   }
+
+   /**
+    * The key of an authorization request.
+    */
+   public static final class Key
+   {
+      private final Generation context;
+
+      private final long generation;
+
+      private final Object resource;
+
+      private final Object action;
+
+      private final String principalName;
+
+      private final String[] roleNames;
+
+      private final int hash;
+
+      private Key(Generation context, long generation, Object resource, Object action, String principalName,
+            String[] roleNames)
+      {
+         this.context = context;
+         this.generation = generation;
+         this.resource = resource;
+         this.action = action;
+         this.principalName = principalName;
+         this.roleNames = roleNames;
+         int h = System.identityHashCode(context);
+         h = 31 * h + hashCode(resource);
+         h = 31 * h + hashCode(action);
+         h = 31 * h + hashCode(principalName);
+         this.hash = 31 * h + Arrays.hashCode(roleNames);
+      }
+
+      @Override
+      public int hashCode()
+      {
+         return hash;
+      }
+
+      @Override
+      public boolean equals(Object obj)
+      {
+         if (this == obj)
+            return true;
+         if (obj instanceof Key == false)
+            return false;
+         Key other = (Key) obj;
+         return hash == other.hash && context == other.context && equal(resource, other.resource)
+               && equal(action, other.action) && equal(principalName, other.principalName)
+               && Arrays.equals(roleNames, other.roleNames);
+      }
+
+      private static int hashCode(Object o)
+      {
+         return o == null ? 0 : o.hashCode();
+      }
+
+      private static boolean equal(Object a, Object b)
+      {
+         return a == null ? b == null : a.equals(b);
+      }
+   }
+
+   /**
+    * The generation of a policy context, incremented when its policies change.
+    */
+   private static class Generation extends AtomicLong
+   {
+      private static final long serialVersionUID = 1L;
+   }
+
+   private static class Decision
+   {
+      final Integer result;
+
+      final long generation;
+
+      final long expires;
+
+      Decision(Integer result, long generation, long expires)
+      {
+         this.result = result;
+         this.generation = generation;
+         this.expires = expires;
+      }
+   }
+
+   private static class NullsFirst implements Comparator<String>
+   {
+      static final NullsFirst INSTANCE = new NullsFirst();
+
+      public int compare(String a, String b)
+      {
+         if (a == null)
+            return b == null ? 0 : -1;
+         return b == null ? 1 : a.compareTo(b);
+      }
+   }
+}
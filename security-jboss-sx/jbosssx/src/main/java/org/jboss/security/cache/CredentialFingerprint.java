@@ -0,0 +1,235 @@
+/*
+  * JBoss, Home of Professional Open Source
+  * Copyright 2026, Red Hat, Inc., and individual contributors as indicated
+  * by the @authors tag. See the copyright.txt in the distribution for a
+  * full listing of individual contributors.
+  *
+  * This is free software; you can redistribute it and/or modify it
+  * under the terms of the GNU Lesser General Public License as
+  * published by the Free Software Foundation; either version 2.1 of
+  * the License, or (at your option) any later version.
+  *
+  * This software is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+  * Lesser General Public License for more details.
+  *
+  * You should have received a copy of the GNU Lesser General Public
+  * License along with this software; if not, write to the Free
+  * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+  */
+package org.jboss.security.cache;
+
+import java.io.Serializable;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ *  Salted SHA-256 fingerprint of a password-like credential, computed when a
+ *  credential is put in an authentication cache so that the cleartext value
+ *  does not have to be kept in the cache entry.
+ *  
+ *  <p>String and char[] credentials produce the same fingerprint, byte[]
+ *  credentials are hashed separately. Other credential types are not
+ *  supported and {@link #create(Object)} returns null for them, in which case
+ *  the caller keeps the credential itself.</p>
+ *  
+ *  <p>{@link #matches(Object)} hashes the presented credential with a
+ *  per-thread digest and scratch buffers, so a cache hit does not allocate,
+ *  and compares the hashes in constant time.</p>
+ *  
+ *  <p>Fingerprints created with the same salt are equal if their credentials
+ *  are, which lets them stand for a credential in a map key.</p>
+ */
+public final class CredentialFingerprint implements Serializable
+{
+   private static final long serialVersionUID = 1L;
+   
+   private static final int SALT_LENGTH = 16;
+   
+   private static final int HASH_LENGTH = 32;
+   
+   private static final byte TEXT = 0;
+   
+   private static final byte BINARY = 1;
+   
+   private static final SecureRandom random = new SecureRandom();
+   
+   private static final ThreadLocal<Hasher> hashers = new ThreadLocal<Hasher>()
+   {
+      @Override
+      protected Hasher initialValue()
+      {
+         return new Hasher();
+      }
+   };
+   
+   private final byte[] salt;
+   
+   private final byte[] hash;
+   
+   private CredentialFingerprint(byte[] salt, byte[] hash)
+   {
+      this.salt = salt;
+      this.hash = hash;
+   }
+   
+   /**
+    * Check if a fingerprint can be computed for the credential
+    * @param credential
+    * @return true for String, char[] and byte[] credentials
+    */
+   public static boolean isSupported(Object credential)
+   {
+      return credential instanceof String || credential instanceof char[] || credential instanceof byte[];
+   }
+   
+   /**
+    * Create the fingerprint of a credential
+    * @param credential
+    * @return the fingerprint or null if the credential type is not supported
+    */
+   public static CredentialFingerprint create(Object credential)
+   {
+      return create(credential, createSalt());
+   }
+   
+   /**
+    * Create the fingerprint of a credential with the given salt
+    * @param credential
+    * @param salt a salt returned by {@link #createSalt()}
+    * @return the fingerprint or null if the credential type is not supported
+    */
+   public static CredentialFingerprint create(Object credential, byte[] salt)
+   {
+      if(!isSupported(credential))
+         return null;
+      byte[] hash = new byte[HASH_LENGTH];
+      System.arraycopy(hashers.get().hash(salt, credential), 0, hash, 0, HASH_LENGTH);
+      return new CredentialFingerprint(salt, hash);
+   }
+   
+   /**
+    * Create a random salt
+    * @return the salt
+    */
+   public static byte[] createSalt()
+   {
+      byte[] salt = new byte[SALT_LENGTH];
+      random.nextBytes(salt);
+      return salt;
+   }
+   
+   /**
+    * Check if the credential has this fingerprint
+    * @param credential
+    * @return true if the credential matches, false if it does not or if its type is not supported
+    */
+   public boolean matches(Object credential)
+   {
+      if(!isSupported(credential))
+         return false;
+      return MessageDigest.isEqual(hash, hashers.get().hash(salt, credential));
+   }
+   
+   @Override
+   public int hashCode()
+   {
+      return Arrays.hashCode(hash);
+   }
+   
+   @Override
+   public boolean equals(Object obj)
+   {
+      if(this == obj)
+         return true;
+      if(!(obj instanceof CredentialFingerprint))
+         return false;
+      CredentialFingerprint other = (CredentialFingerprint) obj;
+      return Arrays.equals(salt, other.salt) && MessageDigest.isEqual(hash, other.hash);
+   }
+   
+   /**
+    * Per thread digest and buffers
+    */
+   private static class Hasher
+   {
+      private final MessageDigest digest;
+      
+      private final byte[] out = new byte[HASH_LENGTH];
+      
+      private byte[] scratch = new byte[64];
+      
+      Hasher()
+      {
+         try
+         {
+            digest = MessageDigest.getInstance("SHA-256");
+         }
+         catch (NoSuchAlgorithmException e)
+         {
+            throw new IllegalStateException(e);
+         }
+      }
+      
+      byte[] hash(byte[] salt, Object credential)
+      {
+         digest.reset();
+         digest.update(salt);
+         if(credential instanceof byte[])
+         {
+            digest.update(BINARY);
+            digest.update((byte[]) credential);
+         }
+         else
+         {
+            digest.update(TEXT);
+            int length;
+            if(credential instanceof String)
+            {
+               String s = (String) credential;
+               length = s.length();
+               ensureCapacity(length);
+               for(int i = 0; i < length; i++)
+                  putChar(i, s.charAt(i));
+            }
+            else
+            {
+               char[] chars = (char[]) credential;
+               length = chars.length;
+               ensureCapacity(length);
+               for(int i = 0; i < length; i++)
+                  putChar(i, chars[i]);
+            }
+            digest.update(scratch, 0, length * 2);
+            // do not leave the credential in the scratch buffer
+            Arrays.fill(scratch, 0, length * 2, (byte) 0);
+         }
+         try
+         {
+            digest.digest(out, 0, HASH_LENGTH);
+         }
+         catch (DigestException e)
+         {
+            throw new IllegalStateException(e);
+         }
+         return out;
+      }
+      
+      private void ensureCapacity(int chars)
+      {
+         if(scratch.length < chars * 2)
+            scratch = new byte[chars * 2];
+      }
+      
+      private void putChar(int index, char c)
+      {
+         scratch[index * 2] = (byte) (c >> 8);
+         scratch[index * 2 + 1] = (byte) c;
+      }
+   }
+}
@@ -23,9 +23,11 @@ package org.jboss.security.cache;
 
 import java.security.Principal;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.security.auth.Subject;
 
@@ -34,7 +36,18 @@ import org.jboss.security.SecurityConstants;
  
 
 /**
- *  Authentication Cache keyed in by Principal
+ *  Authentication Cache keyed in by Principal.
+ *  
+ *  <p>The cache is split into segments selected by the hash of the principal
+ *  (the number of segments is given by the concurrency level). Each segment
+ *  keeps its entries in access order so that, once the optional
+ *  <code>maxEntries</code> bound of the whole cache is reached, the least
+ *  recently used principal among the segments is evicted. Entries can also
+ *  expire a fixed time after they were written and/or after they were last
+ *  accessed. A bound or timeout of zero means unlimited, which is the default.</p>
+ *  
+ *  <p>The hit and miss counters are updated by {@link #cacheHit(Principal)}.</p>
+ *  
  *  @author Anil.Saldhana@redhat.com
  *  @since  May 13, 2007 
  *  @version $Revision$
@@ -50,7 +63,28 @@ public class JBossAuthenticationCache implements SecurityCache<Principal>
    /** Concurrency Level hint to the concurrent hashmap **/
    private int concurrencyLevel = 16; 
    
-   private ConcurrentMap<Principal,AuthCacheObject> cacheMap = null;
+   /** Maximum number of entries held by the cache, 0 means unbounded **/
+   private volatile int maxEntries = 0;
+   
+   /** Time in ms after which an entry expires once written, 0 means never **/
+   private volatile long expireAfterWrite = 0;
+   
+   /** Time in ms after which an entry expires once last accessed, 0 means never **/
+   private volatile long expireAfterAccess = 0;
+   
+   /** Interval in ms between two full scans of a segment for entries expired after write **/
+   private static final long PURGE_INTERVAL = 1000;
+   
+   private Segment[] segments = null;
+   
+   /** The number of entries of all the segments **/
+   private final AtomicInteger count = new AtomicInteger();
+   
+   private final AtomicLong hitCount = new AtomicLong();
+   
+   private final AtomicLong missCount = new AtomicLong();
+   
+   private final AtomicLong evictionCount = new AtomicLong();
    
    public JBossAuthenticationCache()
    { 
@@ -74,8 +108,10 @@ public class JBossAuthenticationCache implements SecurityCache<Principal>
       try
       {
          AuthCacheObject ao = new AuthCacheObject(map.get(SecurityConstants.CREDENTIAL),
-               (Subject) map.get(SecurityConstants.SUBJECT));
-         cacheMap.put(principal, ao);
+               (Subject) map.get(SecurityConstants.SUBJECT), System.currentTimeMillis());
+         segmentFor(principal).put(principal, ao);
+         if(maxEntries > 0)
+            evictOverflow();
       }
       catch(Exception e)
       {
@@ -88,7 +124,12 @@ public class JBossAuthenticationCache implements SecurityCache<Principal>
     */
    public boolean cacheHit(Principal principal)
    {
-      return cacheMap.containsKey(principal);
+      AuthCacheObject ao = lookup(principal);
+      if(ao == null)
+         missCount.incrementAndGet();
+      else
+         hitCount.incrementAndGet();
+      return ao != null;
    }
 
    /**
@@ -99,14 +140,19 @@ public class JBossAuthenticationCache implements SecurityCache<Principal>
    throws SecurityCacheException
    {
       boolean isValid = false;
-      if(!cacheHit(principal))
+      AuthCacheObject ao = lookup(principal);
+      if(ao == null)
          throw new SecurityCacheException(PicketBoxMessages.MESSAGES.cacheMissMessage());
       Object cred = map.get(SecurityConstants.CREDENTIAL);
-      AuthCacheObject ao = cacheMap.get(principal);
       Object cacheCred = ao.credential;
       
+      // Password-like credentials are only kept as a fingerprint
+      if(ao.fingerprint != null)
+      {
+         isValid = ao.fingerprint.matches(cred);
+      }
       //Anonymous login
-      if(cred == null || cacheCred == null)
+      else if(cred == null || cacheCred == null)
       {
          if(cred == null && cacheCred == null)
             isValid = true; 
@@ -169,31 +215,268 @@ public class JBossAuthenticationCache implements SecurityCache<Principal>
    public <Y> Y get(Principal key) throws SecurityCacheException
    {
       Subject subj = null;
-      if(cacheHit(key))
-      {
-         AuthCacheObject aco = cacheMap.get(key);
+      AuthCacheObject aco = lookup(key);
+      if(aco != null)
          subj = aco.subject;
-      }
       return (Y) subj;
    }
    
+   /**
+    * Remove the cache entry of the given principal
+    * @param principal
+    */
+   public void flushCacheEntry(Principal principal)
+   {
+      segmentFor(principal).remove(principal);
+   }
+   
+   /**
+    * Remove all the entries from the cache
+    */
+   public void flushCache()
+   {
+      for(Segment segment : segments)
+         segment.clear();
+   }
+   
+   /**
+    * Set the maximum number of principals held by the cache
+    * @param maxEntries the bound, 0 for unbounded
+    */
+   public void setMaxEntries(int maxEntries)
+   {
+      this.maxEntries = maxEntries;
+   }
+   
+   /**
+    * Set the time after which an entry expires once it was written
+    * @param expireAfterWrite timeout in ms, 0 for none
+    */
+   public void setExpireAfterWrite(long expireAfterWrite)
+   {
+      this.expireAfterWrite = expireAfterWrite;
+   }
+   
+   /**
+    * Set the time after which an entry expires once it was last accessed
+    * @param expireAfterAccess timeout in ms, 0 for none
+    */
+   public void setExpireAfterAccess(long expireAfterAccess)
+   {
+      this.expireAfterAccess = expireAfterAccess;
+   }
+   
+   /**
+    * Get the number of entries currently held by the cache (including
+    * expired entries that have not been purged yet)
+    * @return the number of entries
+    */
+   public int size()
+   {
+      return count.get();
+   }
+   
+   /**
+    * Get the number of lookups that found a valid entry
+    * @return the hit count
+    */
+   public long getHitCount()
+   {
+      return hitCount.get();
+   }
+   
+   /**
+    * Get the number of lookups that did not find a valid entry
+    * @return the miss count
+    */
+   public long getMissCount()
+   {
+      return missCount.get();
+   }
+   
+   /**
+    * Get the number of entries removed because of the size bound or expiration
+    * @return the eviction count
+    */
+   public long getEvictionCount()
+   {
+      return evictionCount.get();
+   }
+   
+   private AuthCacheObject lookup(Principal principal)
+   {
+      return segmentFor(principal).get(principal, System.currentTimeMillis());
+   }
+   
+   /**
+    * Evict the least recently used entries of the cache, found by comparing the
+    * eldest entry of each segment, until the size is back within the bound
+    */
+   private void evictOverflow()
+   {
+      while(count.get() > maxEntries)
+      {
+         Segment eldest = null;
+         long eldestAccess = 0;
+         for(Segment segment : segments)
+         {
+            AuthCacheObject ao = segment.eldest();
+            if(ao != null && (eldest == null || ao.accessOrder - eldestAccess < 0))
+            {
+               eldest = segment;
+               eldestAccess = ao.accessOrder;
+            }
+         }
+         if(eldest == null || eldest.evictEldest() == false)
+            break;
+      }
+   }
+   
+   private Segment segmentFor(Principal principal)
+   {
+      int h = principal == null ? 0 : principal.hashCode();
+      h ^= (h >>> 16);
+      return segments[(h & 0x7fffffff) % segments.length];
+   }
+   
    private void constructCache()
    {
-      cacheMap = 
-         new ConcurrentHashMap<Principal,AuthCacheObject>(initialCapacity,
-               loadFactor, concurrencyLevel);
+      int level = concurrencyLevel > 0 ? concurrencyLevel : 1;
+      int segmentCapacity = Math.max(1, initialCapacity / level);
+      segments = new Segment[level];
+      for(int i = 0; i < level; i++)
+         segments[i] = new Segment(segmentCapacity);
+   }
+   
+   /**
+    * A portion of the cache guarded by its own lock, with entries kept in access order
+    */
+   private class Segment
+   {
+      private final LinkedHashMap<Principal,AuthCacheObject> map;
+      
+      private long nextPurge;
+      
+      Segment(int capacity)
+      {
+         this.map = new LinkedHashMap<Principal,AuthCacheObject>(capacity, loadFactor, true);
+      }
+      
+      synchronized AuthCacheObject get(Principal principal, long now)
+      {
+         AuthCacheObject ao = map.get(principal);
+         if(ao == null)
+            return null;
+         if(isExpired(ao, now))
+         {
+            map.remove(principal);
+            count.decrementAndGet();
+            evictionCount.incrementAndGet();
+            return null;
+         }
+         ao.lastAccess = now;
+         ao.accessOrder = System.nanoTime();
+         return ao;
+      }
+      
+      synchronized void put(Principal principal, AuthCacheObject ao)
+      {
+         if(expireAfterWrite > 0 || expireAfterAccess > 0)
+            purgeExpired(ao.created);
+         if(map.put(principal, ao) == null)
+            count.incrementAndGet();
+      }
+      
+      synchronized void remove(Principal principal)
+      {
+         if(map.remove(principal) != null)
+            count.decrementAndGet();
+      }
+      
+      synchronized void clear()
+      {
+         count.addAndGet(-map.size());
+         map.clear();
+      }
+      
+      /**
+       * @return the least recently used entry, null when empty
+       */
+      synchronized AuthCacheObject eldest()
+      {
+         if(map.isEmpty())
+            return null;
+         return map.values().iterator().next();
+      }
+      
+      synchronized boolean evictEldest()
+      {
+         // another thread may have evicted in the meantime
+         if(map.isEmpty() || count.get() <= maxEntries)
+            return false;
+         Iterator<AuthCacheObject> iter = map.values().iterator();
+         iter.next();
+         iter.remove();
+         count.decrementAndGet();
+         evictionCount.incrementAndGet();
+         return true;
+      }
+      
+      private void purgeExpired(long now)
+      {
+         // entries are in access order so, without expiry after write, the scan
+         // stops at the first live entry. An entry expired after write can sit
+         // behind a recently read one, so then the whole segment is scanned, at
+         // most once per purge interval; get() drops the others lazily
+         boolean fullScan = expireAfterWrite > 0;
+         if(fullScan)
+         {
+            if(now < nextPurge)
+               return;
+            nextPurge = now + PURGE_INTERVAL;
+         }
+         Iterator<AuthCacheObject> iter = map.values().iterator();
+         while(iter.hasNext())
+         {
+            AuthCacheObject ao = iter.next();
+            if(isExpired(ao, now))
+            {
+               iter.remove();
+               count.decrementAndGet();
+               evictionCount.incrementAndGet();
+            }
+            else if(fullScan == false)
+               break;
+         }
+      }
+   }
+   
+   private boolean isExpired(AuthCacheObject ao, long now)
+   {
+      if(expireAfterWrite > 0 && now - ao.created >= expireAfterWrite)
+         return true;
+      return expireAfterAccess > 0 && now - ao.lastAccess >= expireAfterAccess;
    }
    
-   private class AuthCacheObject
+   private static class AuthCacheObject
    {
       private Object credential;
+      private CredentialFingerprint fingerprint;
       private Subject subject;
+      private final long created;
+      private long lastAccess;
+      /** nanoTime of the last access, to compare entries of different segments **/
+      private volatile long accessOrder = System.nanoTime();
       
-      public AuthCacheObject(Object credential, Subject subject)
+      public AuthCacheObject(Object credential, Subject subject, long created)
       {
          super();
-         this.credential = credential;
+         this.fingerprint = CredentialFingerprint.create(credential);
+         if(this.fingerprint == null)
+            this.credential = credential;
          this.subject = subject;
+         this.created = created;
+         this.lastAccess = created;
       } 
    }
 
@@ -28,9 +28,13 @@ import java.security.Principal;
 import java.security.ProtectionDomain;
 import java.security.acl.Group;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.security.jacc.PolicyContextException;
 
@@ -41,6 +45,12 @@ import org.jboss.security.PicketBoxLogger;
  * the authenticated caller. This allows the 3.2.x login modules to be used
  * as the source of the authentication and authorization information.
  * 
+ * The permissions are compiled into a role index when the policy is committed
+ * (or first used): the outcome of checking a permission against the excluded,
+ * unchecked and role permissions is computed once per distinct permission,
+ * and a check then only looks up the caller principals in the set of roles
+ * granted that permission.
+ * 
  * @author Scott.Stark@jboss.org
  * @author Anil.Saldhana@jboss.org
  * @version $Revison:$
@@ -55,6 +65,11 @@ public class ContextPolicy
 
    private static final String ANY_AUTHENTICATED_USER_ROLE = "**";
 
+   /** Incremented after each change of the permissions */
+   private final AtomicInteger version = new AtomicInteger();
+   /** The compiled form of the permissions, only used while its version is current */
+   private volatile CompiledPolicy compiledPolicy;
+
    ContextPolicy(String contextID)
    {
       this.contextID = contextID;
@@ -85,16 +100,17 @@ public class ContextPolicy
 
    boolean implies(ProtectionDomain domain, Permission permission)
    {
-      boolean implied = false;
+      CompiledPolicy compiled = getCompiledPolicy();
+      PermissionDecision decision = compiled.getDecision(permission);
       // First check the excluded permissions
-      if( excludedPermissions.implies(permission) )
+      if( decision.excluded )
       {
          PicketBoxLogger.LOGGER.traceImpliesMatchesExcludedSet(permission);
          return false;
       }
 
       // Next see if this matches an unchecked permission
-      if( uncheckedPermissions.implies(permission) )
+      if( decision.unchecked )
       {
          PicketBoxLogger.LOGGER.traceImpliesMatchesUncheckedSet(permission);
          return true;
@@ -103,7 +119,18 @@ public class ContextPolicy
       // Check principal to role permissions
       Principal[] principals = domain.getPrincipals();
       int length = principals != null ? principals.length : 0;
-      ArrayList<String> principalNames = new ArrayList<String>();
+      if (PicketBoxLogger.LOGGER.isTraceEnabled())
+      {
+         ArrayList<String> principalNames = getPrincipalNames(principals);
+         if (principalNames.size() == 0)
+            PicketBoxLogger.LOGGER.traceNoPrincipalsInProtectionDomain(domain);
+         principalNames.add(ANY_AUTHENTICATED_USER_ROLE);
+         PicketBoxLogger.LOGGER.traceProtectionDomainPrincipals(principalNames);
+      }
+      // no role has been granted the permission
+      if (decision.roles.isEmpty())
+         return false;
+
       for(int n = 0; n < length; n ++)
       {
          Principal p = principals[n];
@@ -113,34 +140,54 @@ public class ContextPolicy
             Enumeration<? extends Principal> iter = g.members();
             while( iter.hasMoreElements() )
             {
-               p = iter.nextElement();
-               String name = p.getName();
-               principalNames.add(name);
+               if( compiled.isGranted(decision, iter.nextElement().getName()) )
+                  return true;
             }
          }
-         else
+         else if( compiled.isGranted(decision, p.getName()) )
+            return true;
+      }
+      return compiled.isGranted(decision, ANY_AUTHENTICATED_USER_ROLE);
+   }
+
+   private ArrayList<String> getPrincipalNames(Principal[] principals)
+   {
+      int length = principals != null ? principals.length : 0;
+      ArrayList<String> principalNames = new ArrayList<String>();
+      for(int n = 0; n < length; n ++)
+      {
+         Principal p = principals[n];
+         if( p instanceof Group )
          {
-            String name = p.getName();
-            principalNames.add(name);
+            Group g = (Group) p;
+            Enumeration<? extends Principal> iter = g.members();
+            while( iter.hasMoreElements() )
+               principalNames.add(iter.nextElement().getName());
          }
+         else
+            principalNames.add(p.getName());
       }
-      if (principalNames.size() == 0)
-         PicketBoxLogger.LOGGER.traceNoPrincipalsInProtectionDomain(domain);
+      return principalNames;
+   }
 
-      principalNames.add(ANY_AUTHENTICATED_USER_ROLE);
-      PicketBoxLogger.LOGGER.traceProtectionDomainPrincipals(principalNames);
-      for(int n = 0; implied == false && n < principalNames.size(); n ++)
+   private CompiledPolicy getCompiledPolicy()
+   {
+      // read the version before the permissions: a policy compiled while they change keeps
+      // the old version and is rebuilt by the next check
+      int current = version.get();
+      CompiledPolicy compiled = this.compiledPolicy;
+      if( compiled == null || compiled.version != current )
       {
-         String name = principalNames.get(n);
-         Permissions perms = rolePermissions.get(name);
-         PicketBoxLogger.LOGGER.debugImpliesParameters(name, perms);
-         if( perms == null )
-            continue;
-         implied = perms.implies(permission);
-         PicketBoxLogger.LOGGER.debugImpliesResult(implied);
+         compiled = new CompiledPolicy(current, excludedPermissions, uncheckedPermissions, rolePermissions);
+         this.compiledPolicy = compiled;
       }
+      return compiled;
+   }
 
-      return implied;
+   private void changed()
+   {
+      version.incrementAndGet();
+      compiledPolicy = null;
    }
 
    void clear()
@@ -148,12 +195,14 @@ public class ContextPolicy
       excludedPermissions = new Permissions();
       uncheckedPermissions = new Permissions();
       rolePermissions.clear();
+      changed();
    }
 
    void addToExcludedPolicy(Permission permission)
       throws PolicyContextException
    {
       excludedPermissions.add(permission);
+      changed();
    }
    
    void addToExcludedPolicy(PermissionCollection permissions)
@@ -165,6 +214,7 @@ public class ContextPolicy
          Permission p = iter.nextElement();
          excludedPermissions.add(p);
       }
+      changed();
    }
 
    void addToRole(String roleName, Permission permission)
@@ -177,6 +227,7 @@ public class ContextPolicy
          rolePermissions.put(roleName, perms);
       }
       perms.add(permission);
+      changed();
    }
 
    void addToRole(String roleName, PermissionCollection permissions)
@@ -194,12 +245,14 @@ public class ContextPolicy
          Permission p = iter.nextElement();
          perms.add(p);
       }
+      changed();
    }
 
    void addToUncheckedPolicy(Permission permission)
       throws PolicyContextException
    {
       uncheckedPermissions.add(permission);
+      changed();
    }
 
    void addToUncheckedPolicy(PermissionCollection permissions)
@@ -211,11 +264,13 @@ public class ContextPolicy
          Permission p = iter.nextElement();
          uncheckedPermissions.add(p);
       }
+      changed();
    }
 
    void commit()
       throws PolicyContextException
    {
+      compiledPolicy = new CompiledPolicy(version.get(), excludedPermissions, uncheckedPermissions, rolePermissions);
    }
 
    void delete()
@@ -239,6 +294,7 @@ public class ContextPolicy
       throws PolicyContextException
    {
       excludedPermissions = new Permissions();
+      changed();
    }
 
    void removeRole(String roleName)
@@ -249,12 +305,14 @@ public class ContextPolicy
          this.rolePermissions.clear();
       else
          this.rolePermissions.remove(roleName);
+      changed();
    }
 
    void removeUncheckedPolicy()
       throws PolicyContextException
    {
       uncheckedPermissions = new Permissions();
+      changed();
    }
    
    Permissions getPermissionsForRole(String role)
@@ -322,4 +380,115 @@ public class ContextPolicy
       tmp.append("</ContextPolicy>\n");
       return tmp.toString();
    }
+
+   /**
+    * The outcome of checking a permission against the policy: whether it is
+    * excluded or unchecked, and otherwise the indexes of the roles it is granted to.
+    */
+   private static final class PermissionDecision
+   {
+      private final boolean excluded;
+      private final boolean unchecked;
+      private final BitSet roles;
+
+      PermissionDecision(boolean excluded, boolean unchecked, BitSet roles)
+      {
+         this.excluded = excluded;
+         this.unchecked = unchecked;
+         this.roles = roles;
+      }
+   }
+
+   /**
+    * Snapshot of the policy with the role names interned as indexes. The decisions
+    * are computed on first use of each distinct permission (so per checked URL pattern
+    * and HTTP method, or per EJB method) and looked up without locking. Once past a
+    * bound the table is trimmed back to half of it, as the web permissions of a
+    * deployment are not limited to the declared patterns.
+    */
+   private static final class CompiledPolicy
+   {
+      private static final int MAX_DECISIONS = 4096;
+
+      private final int version;
+      private final Permissions excluded;
+      private final Permissions unchecked;
+      private final Map<String, Integer> roleIndexes = new HashMap<String, Integer>();
+      private final Permissions[] rolePermissions;
+      private final ConcurrentHashMap<Permission, PermissionDecision> decisions = new ConcurrentHashMap<Permission, PermissionDecision>();
+
+      CompiledPolicy(int version, Permissions excluded, Permissions unchecked, Map<String, Permissions> rolePermissions)
+      {
+         this.version = version;
+         this.excluded = excluded;
+         this.unchecked = unchecked;
+         int size = rolePermissions.size();
+         this.rolePermissions = new Permissions[size];
+         int index = 0;
+         for (Map.Entry<String, Permissions> entry : rolePermissions.entrySet())
+         {
+            this.roleIndexes.put(entry.getKey(), index);
+            this.rolePermissions[index] = entry.getValue();
+            index++;
+         }
+      }
+
+      PermissionDecision getDecision(Permission permission)
+      {
+         PermissionDecision decision = decisions.get(permission);
+         if (decision == null)
+         {
+            decision = decide(permission);
+            if (decisions.size() >= MAX_DECISIONS)
+               trim();
+            PermissionDecision previous = decisions.putIfAbsent(permission, decision);
+            if (previous != null)
+               decision = previous;
+         }
+         return decision;
+      }
+
+      /**
+       * Drops decisions until the table is back to half of its bound. Which ones go
+       * is left to the iteration order; they are simply recomputed on next use.
+       */
+      private void trim()
+      {
+         Iterator<Permission> iter = decisions.keySet().iterator();
+         while (iter.hasNext() && decisions.size() > MAX_DECISIONS / 2)
+         {
+            iter.next();
+            iter.remove();
+         }
+      }
+
+      boolean isGranted(PermissionDecision decision, String roleName)
+      {
+         Integer index = roleIndexes.get(roleName);
+         if (index == null)
+            return false;
+         boolean implied = decision.roles.get(index);
+         if (PicketBoxLogger.LOGGER.isDebugEnabled())
+         {
+            PicketBoxLogger.LOGGER.debugImpliesParameters(roleName, rolePermissions[index]);
+            PicketBoxLogger.LOGGER.debugImpliesResult(implied);
+         }
+         return implied;
+      }
+
+      private PermissionDecision decide(Permission permission)
+      {
+         if (excluded.implies(permission))
+            return new PermissionDecision(true, false, new BitSet());
+         if (unchecked.implies(permission))
+            return new PermissionDecision(false, true, new BitSet());
+         BitSet roles = new BitSet(rolePermissions.length);
+         for (int n = 0; n < rolePermissions.length; n++)
+         {
+            if (rolePermissions[n].implies(permission))
+               roles.set(n);
+         }
+         return new PermissionDecision(false, false, roles);
+      }
+   }
 }
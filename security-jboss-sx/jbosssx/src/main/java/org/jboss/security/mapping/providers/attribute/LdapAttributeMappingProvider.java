@@ -46,6 +46,7 @@ import org.jboss.security.identity.Attribute;
 import org.jboss.security.identity.AttributeFactory;
 import org.jboss.security.mapping.MappingProvider;
 import org.jboss.security.mapping.MappingResult;
+import org.jboss.security.util.LdapConnectionPool;
 
 /**
  * Maps attributes from LDAP
@@ -88,6 +89,9 @@ import org.jboss.security.mapping.MappingResult;
  The org.jboss.security.plugins.PBEUtils can also be used to generate the
  encrypted form.
  *
+ * ldapConnectionPool: true to pool the LDAP connections, see
+ * org.jboss.security.util.LdapConnectionPool. Defaults to false.
+ *
  * @author Anil.Saldhana@redhat.com
  * @since August 5, 2009
  */
@@ -161,6 +165,7 @@ public class LdapAttributeMappingProvider implements MappingProvider<List<Attrib
          }
 
          InitialLdapContext ctx = null;
+         NamingException failure = null;
          ClassLoader currentTCCL = SecurityActions.getContextClassLoader();
          try
          {
@@ -265,6 +270,7 @@ public class LdapAttributeMappingProvider implements MappingProvider<List<Attrib
          }
          catch(NamingException ne)
          {
+            failure = ne;
             PicketBoxLogger.LOGGER.debugIgnoredException(ne);
             return;
          }
@@ -274,8 +280,14 @@ public class LdapAttributeMappingProvider implements MappingProvider<List<Attrib
             {
                if (results != null)
                   results.close();
-               if (ctx != null)
-                  ctx.close();
+            }
+            catch (NamingException namingException)
+            {
+               PicketBoxLogger.LOGGER.debugIgnoredException(namingException);
+            }
+            try
+            {
+               LdapConnectionPool.close(ctx, failure);
             }
             catch (NamingException namingException)
             {
@@ -338,7 +350,7 @@ public class LdapAttributeMappingProvider implements MappingProvider<List<Attrib
       if (credential != null)
          env.put(Context.SECURITY_CREDENTIALS, credential);
       this.traceLDAPEnv(env);
-      return new InitialLdapContext(env, null);
+      return LdapConnectionPool.getContext(env);
    }
 
    /**
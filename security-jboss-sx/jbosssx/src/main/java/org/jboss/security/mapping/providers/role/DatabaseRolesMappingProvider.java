@@ -21,12 +21,27 @@
  */
 package org.jboss.security.mapping.providers.role;
 
+import java.lang.ref.WeakReference;
 import java.security.Principal;
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.naming.NamingException;
 import javax.transaction.TransactionManager;
 
+import org.jboss.security.PicketBoxLogger;
 import org.jboss.security.PicketBoxMessages;
 import org.jboss.security.identity.RoleGroup;
 import org.jboss.security.plugins.TransactionManagerLocator;
@@ -36,6 +51,25 @@ import org.jboss.security.plugins.TransactionManagerLocator;
  * 
  * rolesQuery option should be a prepared statement equivalent to
  * "select RoleName from Roles where User=?"
+ * <p>
+ * For small, read-mostly role tables the roles of every user can be loaded at
+ * init time, mapping then being a memory lookup:
+ * <ul>
+ * <li>preloadQuery - a query returning the user name and a role name per row, equivalent to
+ * "select User, RoleName from Roles". The rolesQuery is still used for the users it does not
+ * return;</li>
+ * <li>refreshInterval - the time in milliseconds between two refreshes of the loaded roles, which
+ * run in a background thread while the mappings keep using the previously loaded roles. The
+ * default is 0, the roles are not refreshed;</li>
+ * <li>refreshQuery - a query with a timestamp parameter returning all the roles of the users
+ * whose roles changed since the time of the previous load, equivalent to
+ * "select User, RoleName from Roles where User in (select User from RoleChanges where
+ * Modified &gt; ?)". A null role name stands for a user without roles. The parameter is the
+ * time on this host, the query may subtract a margin for the database clock. Without this
+ * query, a refresh reloads all the roles with the preloadQuery.</li>
+ * </ul>
+ * The loaded roles are shared by the providers using the same dsJndiName and queries, so the
+ * provider instances created for each security domain or mapping do not load them again.
  * 
  * @author <a href="mmoyses@redhat.com">Marcus Moyses</a>
  */
@@ -50,6 +84,21 @@ public class DatabaseRolesMappingProvider extends AbstractRolesMappingProvider
    protected String TX_MGR_JNDI_NAME = "java:/TransactionManager";
 
    protected TransactionManager tm = null;
+
+   protected String preloadQuery;
+
+   protected String refreshQuery;
+
+   protected long refreshInterval;
+
+   /** The preloaded roles, keyed by the settings they depend on */
+   private static final ConcurrentMap<String, PreloadedRoles> preloads = new ConcurrentHashMap<String, PreloadedRoles>();
+
+   /** The roles loaded by the preloadQuery, null if the roles are not preloaded */
+   private PreloadedRoles preloadedRoles;
+
+   /** The thread refreshing the preloaded roles, created on first use */
+   private static ScheduledExecutorService refresher;
  
    public void init(Map<String, Object> options)
    {
@@ -78,7 +127,56 @@ public class DatabaseRolesMappingProvider extends AbstractRolesMappingProvider
          {
             throw PicketBoxMessages.MESSAGES.failedToGetTransactionManager(e);
          }
+
+         preloadQuery = (String) options.get("preloadQuery");
+         refreshQuery = (String) options.get("refreshQuery");
+         option = (String) options.get("refreshInterval");
+         if (option != null)
+         {
+            try
+            {
+               refreshInterval = Long.parseLong(option);
+            }
+            catch (NumberFormatException e)
+            {
+               PicketBoxLogger.LOGGER.debugFailureToParseNumberProperty("refreshInterval", 0);
+            }
+         }
+         if (preloadQuery != null)
+         {
+            preloadedRoles = getPreloadedRoles(dsJndiName, preloadQuery, refreshQuery, refreshInterval);
+            preloadedRoles.loadIfNeeded(suspendResume, tm);
+            preloadedRoles.scheduleRefresh(suspendResume, tm);
+         }
+      }
+   }
+
+   /**
+    * Forget the preloaded roles of every provider and stop refreshing them, they are loaded
+    * again by the next provider initialized with the same settings.
+    */
+   public static void flushPreloadedRoles()
+   {
+      for (PreloadedRoles roles : preloads.values())
+      {
+         roles.cancelRefresh();
+         preloads.remove(roles.key, roles);
+      }
+   }
+
+   private static PreloadedRoles getPreloadedRoles(String dsJndiName, String preloadQuery, String refreshQuery,
+         long refreshInterval)
+   {
+      String key = dsJndiName + '\n' + preloadQuery + '\n' + refreshQuery + '\n' + refreshInterval;
+      PreloadedRoles roles = preloads.get(key);
+      if (roles == null)
+      {
+         roles = new PreloadedRoles(key, dsJndiName, preloadQuery, refreshQuery, refreshInterval);
+         PreloadedRoles previous = preloads.putIfAbsent(key, roles);
+         if (previous != null)
+            roles = previous;
       }
+      return roles;
    }
  
    public void performMapping(Map<String, Object> contextMap, RoleGroup mappedObject)
@@ -92,7 +190,11 @@ public class DatabaseRolesMappingProvider extends AbstractRolesMappingProvider
       if (principal != null && rolesQuery != null)
       {
          String username = principal.getName();
-         Util.addRolesToGroup(username, mappedObject, dsJndiName, rolesQuery, suspendResume, tm);
+         String[] roles = (preloadedRoles != null ? preloadedRoles.getRoles(username) : null);
+         if (roles != null)
+            Util.addRolesToGroup(mappedObject, roles);
+         else
+            Util.addRolesToGroup(username, mappedObject, dsJndiName, rolesQuery, suspendResume, tm);
          result.setMappedObject(mappedObject);
       }
 
@@ -104,4 +206,188 @@ public class DatabaseRolesMappingProvider extends AbstractRolesMappingProvider
       return tml.getTM(this.TX_MGR_JNDI_NAME);
    }
 
+   private static synchronized ScheduledExecutorService getRefresher()
+   {
+      if (refresher == null)
+      {
+         refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+         {
+            public Thread newThread(Runnable r)
+            {
+               Thread thread = new Thread(r, "DatabaseRolesRefresh");
+               thread.setDaemon(true);
+               return thread;
+            }
+         });
+      }
+      return refresher;
+   }
+
+   /**
+    * The roles of the users loaded by a preloadQuery and refreshed with a refreshQuery. The
+    * initial load runs in the thread of the first provider initialized, the refreshes in the
+    * refresher thread with the transaction settings and context class loader of that provider.
+    * Each load replaces the immutable map of the roles, so the mappings never wait for one.
+    */
+   private static final class PreloadedRoles implements Runnable
+   {
+      private final String key;
+
+      private final String dsJndiName;
+
+      private final String preloadQuery;
+
+      private final String refreshQuery;
+
+      private final long refreshInterval;
+
+      /** The roles of the users, null if not loaded */
+      private volatile Map<String, String[]> roles;
+
+      /** The time the last successful load started, the changes since then are refreshed */
+      private long loadedSince;
+
+      private final AtomicBoolean loading = new AtomicBoolean();
+
+      /** The settings of the provider that scheduled the refresh, see run() */
+      private boolean suspendResume;
+
+      private TransactionManager tm;
+
+      private WeakReference<ClassLoader> contextClassLoader;
+
+      /** The scheduled refresh, null if the roles are not refreshed */
+      private ScheduledFuture<?> refresh;
+
+      PreloadedRoles(String key, String dsJndiName, String preloadQuery, String refreshQuery, long refreshInterval)
+      {
+         this.key = key;
+         this.dsJndiName = dsJndiName;
+         this.preloadQuery = preloadQuery;
+         this.refreshQuery = refreshQuery;
+         this.refreshInterval = refreshInterval;
+      }
+
+      /**
+       * Load the roles unless they were loaded, or are being loaded, by another provider. A
+       * failed load is retried by the next provider initialized.
+       */
+      void loadIfNeeded(boolean suspendResume, TransactionManager tm)
+      {
+         if (roles == null && loading.compareAndSet(false, true))
+         {
+            try
+            {
+               if (roles == null)
+                  loadRoles(suspendResume, tm);
+            }
+            finally
+            {
+               loading.set(false);
+            }
+         }
+      }
+
+      /**
+       * Schedule the periodic refresh of the roles, unless there is no refreshInterval or it was
+       * scheduled by another provider. A failed initial load is retried by the refresh as well.
+       */
+      synchronized void scheduleRefresh(boolean suspendResume, TransactionManager tm)
+      {
+         if (refreshInterval <= 0 || refresh != null)
+            return;
+         this.suspendResume = suspendResume;
+         this.tm = tm;
+         this.contextClassLoader = new WeakReference<ClassLoader>(SecurityActions.getContextClassLoader());
+         refresh = getRefresher().scheduleWithFixedDelay(this, refreshInterval, refreshInterval, TimeUnit.MILLISECONDS);
+      }
+
+      synchronized void cancelRefresh()
+      {
+         if (refresh != null)
+            refresh.cancel(false);
+      }
+
+      /**
+       * Refresh the roles in the refresher thread. The refresh stops once the class loader of
+       * the provider that scheduled it has been collected.
+       */
+      public void run()
+      {
+         boolean suspendResume;
+         TransactionManager tm;
+         ClassLoader loader;
+         synchronized (this)
+         {
+            suspendResume = this.suspendResume;
+            tm = this.tm;
+            loader = contextClassLoader.get();
+         }
+         if (loader == null)
+         {
+            cancelRefresh();
+            preloads.remove(key, this);
+            return;
+         }
+         if (!loading.compareAndSet(false, true))
+            return;
+         ClassLoader previous = SecurityActions.getContextClassLoader();
+         SecurityActions.setContextClassLoader(loader);
+         try
+         {
+            loadRoles(suspendResume, tm);
+         }
+         finally
+         {
+            SecurityActions.setContextClassLoader(previous);
+            loading.set(false);
+         }
+      }
+
+      /**
+       * @return the preloaded roles of the user, null if they were not loaded
+       */
+      String[] getRoles(String username)
+      {
+         Map<String, String[]> current = roles;
+         return current != null ? current.get(username) : null;
+      }
+
+      /**
+       * Load the roles with the preloadQuery or, if the roles were already loaded, the roles
+       * modified since the last load with the refreshQuery.
+       */
+      private void loadRoles(boolean suspendResume, TransactionManager tm)
+      {
+         long start = System.currentTimeMillis();
+         Map<String, String[]> previous = roles;
+         boolean incremental = previous != null && refreshQuery != null;
+         try
+         {
+            Map<String, List<String>> loaded;
+            Map<String, String[]> loadedRoles;
+            if (incremental)
+            {
+               loaded = Util.loadRoles(dsJndiName, refreshQuery, new Timestamp(loadedSince), suspendResume, tm);
+               loadedRoles = new HashMap<String, String[]>(previous);
+            }
+            else
+            {
+               loaded = Util.loadRoles(dsJndiName, preloadQuery, null, suspendResume, tm);
+               loadedRoles = new HashMap<String, String[]>();
+            }
+            for (Entry<String, List<String>> entry : loaded.entrySet())
+               loadedRoles.put(entry.getKey(), entry.getValue().toArray(new String[entry.getValue().size()]));
+            roles = Collections.unmodifiableMap(loadedRoles);
+            loadedSince = start;
+            PicketBoxLogger.LOGGER.traceRolesLoaded(loaded.size(), dsJndiName);
+         }
+         catch (RuntimeException e)
+         {
+            // the previously loaded roles are kept
+            PicketBoxLogger.LOGGER.warnFailureToLoadRoles(dsJndiName, e);
+         }
+      }
+   }
+
 }
\ No newline at end of file
@@ -22,11 +22,19 @@
 package org.jboss.security.mapping.providers.role;
 
 import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.naming.Context;
 import javax.naming.NamingEnumeration;
@@ -42,11 +50,15 @@ import org.jboss.security.PicketBoxMessages;
 import org.jboss.security.Util;
 import org.jboss.security.identity.RoleGroup;
 import org.jboss.security.identity.plugins.SimpleRole;
+import org.jboss.security.util.LdapConnectionPool;
+import org.jboss.security.util.LdapRoleSearchSupport;
 import org.jboss.security.vault.SecurityVaultException;
 import org.jboss.security.vault.SecurityVaultUtil;
 
 /**
  * A mapping provider that assigns roles to an user using a LDAP server to search for the roles. 
+ * The connections are pooled if the ldapConnectionPool option is set to true, see {@link LdapConnectionPool}.
+ * The nested roles are searched one nesting level at a time, see {@link LdapRoleSearchSupport}.
  * 
  * @author <a href="mmoyses@redhat.com">Marcus Moyses</a>
  * @author Andy Oliver
@@ -94,6 +106,8 @@ public class LdapRolesMappingProvider extends AbstractRolesMappingProvider
 
    protected int recursion = 0;
 
+   protected int roleSearchThreads = 1;
+
    protected int searchTimeLimit = 10000;
 
    protected int searchScope = SearchControls.SUBTREE_SCOPE;
@@ -158,6 +172,7 @@ public class LdapRolesMappingProvider extends AbstractRolesMappingProvider
             // its okay for this to be 0 as this just disables recursion
             recursion = 0;
          }
+         roleSearchThreads = LdapRoleSearchSupport.getThreads(options);
          String timeLimit = (String) options.get(SEARCH_TIME_LIMIT_OPT);
          if (timeLimit != null)
          {
@@ -192,6 +207,7 @@ public class LdapRolesMappingProvider extends AbstractRolesMappingProvider
       {
          // Get the admin context for searching
          InitialLdapContext ctx = null;
+         NamingException failure = null;
          ClassLoader currentTCCL = SecurityActions.getContextClassLoader();
          try
          {
@@ -202,26 +218,24 @@ public class LdapRolesMappingProvider extends AbstractRolesMappingProvider
             // Query for roles matching the role filter
             SearchControls constraints = new SearchControls();
             constraints.setSearchScope(searchScope);
-            constraints.setReturningAttributes(new String[0]);
+            constraints.setReturningAttributes(new String[] {roleAttributeID});
             constraints.setTimeLimit(searchTimeLimit);
             rolesSearch(ctx, constraints, principal.getName(), recursion, 0, mappedObject);
          }
          catch (NamingException ne)
          {
+            failure = ne;
             PicketBoxLogger.LOGGER.debugIgnoredException(ne);
          }
          finally
          {
-            if (ctx != null)
+            try
             {
-               try
-               {
-                  ctx.close();
-               }
-               catch (NamingException ne)
-               {
-                   PicketBoxLogger.LOGGER.debugIgnoredException(ne);
-               }
+               LdapConnectionPool.close(ctx, failure);
+            }
+            catch (NamingException ne)
+            {
+                PicketBoxLogger.LOGGER.debugIgnoredException(ne);
             }
             if (currentTCCL != null)
                SecurityActions.setContextClassLoader(currentTCCL);
@@ -261,7 +275,7 @@ public class LdapRolesMappingProvider extends AbstractRolesMappingProvider
       if (credential != null)
          env.put(Context.SECURITY_CREDENTIALS, credential);
       this.traceLDAPEnv(env);
-      return new InitialLdapContext(env, null);
+      return LdapConnectionPool.getContext(env);
    }
    
    protected void rolesSearch(InitialLdapContext ctx, SearchControls constraints, String user, int recursionMax,
@@ -270,77 +284,201 @@ public class LdapRolesMappingProvider extends AbstractRolesMappingProvider
       rolesSearch(ctx, constraints, user, null, recursionMax, nesting, roleGroup);
    }
 
+   /**
+    * Search the roles of the user. The role graph is walked breadth first: the entries of a
+    * nesting level are looked up with one search matching the members of any of them, and an
+    * entry is only searched once even if it is reached through several paths.
+    */
    protected void rolesSearch(InitialLdapContext ctx, SearchControls constraints, String user, String previousRoleDn,
                               int recursionMax, int nesting, RoleGroup roleGroup) throws NamingException
    {
-      Object[] filterArgs = {user};
-      String searchFilter = previousRoleDn == null ? roleFilter : "member=" + previousRoleDn;
-      NamingEnumeration<SearchResult> results = ctx.search(rolesCtxDN, searchFilter, filterArgs, constraints);
-      try
+      // the entries whose roles were collected, includes the entries of the current level
+      Set<String> visited = new HashSet<String>();
+      visited.add(previousRoleDn);
+      // the role names of the role DNs queried so far
+      Map<String, List<String>> roleNames = new ConcurrentHashMap<String, List<String>>();
+      List<String> level = Collections.singletonList(previousRoleDn);
+      while (!level.isEmpty())
       {
-         while (results.hasMore())
+         List<List<String>> batches = LdapRoleSearchSupport.partition(level, roleSearchThreads);
+         PicketBoxLogger.LOGGER.traceLdapRoleSearchLevel(level.size(), nesting, batches.size());
+         List<RolesSearch> searches = new ArrayList<RolesSearch>(batches.size());
+         for (List<String> batch : batches)
          {
-            SearchResult sr = results.next();
-            String dn = canonicalize(sr.getName());
+            // only the first search runs on the calling thread and can use its context
+            InitialLdapContext searchCtx = (searches.isEmpty() ? ctx : null);
+            searches.add(new RolesSearch(searchCtx, constraints, user, batch, visited, roleNames));
+         }
 
-            // Query the context for the roleDN values
-            String[] attrNames = {roleAttributeID};
-            Attributes result = ctx.getAttributes(dn, attrNames);
-            if (result != null && result.size() > 0)
+         List<String> nextLevel = new ArrayList<String>();
+         for (RolesSearch search : LdapRoleSearchSupport.search(searches, roleSearchThreads))
+         {
+            for (String roleName : search.roles)
+               addRole(roleName, roleGroup);
+            for (String dn : search.entries)
             {
-               Attribute roles = result.get(roleAttributeID);
-               for (int n = 0; n < roles.size(); n++)
+               if (visited.add(dn) && nesting < recursionMax)
+                  nextLevel.add(dn);
+            }
+         }
+         level = nextLevel;
+         nesting++;
+      }
+   }
+
+   /**
+    * The search of the role entries matching a batch of entries of a nesting level, or the user
+    * if the batch only holds null. The roles are collected and added by the calling thread as
+    * the search may run on another thread.
+    */
+   private class RolesSearch implements LdapRoleSearchSupport.Search<RolesSearch>
+   {
+      private final InitialLdapContext ctx;
+      private final SearchControls constraints;
+      private final String user;
+      private final List<String> dns;
+      private final Set<String> visited;
+      private final Map<String, List<String>> roleNames;
+      // the role entries found, which make the next nesting level
+      private final Set<String> entries = new LinkedHashSet<String>();
+      private final List<String> roles = new ArrayList<String>();
+
+      RolesSearch(InitialLdapContext ctx, SearchControls constraints, String user, List<String> dns,
+            Set<String> visited, Map<String, List<String>> roleNames)
+      {
+         this.ctx = ctx;
+         this.constraints = constraints;
+         this.user = user;
+         this.dns = dns;
+         this.visited = visited;
+         this.roleNames = roleNames;
+      }
+
+      public RolesSearch execute() throws NamingException
+      {
+         if (ctx != null)
+         {
+            search(ctx);
+            return this;
+         }
+         InitialLdapContext searchCtx = null;
+         NamingException failure = null;
+         try
+         {
+            searchCtx = constructInitialLdapContext(bindDN, bindCredential);
+            search(searchCtx);
+         }
+         catch (NamingException e)
+         {
+            failure = e;
+            throw e;
+         }
+         finally
+         {
+            LdapConnectionPool.close(searchCtx, failure);
+         }
+         return this;
+      }
+
+      private void search(InitialLdapContext ctx) throws NamingException
+      {
+         Object[] filterArgs;
+         String searchFilter;
+         if (dns.get(0) == null)
+         {
+            filterArgs = new Object[] {user};
+            searchFilter = roleFilter;
+         }
+         else
+         {
+            filterArgs = new Object[dns.size()];
+            for (int i = 0; i < dns.size(); i++)
+               filterArgs[i] = sanitizeDN(dns.get(i));
+            searchFilter = LdapRoleSearchSupport.batchFilter("(member={0})", 0, dns.size());
+         }
+         NamingEnumeration<SearchResult> results = ctx.search(rolesCtxDN, searchFilter, filterArgs, constraints);
+         try
+         {
+            while (results.hasMore())
+            {
+               SearchResult sr = results.next();
+               String dn = canonicalize(sr.getName());
+               if (visited.contains(dn) || !entries.add(dn))
+                  continue;
+
+               // Query the context for the roleDN values unless the search returned them
+               Attributes result = sr.getAttributes();
+               if (result == null || result.get(roleAttributeID) == null)
+               {
+                  String[] attrNames = {roleAttributeID};
+                  result = ctx.getAttributes(dn, attrNames);
+               }
+               Attribute roleValues = (result != null ? result.get(roleAttributeID) : null);
+               for (int n = 0; roleValues != null && n < roleValues.size(); n++)
                {
-                  String roleName = (String) roles.get(n);
+                  String roleName = (String) roleValues.get(n);
                   if (roleAttributeIsDN && parseRoleNameFromDN)
                   {
-                     parseRole(roleName, roleGroup);
+                     parseRole(roleName, roles);
                   }
                   else if (roleAttributeIsDN)
                   {
-                     // Query the roleDN location for the value of roleNameAttributeID
-                     String roleDN = roleName;
-                     String[] returnAttribute = {roleNameAttributeID};
-                     PicketBoxLogger.LOGGER.traceFollowRoleDN(roleDN);
-                     try
-                     {
-                        Attributes result2 = ctx.getAttributes(roleDN, returnAttribute);
-                        Attribute roles2 = result2.get(roleNameAttributeID);
-                        if (roles2 != null)
-                        {
-                           for (int m = 0; m < roles2.size(); m++)
-                           {
-                              roleName = (String) roles2.get(m);
-                              addRole(roleName, roleGroup);
-                           }
-                        }
-                     }
-                     catch (NamingException e)
-                     {
-                        PicketBoxLogger.LOGGER.debugFailureToQueryLDAPAttribute(roleNameAttributeID, roleDN, e);
-                     }
+                     roles.addAll(getRoleNames(ctx, roleName));
                   }
                   else
                   {
                      // The role attribute value is the role name
-                     addRole(roleName, roleGroup);
+                     roles.add(roleName);
                   }
                }
             }
+         }
+         finally
+         {
+            if (results != null)
+               results.close();
+         }
+      }
 
-            if (nesting < recursionMax)
+      /**
+       * Query the roleDN location for the value of roleNameAttributeID, once per mapping.
+       */
+      private List<String> getRoleNames(InitialLdapContext ctx, String roleDN)
+      {
+         List<String> names = roleNames.get(roleDN);
+         if (names != null)
+            return names;
+         names = new ArrayList<String>();
+         String[] returnAttribute = {roleNameAttributeID};
+         PicketBoxLogger.LOGGER.traceFollowRoleDN(roleDN);
+         try
+         {
+            Attributes result2 = ctx.getAttributes(roleDN, returnAttribute);
+            Attribute roles2 = result2.get(roleNameAttributeID);
+            for (int m = 0; roles2 != null && m < roles2.size(); m++)
             {
-               rolesSearch(ctx, constraints, user, dn, recursionMax, nesting + 1, roleGroup);
+               names.add((String) roles2.get(m));
             }
          }
-      }
-      finally
-      {
-         if (results != null)
-            results.close();
+         catch (NamingException e)
+         {
+            PicketBoxLogger.LOGGER.debugFailureToQueryLDAPAttribute(roleNameAttributeID, roleDN, e);
+         }
+         roleNames.put(roleDN, names);
+         return names;
       }
    }
-   
+
+   /**
+    * Remove enclosing quotes, if any, from dn as some LDAPs choke on quotes in search parameters.
+    */
+   private String sanitizeDN(final String dn)
+   {
+      if (dn.startsWith("\"") && dn.endsWith("\""))
+         return dn.substring(1, dn.length() - 1);
+      return dn;
+   }
+
    //JBAS-3438 : Handle "/" correctly
    private String canonicalize(String searchResult)
    {
@@ -376,7 +514,7 @@ public class LdapRolesMappingProvider extends AbstractRolesMappingProvider
       }
    }
 
-   private void parseRole(String dn, RoleGroup roleGroup)
+   private void parseRole(String dn, Collection<String> roleNames)
    {
       StringTokenizer st = new StringTokenizer(dn, ",");
       while (st != null && st.hasMoreTokens())
@@ -386,7 +524,7 @@ public class LdapRolesMappingProvider extends AbstractRolesMappingProvider
          {
             StringTokenizer kst = new StringTokenizer(keyVal, "=");
             kst.nextToken();
-            addRole(kst.nextToken(), roleGroup);
+            roleNames.add(kst.nextToken());
          }
       }
    }
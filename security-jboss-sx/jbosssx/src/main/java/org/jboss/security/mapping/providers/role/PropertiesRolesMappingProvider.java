@@ -27,6 +27,7 @@ import java.util.Map;
 import java.util.Properties;
 
 import org.jboss.security.PicketBoxMessages;
+import org.jboss.security.auth.spi.PropertiesStore;
 import org.jboss.security.identity.RoleGroup;
 import org.jboss.security.util.StringPropertyReplacer;
 
@@ -47,6 +48,9 @@ public class PropertiesRolesMappingProvider extends AbstractRolesMappingProvider
    protected String rolesRsrcName = "roles.properties";
 
    protected Properties roles;
+
+   /** The shared store the roles were loaded from, if any */
+   private PropertiesStore rolesStore;
  
    public void init(Map<String, Object> options)
    {
@@ -60,6 +64,9 @@ public class PropertiesRolesMappingProvider extends AbstractRolesMappingProvider
          try
          {
             roles = loadRoles();
+            // only use the store directly if the roles were not customized by a subclass
+            if (rolesStore != null && roles != rolesStore.getProperties())
+               rolesStore = null;
          }
          catch (IOException ioe)
          {
@@ -79,14 +86,22 @@ public class PropertiesRolesMappingProvider extends AbstractRolesMappingProvider
       if (principal != null)
       {
          String username = principal.getName();
-         Util.addRolesToGroup(username, mappedObject, roles);
+         if (rolesStore != null)
+            Util.addRolesToGroup(mappedObject, rolesStore.getRoles(username));
+         else
+            Util.addRolesToGroup(username, mappedObject, roles);
          result.setMappedObject(mappedObject);
       }
    }
 
+   /**
+    * Load the roles properties file. The file is parsed once and shared through the
+    * {@link PropertiesStore}, so the resulting Properties are read only.
+    */
    protected Properties loadRoles() throws IOException
    {
-      return Util.loadProperties(rolesRsrcName);
+      rolesStore = PropertiesStore.getStore(rolesRsrcName);
+      return rolesStore.getProperties();
    }
 
 }
\ No newline at end of file
@@ -32,11 +32,14 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
-import javax.naming.InitialContext;
 import javax.naming.NamingException;
-import javax.sql.DataSource;
 import javax.transaction.SystemException;
 import javax.transaction.Transaction;
 import javax.transaction.TransactionManager;
@@ -45,6 +48,7 @@ import org.jboss.security.PicketBoxLogger;
 import org.jboss.security.PicketBoxMessages;
 import org.jboss.security.identity.RoleGroup;
 import org.jboss.security.identity.plugins.SimpleRole;
+import org.jboss.security.plugins.DataSourceLocator;
 
 /**
  * Utility class for this package.
@@ -150,6 +154,17 @@ public class Util
          PicketBoxLogger.LOGGER.traceAdditionOfRoleToGroup(value, roleGroup.getRoleName());
          roleNames = parseRoles(value);
       }
+      addRolesToGroup(roleGroup, roleNames);
+   }
+
+   /** 
+    * Add the given roles to the group
+    * 
+    * @param roleGroup - group containing the user's roles
+    * @param roleNames - the names of the roles to add, may be null
+    */
+   static void addRolesToGroup(RoleGroup roleGroup, String[] roleNames)
+   {
       if (roleNames != null)
       {
          for (int i = 0; i < roleNames.length; i++)
@@ -179,7 +194,96 @@ public class Util
     * @param suspendResume - flag to indicate if transactions should be suspended/resumed
     * @param tm - transaction manager
     */
-   static void addRolesToGroup(String username, RoleGroup roleGroup, String dsJndiName, String rolesQuery, boolean suspendResume, TransactionManager tm)
+   static void addRolesToGroup(final String username, final RoleGroup roleGroup, String dsJndiName, String rolesQuery, boolean suspendResume, TransactionManager tm)
+   {
+      executeQuery(dsJndiName, rolesQuery, username, suspendResume, tm, new QueryCallback()
+      {
+         public void setParameters(PreparedStatement ps) throws SQLException
+         {
+            try
+            {
+               ps.setString(1, username);
+            }
+            catch (ArrayIndexOutOfBoundsException ignore)
+            {
+               // The query may not have any parameters so just try it
+            }
+         }
+
+         public void processResults(ResultSet rs) throws SQLException
+         {
+            if (!rs.next())
+            {
+               PicketBoxLogger.LOGGER.traceQueryWithEmptyResult();
+            }
+            else
+            {
+              do
+              {
+                 String name = rs.getString(1);
+                 roleGroup.addRole(new SimpleRole(name));
+              }
+              while (rs.next());
+            }
+         }
+      });
+   }
+
+   /**
+    * Load the roles of several users by querying a database
+    * 
+    * @param dsJndiName - JNDI name of the datasource
+    * @param query - the query returning a user name and one of its role names per row. A null
+    *    role name stands for a user without roles
+    * @param since - the value of the single query parameter, null if the query has no parameter
+    * @param suspendResume - flag to indicate if transactions should be suspended/resumed
+    * @param tm - transaction manager
+    * @return the role names of each user returned by the query
+    */
+   static Map<String, List<String>> loadRoles(String dsJndiName, String query, final Timestamp since,
+         boolean suspendResume, TransactionManager tm)
+   {
+      final Map<String, List<String>> roles = new HashMap<String, List<String>>();
+      executeQuery(dsJndiName, query, String.valueOf(since), suspendResume, tm, new QueryCallback()
+      {
+         public void setParameters(PreparedStatement ps) throws SQLException
+         {
+            if (since != null)
+               ps.setTimestamp(1, since);
+         }
+
+         public void processResults(ResultSet rs) throws SQLException
+         {
+            while (rs.next())
+            {
+               String username = rs.getString(1);
+               String roleName = rs.getString(2);
+               List<String> userRoles = roles.get(username);
+               if (userRoles == null)
+               {
+                  userRoles = new ArrayList<String>();
+                  roles.put(username, userRoles);
+               }
+               if (roleName != null)
+                  userRoles.add(roleName);
+            }
+         }
+      });
+      return roles;
+   }
+
+   /**
+    * Run a query of a datasource, outside of the current transaction if requested
+    * 
+    * @param dsJndiName - JNDI name of the datasource
+    * @param query - prepared statement to query
+    * @param traceParameter - the parameter logged with the query
+    * @param suspendResume - flag to indicate if transactions should be suspended/resumed
+    * @param tm - transaction manager
+    * @param callback - sets the parameters of the statement and reads its results
+    */
+   private static void executeQuery(String dsJndiName, String query, String traceParameter, boolean suspendResume,
+         TransactionManager tm, QueryCallback callback)
    {
       Connection conn = null;
       PreparedStatement ps = null;
@@ -205,34 +309,12 @@ public class Util
 
       try
       {
-         InitialContext ctx = new InitialContext();
-         DataSource ds = (DataSource) ctx.lookup(dsJndiName);
-         conn = ds.getConnection();
-         // Get the user role names
-         PicketBoxLogger.LOGGER.traceExecuteQuery(rolesQuery, username);
-         ps = conn.prepareStatement(rolesQuery);
-         try
-         {
-            ps.setString(1, username);
-         }
-         catch (ArrayIndexOutOfBoundsException ignore)
-         {
-            // The query may not have any parameters so just try it
-         }
+         conn = DataSourceLocator.getConnection(dsJndiName);
+         PicketBoxLogger.LOGGER.traceExecuteQuery(query, traceParameter);
+         ps = conn.prepareStatement(query);
+         callback.setParameters(ps);
          rs = ps.executeQuery();
-         if (!rs.next())
-         {
-            PicketBoxLogger.LOGGER.traceQueryWithEmptyResult();
-         }
-         else
-         {
-           do
-           {
-              String name = rs.getString(1);
-              roleGroup.addRole(new SimpleRole(name));
-           }
-           while (rs.next());
-         }
+         callback.processResults(rs);
       }
       catch (NamingException ex)
       {
@@ -287,6 +369,16 @@ public class Util
          }
       }
    }
+
+   /**
+    * Sets the parameters of a query and reads its results
+    */
+   private interface QueryCallback
+   {
+      void setParameters(PreparedStatement ps) throws SQLException;
+
+      void processResults(ResultSet rs) throws SQLException;
+   }
    
    private static void safeClose(InputStream fis)
    {
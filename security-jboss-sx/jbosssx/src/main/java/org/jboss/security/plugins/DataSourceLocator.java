@@ -0,0 +1,119 @@
+/*
+  * JBoss, Home of Professional Open Source
+  * Copyright 2026, Red Hat, Inc., and individual contributors as indicated
+  * by the @authors tag. See the copyright.txt in the distribution for a
+  * full listing of individual contributors.
+  *
+  * This is free software; you can redistribute it and/or modify it
+  * under the terms of the GNU Lesser General Public License as
+  * published by the Free Software Foundation; either version 2.1 of
+  * the License, or (at your option) any later version.
+  *
+  * This software is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+  * Lesser General Public License for more details.
+  *
+  * You should have received a copy of the GNU Lesser General Public
+  * License along with this software; if not, write to the Free
+  * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+  */
+package org.jboss.security.plugins;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.sql.DataSource;
+
+/**
+ * Locate the DataSources used by the database login modules and mapping providers. The
+ * DataSources bound to global JNDI names are looked up once and shared by the logins of every
+ * security domain using them. Names of the java:comp, java:module and java:app namespaces depend
+ * on the calling component, module or application and are looked up on every call.
+ */
+public class DataSourceLocator
+{
+   /** The namespaces whose bindings depend on the caller */
+   private static final String[] SCOPED_NAMESPACES = {"java:comp", "java:module", "java:app"};
+
+   private static final ConcurrentMap<String, DataSource> dataSources = new ConcurrentHashMap<String, DataSource>();
+
+   private DataSourceLocator()
+   {
+   }
+
+   /**
+    * @param jndiName - the JNDI name of the DataSource
+    * @return the DataSource bound to the name
+    * @throws NamingException if the lookup failed
+    */
+   public static DataSource getDataSource(String jndiName) throws NamingException
+   {
+      DataSource ds = dataSources.get(jndiName);
+      if (ds == null)
+      {
+         InitialContext ctx = new InitialContext();
+         ds = (DataSource) ctx.lookup(jndiName);
+         if (!isScoped(jndiName))
+            dataSources.put(jndiName, ds);
+      }
+      return ds;
+   }
+
+   private static boolean isScoped(String jndiName)
+   {
+      for (String namespace : SCOPED_NAMESPACES)
+      {
+         if (jndiName.startsWith(namespace) && (jndiName.length() == namespace.length()
+               || jndiName.charAt(namespace.length()) == '/'))
+            return true;
+      }
+      return false;
+   }
+
+   /**
+    * Obtain a connection of a DataSource. If the DataSource fails to provide it, the DataSource
+    * is looked up again in case it was redeployed.
+    *
+    * @param jndiName - the JNDI name of the DataSource
+    * @return the connection
+    * @throws NamingException if the lookup failed
+    * @throws SQLException if the connection could not be obtained
+    */
+   public static Connection getConnection(String jndiName) throws NamingException, SQLException
+   {
+      DataSource ds = getDataSource(jndiName);
+      try
+      {
+         return ds.getConnection();
+      }
+      catch (SQLException e)
+      {
+         if (dataSources.remove(jndiName, ds))
+         {
+            DataSource current = getDataSource(jndiName);
+            if (current != ds)
+               return current.getConnection();
+         }
+         throw e;
+      }
+   }
+
+   /**
+    * Forget the DataSource bound to a name, e.g. after it was undeployed.
+    */
+   public static void flush(String jndiName)
+   {
+      dataSources.remove(jndiName);
+   }
+
+   public static void flush()
+   {
+      dataSources.clear();
+   }
+}
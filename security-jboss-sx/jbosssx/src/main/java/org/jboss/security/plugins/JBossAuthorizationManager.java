@@ -30,10 +30,9 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
 import javax.security.auth.Subject;
 import javax.security.auth.callback.Callback;
@@ -76,14 +75,30 @@ implements AuthorizationManager
 {  
    private final String securityDomain;  
    
-   private AuthorizationContext authorizationContext = null;
-   
-   //Lock deals with synchronization of authorizationContext usage
-   private final Lock lock = new ReentrantLock();
+   //The context keeps no per-call state, so it is shared by all the callers without locking
+   private volatile AuthorizationContext authorizationContext = null;
+
+   private static final int MAX_MAPPED_ROLES = 1000;
+
+   //Roles produced by the role mapping chain, reused until they expire, least recently used evicted first
+   private final Map<MappedRolesKey, MappedRoles> mappedRoles = new LinkedHashMap<MappedRolesKey, MappedRoles>(16, 0.75f, true)
+   {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<MappedRolesKey, MappedRoles> eldest)
+      {
+         return size() > MAX_MAPPED_ROLES;
+      }
+   };
+
+   //Lifetime of the mapped roles in ms, 0 runs the mapping chain on every call
+   private volatile long mappedRolesTimeout;
    
    public JBossAuthorizationManager(String securityDomainName)
    {
       this.securityDomain = SecurityUtil.unprefixSecurityDomain( securityDomainName );
+      this.mappedRolesTimeout = Long.parseLong(SubjectActions.getSystemProperty("jbosssx.context.roles.mapping.timeout", "0"));
    } 
    
    /**
@@ -245,14 +260,52 @@ implements AuthorizationManager
       if(this.securityDomain.equals(sc) == false)
          throw PicketBoxMessages.MESSAGES.unexpectedSecurityDomainInContext(this.securityDomain);
 
-      lock.lock();
-      try
-      { 
-         this.authorizationContext = authorizationContext;
+      this.authorizationContext = authorizationContext;
+   }
+
+   /**
+    * Set how long the roles produced by the role mapping chain for an identity are
+    * reused before the chain runs again. Defaults to the value of the
+    * jbosssx.context.roles.mapping.timeout system property.
+    * @param timeout lifetime in ms, 0 to run the mapping chain on every call
+    */
+   public void setMappedRolesTimeout(long timeout)
+   {
+      this.mappedRolesTimeout = timeout;
+      if(timeout <= 0)
+         flushMappedRoles();
+   }
+
+   /**
+    * Discard the mapped roles of the given principal, the mapping chain runs again
+    * on the next call of that principal
+    * @param principal the caller (or run-as) principal, or one of the Subject principals
+    */
+   public void flushMappedRoles(Principal principal)
+   {
+      if(principal == null)
+         throw PicketBoxMessages.MESSAGES.invalidNullArgument("principal");
+      String name = principal.getName();
+      synchronized(this.mappedRoles)
+      {
+         Iterator<MappedRolesKey> iter = this.mappedRoles.keySet().iterator();
+         while(iter.hasNext())
+         {
+            if(iter.next().isFor(name))
+               iter.remove();
+         }
       }
-      finally
+   }
+
+   /**
+    * Discard all the mapped roles, e.g. after the role mapping configuration or the
+    * role store has changed
+    */
+   public void flushMappedRoles()
+   {
+      synchronized(this.mappedRoles)
       {
-         lock.unlock();
+         this.mappedRoles.clear();
       }
    }
    
@@ -351,10 +404,11 @@ implements AuthorizationManager
       Group subjectRoles = getGroupFromSubject(subject);
       
       boolean emptyContextRoles = false;
+      boolean refresh = "true".equalsIgnoreCase(SubjectActions.getRefreshSecurityContextRoles());
       
       RoleGroup userRoles = securityContext.getUtil().getRoles();
       //Group userRoles = (Group)sc.getData().get(ROLES_IDENTIFIER);
-      if(userRoles == null || "true".equalsIgnoreCase(SubjectActions.getRefreshSecurityContextRoles()))
+      if(userRoles == null || refresh)
          emptyContextRoles = true;
       userRoles = copyGroups(userRoles, subjectRoles); 
       
@@ -369,7 +423,18 @@ implements AuthorizationManager
          MappingContext<RoleGroup> mc = mm.getMappingContext(MappingType.ROLE.name());
         
          RoleGroup mappedUserRoles = userRoles;
-         if(mc != null && mc.hasModules())
+         MappedRolesKey key = null;
+         MappedRoles cached = null;
+         long timeout = this.mappedRolesTimeout;
+         if(mc != null && mc.hasModules() && timeout > 0)
+         {
+            //the key is taken before the mapping chain updates userRoles
+            key = new MappedRolesKey(securityContext.getSecurityDomain(), principal, subject, userRoles,
+                  SecurityRolesAssociation.getSecurityRoles());
+            if(refresh == false)
+               cached = getMappedRoles(key);
+         }
+         if(cached == null && mc != null && mc.hasModules())
          {
             Map<String,Object> contextMap = new HashMap<String,Object>();
             contextMap.put(SecurityConstants.ROLES_IDENTIFIER, userRoles);
@@ -395,6 +460,17 @@ implements AuthorizationManager
             {
                PicketBoxLogger.LOGGER.traceRolesAfterMapping(userRoles.toString());
             }
+            if(key != null && mappedUserRoles != null)
+            {
+               cached = new MappedRoles(userRoles, mappedUserRoles, System.currentTimeMillis() + timeout);
+               putMappedRoles(key, cached);
+            }
+         }
+         //a stored result and a fresh one are both handed out as copies, so callers get the same kind of groups
+         if(cached != null)
+         {
+            userRoles = cached.copyRoles();
+            mappedUserRoles = cached.copyMappedRoles(userRoles);
          }
          securityContext.getData().put(ROLES_IDENTIFIER, mappedUserRoles);
       } 
@@ -429,13 +505,42 @@ implements AuthorizationManager
       return source;
    }
    
+   private MappedRoles getMappedRoles(MappedRolesKey key)
+   {
+      synchronized(this.mappedRoles)
+      {
+         MappedRoles entry = this.mappedRoles.get(key);
+         if(entry == null)
+            return null;
+         if(entry.expiry <= System.currentTimeMillis())
+         {
+            this.mappedRoles.remove(key);
+            return null;
+         }
+         return entry;
+      }
+   }
+
+   private void putMappedRoles(MappedRolesKey key, MappedRoles entry)
+   {
+      synchronized(this.mappedRoles)
+      {
+         this.mappedRoles.put(key, entry);
+      }
+   }
+
    private int internalAuthorization(final Resource resource, Subject subject,
          RoleGroup role)
    throws AuthorizationException
    {
-      if(this.authorizationContext == null)
-         this.setAuthorizationContext( new JBossAuthorizationContext(this.securityDomain) );
-       return this.authorizationContext.authorize(resource, subject, role); 
+      AuthorizationContext ac = this.authorizationContext;
+      if(ac == null)
+      {
+         //racing callers may each create a default context, they are equivalent
+         ac = new JBossAuthorizationContext(this.securityDomain);
+         this.authorizationContext = ac;
+      }
+      return ac.authorize(resource, subject, role); 
    }
    
    /**
@@ -486,4 +591,111 @@ implements AuthorizationManager
    {
       return new SimpleRoleGroup(SecurityConstants.ROLES_IDENTIFIER);
    }
+
+   private static RoleGroup copyRoleGroup(RoleGroup roles)
+   {
+      SimpleRoleGroup copy = new SimpleRoleGroup(roles.getRoleName());
+      for(Role role : roles.getRoles())
+         copy.addRole(role);
+      return copy;
+   }
+
+   /**
+    * Identifies the input of the role mapping chain: the security domain, the caller
+    * principal, the Subject principals, the roles before mapping and the deployment
+    * principal to roles configuration
+    */
+   private static final class MappedRolesKey
+   {
+      private final String domain;
+      private final String principal;
+      private final Set<String> principals;
+      private final Set<String> roles;
+      private final Object deploymentRoles;
+      private final int hashCode;
+
+      MappedRolesKey(String domain, Principal principal, Subject subject, RoleGroup roles, Object deploymentRoles)
+      {
+         this.domain = domain;
+         this.principal = principal != null ? principal.getName() : null;
+         this.principals = new HashSet<String>();
+         for(Principal p : subject.getPrincipals())
+         {
+            if(!(p instanceof Group))
+               this.principals.add(p.getName());
+         }
+         this.roles = new HashSet<String>();
+         if(roles != null)
+         {
+            for(Role role : roles.getRoles())
+               this.roles.add(role.getRoleName());
+         }
+         this.deploymentRoles = deploymentRoles;
+         int h = domain != null ? domain.hashCode() : 0;
+         h = 31 * h + (this.principal != null ? this.principal.hashCode() : 0);
+         h = 31 * h + this.principals.hashCode();
+         h = 31 * h + this.roles.hashCode();
+         h = 31 * h + System.identityHashCode(deploymentRoles);
+         this.hashCode = h;
+      }
+
+      boolean isFor(String name)
+      {
+         return name.equals(this.principal) || this.principals.contains(name);
+      }
+
+      @Override
+      public boolean equals(Object obj)
+      {
+         if(this == obj)
+            return true;
+         if(!(obj instanceof MappedRolesKey))
+            return false;
+         MappedRolesKey other = (MappedRolesKey) obj;
+         return this.hashCode == other.hashCode
+            && (domain == null ? other.domain == null : domain.equals(other.domain))
+            && (principal == null ? other.principal == null : principal.equals(other.principal))
+            && this.deploymentRoles == other.deploymentRoles
+            && this.principals.equals(other.principals)
+            && this.roles.equals(other.roles);
+      }
+
+      @Override
+      public int hashCode()
+      {
+         return this.hashCode;
+      }
+   }
+
+   /**
+    * Result of the role mapping chain, copied in and out as callers update their roles:
+    * the roles returned to the caller and the mapped roles put in the security context,
+    * null when they are the same group
+    */
+   private static final class MappedRoles
+   {
+      private final RoleGroup roles;
+      private final RoleGroup mappedRoles;
+      private final long expiry;
+
+      MappedRoles(RoleGroup roles, RoleGroup mappedRoles, long expiry)
+      {
+         this.roles = copyRoleGroup(roles);
+         this.mappedRoles = mappedRoles != roles ? copyRoleGroup(mappedRoles) : null;
+         this.expiry = expiry;
+      }
+
+      RoleGroup copyRoles()
+      {
+         return copyRoleGroup(this.roles);
+      }
+
+      /**
+       * @param rolesCopy the copy returned by {@link #copyRoles()} for the same call
+       */
+      RoleGroup copyMappedRoles(RoleGroup rolesCopy)
+      {
+         return this.mappedRoles != null ? copyRoleGroup(this.mappedRoles) : rolesCopy;
+      }
+   }
 }
\ No newline at end of file
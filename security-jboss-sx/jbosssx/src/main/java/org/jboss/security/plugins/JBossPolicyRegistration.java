@@ -34,6 +34,7 @@ import javax.xml.bind.JAXBElement;
 import org.jboss.security.PicketBoxLogger;
 import org.jboss.security.PicketBoxMessages;
 import org.jboss.security.authorization.PolicyRegistration;
+import org.jboss.security.authorization.util.XACMLDecisionCache;
 import org.jboss.security.xacml.core.JBossPDP;
 import org.jboss.security.xacml.factories.PolicyFactory;
 import org.jboss.security.xacml.interfaces.XACMLPolicy;
@@ -62,6 +63,7 @@ public class JBossPolicyRegistration implements PolicyRegistration, Serializable
       if (PolicyRegistration.XACML.equalsIgnoreCase(type))
       {
          this.contextIdToXACMLPolicy.remove(contextID);
+         XACMLDecisionCache.invalidate(this, contextID);
          PicketBoxLogger.LOGGER.traceDeregisterPolicy(contextID, type);
       }
    }
@@ -125,6 +127,7 @@ public class JBossPolicyRegistration implements PolicyRegistration, Serializable
             }
             policySet.add(policy);
             this.contextIdToXACMLPolicy.put(contextID, policySet);
+            XACMLDecisionCache.invalidate(this, contextID);
          }
          catch (Exception e)
          {
@@ -148,6 +151,7 @@ public class JBossPolicyRegistration implements PolicyRegistration, Serializable
             JAXBElement<?> jaxbModel = (JAXBElement<?>) objectModel;
             JBossPDP pdp = new JBossPDP(jaxbModel);
             this.contextIDToJBossPDP.put(contextId, pdp);
+            XACMLDecisionCache.invalidate(this, contextId);
          }
          catch (Exception e)
          {
@@ -167,6 +171,7 @@ public class JBossPolicyRegistration implements PolicyRegistration, Serializable
          {
             JBossPDP pdp = new JBossPDP(stream);
             this.contextIDToJBossPDP.put(contextId, pdp);
+            XACMLDecisionCache.invalidate(this, contextId);
          }
          catch (Exception e)
          {
@@ -0,0 +1,280 @@
+/*
+  * JBoss, Home of Professional Open Source
+  * Copyright 2026, Red Hat, Inc., and individual contributors as indicated
+  * by the @authors tag. See the copyright.txt in the distribution for a
+  * full listing of individual contributors.
+  *
+  * This is free software; you can redistribute it and/or modify it
+  * under the terms of the GNU Lesser General Public License as
+  * published by the Free Software Foundation; either version 2.1 of
+  * the License, or (at your option) any later version.
+  *
+  * This software is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+  * Lesser General Public License for more details.
+  *
+  * You should have received a copy of the GNU Lesser General Public
+  * License along with this software; if not, write to the Free
+  * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+  */
+package org.jboss.security.plugins.audit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.jboss.security.PicketBoxLogger;
+import org.jboss.security.audit.AuditContext;
+import org.jboss.security.audit.AuditEvent;
+import org.jboss.security.audit.AuditProvider;
+
+/**
+ * An audit context that delivers the events to its providers on a dedicated thread.
+ * <p>
+ * {@link #audit(AuditEvent)} only adds the event to a bounded, lock free ring buffer. The drain
+ * thread takes the events in batches and passes each batch to the providers in turn, a failing
+ * provider is logged and does not stop the delivery. When the buffer is full the
+ * {@link OverflowPolicy} decides whether the caller waits or an event is dropped, the dropped
+ * events are counted.
+ * <p>
+ * {@link #close()} delivers the pending events before stopping the drain thread, the events
+ * audited afterwards are delivered on the calling thread. So are the events audited after the
+ * drain thread died, should an error escape it.
+ */
+public class AsyncAuditContext extends AuditContext
+{
+   /** What to do with an event when the buffer is full */
+   public enum OverflowPolicy
+   {
+      /** Wait until the drain thread makes room */
+      BLOCK,
+      /** Drop the oldest pending event */
+      DROP_OLDEST,
+      /** Drop the new event */
+      DROP_NEW
+   }
+
+   public static final int DEFAULT_CAPACITY = 8192;
+
+   public static final int DEFAULT_BATCH_SIZE = 256;
+
+   private static final long IDLE_PARK = TimeUnit.MILLISECONDS.toNanos(100);
+
+   private static final long BLOCK_PARK = TimeUnit.MICROSECONDS.toNanos(100);
+
+   private final AuditRingBuffer buffer;
+
+   private final int batchSize;
+
+   private final OverflowPolicy overflowPolicy;
+
+   private final Thread drainer;
+
+   /** Set by the drain thread before it parks, cleared by the producer that wakes it up */
+   private final AtomicBoolean waiting = new AtomicBoolean();
+
+   private final AtomicLong dropped = new AtomicLong();
+
+   private final AtomicLong delivered = new AtomicLong();
+
+   /** The buffer position up to which the events have been delivered or dropped */
+   private volatile long completed;
+
+   private volatile boolean closed;
+
+   public AsyncAuditContext(String securityDomain)
+   {
+      this(securityDomain, DEFAULT_CAPACITY, DEFAULT_BATCH_SIZE, OverflowPolicy.BLOCK);
+   }
+
+   /**
+    * Create a context and start its drain thread.
+    *
+    * @param securityDomain - the security domain of the context
+    * @param capacity - the number of pending events, rounded up to a power of two
+    * @param batchSize - the maximum number of events passed to the providers at a time
+    * @param overflowPolicy - what to do when the capacity is reached
+    */
+   public AsyncAuditContext(String securityDomain, int capacity, int batchSize, OverflowPolicy overflowPolicy)
+   {
+      this.securityDomain = securityDomain;
+      this.providerList = new CopyOnWriteArrayList<AuditProvider>();
+      this.buffer = new AuditRingBuffer(capacity);
+      this.batchSize = Math.max(1, batchSize);
+      this.overflowPolicy = overflowPolicy;
+      drainer = new Thread(new Drainer(), "AuditDrainer-" + securityDomain);
+      drainer.setDaemon(true);
+      drainer.start();
+   }
+
+   @Override
+   public void audit(AuditEvent ae)
+   {
+      if (closed)
+      {
+         super.audit(ae);
+         return;
+      }
+      if (buffer.offer(ae) == false)
+      {
+         switch (overflowPolicy)
+         {
+            case DROP_NEW:
+               dropped.incrementAndGet();
+               return;
+            case DROP_OLDEST:
+               do
+               {
+                  if (buffer.poll() != null)
+                     dropped.incrementAndGet();
+               }
+               while (buffer.offer(ae) == false);
+               break;
+            default:
+               while (buffer.offer(ae) == false)
+               {
+                  if (closed || drainer.isAlive() == false)
+                  {
+                     drain();
+                     super.audit(ae);
+                     return;
+                  }
+                  LockSupport.unpark(drainer);
+                  LockSupport.parkNanos(this, BLOCK_PARK);
+               }
+         }
+      }
+      if (waiting.get() && waiting.compareAndSet(true, false))
+         LockSupport.unpark(drainer);
+      // the drain thread may have stopped before the event was added
+      if (closed || drainer.isAlive() == false)
+         drain();
+   }
+
+   @Override
+   public void replaceProviders(List<AuditProvider> list)
+   {
+      super.replaceProviders(new CopyOnWriteArrayList<AuditProvider>(list));
+   }
+
+   /**
+    * Wait until the events audited before the call have been delivered or dropped.
+    */
+   public void flush()
+   {
+      long target = buffer.added();
+      while (completed < target && drainer.isAlive())
+      {
+         LockSupport.unpark(drainer);
+         LockSupport.parkNanos(this, BLOCK_PARK);
+      }
+      if (closed || drainer.isAlive() == false)
+         drain();
+   }
+
+   /**
+    * Deliver the pending events and stop the drain thread.
+    */
+   public void close()
+   {
+      if (closed)
+         return;
+      closed = true;
+      LockSupport.unpark(drainer);
+      try
+      {
+         drainer.join();
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+      }
+      drain();
+      long count = dropped.get();
+      if (count > 0)
+         PicketBoxLogger.LOGGER.warnDroppedAuditEvents(count, securityDomain);
+   }
+
+   public boolean isClosed()
+   {
+      return closed;
+   }
+
+   /** @return the number of events dropped because the buffer was full */
+   public long getDroppedCount()
+   {
+      return dropped.get();
+   }
+
+   /** @return the number of events delivered to the providers */
+   public long getDeliveredCount()
+   {
+      return delivered.get();
+   }
+
+   /** Deliver the pending events on the calling thread */
+   private void drain()
+   {
+      List<AuditEvent> batch = new ArrayList<AuditEvent>();
+      AuditEvent event;
+      while ((event = buffer.poll()) != null)
+         batch.add(event);
+      if (batch.isEmpty() == false)
+         deliver(batch);
+   }
+
+   private void deliver(List<AuditEvent> batch)
+   {
+      for (AuditProvider provider : providerList)
+      {
+         for (int i = 0; i < batch.size(); i++)
+         {
+            try
+            {
+               provider.audit(batch.get(i));
+            }
+            catch (Throwable t)
+            {
+               // an error of a provider must not stop the delivery nor the drain thread
+               PicketBoxLogger.LOGGER.warnAuditProviderFailure(provider.getClass().getName(), t);
+            }
+         }
+      }
+      delivered.addAndGet(batch.size());
+   }
+
+   private class Drainer implements Runnable
+   {
+      public void run()
+      {
+         List<AuditEvent> batch = new ArrayList<AuditEvent>(batchSize);
+         for (;;)
+         {
+            AuditEvent event;
+            while (batch.size() < batchSize && (event = buffer.poll()) != null)
+               batch.add(event);
+            if (batch.isEmpty() == false)
+            {
+               deliver(batch);
+               batch.clear();
+               completed = buffer.removed();
+               continue;
+            }
+            completed = buffer.removed();
+            if (closed)
+               return;
+            waiting.set(true);
+            // an event added before the flag was set has to be seen here
+            if (buffer.isEmpty() && closed == false)
+               LockSupport.parkNanos(this, IDLE_PARK);
+            waiting.set(false);
+         }
+      }
+   }
+}
@@ -0,0 +1,138 @@
+/*
+  * JBoss, Home of Professional Open Source
+  * Copyright 2026, Red Hat, Inc., and individual contributors as indicated
+  * by the @authors tag. See the copyright.txt in the distribution for a
+  * full listing of individual contributors.
+  *
+  * This is free software; you can redistribute it and/or modify it
+  * under the terms of the GNU Lesser General Public License as
+  * published by the Free Software Foundation; either version 2.1 of
+  * the License, or (at your option) any later version.
+  *
+  * This software is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+  * Lesser General Public License for more details.
+  *
+  * You should have received a copy of the GNU Lesser General Public
+  * License along with this software; if not, write to the Free
+  * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+  */
+package org.jboss.security.plugins.audit;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.jboss.security.audit.AuditEvent;
+
+/**
+ * A bounded, lock free queue of audit events. Each slot carries a sequence number telling
+ * whether it can be written or read at a given position, so that the producers and the
+ * consumers only contend on a compare and set of the tail or head position.
+ */
+class AuditRingBuffer
+{
+   private final AtomicReferenceArray<AuditEvent> events;
+
+   private final AtomicLongArray sequences;
+
+   private final int mask;
+
+   private final AtomicLong head = new AtomicLong();
+
+   private final AtomicLong tail = new AtomicLong();
+
+   /**
+    * @param capacity - the minimum capacity, rounded up to a power of two
+    */
+   AuditRingBuffer(int capacity)
+   {
+      int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+      events = new AtomicReferenceArray<AuditEvent>(size);
+      sequences = new AtomicLongArray(size);
+      for (int i = 0; i < size; i++)
+         sequences.set(i, i);
+      mask = size - 1;
+   }
+
+   /**
+    * Add an event.
+    * @return false if the buffer is full
+    */
+   boolean offer(AuditEvent event)
+   {
+      long pos = tail.get();
+      int index;
+      for (;;)
+      {
+         index = (int) (pos & mask);
+         long diff = sequences.get(index) - pos;
+         if (diff == 0)
+         {
+            if (tail.compareAndSet(pos, pos + 1))
+               break;
+            pos = tail.get();
+         }
+         else if (diff < 0)
+            return false;
+         else
+            pos = tail.get();
+      }
+      events.lazySet(index, event);
+      sequences.set(index, pos + 1);
+      return true;
+   }
+
+   /**
+    * Remove the oldest event.
+    * @return the event, null if the buffer is empty
+    */
+   AuditEvent poll()
+   {
+      long pos = head.get();
+      int index;
+      for (;;)
+      {
+         index = (int) (pos & mask);
+         long diff = sequences.get(index) - (pos + 1);
+         if (diff == 0)
+         {
+            if (head.compareAndSet(pos, pos + 1))
+               break;
+            pos = head.get();
+         }
+         else if (diff < 0)
+            return null;
+         else
+            pos = head.get();
+      }
+      AuditEvent event = events.get(index);
+      events.lazySet(index, null);
+      sequences.set(index, pos + mask + 1);
+      return event;
+   }
+
+   boolean isEmpty()
+   {
+      return head.get() >= tail.get();
+   }
+
+   /** The number of events removed so far */
+   long removed()
+   {
+      return head.get();
+   }
+
+   /** The number of events added so far */
+   long added()
+   {
+      return tail.get();
+   }
+
+   int capacity()
+   {
+      return mask + 1;
+   }
+}
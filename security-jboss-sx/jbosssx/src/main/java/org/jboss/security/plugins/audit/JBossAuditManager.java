@@ -8,7 +8,10 @@ package org.jboss.security.plugins.audit;
 
 import java.security.PrivilegedActionException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -28,20 +31,61 @@ import org.jboss.security.plugins.ClassLoaderLocatorFactory;
 
 /**
  *  Manages a set of AuditContext
+ *  <p>
+ *  If the {@code jbosssx.audit.async} system property is true the events are delivered
+ *  to the providers on a drain thread per security domain, see {@link AsyncAuditContext}.
+ *  The {@code jbosssx.audit.async.capacity}, {@code jbosssx.audit.async.batchSize} and
+ *  {@code jbosssx.audit.async.overflow} (block, drop_oldest or drop_new) system properties
+ *  configure the buffer of the domains. The pending events are delivered on shutdown.
  *  @author <a href="mailto:Anil.Saldhana@jboss.org">Anil Saldhana</a>
  *  @version $Revision$
  *  @since  Aug 22, 2006
  */ 
 public class JBossAuditManager implements AuditManager
 {
+   private static final String ASYNC = "jbosssx.audit.async";
+   private static final String ASYNC_CAPACITY = "jbosssx.audit.async.capacity";
+   private static final String ASYNC_BATCH_SIZE = "jbosssx.audit.async.batchSize";
+   private static final String ASYNC_OVERFLOW = "jbosssx.audit.async.overflow";
+
    private static ConcurrentMap<String,AuditContext> contexts = new ConcurrentHashMap<String,AuditContext>();
+
+   /** The contexts created from the audit configuration of the domains */
+   private static ConcurrentMap<String,ConfiguredContext> configuredContexts = new ConcurrentHashMap<String,ConfiguredContext>();
    
    private static AuditContext defaultContext = null;
+
+   /** Whether the events are delivered on a drain thread */
+   private static final boolean async;
+   private static final int asyncCapacity;
+   private static final int asyncBatchSize;
+   private static final AsyncAuditContext.OverflowPolicy asyncOverflow;
    
    static
    {
-      defaultContext = new JBossAuditContext("Default_Context");
+      async = Boolean.valueOf(SecurityActions.getSystemProperty(ASYNC, "false")).booleanValue();
+      asyncCapacity = Integer.parseInt(SecurityActions.getSystemProperty(ASYNC_CAPACITY,
+            String.valueOf(AsyncAuditContext.DEFAULT_CAPACITY)));
+      asyncBatchSize = Integer.parseInt(SecurityActions.getSystemProperty(ASYNC_BATCH_SIZE,
+            String.valueOf(AsyncAuditContext.DEFAULT_BATCH_SIZE)));
+      asyncOverflow = AsyncAuditContext.OverflowPolicy.valueOf(
+            SecurityActions.getSystemProperty(ASYNC_OVERFLOW, "block").toUpperCase(Locale.ENGLISH));
+      defaultContext = createContext("Default_Context");
       defaultContext.addProvider(new LogAuditProvider()); 
+      if(async)
+      {
+         SecurityActions.addShutdownHook(new Thread("AuditShutdown")
+         {
+            public void run()
+            {
+               for(AuditContext ac : contexts.values())
+                  close(ac);
+               for(ConfiguredContext cc : configuredContexts.values())
+                  close(cc.context);
+               close(defaultContext);
+            }
+         });
+      }
    }
 
    private String securityDomain;
@@ -53,29 +97,13 @@ public class JBossAuditManager implements AuditManager
    
    public AuditContext getAuditContext() throws PrivilegedActionException
    {
-	  ClassLoader moduleCL = null;
       AuditContext ac = (AuditContext)contexts.get(securityDomain);
       if(ac == null)
       {
-    	  ac = new JBossAuditContext(securityDomain);
-    	  ApplicationPolicy ap = SecurityConfiguration.getApplicationPolicy(securityDomain);
-    	  if(ap != null)
-    	  {
-    		  AuditInfo ai = ap.getAuditInfo();
-    		  if(ai != null)
-    		  {  
-    			  List<String> jbossModuleNames = ai.getJBossModuleNames();
-    			  if(!jbossModuleNames.isEmpty())
-    			  {
-    				  ClassLoaderLocator cll = ClassLoaderLocatorFactory.get();
-    				   if(cll != null)
-    				   {
-    					   moduleCL = cll.get(jbossModuleNames);
-    				   }
-    			  }
-				  ac = instantiate(moduleCL, ai);
-    		  }
-    	  }
+         ApplicationPolicy ap = SecurityConfiguration.getApplicationPolicy(securityDomain);
+         AuditInfo ai = (ap != null ? ap.getAuditInfo() : null);
+         if(ai != null)
+            ac = getConfiguredContext(ai);
       }
       if(ac == null)
       {
@@ -84,6 +112,41 @@ public class JBossAuditManager implements AuditManager
       }
       return ac;
    }
+
+   /**
+    * Get the context of the providers of the configuration, the providers are
+    * instantiated again when the audit configuration of the domain is replaced.
+    */
+   private AuditContext getConfiguredContext(AuditInfo ai)
+   {
+      for(;;)
+      {
+         ConfiguredContext cached = configuredContexts.get(securityDomain);
+         if(cached != null && cached.info == ai)
+            return cached.context;
+         ClassLoader moduleCL = null;
+         List<String> jbossModuleNames = ai.getJBossModuleNames();
+         if(!jbossModuleNames.isEmpty())
+         {
+            ClassLoaderLocator cll = ClassLoaderLocatorFactory.get();
+            if(cll != null)
+            {
+               moduleCL = cll.get(jbossModuleNames);
+            }
+         }
+         ConfiguredContext created = new ConfiguredContext(ai, instantiate(moduleCL, ai));
+         boolean added = (cached == null ? configuredContexts.putIfAbsent(securityDomain, created) == null
+               : configuredContexts.replace(securityDomain, cached, created));
+         if(added)
+         {
+            if(cached != null)
+               close(cached.context);
+            return created.context;
+         }
+         // one drain thread per domain
+         close(created.context);
+      }
+   }
    
    public static AuditContext getAuditContext(String securityDomain)
    {
@@ -118,13 +181,48 @@ public class JBossAuditManager implements AuditManager
         throw new RuntimeException(e);
       }
       ac.audit(ae); 
-      //Provide default JBoss trace logging
-      if(ac !=  defaultContext)
+      //Provide default JBoss trace logging, an asynchronous context has the default providers
+      if(ac !=  defaultContext && !(ac instanceof AsyncAuditContext))
       {
          defaultContext.audit(ae);
       }
    }
 
+   /**
+    * Whether a provider of the domain, or the default JBoss trace logging,
+    * records events of the given level
+    */
+   public boolean isEnabled(String level)
+   {
+      AuditContext ac = null;
+      try
+      {
+         ac = getAuditContext();
+      }
+      catch (PrivilegedActionException e)
+      {
+        throw new RuntimeException(e);
+      }
+      if(ac.isEnabled(level))
+         return true;
+      return ac != defaultContext && !(ac instanceof AsyncAuditContext) && defaultContext.isEnabled(level);
+   }
+
+   /**
+    * Whether the context of the domain delivers the events on a drain thread
+    */
+   public boolean isAsynchronous()
+   {
+      try
+      {
+         return getAuditContext() instanceof AsyncAuditContext;
+      }
+      catch (PrivilegedActionException e)
+      {
+        throw new RuntimeException(e);
+      }
+   }
+
    public String getSecurityDomain()
    { 
       return this.securityDomain;
@@ -132,7 +230,7 @@ public class JBossAuditManager implements AuditManager
    
    private AuditContext instantiate(ClassLoader cl, AuditInfo ai)
    {
-       AuditContext ac = new JBossAuditContext(securityDomain);
+       AuditContext ac = createContext(securityDomain);
        AuditProviderEntry[] apeArr = ai.getAuditProviderEntry();
        List<AuditProviderEntry> list = Arrays.asList(apeArr);
        for(AuditProviderEntry ape:list)
@@ -141,13 +239,44 @@ public class JBossAuditManager implements AuditManager
           try
           {
              Class<?> clazz = SecurityActions.loadClass(cl, pname);
-             ac.addProvider((AuditProvider) clazz.newInstance());
+             AuditProvider ap = (AuditProvider) clazz.newInstance();
+             Map<String,Object> options = ape.getOptions();
+             ap.init(options != null ? options : Collections.<String,Object>emptyMap());
+             ac.addProvider(ap);
           }
           catch (Exception e)
           {
              throw new RuntimeException(e);
           } 
        }
+       if(ac instanceof AsyncAuditContext)
+          ac.addProviders(defaultContext.getProviders());
        return ac;
    }
+
+   private static AuditContext createContext(String securityDomain)
+   {
+      if(async)
+         return new AsyncAuditContext(securityDomain, asyncCapacity, asyncBatchSize, asyncOverflow);
+      return new JBossAuditContext(securityDomain);
+   }
+
+   private static void close(AuditContext ac)
+   {
+      if(ac instanceof AsyncAuditContext)
+         ((AsyncAuditContext) ac).close();
+   }
+
+   private static class ConfiguredContext
+   {
+      final AuditInfo info;
+
+      final AuditContext context;
+
+      ConfiguredContext(AuditInfo info, AuditContext context)
+      {
+         this.info = info;
+         this.context = context;
+      }
+   }
 }
\ No newline at end of file
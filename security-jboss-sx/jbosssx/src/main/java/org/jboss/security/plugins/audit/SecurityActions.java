@@ -22,6 +22,7 @@
 package org.jboss.security.plugins.audit;
 
 import java.security.AccessController;
+import java.security.PrivilegedAction;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
  
@@ -102,4 +103,27 @@ class SecurityActions
          }
       });
    }
+
+   static String getSystemProperty(final String key, final String defaultValue)
+   {
+      return AccessController.doPrivileged(new PrivilegedAction<String>()
+      {
+         public String run()
+         {
+            return System.getProperty(key, defaultValue);
+         }
+      });
+   }
+
+   static void addShutdownHook(final Thread hook)
+   {
+      AccessController.doPrivileged(new PrivilegedAction<Void>()
+      {
+         public Void run()
+         {
+            Runtime.getRuntime().addShutdownHook(hook);
+            return null;
+         }
+      });
+   }
 }
\ No newline at end of file
@@ -84,6 +84,9 @@ public class JaasSecurityManagerBase
    
    private AuthorizationManager authorizationManager;
 
+   /** Concurrent logins of the same principal and credential share a single JAAS login */
+   private final LoginCoalescer inFlightLogins = new LoginCoalescer();
+
    /** Creates a default JaasSecurityManager for with a securityDomain
     name of 'other'.
     */
@@ -319,7 +322,7 @@ public class JaasSecurityManagerBase
 	   return proceedWithJaasLogin(principal, credential, theSubject);
    }
    
-   private boolean proceedWithJaasLogin(Principal principal, Object credential, Subject theSubject)
+   private boolean proceedWithJaasLogin(final Principal principal, final Object credential, Subject theSubject)
    {
 		Subject subject = null;
 		boolean authenticated = false;
@@ -327,9 +330,12 @@ public class JaasSecurityManagerBase
 		try {
 
 			// Validate the principal using the login configuration for this
-			// domain
-			LoginContext lc = defaultLogin(principal, credential);
-			subject = lc.getSubject();
+			// domain, sharing the outcome with identical concurrent logins
+			subject = inFlightLogins.login(principal, credential, new LoginCoalescer.Login() {
+				public Subject login() throws LoginException {
+					return defaultLogin(principal, credential).getSubject();
+				}
+			});
 
 			// Set the current subject if login was successful
 			if (subject != null) {
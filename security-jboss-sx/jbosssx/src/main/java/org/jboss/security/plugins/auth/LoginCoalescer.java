@@ -0,0 +1,201 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2026, Red Hat, Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.security.plugins.auth;
+
+import java.security.Principal;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+
+import javax.security.auth.Subject;
+import javax.security.auth.login.LoginException;
+
+import org.jboss.security.PicketBoxMessages;
+import org.jboss.security.cache.CredentialFingerprint;
+
+/**
+ * Coalesces concurrent logins of the same principal with the same credential.
+ * <p>
+ * The first caller for a given (principal, credential) pair performs the JAAS login, while the
+ * callers that arrive during that login wait for it and receive the same outcome: the
+ * authenticated {@link Subject} or the {@link LoginException}. This keeps a flushed cache entry
+ * of a popular identity from turning into a burst of identical logins against the backing store,
+ * and a bad password is only checked once.
+ * </p>
+ * <p>
+ * Password-like credentials are only held in the key of an in-flight login as a
+ * {@link CredentialFingerprint}, salted with a salt of the coalescer.
+ * </p>
+ */
+public class LoginCoalescer
+{
+   /**
+    * The login to perform for a (principal, credential) pair
+    */
+   public interface Login
+   {
+      /**
+       * @return the authenticated subject
+       * @throws LoginException if the login fails
+       */
+      Subject login() throws LoginException;
+   }
+
+   private final ConcurrentMap<Key, Flight> inFlight = new ConcurrentHashMap<Key, Flight>();
+
+   private final byte[] salt = CredentialFingerprint.createSalt();
+
+   /**
+    * Perform the login, or wait for an identical login already in progress.
+    * 
+    * @param principal the principal being authenticated
+    * @param credential the credential offered by the principal
+    * @param login the login to run if no identical login is in progress
+    * @return the authenticated subject
+    * @throws LoginException if the (shared) login failed
+    */
+   public Subject login(Principal principal, Object credential, Login login) throws LoginException
+   {
+      Key key = new Key(principal, credential, salt);
+      Flight flight = new Flight();
+      Flight existing = inFlight.putIfAbsent(key, flight);
+      if (existing != null)
+         return existing.await();
+
+      try
+      {
+         flight.subject = login.login();
+      }
+      catch (LoginException e)
+      {
+         flight.failure = e;
+      }
+      catch (RuntimeException e)
+      {
+         flight.failure = e;
+      }
+      catch (Error e)
+      {
+         flight.failure = e;
+      }
+      finally
+      {
+         inFlight.remove(key, flight);
+         flight.done.countDown();
+      }
+      return flight.result();
+   }
+
+   /**
+    * @return the number of logins currently in progress
+    */
+   public int size()
+   {
+      return inFlight.size();
+   }
+
+   private static class Flight
+   {
+      private final CountDownLatch done = new CountDownLatch(1);
+
+      private volatile Subject subject;
+
+      private volatile Throwable failure;
+
+      Subject await() throws LoginException
+      {
+         try
+         {
+            done.await();
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+            LoginException le = new LoginException(PicketBoxMessages.MESSAGES.interruptedWhileWaitingForLoginMessage());
+            le.initCause(e);
+            throw le;
+         }
+         return result();
+      }
+
+      Subject result() throws LoginException
+      {
+         Throwable t = failure;
+         if (t instanceof LoginException)
+            throw (LoginException) t;
+         if (t instanceof RuntimeException)
+            throw (RuntimeException) t;
+         if (t instanceof Error)
+            throw (Error) t;
+         return subject;
+      }
+   }
+
+   /**
+    * Key of an in-flight login. String, char[] and byte[] credentials are replaced by their
+    * fingerprint, so that equivalent credentials compare by value without being kept.
+    */
+   private static class Key
+   {
+      private final Principal principal;
+
+      private final Object credential;
+
+      private final int hash;
+
+      Key(Principal principal, Object credential, byte[] salt)
+      {
+         this.principal = principal;
+         this.credential = normalize(credential, salt);
+         int h = principal != null ? principal.hashCode() : 0;
+         this.hash = 31 * h + (this.credential != null ? this.credential.hashCode() : 0);
+      }
+
+      private static Object normalize(Object credential, byte[] salt)
+      {
+         if (CredentialFingerprint.isSupported(credential))
+            return CredentialFingerprint.create(credential, salt);
+         if (credential instanceof Object[])
+            return Arrays.asList(((Object[]) credential).clone());
+         return credential;
+      }
+
+      @Override
+      public int hashCode()
+      {
+         return hash;
+      }
+
+      @Override
+      public boolean equals(Object obj)
+      {
+         if (this == obj)
+            return true;
+         if (!(obj instanceof Key))
+            return false;
+         Key other = (Key) obj;
+         return hash == other.hash && (principal == null ? other.principal == null : principal.equals(other.principal))
+               && (credential == null ? other.credential == null : credential.equals(other.credential));
+      }
+   }
+}
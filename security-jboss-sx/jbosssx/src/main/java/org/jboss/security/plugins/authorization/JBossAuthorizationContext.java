@@ -25,6 +25,7 @@ import java.security.AccessController;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -73,25 +74,39 @@ public class JBossAuthorizationContext extends AuthorizationContext
    private final String EJB = SecurityConstants.DEFAULT_EJB_APPLICATION_POLICY;
    private final String WEB = SecurityConstants.DEFAULT_WEB_APPLICATION_POLICY;
 
-   private Subject authenticatedSubject = null;
+   //Subject used by authorize(Resource), the caller Subject of other calls is never stored
+   private final Subject authenticatedSubject;
 
    //Application Policy can be injected
-   private ApplicationPolicy applicationPolicy = null;
+   private volatile ApplicationPolicy applicationPolicy = null;
+
+   //Resolved modules of the AuthorizationInfos in use, newest first, replaced as a whole when a plan is built
+   private volatile AuthorizationPlan[] authorizationPlans = new AuthorizationPlan[0];
+
+   //Upper bound of the cached plans, enough for the domain, EJB, web and default AuthorizationInfos
+   private static final int MAX_PLANS = 4;
+
+   private static final AuthorizationInfo DEFAULT_AUTHORIZATION_INFO;
+   static
+   {
+      DEFAULT_AUTHORIZATION_INFO = new AuthorizationInfo(SecurityConstants.DEFAULT_APPLICATION_POLICY);
+      DEFAULT_AUTHORIZATION_INFO.add(new AuthorizationModuleEntry(DelegatingAuthorizationModule.class.getName()));
+   }
    
    public JBossAuthorizationContext(String name)
    {
-      this.securityDomainName = name; 
+      this(name, null, null);
    }
 
    public JBossAuthorizationContext(String name, CallbackHandler handler)
    {
-      this(name);
-      this.callbackHandler = handler;
+      this(name, null, handler);
    }
 
    public JBossAuthorizationContext(String name, Subject subject, CallbackHandler handler)
    {
-      this(name, handler);
+      this.securityDomainName = name; 
+      this.callbackHandler = handler;
       this.authenticatedSubject = subject;
    }
 
@@ -126,6 +141,9 @@ public class JBossAuthorizationContext extends AuthorizationContext
    }
 
    /**
+    * Authorize the Resource. All the state of the call (the Subject, the roles, the module
+    * instances and their shared state) is kept local to the call, so a single context can
+    * be used by concurrent callers.
     * @see AuthorizationContext#authorize(org.jboss.security.authorization.Resource, javax.security.auth.Subject, org.jboss.security.identity.RoleGroup)
     */
    public int authorize(final Resource resource, final Subject subject, final RoleGroup callerRoles)
@@ -136,9 +154,7 @@ public class JBossAuthorizationContext extends AuthorizationContext
       
       try
       {
-         this.authenticatedSubject = subject;
-
-         initializeModules(resource, callerRoles, modules, controlFlags); 
+         initializeModules(resource, subject, callerRoles, modules, controlFlags); 
 
          AccessController.doPrivileged(new PrivilegedExceptionAction<Object>()
          {
@@ -173,40 +189,60 @@ public class JBossAuthorizationContext extends AuthorizationContext
    }
 
    //Private Methods  
-   private void initializeModules(Resource resource, RoleGroup role, List<AuthorizationModule> modules,
+   private void initializeModules(Resource resource, Subject subject, RoleGroup role, List<AuthorizationModule> modules,
          List<ControlFlag> controlFlags) throws PrivilegedActionException
    {
       AuthorizationInfo authzInfo = getAuthorizationInfo(securityDomainName, resource);
       if (authzInfo == null)
          throw PicketBoxMessages.MESSAGES.failedToObtainAuthorizationInfo(securityDomainName);
 
-      ClassLoader moduleCL = null;
-      List<String> jbossModuleNames = authzInfo.getJBossModuleNames();
-      if(!jbossModuleNames.isEmpty())
-      {
-    	  ClassLoaderLocator cll = ClassLoaderLocatorFactory.get();
-    	  if( cll != null)
-    	  {
-    		  moduleCL = cll.get(jbossModuleNames);
-    	  }
-      }
-      AuthorizationModuleEntry[] entries = authzInfo.getAuthorizationModuleEntry();
-      int len = entries != null ? entries.length : 0;
+      AuthorizationPlan plan = getAuthorizationPlan(authzInfo);
+      //the modules of this call share their own state, seeded with the state of the context
+      Map<String, Object> callState = this.sharedState.isEmpty() ? new HashMap<String, Object>()
+            : new HashMap<String, Object>(this.sharedState);
+      int len = plan.moduleClasses.length;
       for (int i = 0; i < len; i++)
       {
-    	  AuthorizationModuleEntry entry = entries[i];
-    	  ControlFlag flag = entry.getControlFlag();
-    	  if (flag == null)
-    	  {
-    		  flag = ControlFlag.REQUIRED;
-    	  }
-
-    	  controlFlags.add(flag);
-    	  AuthorizationModule module = instantiateModule(moduleCL, entry.getPolicyModuleName(), entry.getOptions(), role); 
+    	  controlFlags.add(plan.controlFlags[i]);
+    	  AuthorizationModule module = instantiateModule(plan.moduleClasses[i], plan.moduleNames[i], plan.options[i],
+    	        subject, callState, role); 
     	  modules.add(module);
       }
    }
 
+   /**
+    * Get the resolved module classes and control flags for the AuthorizationInfo. The plans are
+    * cached by AuthorizationInfo instance, so that calls alternating between resource layers
+    * reuse theirs. A plan is built again if modules have been added to its AuthorizationInfo.
+    */
+   private AuthorizationPlan getAuthorizationPlan(AuthorizationInfo authzInfo)
+   {
+      for (AuthorizationPlan plan : this.authorizationPlans)
+      {
+         if (plan.isBuiltFrom(authzInfo))
+            return plan;
+      }
+
+      AuthorizationPlan plan = new AuthorizationPlan(authzInfo);
+      // a plan with unresolved classes is retried on the next call, the module may become available
+      if (plan.isComplete())
+      {
+         synchronized (this)
+         {
+            AuthorizationPlan[] current = this.authorizationPlans;
+            List<AuthorizationPlan> plans = new ArrayList<AuthorizationPlan>(MAX_PLANS);
+            plans.add(plan);
+            for (int i = 0; i < current.length && plans.size() < MAX_PLANS; i++)
+            {
+               if (current[i].source != authzInfo)
+                  plans.add(current[i]);
+            }
+            this.authorizationPlans = plans.toArray(new AuthorizationPlan[plans.size()]);
+         }
+      }
+      return plan;
+   }
+
    private int invokeAuthorize(Resource resource, List<AuthorizationModule> modules,
          List<ControlFlag> controlFlags) throws AuthorizationException
    {
@@ -305,37 +341,48 @@ public class JBossAuthorizationContext extends AuthorizationContext
       }
    }
 
-   private AuthorizationModule instantiateModule(ClassLoader cl, String name, Map<String, Object> map, RoleGroup subjectRoles)
-         throws PrivilegedActionException
+   private AuthorizationModule instantiateModule(Class<?> clazz, String name, Map<String, Object> map, Subject subject,
+         Map<String, Object> callState, RoleGroup subjectRoles) throws PrivilegedActionException
    {
       AuthorizationModule am = null;
       try
       {
-         Class<?> clazz;
+         if (clazz != null)
+            am = (AuthorizationModule) clazz.newInstance();
+      }
+      catch (Exception e)
+      {
+         PicketBoxLogger.LOGGER.debugFailureToInstantiateClass(name, e);
+      }
+      if (am == null)
+         throw new IllegalStateException(PicketBoxMessages.MESSAGES.failedToInstantiateClassMessage(AuthorizationModule.class));
+      am.initialize(subject, this.callbackHandler, callState, map, subjectRoles);
+      return am;
+   }
+
+   private static Class<?> loadModuleClass(ClassLoader cl, String name)
+   {
+      try
+      {
          try
          {
             if(cl == null)
             {
-               cl = getClass().getClassLoader();
+               cl = JBossAuthorizationContext.class.getClassLoader();
             }
-            clazz = cl.loadClass(name);
+            return cl.loadClass(name);
          }
          catch (Exception ignore)
          {
             ClassLoader tcl = SecurityActions.getContextClassLoader();
-            clazz = tcl.loadClass(name);
+            return tcl.loadClass(name);
          }
-
-         am = (AuthorizationModule) clazz.newInstance();
       }
       catch (Exception e)
       {
          PicketBoxLogger.LOGGER.debugFailureToInstantiateClass(name, e);
+         return null;
       }
-      if (am == null)
-         throw new IllegalStateException(PicketBoxMessages.MESSAGES.failedToInstantiateClassMessage(AuthorizationModule.class));
-      am.initialize(this.authenticatedSubject, this.callbackHandler, this.sharedState, map, subjectRoles);
-      return am;
    }
 
    private AuthorizationInfo getAuthorizationInfo(String domainName, Resource resource)
@@ -374,10 +421,7 @@ public class JBossAuthorizationContext extends AuthorizationContext
       else if (layer == ResourceType.WEB)
          ai = SecurityConfiguration.getApplicationPolicy(WEB).getAuthorizationInfo();
       else
-      {
-         ai = new AuthorizationInfo(SecurityConstants.DEFAULT_APPLICATION_POLICY);
-         ai.add(new AuthorizationModuleEntry(DelegatingAuthorizationModule.class.getName()));
-      }
+         ai = DEFAULT_AUTHORIZATION_INFO;
       return ai;
    }
 
@@ -388,4 +432,73 @@ public class JBossAuthorizationContext extends AuthorizationContext
          msg.append(e.getLocalizedMessage());
       return msg.toString();
    } 
-}
\ No newline at end of file
+
+   /**
+    * Immutable result of resolving the module entries of an AuthorizationInfo: the module
+    * classes (loaded once through the JBoss Modules classloader, if any), control flags and
+    * options. Module instances are still created per authorization, as the AuthorizationModule
+    * contract initializes each instance with the subject and roles of the call.
+    */
+   private static final class AuthorizationPlan
+   {
+      private final AuthorizationInfo source;
+      private final int entryCount;
+      private final String[] moduleNames;
+      private final Class<?>[] moduleClasses;
+      private final ControlFlag[] controlFlags;
+      private final Map<String, Object>[] options;
+
+      @SuppressWarnings("unchecked")
+      AuthorizationPlan(AuthorizationInfo authzInfo)
+      {
+         this.source = authzInfo;
+
+         ClassLoader moduleCL = null;
+         List<String> jbossModuleNames = authzInfo.getJBossModuleNames();
+         if(!jbossModuleNames.isEmpty())
+         {
+            ClassLoaderLocator cll = ClassLoaderLocatorFactory.get();
+            if( cll != null)
+            {
+               moduleCL = cll.get(jbossModuleNames);
+            }
+         }
+
+         AuthorizationModuleEntry[] entries = authzInfo.getAuthorizationModuleEntry();
+         int len = entries != null ? entries.length : 0;
+         this.entryCount = len;
+         this.moduleNames = new String[len];
+         this.moduleClasses = new Class<?>[len];
+         this.controlFlags = new ControlFlag[len];
+         this.options = new Map[len];
+         for (int i = 0; i < len; i++)
+         {
+            AuthorizationModuleEntry entry = entries[i];
+            ControlFlag flag = entry.getControlFlag();
+            if (flag == null)
+            {
+               flag = ControlFlag.REQUIRED;
+            }
+            controlFlags[i] = flag;
+            moduleNames[i] = entry.getPolicyModuleName();
+            moduleClasses[i] = loadModuleClass(moduleCL, moduleNames[i]);
+            options[i] = entry.getOptions();
+         }
+      }
+
+      boolean isBuiltFrom(AuthorizationInfo authzInfo)
+      {
+         return source == authzInfo && entryCount == authzInfo.getModuleEntries().size();
+      }
+
+      boolean isComplete()
+      {
+         for (Class<?> clazz : moduleClasses)
+         {
+            if (clazz == null)
+               return false;
+         }
+         return true;
+      }
+   }
+}
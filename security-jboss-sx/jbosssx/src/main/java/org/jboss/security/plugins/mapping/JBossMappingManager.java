@@ -22,7 +22,14 @@
 package org.jboss.security.plugins.mapping;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jboss.security.PicketBoxLogger;
 import org.jboss.security.PicketBoxMessages;
@@ -34,6 +41,7 @@ import org.jboss.security.config.SecurityConfiguration;
 import org.jboss.security.mapping.MappingContext;
 import org.jboss.security.mapping.MappingManager;
 import org.jboss.security.mapping.MappingProvider;
+import org.jboss.security.mapping.MappingResult;
 import org.jboss.security.mapping.config.MappingModuleEntry;
 import org.jboss.security.plugins.ClassLoaderLocator;
 import org.jboss.security.plugins.ClassLoaderLocatorFactory;
@@ -41,6 +49,10 @@ import org.jboss.security.plugins.ClassLoaderLocatorFactory;
 
 /**
  *  JBoss implementation of Mapping Manager 
+ *  
+ *  The initialized mapping providers of each MappingInfo are kept and reused by the
+ *  subsequent MappingContexts. They are dropped with the MappingInfo once its
+ *  application policy is removed or replaced.
  *  @author Anil.Saldhana@redhat.com
  *  @since  Mar 9, 2007 
  *  @version $Revision$
@@ -49,6 +61,10 @@ public class JBossMappingManager implements MappingManager
 {   
    private String securityDomain;
 
+   //Initialized providers per MappingInfo, shared by the managers of a domain. The pools do not refer to
+   //their MappingInfo, so a pool goes away with the application policy it was built for
+   private static final Map<MappingInfo, ProviderPool<?>> providerPools = new WeakHashMap<MappingInfo, ProviderPool<?>>();
+
    public JBossMappingManager(String domain)
    {
       this.securityDomain = SecurityUtil.unprefixSecurityDomain(domain);
@@ -57,21 +73,13 @@ public class JBossMappingManager implements MappingManager
    public <T> MappingContext<T> getMappingContext(String mappingType)
    {
       //Apply Mapping Logic
-      ApplicationPolicy aPolicy = SecurityConfiguration.getApplicationPolicy(securityDomain);
-
-      if(aPolicy == null)
-      {
-         String defaultDomain = SecurityConstants.DEFAULT_APPLICATION_POLICY;
-         aPolicy = SecurityConfiguration.getApplicationPolicy(defaultDomain);
-      }
-      if(aPolicy == null )
-         throw PicketBoxMessages.MESSAGES.failedToObtainApplicationPolicy(securityDomain);
+      ApplicationPolicy aPolicy = getApplicationPolicy();
 
       MappingContext<T> mc = null;
       MappingInfo rmi = aPolicy.getMappingInfo(mappingType);
 
       if( rmi != null)
-         mc = generateMappingContext(mc, rmi);
+         mc = generateMappingContext(mappingType, rmi);
 
       return mc;
    }
@@ -80,6 +88,35 @@ public class JBossMappingManager implements MappingManager
    public <T> MappingContext<T> getMappingContext(Class<T> mappingType)
    {
       //Apply Mapping Logic
+      ApplicationPolicy aPolicy = getApplicationPolicy();
+
+      MappingContext<T> mc = null;
+      MappingInfo rmi = aPolicy.getMappingInfo(mappingType);
+      if( rmi != null)
+        mc = generateMappingContext(mappingType.getName(), rmi);
+
+      return mc;
+   }
+
+   /**
+    * Discard the initialized mapping providers of the security domain, the next
+    * MappingContexts are created with new providers
+    */
+   public void flushMappingProviders()
+   {
+      synchronized(providerPools)
+      {
+         Iterator<ProviderPool<?>> iter = providerPools.values().iterator();
+         while(iter.hasNext())
+         {
+            if(securityDomain.equals(iter.next().domain))
+               iter.remove();
+         }
+      }
+   }
+
+   private ApplicationPolicy getApplicationPolicy()
+   {
       ApplicationPolicy aPolicy = SecurityConfiguration.getApplicationPolicy(securityDomain);
 
       if(aPolicy == null)
@@ -89,20 +126,39 @@ public class JBossMappingManager implements MappingManager
       }
       if(aPolicy == null )
          throw PicketBoxMessages.MESSAGES.failedToObtainApplicationPolicy(securityDomain);
+      return aPolicy;
+   }
 
-      MappingContext<T> mc = null;
-      MappingInfo rmi = aPolicy.getMappingInfo(mappingType);
-      if( rmi != null)
-        mc = generateMappingContext(mc, rmi);
+   @SuppressWarnings("unchecked")
+   private <T> MappingContext<T> generateMappingContext(String mappingType, MappingInfo rmi)
+   {
+      ProviderPool<T> pool;
+      synchronized(providerPools)
+      {
+         pool = (ProviderPool<T>) providerPools.get(rmi);
+      }
+      if(pool != null && pool.isBuiltFrom(rmi))
+         return new PooledMappingContext<T>(pool);
 
-      return mc;
-   }
+      List<String> jbossModuleNames = rmi.getJBossModuleNames();
+      MappingModuleEntry[] entries = rmi.getMappingModuleEntry();
+      List<MappingProvider<T>> providers = createMappingProviders(jbossModuleNames, entries);
+      // providers that failed to load are retried on the next call, the class may become available
+      if(providers.size() != entries.length)
+         return new MappingContext<T>(providers);
 
+      pool = new ProviderPool<T>(securityDomain, jbossModuleNames, entries, providers);
+      synchronized(providerPools)
+      {
+         providerPools.put(rmi, pool);
+      }
+      return new PooledMappingContext<T>(pool);
+   }
 
-   private <T> MappingContext<T> generateMappingContext(MappingContext<T> mc, MappingInfo rmi)
+   private static <T> List<MappingProvider<T>> createMappingProviders(List<String> jbossModuleNames,
+         MappingModuleEntry[] mpe)
    {
 	   ClassLoader moduleCL = null;
-	   List<String> jbossModuleNames = rmi.getJBossModuleNames();
 	   if(!jbossModuleNames.isEmpty())
 	   {
 		   ClassLoaderLocator cll = ClassLoaderLocatorFactory.get();
@@ -111,7 +167,6 @@ public class JBossMappingManager implements MappingManager
 			   moduleCL = cll.get(jbossModuleNames);
 		   }
 	   }
-	   MappingModuleEntry[] mpe = rmi.getMappingModuleEntry();
 	   ArrayList<MappingProvider<T>> al = new ArrayList<MappingProvider<T>>();
 
 	   for(int i = 0 ; i < mpe.length; i++)
@@ -122,7 +177,7 @@ public class JBossMappingManager implements MappingManager
 			   al.add(mp);
 		   }
 	   }
-	   return new MappingContext<T>(al);
+	   return al;
    }
 
    public String getSecurityDomain()
@@ -131,7 +186,7 @@ public class JBossMappingManager implements MappingManager
    }
 
    @SuppressWarnings("unchecked")
-   private <T> MappingProvider<T> getMappingProvider(ClassLoader cl, MappingModuleEntry mme)
+   private static <T> MappingProvider<T> getMappingProvider(ClassLoader cl, MappingModuleEntry mme)
    {
       MappingProvider<T> mp = null;
       try
@@ -147,4 +202,120 @@ public class JBossMappingManager implements MappingManager
       }
       return mp; 
    }
-}
\ No newline at end of file
+
+   /**
+    * Initialized provider chains of a MappingInfo. A MappingProvider keeps the
+    * MappingResult it is given, so a chain is used by one mapping at a time:
+    * concurrent mappings take different chains and a new chain is initialized
+    * when none is idle. At most MAX_IDLE chains are kept once a burst is over.
+    */
+   private static final class ProviderPool<T>
+   {
+      private static final int MAX_IDLE = 2 * Runtime.getRuntime().availableProcessors();
+
+      private final String domain;
+      private final List<String> jbossModuleNames;
+      private final MappingModuleEntry[] entries;
+      private final int moduleCount;
+      private final Queue<List<MappingProvider<T>>> idle = new ConcurrentLinkedQueue<List<MappingProvider<T>>>();
+      private final AtomicInteger idleCount = new AtomicInteger();
+
+      ProviderPool(String domain, List<String> jbossModuleNames, MappingModuleEntry[] entries,
+            List<MappingProvider<T>> modules)
+      {
+         this.domain = domain;
+         this.jbossModuleNames = new ArrayList<String>(jbossModuleNames);
+         this.entries = entries;
+         this.moduleCount = modules.size();
+         release(modules);
+      }
+
+      boolean isBuiltFrom(MappingInfo rmi)
+      {
+         return entries.length == rmi.getModuleEntries().size();
+      }
+
+      List<MappingProvider<T>> acquire()
+      {
+         List<MappingProvider<T>> chain = idle.poll();
+         if(chain == null)
+            chain = createMappingProviders(jbossModuleNames, entries);
+         else
+            idleCount.decrementAndGet();
+         return chain;
+      }
+
+      void release(List<MappingProvider<T>> chain)
+      {
+         if(chain.size() == moduleCount && idleCount.incrementAndGet() <= MAX_IDLE)
+            idle.add(chain);
+         else if(chain.size() == moduleCount)
+            idleCount.decrementAndGet();
+      }
+   }
+
+   /**
+    * MappingContext running its mapping on a chain borrowed from the pool, the
+    * result is kept by the context. The chain is borrowed for the mapping only,
+    * unless getModules() hands it out: the caller may then keep using it, so it
+    * stays with this context and is not returned to the pool.
+    */
+   private static final class PooledMappingContext<T> extends MappingContext<T>
+   {
+      private final ProviderPool<T> pool;
+      private MappingResult<T> result;
+      private List<MappingProvider<T>> chain;
+      private boolean exposed;
+
+      PooledMappingContext(ProviderPool<T> pool)
+      {
+         super(Collections.<MappingProvider<T>>emptyList());
+         this.pool = pool;
+      }
+
+      @Override
+      public synchronized List<MappingProvider<T>> getModules()
+      {
+         if(chain == null)
+            chain = pool.acquire();
+         exposed = true;
+         return chain;
+      }
+
+      @Override
+      public boolean hasModules()
+      {
+         return pool.moduleCount > 0;
+      }
+
+      @Override
+      public synchronized void performMapping(Map<String, Object> contextMap, T mappedObject)
+      {
+         result = new MappingResult<T>();
+         if(chain == null)
+            chain = pool.acquire();
+         try
+         {
+            for(MappingProvider<T> mp : chain)
+            {
+               mp.setMappingResult(result);
+               mp.performMapping(contextMap, mappedObject);
+            }
+         }
+         finally
+         {
+            if(exposed == false)
+            {
+               pool.release(chain);
+               chain = null;
+            }
+         }
+      }
+
+      @Override
+      public MappingResult<T> getMappingResult()
+      {
+         return result;
+      }
+   }
+}
@@ -0,0 +1,557 @@
+/*
+  * JBoss, Home of Professional Open Source
+  * Copyright 2026, Red Hat, Inc., and individual contributors as indicated
+  * by the @authors tag. See the copyright.txt in the distribution for a
+  * full listing of individual contributors.
+  *
+  * This is free software; you can redistribute it and/or modify it
+  * under the terms of the GNU Lesser General Public License as
+  * published by the Free Software Foundation; either version 2.1 of
+  * the License, or (at your option) any later version.
+  *
+  * This software is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+  * Lesser General Public License for more details.
+  *
+  * You should have received a copy of the GNU Lesser General Public
+  * License along with this software; if not, write to the Free
+  * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+  */
+package org.jboss.security.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.naming.CommunicationException;
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.ldap.InitialLdapContext;
+
+import org.jboss.security.PicketBoxLogger;
+
+/**
+ * A pool of LDAP connections shared by the LDAP login modules, callback handler and mapping
+ * providers. Pooling is enabled per security domain through the {@code ldapConnectionPool}
+ * option; since those components copy their options into the JNDI environment, every distinct
+ * configuration (provider URL, bind DN, search settings, ...) gets its own pools.
+ * <p>
+ * Two kinds of pools are kept for a configuration:
+ * <ul>
+ * <li>service pools hand out connections bound as the configured bind DN, used for searches;</li>
+ * <li>user bind pools hand out connections that are re-authenticated as the user being logged
+ * in with an LDAP v3 bind over the existing connection, so verifying a password no longer costs
+ * a TCP/TLS handshake. Those connections are only used on behalf of the user they are bound as.</li>
+ * </ul>
+ * The following options configure the pools:
+ * <ul>
+ * <li>ldapConnectionPool - true to enable pooling, the default is false;</li>
+ * <li>ldapConnectionPoolMinSize - the number of connections that are not closed when idle,
+ * the default is 0;</li>
+ * <li>ldapConnectionPoolMaxSize - the maximum number of pooled connections, the default is 10.
+ * Demand above it is served with connections that are closed once used;</li>
+ * <li>ldapConnectionPoolIdleTimeout - the time in milliseconds after which an idle connection
+ * is closed, the default is 300000;</li>
+ * <li>ldapConnectionPoolValidate - true to check the health of a service connection before it
+ * is handed out, the default is false. Connections that fail with a communication error are
+ * always discarded.</li>
+ * </ul>
+ * Contexts obtained from {@link #getContext(Hashtable)} or {@link #getUserContext(Hashtable)}
+ * must be given back through {@link #close(InitialLdapContext, Throwable)} instead of being closed.
+ */
+public class LdapConnectionPool
+{
+   public static final String POOL_OPT = "ldapConnectionPool";
+
+   public static final String MIN_SIZE_OPT = "ldapConnectionPoolMinSize";
+
+   public static final String MAX_SIZE_OPT = "ldapConnectionPoolMaxSize";
+
+   public static final String IDLE_TIMEOUT_OPT = "ldapConnectionPoolIdleTimeout";
+
+   public static final String VALIDATE_OPT = "ldapConnectionPoolValidate";
+
+   /** The options of the pool, to be added to the valid options of the users of the pool */
+   public static final String[] ALL_VALID_OPTIONS =
+   {
+      POOL_OPT, MIN_SIZE_OPT, MAX_SIZE_OPT, IDLE_TIMEOUT_OPT, VALIDATE_OPT
+   };
+
+   /** The "no attributes" attribute list of RFC 4511 used by the health check */
+   private static final String[] NO_ATTRIBUTES = {"1.1"};
+
+   private static final ConcurrentMap<PoolKey, LdapConnectionPool> pools = new ConcurrentHashMap<PoolKey, LdapConnectionPool>();
+
+   /** The pool of each pooled context currently open, InitialContext has identity equality */
+   private static final ConcurrentMap<InitialLdapContext, LdapConnectionPool> owners = new ConcurrentHashMap<InitialLdapContext, LdapConnectionPool>();
+
+   private final String name;
+
+   private final boolean userBinds;
+
+   private final Hashtable<Object, Object> env;
+
+   private final int minSize;
+
+   private final int maxSize;
+
+   private final long idleTimeout;
+
+   private final boolean validate;
+
+   /** Idle connections, most recently used first */
+   private final Deque<PooledContext> idle = new ConcurrentLinkedDeque<PooledContext>();
+
+   private final AtomicInteger idleCount = new AtomicInteger();
+
+   /** The pooled connections currently open, in use or idle */
+   private final AtomicInteger size = new AtomicInteger();
+
+   private final AtomicLong borrowCount = new AtomicLong();
+
+   private final AtomicLong createdCount = new AtomicLong();
+
+   private final AtomicLong destroyedCount = new AtomicLong();
+
+   private final AtomicLong overflowCount = new AtomicLong();
+
+   private final AtomicLong validationFailureCount = new AtomicLong();
+
+   private volatile boolean closed;
+
+   private LdapConnectionPool(String name, boolean userBinds, Hashtable<Object, Object> env)
+   {
+      this.name = name;
+      this.userBinds = userBinds;
+      this.env = env;
+      this.minSize = getInt(env, MIN_SIZE_OPT, 0);
+      this.maxSize = Math.max(getInt(env, MAX_SIZE_OPT, 10), minSize);
+      this.idleTimeout = getInt(env, IDLE_TIMEOUT_OPT, 300000);
+      this.validate = Boolean.valueOf(String.valueOf(env.get(VALIDATE_OPT)));
+   }
+
+   /**
+    * Obtain a context for searches, bound with the principal of the given environment.
+    *
+    * @param env - the JNDI environment of the context
+    * @return a pooled context if pooling is enabled by the environment, a new context otherwise
+    * @throws NamingException if the context could not be created
+    */
+   public static InitialLdapContext getContext(Hashtable<?, ?> env) throws NamingException
+   {
+      if (!isEnabled(env))
+         return new InitialLdapContext(env, null);
+      return getPool(env, false).borrow();
+   }
+
+   /**
+    * Obtain a context authenticated as the principal of the given environment, typically the
+    * user being logged in. An authentication failure is reported the same way as when
+    * creating an {@code InitialLdapContext}.
+    *
+    * @param env - the JNDI environment of the context
+    * @return a context taken from the user bind pool if pooling is enabled by the environment,
+    *    a new context otherwise
+    * @throws NamingException if the bind failed
+    */
+   public static InitialLdapContext getUserContext(Hashtable<?, ?> env) throws NamingException
+   {
+      if (!isEnabled(env))
+         return new InitialLdapContext(env, null);
+      return getPool(env, true).bind(env);
+   }
+
+   /**
+    * Give back a context obtained from this class, closing it if it is not pooled.
+    *
+    * @param ctx - the context, may be null
+    * @param failure - the exception raised while using the context, if any. A communication
+    *    failure causes the connection to be discarded.
+    */
+   public static void close(InitialLdapContext ctx, Throwable failure) throws NamingException
+   {
+      if (ctx == null)
+         return;
+      LdapConnectionPool pool = owners.get(ctx);
+      if (pool != null)
+         pool.release(ctx, failure);
+      else
+         ctx.close();
+   }
+
+   /**
+    * @return the pools created so far, e.g. to expose their metrics
+    */
+   public static Collection<LdapConnectionPool> getPools()
+   {
+      return new ArrayList<LdapConnectionPool>(pools.values());
+   }
+
+   /**
+    * Close the idle connections of every pool and discard the pools. Connections still in
+    * use are closed when given back.
+    */
+   public static void closePools()
+   {
+      for (LdapConnectionPool pool : getPools())
+      {
+         pools.values().remove(pool);
+         pool.closed = true;
+         PooledContext pooled;
+         while ((pooled = pool.pollIdle()) != null)
+            pool.destroy(pooled.context, null);
+      }
+   }
+
+   /**
+    * @return the provider URL and principal of the pool
+    */
+   public String getName()
+   {
+      return name;
+   }
+
+   public boolean isUserBindPool()
+   {
+      return userBinds;
+   }
+
+   public int getMinSize()
+   {
+      return minSize;
+   }
+
+   public int getMaxSize()
+   {
+      return maxSize;
+   }
+
+   /**
+    * @return the number of pooled connections currently in use
+    */
+   public int getActiveCount()
+   {
+      return Math.max(size.get() - idleCount.get(), 0);
+   }
+
+   /**
+    * @return the number of pooled connections currently idle
+    */
+   public int getIdleCount()
+   {
+      return idleCount.get();
+   }
+
+   /**
+    * @return the number of times a connection was requested from the pool
+    */
+   public long getBorrowCount()
+   {
+      return borrowCount.get();
+   }
+
+   /**
+    * @return the number of pooled connections opened
+    */
+   public long getCreatedCount()
+   {
+      return createdCount.get();
+   }
+
+   /**
+    * @return the number of pooled connections closed
+    */
+   public long getDestroyedCount()
+   {
+      return destroyedCount.get();
+   }
+
+   /**
+    * @return the number of unpooled connections opened because the pool was at its maximum size
+    */
+   public long getOverflowCount()
+   {
+      return overflowCount.get();
+   }
+
+   /**
+    * @return the number of idle connections that failed their health check
+    */
+   public long getValidationFailureCount()
+   {
+      return validationFailureCount.get();
+   }
+
+   @Override
+   public String toString()
+   {
+      return "LdapConnectionPool[" + name + (userBinds ? ", user binds" : "") + ", active=" + getActiveCount()
+         + ", idle=" + getIdleCount() + ", created=" + getCreatedCount() + ", destroyed=" + getDestroyedCount() + "]";
+   }
+
+   private static boolean isEnabled(Hashtable<?, ?> env)
+   {
+      return Boolean.valueOf(String.valueOf(env.get(POOL_OPT)));
+   }
+
+   private static LdapConnectionPool getPool(Hashtable<?, ?> env, boolean userBinds)
+   {
+      Hashtable<Object, Object> poolEnv = new Hashtable<Object, Object>(env);
+      if (userBinds)
+      {
+         // user binds share the pool whatever the user
+         poolEnv.remove(Context.SECURITY_PRINCIPAL);
+         poolEnv.remove(Context.SECURITY_CREDENTIALS);
+      }
+      PoolKey key = new PoolKey(userBinds, poolEnv);
+      LdapConnectionPool pool = pools.get(key);
+      if (pool == null)
+      {
+         String name = poolEnv.get(Context.PROVIDER_URL) + (userBinds ? "" : " " + poolEnv.get(Context.SECURITY_PRINCIPAL));
+         pool = new LdapConnectionPool(name, userBinds, poolEnv);
+         LdapConnectionPool existing = pools.putIfAbsent(key, pool);
+         if (existing != null)
+            pool = existing;
+      }
+      return pool;
+   }
+
+   private InitialLdapContext borrow() throws NamingException
+   {
+      borrowCount.incrementAndGet();
+      PooledContext pooled;
+      while ((pooled = pollIdle()) != null)
+      {
+         if (isUsable(pooled))
+            return pooled.context;
+      }
+      return create(env);
+   }
+
+   private InitialLdapContext bind(Hashtable<?, ?> userEnv) throws NamingException
+   {
+      borrowCount.incrementAndGet();
+      Object principal = userEnv.get(Context.SECURITY_PRINCIPAL);
+      Object credential = userEnv.get(Context.SECURITY_CREDENTIALS);
+      PooledContext pooled;
+      while ((pooled = pollIdle()) != null)
+      {
+         if (!isUsable(pooled))
+            continue;
+         InitialLdapContext ctx = pooled.context;
+         try
+         {
+            if (principal != null)
+               ctx.addToEnvironment(Context.SECURITY_PRINCIPAL, principal);
+            if (credential != null)
+               ctx.addToEnvironment(Context.SECURITY_CREDENTIALS, credential);
+            // re-authenticates over the existing connection
+            ctx.reconnect(null);
+            return ctx;
+         }
+         catch (NamingException e)
+         {
+            destroy(ctx, e);
+            // a stale connection is retried, anything else is the outcome of the bind
+            if (!isConnectionFailure(e))
+               throw e;
+         }
+      }
+      return create(userEnv);
+   }
+
+   private void release(InitialLdapContext ctx, Throwable failure) throws NamingException
+   {
+      if (closed || isConnectionFailure(failure))
+      {
+         destroy(ctx, failure);
+         return;
+      }
+      if (userBinds)
+      {
+         try
+         {
+            // don't keep the user credentials around, the next bind provides its own
+            ctx.removeFromEnvironment(Context.SECURITY_PRINCIPAL);
+            ctx.removeFromEnvironment(Context.SECURITY_CREDENTIALS);
+         }
+         catch (NamingException e)
+         {
+            destroy(ctx, e);
+            return;
+         }
+      }
+      long now = System.currentTimeMillis();
+      idle.offerFirst(new PooledContext(ctx, now));
+      idleCount.incrementAndGet();
+      evictIdle(now);
+   }
+
+   private InitialLdapContext create(Hashtable<?, ?> contextEnv) throws NamingException
+   {
+      if (size.incrementAndGet() > maxSize)
+      {
+         size.decrementAndGet();
+         overflowCount.incrementAndGet();
+         // not registered, so it is closed when given back
+         return new InitialLdapContext(contextEnv, null);
+      }
+      InitialLdapContext ctx = null;
+      try
+      {
+         ctx = new InitialLdapContext(contextEnv, null);
+      }
+      finally
+      {
+         if (ctx == null)
+            size.decrementAndGet();
+      }
+      owners.put(ctx, this);
+      createdCount.incrementAndGet();
+      PicketBoxLogger.LOGGER.traceLdapPoolConnectionOpened(size.get(), name);
+      return ctx;
+   }
+
+   private boolean isUsable(PooledContext pooled)
+   {
+      boolean expired = System.currentTimeMillis() - pooled.lastUsed > idleTimeout;
+      if (expired && size.get() > minSize)
+      {
+         destroy(pooled.context, null);
+         return false;
+      }
+      // the connections kept by the minimum size are checked once they went idle for too long
+      if (!userBinds && (validate || expired))
+      {
+         try
+         {
+            pooled.context.getAttributes("", NO_ATTRIBUTES);
+         }
+         catch (NamingException e)
+         {
+            validationFailureCount.incrementAndGet();
+            destroy(pooled.context, e);
+            return false;
+         }
+      }
+      return true;
+   }
+
+   private void evictIdle(long now)
+   {
+      PooledContext oldest;
+      while ((oldest = idle.peekLast()) != null && now - oldest.lastUsed > idleTimeout && size.get() > minSize)
+      {
+         if (idle.removeLastOccurrence(oldest))
+         {
+            idleCount.decrementAndGet();
+            destroy(oldest.context, null);
+         }
+      }
+   }
+
+   private PooledContext pollIdle()
+   {
+      PooledContext pooled = idle.pollFirst();
+      if (pooled != null)
+         idleCount.decrementAndGet();
+      return pooled;
+   }
+
+   private void destroy(InitialLdapContext ctx, Throwable cause)
+   {
+      if (owners.remove(ctx) != null)
+      {
+         size.decrementAndGet();
+         destroyedCount.incrementAndGet();
+      }
+      if (cause != null)
+         PicketBoxLogger.LOGGER.debugLdapPoolConnectionDiscarded(name, cause);
+      try
+      {
+         ctx.close();
+      }
+      catch (NamingException ignored)
+      {
+      }
+   }
+
+   private static boolean isConnectionFailure(Throwable t)
+   {
+      while (t != null)
+      {
+         if (t instanceof CommunicationException || t instanceof ServiceUnavailableException)
+            return true;
+         t = t.getCause();
+      }
+      return false;
+   }
+
+   private static int getInt(Map<?, ?> env, String option, int defaultValue)
+   {
+      Object value = env.get(option);
+      if (value == null)
+         return defaultValue;
+      try
+      {
+         return Integer.parseInt(value.toString().trim());
+      }
+      catch (NumberFormatException e)
+      {
+         PicketBoxLogger.LOGGER.debugFailureToParseNumberProperty(option, defaultValue);
+         return defaultValue;
+      }
+   }
+
+   private static class PooledContext
+   {
+      private final InitialLdapContext context;
+
+      private final long lastUsed;
+
+      PooledContext(InitialLdapContext context, long lastUsed)
+      {
+         this.context = context;
+         this.lastUsed = lastUsed;
+      }
+   }
+
+   private static class PoolKey
+   {
+      private final boolean userBinds;
+
+      private final Map<Object, Object> env;
+
+      PoolKey(boolean userBinds, Map<Object, Object> env)
+      {
+         this.userBinds = userBinds;
+         this.env = new HashMap<Object, Object>(env);
+      }
+
+      @Override
+      public boolean equals(Object obj)
+      {
+         if (!(obj instanceof PoolKey))
+            return false;
+         PoolKey other = (PoolKey) obj;
+         return userBinds == other.userBinds && env.equals(other.env);
+      }
+
+      @Override
+      public int hashCode()
+      {
+         return env.hashCode() * 31 + (userBinds ? 1 : 0);
+      }
+   }
+}
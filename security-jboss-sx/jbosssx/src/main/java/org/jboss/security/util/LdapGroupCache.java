@@ -0,0 +1,427 @@
+/*
+  * JBoss, Home of Professional Open Source
+  * Copyright 2026, Red Hat, Inc., and individual contributors as indicated
+  * by the @authors tag. See the copyright.txt in the distribution for a
+  * full listing of individual contributors.
+  *
+  * This is free software; you can redistribute it and/or modify it
+  * under the terms of the GNU Lesser General Public License as
+  * published by the Free Software Foundation; either version 2.1 of
+  * the License, or (at your option) any later version.
+  *
+  * This software is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+  * Lesser General Public License for more details.
+  *
+  * You should have received a copy of the GNU Lesser General Public
+  * License along with this software; if not, write to the Free
+  * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+  */
+package org.jboss.security.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+
+import org.jboss.security.PicketBoxLogger;
+
+/**
+ * A cache of the group entries of a directory, shared by the logins of the security domains
+ * using the same directory and role search settings. For a group entry it remembers:
+ * <ul>
+ * <li>the role names the entry grants;</li>
+ * <li>the DNs of the group entries the entry is a member of.</li>
+ * </ul>
+ * This lets the role search of a user only query the user's direct memberships once the
+ * groups have been seen by a previous login.
+ * <p>
+ * The cache is enabled by the following options:
+ * <ul>
+ * <li>groupCacheTimeout - the time in milliseconds a group entry is cached. The cache is
+ * disabled if this is not set or 0;</li>
+ * <li>groupCachePollInterval - the minimum time in milliseconds between two checks for modified
+ * entries under the roles context, see {@link #checkForChanges(DirContext, String, int)}. The
+ * directory is not polled if this is not set or 0;</li>
+ * <li>groupCacheChangeAttribute - the operational attribute incremented when an entry is
+ * modified, the default is modifyTimestamp. Active Directory can use uSNChanged.</li>
+ * </ul>
+ * The options of the first domain creating the cache of a directory are used. Polling does not
+ * notice deleted entries, the timeout bounds how long they are seen.
+ */
+public final class LdapGroupCache
+{
+   public static final String TIMEOUT_OPT = "groupCacheTimeout";
+
+   public static final String POLL_INTERVAL_OPT = "groupCachePollInterval";
+
+   public static final String CHANGE_ATTRIBUTE_OPT = "groupCacheChangeAttribute";
+
+   /** The options of the cache, to be added to the valid options of the users of the cache */
+   public static final String[] ALL_VALID_OPTIONS =
+   {
+      TIMEOUT_OPT, POLL_INTERVAL_OPT, CHANGE_ATTRIBUTE_OPT
+   };
+
+   /** The maximum number of entries of each map, the least recently used are evicted above it */
+   private static final int MAX_ENTRIES = 10000;
+
+   private static final ConcurrentMap<String, LdapGroupCache> caches = new ConcurrentHashMap<String, LdapGroupCache>();
+
+   private final String name;
+
+   private final long timeout;
+
+   private final long pollInterval;
+
+   private final String changeAttribute;
+
+   /** The role names of the group entries */
+   private final Map<String, Timed> roles = createMap();
+
+   /** The parent groups of the entries */
+   private final Map<String, Timed> parents = createMap();
+
+   private long lastPoll;
+
+   /** The highest value of the change attribute seen by the last poll */
+   private String mark;
+
+   /** The entries whose change attribute value is the mark */
+   private Set<String> markEntries = Collections.emptySet();
+
+   private boolean polling;
+
+   private LdapGroupCache(String name, long timeout, long pollInterval, String changeAttribute)
+   {
+      this.name = name;
+      this.timeout = timeout;
+      this.pollInterval = pollInterval;
+      this.changeAttribute = changeAttribute;
+   }
+
+   /**
+    * Get the cache of a directory.
+    *
+    * @param name - identifies the directory and the settings the cached values depend on, e.g.
+    *    the provider URL, roles context DN and role filter
+    * @param options - the options of the login module
+    * @return the cache or null if the groupCacheTimeout option does not enable the cache
+    */
+   public static LdapGroupCache getCache(String name, Map<?, ?> options)
+   {
+      long timeout = getLong(options, TIMEOUT_OPT);
+      if (timeout <= 0)
+         return null;
+      LdapGroupCache cache = caches.get(name);
+      if (cache == null)
+      {
+         String changeAttribute = (String) options.get(CHANGE_ATTRIBUTE_OPT);
+         if (changeAttribute == null)
+            changeAttribute = "modifyTimestamp";
+         cache = new LdapGroupCache(name, timeout, getLong(options, POLL_INTERVAL_OPT), changeAttribute);
+         LdapGroupCache previous = caches.putIfAbsent(name, cache);
+         if (previous != null)
+            cache = previous;
+      }
+      return cache;
+   }
+
+   /**
+    * Flush the caches of every directory.
+    */
+   public static void flushAll()
+   {
+      for (LdapGroupCache cache : caches.values())
+         cache.flush();
+   }
+
+   public String getName()
+   {
+      return name;
+   }
+
+   /**
+    * @param dn - the DN of a group entry
+    * @return the role names granted by the entry, null if they are not cached
+    */
+   public List<String> getRoles(String dn)
+   {
+      return get(roles, dn);
+   }
+
+   public void putRoles(String dn, List<String> roleNames)
+   {
+      put(roles, dn, roleNames);
+   }
+
+   /**
+    * @param dn - the DN of an entry
+    * @return the DNs of the groups the entry is a member of, null if they are not cached
+    */
+   public List<String> getParents(String dn)
+   {
+      return get(parents, dn);
+   }
+
+   public void putParents(String dn, List<String> parentDNs)
+   {
+      put(parents, dn, parentDNs);
+   }
+
+   public void flush()
+   {
+      synchronized (roles)
+      {
+         roles.clear();
+      }
+      synchronized (parents)
+      {
+         parents.clear();
+      }
+   }
+
+   /**
+    * Flush the cache if an entry under the given context was modified since the last check.
+    * The directory is queried at most once per poll interval, by the calling thread; the
+    * other threads do not wait for the check. The entries are compared through the highest
+    * value of the change attribute seen by the last successful check. The first check takes
+    * it from the root DSE of the server when the server publishes it (the currentTime of
+    * Active Directory for modifyTimestamp, its highestCommittedUSN for uSNChanged), and
+    * otherwise reads it from every entry. A failed check flushes the cache but keeps the
+    * value, so the next check again only reads the entries modified since.
+    *
+    * @param ctx - the context to search from
+    * @param baseDN - the DN of the roles context
+    * @param timeLimit - the time limit of the search in milliseconds
+    */
+   public void checkForChanges(DirContext ctx, String baseDN, int timeLimit)
+   {
+      if (pollInterval <= 0)
+         return;
+      String currentMark;
+      synchronized (this)
+      {
+         long now = System.currentTimeMillis();
+         if (polling || now - lastPoll < pollInterval)
+            return;
+         polling = true;
+         lastPoll = now;
+         currentMark = mark;
+      }
+
+      if (currentMark == null)
+      {
+         String serverMark = getServerMark(ctx);
+         if (serverMark != null)
+         {
+            // nothing was cached before the first check
+            synchronized (this)
+            {
+               mark = serverMark;
+               markEntries = Collections.emptySet();
+               polling = false;
+            }
+            return;
+         }
+      }
+
+      String newMark = currentMark;
+      Set<String> newMarkEntries = new HashSet<String>();
+      boolean modified = false;
+      NamingException failure = null;
+      try
+      {
+         SearchControls constraints = new SearchControls();
+         constraints.setSearchScope(SearchControls.SUBTREE_SCOPE);
+         constraints.setTimeLimit(timeLimit);
+         constraints.setReturningAttributes(new String[] {changeAttribute});
+         NamingEnumeration<SearchResult> results;
+         if (currentMark == null)
+            results = ctx.search(baseDN, "(" + changeAttribute + "=*)", constraints);
+         else
+            results = ctx.search(baseDN, "(" + changeAttribute + ">={0})", new Object[] {currentMark}, constraints);
+         try
+         {
+            while (results.hasMore())
+            {
+               SearchResult sr = results.next();
+               Attributes attributes = sr.getAttributes();
+               Attribute attribute = (attributes != null ? attributes.get(changeAttribute) : null);
+               if (attribute == null || attribute.size() == 0)
+                  continue;
+               String value = String.valueOf(attribute.get());
+               if (currentMark != null)
+               {
+                  int cmp = compare(value, currentMark);
+                  if (cmp > 0 || (cmp == 0 && !markEntries.contains(sr.getName())))
+                     modified = true;
+               }
+               int cmp = (newMark == null ? 1 : compare(value, newMark));
+               if (cmp > 0)
+               {
+                  newMark = value;
+                  newMarkEntries.clear();
+               }
+               if (cmp >= 0)
+                  newMarkEntries.add(sr.getName());
+            }
+         }
+         finally
+         {
+            results.close();
+         }
+      }
+      catch (NamingException e)
+      {
+         // the changes are unknown, the entries modified since the current mark are read again next time
+         modified = true;
+         failure = e;
+      }
+      if (modified)
+      {
+         PicketBoxLogger.LOGGER.debugLdapGroupCacheFlushed(name, failure);
+         flush();
+      }
+
+      synchronized (this)
+      {
+         if (failure == null && newMark != null)
+         {
+            mark = newMark;
+            markEntries = newMarkEntries;
+         }
+         polling = false;
+      }
+   }
+
+   /**
+    * Read the current value of the change attribute from the root DSE of the server.
+    *
+    * @return the value or null if the server does not publish it
+    */
+   private String getServerMark(DirContext ctx)
+   {
+      String attributeId;
+      if ("modifyTimestamp".equalsIgnoreCase(changeAttribute))
+         attributeId = "currentTime";
+      else if ("uSNChanged".equalsIgnoreCase(changeAttribute))
+         attributeId = "highestCommittedUSN";
+      else
+         return null;
+      try
+      {
+         // relative to the provider URL, the root DSE if the URL has no DN
+         Attributes attributes = ctx.getAttributes("", new String[] {attributeId});
+         Attribute attribute = (attributes != null ? attributes.get(attributeId) : null);
+         if (attribute == null || attribute.size() == 0)
+            return null;
+         return String.valueOf(attribute.get());
+      }
+      catch (NamingException e)
+      {
+         return null;
+      }
+   }
+
+   /**
+    * Compare change attribute values, numerically for update sequence numbers.
+    */
+   private static int compare(String value, String other)
+   {
+      try
+      {
+         return Long.valueOf(value).compareTo(Long.valueOf(other));
+      }
+      catch (NumberFormatException e)
+      {
+         return value.compareTo(other);
+      }
+   }
+
+   private List<String> get(Map<String, Timed> map, String dn)
+   {
+      synchronized (map)
+      {
+         Timed timed = map.get(dn);
+         if (timed == null)
+            return null;
+         if (timed.expires < System.currentTimeMillis())
+         {
+            map.remove(dn);
+            return null;
+         }
+         return timed.values;
+      }
+   }
+
+   private void put(Map<String, Timed> map, String dn, Collection<String> values)
+   {
+      Timed timed = new Timed(new ArrayList<String>(values), System.currentTimeMillis() + timeout);
+      synchronized (map)
+      {
+         map.put(dn, timed);
+      }
+   }
+
+   /**
+    * @return an access ordered map evicting the least recently used entry above MAX_ENTRIES
+    */
+   private static Map<String, Timed> createMap()
+   {
+      return new LinkedHashMap<String, Timed>(16, 0.75f, true)
+      {
+         private static final long serialVersionUID = 1L;
+
+         protected boolean removeEldestEntry(Map.Entry<String, Timed> eldest)
+         {
+            return size() > MAX_ENTRIES;
+         }
+      };
+   }
+
+   private static long getLong(Map<?, ?> options, String option)
+   {
+      Object value = options.get(option);
+      if (value == null)
+         return 0;
+      try
+      {
+         return Long.parseLong(value.toString().trim());
+      }
+      catch (NumberFormatException e)
+      {
+         PicketBoxLogger.LOGGER.debugFailureToParseNumberProperty(option, 0);
+         return 0;
+      }
+   }
+
+   private static class Timed
+   {
+      private final List<String> values;
+
+      private final long expires;
+
+      Timed(List<String> values, long expires)
+      {
+         this.values = Collections.unmodifiableList(values);
+         this.expires = expires;
+      }
+   }
+}
@@ -0,0 +1,305 @@
+/*
+  * JBoss, Home of Professional Open Source
+  * Copyright 2026, Red Hat, Inc., and individual contributors as indicated
+  * by the @authors tag. See the copyright.txt in the distribution for a
+  * full listing of individual contributors.
+  *
+  * This is free software; you can redistribute it and/or modify it
+  * under the terms of the GNU Lesser General Public License as
+  * published by the Free Software Foundation; either version 2.1 of
+  * the License, or (at your option) any later version.
+  *
+  * This software is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+  * Lesser General Public License for more details.
+  *
+  * You should have received a copy of the GNU Lesser General Public
+  * License along with this software; if not, write to the Free
+  * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+  */
+package org.jboss.security.util;
+
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.NamingException;
+
+import org.jboss.security.PicketBoxLogger;
+
+/**
+ * Support for the breadth-first role searches of the LDAP login modules and mapping providers.
+ * Instead of one search per role entry and nesting level, the entries of a nesting level are
+ * looked up with a single search whose filter is the OR of the role filter applied to each of
+ * them, see {@link #batchFilter(String, int, int)}.
+ * <p>
+ * If the {@code roleSearchThreads} option is greater than 1, a level is split in up to that
+ * many searches that are run concurrently, each one on its own connection, see
+ * {@link #search(List, int)}.
+ */
+public final class LdapRoleSearchSupport
+{
+   public static final String THREADS_OPT = "roleSearchThreads";
+
+   /** The options of the role searches, to be added to the valid options of the users */
+   public static final String[] ALL_VALID_OPTIONS =
+   {
+      THREADS_OPT
+   };
+
+   /** The maximum number of entries looked up by a single search */
+   public static final int BATCH_SIZE = 50;
+
+   /** The maximum number of threads of the shared executor */
+   private static final int MAX_THREADS = 32;
+
+   private static ThreadPoolExecutor executor;
+
+   /**
+    * A search run by {@link LdapRoleSearchSupport#search(List, int)}.
+    */
+   public interface Search<T>
+   {
+      T execute() throws NamingException;
+   }
+
+   private LdapRoleSearchSupport()
+   {
+   }
+
+   /**
+    * @param options - the options of the login module or mapping provider
+    * @return the number of concurrent searches allowed by the roleSearchThreads option, 1 if
+    *    the searches are not run concurrently
+    */
+   public static int getThreads(Map<?, ?> options)
+   {
+      Object value = options.get(THREADS_OPT);
+      if (value == null)
+         return 1;
+      try
+      {
+         return Math.min(Math.max(Integer.parseInt(value.toString().trim()), 1), MAX_THREADS);
+      }
+      catch (NumberFormatException e)
+      {
+         PicketBoxLogger.LOGGER.debugFailureToParseNumberProperty(THREADS_OPT, 1);
+         return 1;
+      }
+   }
+
+   /**
+    * Build the filter looking up several entries at once. Every entry is matched by a copy of
+    * the given filter in which the argument at {@code argIndex} is replaced by the argument of
+    * that entry, so the filter arguments must hold the entries at {@code argIndex},
+    * {@code argIndex + 1}, ... {@code argIndex + count - 1}.
+    *
+    * @param filter - the filter matching one entry, e.g. "(member={1})"
+    * @param argIndex - the index of the filter argument holding the entry
+    * @param count - the number of entries
+    * @return the filter matching any of the entries
+    */
+   public static String batchFilter(String filter, int argIndex, int count)
+   {
+      String arg = "{" + argIndex + "}";
+      if (count == 1 || filter.indexOf(arg) < 0)
+         return filter;
+      boolean enclosed = filter.startsWith("(") && filter.endsWith(")");
+      StringBuilder buffer = new StringBuilder("(|");
+      for (int i = 0; i < count; i++)
+      {
+         if (!enclosed)
+            buffer.append('(');
+         buffer.append(filter.replace(arg, "{" + (argIndex + i) + "}"));
+         if (!enclosed)
+            buffer.append(')');
+      }
+      return buffer.append(')').toString();
+   }
+
+   /**
+    * Split the entries of a nesting level in the groups looked up by one search each.
+    *
+    * @param entries - the entries of the level
+    * @param threads - the number of concurrent searches allowed
+    * @return the groups of entries, there are up to threads groups unless there are more than
+    *    threads * BATCH_SIZE entries
+    */
+   public static <E> List<List<E>> partition(List<E> entries, int threads)
+   {
+      return partition(entries, threads, BATCH_SIZE);
+   }
+
+   /**
+    * Split the entries of a nesting level in the groups looked up by one search each.
+    *
+    * @param entries - the entries of the level
+    * @param threads - the number of concurrent searches allowed
+    * @param batchSize - the maximum number of entries of a group
+    * @return the groups of entries
+    */
+   public static <E> List<List<E>> partition(List<E> entries, int threads, int batchSize)
+   {
+      int size = Math.min((entries.size() + threads - 1) / Math.max(threads, 1), batchSize);
+      List<List<E>> batches = new ArrayList<List<E>>();
+      for (int i = 0; i < entries.size(); i += Math.max(size, 1))
+         batches.add(entries.subList(i, Math.min(i + size, entries.size())));
+      return batches;
+   }
+
+   /**
+    * Run the searches of a nesting level. The first search is run by the calling thread, the
+    * others on the shared executor if threads is greater than 1, so only the first one may use
+    * the connection of the caller. All the searches are completed before a failure is reported.
+    *
+    * @param searches - the searches
+    * @param threads - the number of concurrent searches allowed
+    * @return the results of the searches, in order
+    * @throws NamingException the first failure of the searches
+    */
+   public static <T> List<T> search(List<? extends Search<T>> searches, int threads) throws NamingException
+   {
+      List<T> results = new ArrayList<T>(searches.size());
+      if (threads <= 1 || searches.size() == 1)
+      {
+         for (Search<T> search : searches)
+            results.add(search.execute());
+         return results;
+      }
+
+      ThreadPoolExecutor executor = getExecutor(threads);
+      final ClassLoader loader = getContextClassLoader();
+      List<Future<T>> futures = new ArrayList<Future<T>>(searches.size() - 1);
+      for (final Search<T> search : searches.subList(1, searches.size()))
+      {
+         futures.add(executor.submit(new Callable<T>()
+         {
+            public T call() throws Exception
+            {
+               // JNDI loads the context factory with the context class loader of the caller
+               ClassLoader previous = getContextClassLoader();
+               setContextClassLoader(loader);
+               try
+               {
+                  return search.execute();
+               }
+               finally
+               {
+                  setContextClassLoader(previous);
+               }
+            }
+         }));
+      }
+
+      Throwable failure = null;
+      try
+      {
+         results.add(searches.get(0).execute());
+      }
+      catch (Throwable t)
+      {
+         failure = t;
+      }
+      boolean interrupted = false;
+      for (Future<T> future : futures)
+      {
+         try
+         {
+            while (true)
+            {
+               try
+               {
+                  results.add(future.get());
+                  break;
+               }
+               catch (InterruptedException e)
+               {
+                  interrupted = true;
+               }
+            }
+         }
+         catch (ExecutionException e)
+         {
+            if (failure == null)
+               failure = e.getCause();
+         }
+      }
+      if (interrupted)
+         Thread.currentThread().interrupt();
+
+      if (failure instanceof NamingException)
+         throw (NamingException) failure;
+      if (failure instanceof RuntimeException)
+         throw (RuntimeException) failure;
+      if (failure instanceof Error)
+         throw (Error) failure;
+      if (failure != null)
+      {
+         NamingException ne = new NamingException();
+         ne.setRootCause(failure);
+         throw ne;
+      }
+      return results;
+   }
+
+   private static synchronized ThreadPoolExecutor getExecutor(int threads)
+   {
+      if (executor == null)
+      {
+         executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+               new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+               {
+                  private final AtomicInteger count = new AtomicInteger();
+
+                  public Thread newThread(Runnable r)
+                  {
+                     Thread thread = new Thread(r, "LdapRoleSearch-" + count.incrementAndGet());
+                     thread.setDaemon(true);
+                     return thread;
+                  }
+               });
+         executor.allowCoreThreadTimeOut(true);
+      }
+      else if (executor.getMaximumPoolSize() < threads)
+      {
+         executor.setMaximumPoolSize(threads);
+         executor.setCorePoolSize(threads);
+      }
+      return executor;
+   }
+
+   private static ClassLoader getContextClassLoader()
+   {
+      return AccessController.doPrivileged(new PrivilegedAction<ClassLoader>()
+      {
+         public ClassLoader run()
+         {
+            return Thread.currentThread().getContextClassLoader();
+         }
+      });
+   }
+
+   private static void setContextClassLoader(final ClassLoader loader)
+   {
+      AccessController.doPrivileged(new PrivilegedAction<Void>()
+      {
+         public Void run()
+         {
+            Thread.currentThread().setContextClassLoader(loader);
+            return null;
+         }
+      });
+   }
+}
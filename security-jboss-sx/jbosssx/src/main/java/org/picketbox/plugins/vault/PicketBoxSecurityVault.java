@@ -32,6 +32,7 @@ import org.picketbox.util.EncryptionUtil;
 import org.picketbox.util.KeyStoreUtil;
 import org.picketbox.util.StringUtil;
 
+import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
@@ -46,13 +47,25 @@ import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
 import java.security.*;
 import java.security.KeyStore.Entry;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * An instance of {@link SecurityVault} that uses
@@ -87,6 +100,10 @@ import java.util.StringTokenizer;
  * KEY_SIZE: Key size of encryption. Default is 128 bytes.
  * CREATE_KEYSTORE: Whether PicketBox Security Vault has to create missing key store in time of initialization. Default is "FALSE". Implies KEYSTORE_TYPE "JCEKS".  
  * KEYSTORE_TYPE: Key store type. Default is JCEKS. 
+ * CACHE_TIMEOUT: Time in milliseconds decrypted attribute values are kept in memory. Default is 0, which disables the cache.
+ * 
+ * The vault data file is replaced atomically on every change. {@link #storeAll(Map, byte[])} stores several
+ * attributes with a single write.
  * 
  * @author Anil.Saldhana@redhat.com
  * @author Peter Skopek (pskopek_at_redhat_dot_com)
@@ -116,6 +133,18 @@ public class PicketBoxSecurityVault implements SecurityVault
    
    private String keyStoreType = defaultKeyStoreType;
    
+   private SecretKeySpec adminKeySpec;
+   
+   private long cacheTimeout = 0;
+   
+   /** Decrypted attribute values by vault data key, only used when CACHE_TIMEOUT is set */
+   private final ConcurrentMap<String, CachedValue> cache = new ConcurrentHashMap<String, CachedValue>();
+   
+   /** Incremented, under the vault lock, whenever cached values are invalidated */
+   private long cacheGeneration;
+   
+   private final ThreadLocal<Cipher> ciphers = new ThreadLocal<Cipher>();
+   
    // options
    public static final String ENC_FILE_DIR = "ENC_FILE_DIR";
    
@@ -138,6 +167,8 @@ public class PicketBoxSecurityVault implements SecurityVault
    public static final String CREATE_KEYSTORE = "CREATE_KEYSTORE";
    
    public static final String KEYSTORE_TYPE = "KEYSTORE_TYPE";
+   
+   public static final String CACHE_TIMEOUT = "CACHE_TIMEOUT";
 
    // backward compatibility constants 
    private static final String ENCODED_FILE = "ENC.dat";
@@ -199,6 +230,12 @@ public class PicketBoxSecurityVault implements SecurityVault
       createKeyStore = (options.get(CREATE_KEYSTORE) != null ? Boolean.parseBoolean((String) options.get(CREATE_KEYSTORE))
             : false);
       keyStoreType = (options.get(KEYSTORE_TYPE) != null ? (String) options.get(KEYSTORE_TYPE) : defaultKeyStoreType);
+      
+      String cacheTimeoutStr = (String) options.get(CACHE_TIMEOUT);
+      if(cacheTimeoutStr != null)
+      {
+         cacheTimeout = Long.parseLong(cacheTimeoutStr);
+      }
 
       try {
          keyStorePWD = loadKeystorePassword(password, salt, iterationCount);
@@ -212,6 +249,8 @@ public class PicketBoxSecurityVault implements SecurityVault
 
       // read and possibly convert vault content
       readVaultContent(keystoreURL, encFileDir);
+      adminKeySpec = new SecretKeySpec(adminKey.getEncoded(), encryptionAlgorithm);
+      flushCache();
 
       PicketBoxLogger.LOGGER.infoVaultInitialized();
       finishedInit = true;     
@@ -252,25 +291,75 @@ public class PicketBoxSecurityVault implements SecurityVault
       if(StringUtil.isNullOrEmpty(attributeName))
          throw PicketBoxMessages.MESSAGES.invalidNullArgument("attributeName");
 
-      String av = new String(attributeValue);
-      
-      EncryptionUtil util = new EncryptionUtil(encryptionAlgorithm, keySize);
-      try
+      byte[] encryptedData = encrypt(attributeValue);
+      synchronized (this)
       {
-         SecretKeySpec sKeySpec = new SecretKeySpec(adminKey.getEncoded(), encryptionAlgorithm);
-         byte[] encryptedData = util.encrypt(av.getBytes(), sKeySpec);
          vaultContent.addVaultData(alias, vaultBlock, attributeName, encryptedData);
+         invalidate(vaultBlock, attributeName);
+         try {
+            writeVaultData();
+         }
+         catch (IOException e) { 
+            throw new SecurityVaultException(PicketBoxMessages.MESSAGES.unableToWriteVaultDataFileMessage(VAULT_CONTENT_FILE), e);
+         }
       }
-      catch (Exception e1)
-      { 
-         throw new SecurityVaultException(PicketBoxMessages.MESSAGES.unableToEncryptDataMessage(),e1);
-      }
-      
-      try {
-         writeVaultData();
+   }
+
+   /**
+    * Store several attributes with a single write of the vault data file. Either all of the attributes
+    * are stored or, if any of them cannot be encrypted or the file cannot be written, none of them.
+    * 
+    * @param attributes the attribute values by attribute name, by vault block
+    * @param sharedKey the shared key obtained from {@link #handshake(Map)}
+    * @throws SecurityVaultException
+    */
+   public void storeAll(Map<String, Map<String, char[]>> attributes, byte[] sharedKey) throws SecurityVaultException
+   {
+      if(attributes == null)
+         throw PicketBoxMessages.MESSAGES.invalidNullArgument("attributes");
+
+      List<String[]> names = new ArrayList<String[]>();
+      List<byte[]> values = new ArrayList<byte[]>();
+      for (Map.Entry<String, Map<String, char[]>> block : attributes.entrySet())
+      {
+         String vaultBlock = block.getKey();
+         if(StringUtil.isNullOrEmpty(vaultBlock))
+            throw PicketBoxMessages.MESSAGES.invalidNullArgument("vaultBlock");
+         for (Map.Entry<String, char[]> attribute : block.getValue().entrySet())
+         {
+            String attributeName = attribute.getKey();
+            if(StringUtil.isNullOrEmpty(attributeName))
+               throw PicketBoxMessages.MESSAGES.invalidNullArgument("attributeName");
+            names.add(new String[] {vaultBlock, attributeName});
+            values.add(encrypt(attribute.getValue()));
+         }
       }
-      catch (IOException e) { 
-         throw new SecurityVaultException(PicketBoxMessages.MESSAGES.unableToWriteVaultDataFileMessage(VAULT_CONTENT_FILE), e);
+
+      synchronized (this)
+      {
+         byte[][] previous = new byte[names.size()][];
+         for (int i = 0; i < names.size(); i++)
+         {
+            String[] name = names.get(i);
+            previous[i] = vaultContent.getVaultData(alias, name[0], name[1]);
+            vaultContent.addVaultData(alias, name[0], name[1], values.get(i));
+            invalidate(name[0], name[1]);
+         }
+         try {
+            writeVaultData();
+         }
+         catch (IOException e) {
+            // roll back the in memory content to what is still on disk
+            for (int i = 0; i < names.size(); i++)
+            {
+               String[] name = names.get(i);
+               if (previous[i] == null)
+                  vaultContent.deleteVaultData(alias, name[0], name[1]);
+               else
+                  vaultContent.addVaultData(alias, name[0], name[1], previous[i]);
+            }
+            throw new SecurityVaultException(PicketBoxMessages.MESSAGES.unableToWriteVaultDataFileMessage(VAULT_CONTENT_FILE), e);
+         }
       }
    }
 
@@ -284,18 +373,57 @@ public class PicketBoxSecurityVault implements SecurityVault
       if(StringUtil.isNullOrEmpty(attributeName))
          throw PicketBoxMessages.MESSAGES.invalidNullArgument("attributeName");
 
-      byte[] encryptedValue = vaultContent.getVaultData(alias, vaultBlock, attributeName);
-       
-      SecretKeySpec secretKeySpec = new SecretKeySpec(adminKey.getEncoded(), encryptionAlgorithm);
-      EncryptionUtil encUtil = new EncryptionUtil(encryptionAlgorithm, keySize);
-      try
+      String key = null;
+      if (cacheTimeout > 0)
       {
-         return (new String(encUtil.decrypt(encryptedValue, secretKeySpec))).toCharArray();
+         key = cacheKey(vaultBlock, attributeName);
+         CachedValue cached = cache.get(key);
+         if (cached != null)
+         {
+            char[] value = cached.copy(System.currentTimeMillis());
+            if (value != null)
+               return value;
+            cache.remove(key, cached);
+            cached.wipe();
+         }
+      }
+
+      if (key == null)
+         return decrypt(vaultContent.getVaultData(alias, vaultBlock, attributeName));
+
+      long generation;
+      byte[] encryptedValue;
+      synchronized (this)
+      {
+         generation = cacheGeneration;
+         encryptedValue = vaultContent.getVaultData(alias, vaultBlock, attributeName);
+      }
+      char[] value = decrypt(encryptedValue);
+      synchronized (this)
+      {
+         // a value changed or removed while it was decrypted is not cached
+         if (generation == cacheGeneration)
+         {
+            CachedValue old = cache.put(key, new CachedValue(value.clone(), System.currentTimeMillis() + cacheTimeout));
+            if (old != null)
+               old.wipe();
+         }
+      }
+      return value;
+   }
+
+   /**
+    * Discard the cached decrypted attribute values, overwriting them in memory.
+    */
+   public synchronized void flushCache()
+   {
+      cacheGeneration++;
+      for (String key : cache.keySet())
+      {
+         CachedValue cached = cache.remove(key);
+         if (cached != null)
+            cached.wipe();
       }
-      catch (Exception e)
-      { 
-         throw new SecurityVaultException(e);
-      } 
    }
 
    /**
@@ -317,11 +445,14 @@ public class PicketBoxSecurityVault implements SecurityVault
          throw PicketBoxMessages.MESSAGES.invalidNullArgument("attributeName");
       
       try {
-         if (vaultContent.deleteVaultData(alias, vaultBlock, attributeName)) {
-            writeVaultData();
-            return true;
+         synchronized (this) {
+            invalidate(vaultBlock, attributeName);
+            if (vaultContent.deleteVaultData(alias, vaultBlock, attributeName)) {
+               writeVaultData();
+               return true;
+            }
+            return false;
          }
-         return false;
       }
       catch (IOException e) { 
          throw new SecurityVaultException(PicketBoxMessages.MESSAGES.unableToWriteVaultDataFileMessage(VAULT_CONTENT_FILE), e);
@@ -398,19 +529,113 @@ public class PicketBoxSecurityVault implements SecurityVault
    
    private void writeVaultData() throws IOException
    {
+	  // write a temporary file, force it to disk and move it over the current one so that
+	  // the vault data file is never left partially written
+	  File target = new File(decodedEncFileDir + VAULT_CONTENT_FILE);
+	  File tmp = new File(decodedEncFileDir + VAULT_CONTENT_FILE + ".tmp");
 	  FileOutputStream fos = null;
 	  ObjectOutputStream oos = null;
 	  try
 	  {
-	      fos = new FileOutputStream(decodedEncFileDir + VAULT_CONTENT_FILE);
+	      fos = new FileOutputStream(tmp);
+	      // give the new file the permissions of the one it replaces before writing to it
+	      if (target.exists())
+	      {
+	          PosixFileAttributeView view = Files.getFileAttributeView(target.toPath(), PosixFileAttributeView.class);
+	          if (view != null)
+	              Files.setPosixFilePermissions(tmp.toPath(), view.readAttributes().permissions());
+	      }
 	      oos = new ObjectOutputStream(fos);
 	      oos.writeObject(vaultContent);
+	      oos.flush();
+	      fos.getFD().sync();
 	  }
 	  finally
 	  {
 		  safeClose(oos);
 		  safeClose(fos);
 	  }
+	  try
+	  {
+	      Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	  }
+	  catch (AtomicMoveNotSupportedException e)
+	  {
+	      Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	  }
+   }
+
+   private byte[] encrypt(char[] attributeValue) throws SecurityVaultException
+   {
+      ByteBuffer encoded = Charset.defaultCharset().encode(CharBuffer.wrap(attributeValue));
+      byte[] data = new byte[encoded.remaining()];
+      encoded.get(data);
+      try
+      {
+         Cipher cipher = getCipher();
+         cipher.init(Cipher.ENCRYPT_MODE, adminKeySpec);
+         return cipher.doFinal(data);
+      }
+      catch (Exception e1)
+      { 
+         throw new SecurityVaultException(PicketBoxMessages.MESSAGES.unableToEncryptDataMessage(),e1);
+      }
+      finally
+      {
+         wipe(encoded.array());
+         wipe(data);
+      }
+   }
+
+   private char[] decrypt(byte[] encryptedValue) throws SecurityVaultException
+   {
+      byte[] data = null;
+      try
+      {
+         Cipher cipher = getCipher();
+         cipher.init(Cipher.DECRYPT_MODE, adminKeySpec);
+         data = cipher.doFinal(encryptedValue);
+      }
+      catch (Exception e)
+      { 
+         throw new SecurityVaultException(e);
+      }
+      CharBuffer decoded = Charset.defaultCharset().decode(ByteBuffer.wrap(data));
+      char[] value = new char[decoded.remaining()];
+      decoded.get(value);
+      Arrays.fill(decoded.array(), '\0');
+      wipe(data);
+      return value;
+   }
+
+   private Cipher getCipher() throws GeneralSecurityException
+   {
+      Cipher cipher = ciphers.get();
+      if (cipher == null)
+      {
+         cipher = Cipher.getInstance(encryptionAlgorithm);
+         ciphers.set(cipher);
+      }
+      return cipher;
+   }
+
+   private void invalidate(String vaultBlock, String attributeName)
+   {
+      cacheGeneration++;
+      CachedValue cached = cache.remove(cacheKey(vaultBlock, attributeName));
+      if (cached != null)
+         cached.wipe();
+   }
+
+   private static String cacheKey(String vaultBlock, String attributeName)
+   {
+      return vaultBlock + StringUtil.PROPERTY_DEFAULT_SEPARATOR + attributeName;
+   }
+
+   private static void wipe(byte[] data)
+   {
+      if (data != null)
+         Arrays.fill(data, (byte) 0);
    }
    
    private boolean vaultFileExists(String fileName)
@@ -695,4 +920,34 @@ public class PicketBoxSecurityVault implements SecurityVault
         }
     }
 
+   /**
+    * A decrypted attribute value. The value is overwritten once the entry is discarded.
+    */
+   private static class CachedValue
+   {
+      private char[] value;
+
+      private final long expires;
+
+      CachedValue(char[] value, long expires)
+      {
+         this.value = value;
+         this.expires = expires;
+      }
+
+      synchronized char[] copy(long now)
+      {
+         return value == null || now >= expires ? null : value.clone();
+      }
+
+      synchronized void wipe()
+      {
+         if (value != null)
+         {
+            Arrays.fill(value, '\0');
+            value = null;
+         }
+      }
+   }
+
 }
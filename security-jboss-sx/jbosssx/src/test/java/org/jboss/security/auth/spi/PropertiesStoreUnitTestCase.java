@@ -0,0 +1,227 @@
+/*
+  * JBoss, Home of Professional Open Source
+  * Copyright 2026, Red Hat, Inc., and individual contributors as indicated
+  * by the @authors tag. See the copyright.txt in the distribution for a
+  * full listing of individual contributors.
+  *
+  * This is free software; you can redistribute it and/or modify it
+  * under the terms of the GNU Lesser General Public License as
+  * published by the Free Software Foundation; either version 2.1 of
+  * the License, or (at your option) any later version.
+  *
+  * This software is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+  * Lesser General Public License for more details.
+  *
+  * You should have received a copy of the GNU Lesser General Public
+  * License along with this software; if not, write to the Free
+  * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+  */
+package org.jboss.security.auth.spi;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.Principal;
+import java.security.acl.Group;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ *  Unit tests for the shared users/roles PropertiesStore
+ */
+public class PropertiesStoreUnitTestCase extends TestCase
+{
+   private File tmpFile;
+
+   protected void setUp() throws Exception
+   {
+      PropertiesStore.flush();
+      tmpFile = File.createTempFile("roles", ".properties");
+   }
+
+   protected void tearDown() throws Exception
+   {
+      tmpFile.delete();
+      PropertiesStore.flush();
+   }
+
+   public void testStoreIsShared() throws Exception
+   {
+      PropertiesStore store = PropertiesStore.getStore("roles.properties");
+      assertSame(store, PropertiesStore.getStore("roles.properties"));
+      assertSame(store, PropertiesStore.getStore("defaultRoles.properties", "roles.properties"));
+      assertSame(store.getProperties(), store.getProperties());
+      assertEquals(Arrays.asList("Java", "Coder"), Arrays.asList(store.getRoles("stark")));
+      assertNull(store.getRoles("nobody"));
+   }
+
+   public void testRoleSetsMatchPropertiesParsing() throws Exception
+   {
+      write("jduke=Role1,Role2\n"
+         + "jduke.CallerPrincipal=callerJduke\n"
+         + "jduke.Roles=Role3\n"
+         + "jduke.dots.Roles=Role4\n"
+         + "jduke.dots=Role5\n"
+         + "jduke.dots.Other=Role6,Role7\n"
+         + "jdukeman=Role8\n");
+      PropertiesStore store = PropertiesStore.getStore(tmpFile.getAbsolutePath());
+      Properties roles = store.getProperties();
+      UsersRolesLoginModule module = new UsersRolesLoginModule();
+      for (String user : new String[] {"jduke", "jduke.dots", "jdukeman", "jduk", "nobody", null})
+      {
+         Map<String, Set<String>> expected = toMap(Util.getRoleSets(user, roles, '.', module));
+         assertEquals(user, expected, toMap(store.getRoleSets(roles, user, '.', module)));
+      }
+      assertEquals(new HashSet<String>(Arrays.asList("Role1", "Role2", "Role3")),
+         toMap(store.getRoleSets(roles, "jduke", '.', module)).get("Roles"));
+      // properties that are not the current contents of the store are not handled
+      assertNull(store.getRoleSets(new Properties(), "jduke", '.', module));
+   }
+
+   public void testModifiedFileIsReloaded() throws Exception
+   {
+      write("jduke=Role1\n");
+      PropertiesStore store = PropertiesStore.getStore(tmpFile.getAbsolutePath());
+      Properties roles = store.getProperties();
+      assertEquals(Collections.singletonList("Role1"), Arrays.asList(store.getRoles("jduke")));
+
+      write("jduke=Role1,Role2\n");
+      tmpFile.setLastModified(tmpFile.lastModified() + 2000);
+      assertSame(store, PropertiesStore.getStore(tmpFile.getAbsolutePath()));
+      Properties reloaded = store.getProperties();
+      assertNotSame(roles, reloaded);
+      assertEquals("Role1,Role2", reloaded.getProperty("jduke"));
+      assertEquals(Arrays.asList("Role1", "Role2"), Arrays.asList(store.getRoles("jduke")));
+      // the previously handed out contents are left untouched
+      assertEquals("Role1", roles.getProperty("jduke"));
+
+      // a file that can no longer be read keeps the last good contents
+      tmpFile.delete();
+      assertSame(reloaded, store.getProperties());
+   }
+
+   public void testPropertiesAreReadOnly() throws Exception
+   {
+      write("jduke=Role1\n");
+      Properties roles = PropertiesStore.getStore(tmpFile.getAbsolutePath()).getProperties();
+      try
+      {
+         roles.setProperty("jduke", "Admin");
+         fail("Expected an UnsupportedOperationException");
+      }
+      catch (UnsupportedOperationException expected)
+      {
+      }
+      try
+      {
+         roles.entrySet().clear();
+         fail("Expected an UnsupportedOperationException");
+      }
+      catch (UnsupportedOperationException expected)
+      {
+      }
+      try
+      {
+         roles.putIfAbsent("intruder", "Admin");
+         fail("Expected an UnsupportedOperationException");
+      }
+      catch (UnsupportedOperationException expected)
+      {
+      }
+      assertEquals("Role1", roles.getProperty("jduke"));
+      assertEquals(1, roles.size());
+   }
+
+   public void testStoresReleasedWithClassLoader() throws Exception
+   {
+      write("jduke=Role1\n");
+      WeakReference<PropertiesStore> ref = getStoreOfDeployment(tmpFile.getAbsolutePath());
+      for (int i = 0; i < 50 && ref.get() != null; i++)
+      {
+         System.gc();
+         Thread.sleep(20);
+         // the entries of collected class loaders are expunged on the next access
+         PropertiesStore.getStore(tmpFile.getAbsolutePath());
+      }
+      assertNull("store of an undeployed class loader is still reachable", ref.get());
+   }
+
+   public void testMissingFiles() throws Exception
+   {
+      try
+      {
+         PropertiesStore.getStore("no-such-file.properties");
+         fail("Expected an IOException");
+      }
+      catch (IOException expected)
+      {
+      }
+      try
+      {
+         PropertiesStore.getStore("no-such-defaults.properties", "no-such-file.properties");
+         fail("Expected an IOException");
+      }
+      catch (IOException expected)
+      {
+      }
+   }
+
+   private WeakReference<PropertiesStore> getStoreOfDeployment(String propertiesName) throws IOException
+   {
+      Thread thread = Thread.currentThread();
+      ClassLoader previous = thread.getContextClassLoader();
+      ClassLoader deployment = new URLClassLoader(new URL[0], previous);
+      thread.setContextClassLoader(deployment);
+      try
+      {
+         PropertiesStore store = PropertiesStore.getStore(propertiesName);
+         assertSame(store, PropertiesStore.getStore(propertiesName));
+         return new WeakReference<PropertiesStore>(store);
+      }
+      finally
+      {
+         thread.setContextClassLoader(previous);
+      }
+   }
+
+   private void write(String content) throws IOException
+   {
+      FileOutputStream fos = new FileOutputStream(tmpFile);
+      try
+      {
+         fos.write(content.getBytes("ISO-8859-1"));
+      }
+      finally
+      {
+         fos.close();
+      }
+   }
+
+   private static Map<String, Set<String>> toMap(Group[] groups)
+   {
+      Map<String, Set<String>> map = new HashMap<String, Set<String>>();
+      for (Group group : groups)
+      {
+         Set<String> names = new HashSet<String>();
+         Enumeration<? extends Principal> members = group.members();
+         while (members.hasMoreElements())
+            names.add(members.nextElement().getName());
+         assertNull(map.put(group.getName(), names));
+      }
+      return map;
+   }
+}
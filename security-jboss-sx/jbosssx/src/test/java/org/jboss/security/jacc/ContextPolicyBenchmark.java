@@ -0,0 +1,121 @@
+/*
+  * JBoss, Home of Professional Open Source
+  * Copyright 2026, Red Hat, Inc., and individual contributors as indicated
+  * by the @authors tag. See the copyright.txt in the distribution for a
+  * full listing of individual contributors.
+  *
+  * This is free software; you can redistribute it and/or modify it
+  * under the terms of the GNU Lesser General Public License as
+  * published by the Free Software Foundation; either version 2.1 of
+  * the License, or (at your option) any later version.
+  *
+  * This software is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+  * Lesser General Public License for more details.
+  *
+  * You should have received a copy of the GNU Lesser General Public
+  * License along with this software; if not, write to the Free
+  * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+  */
+package org.jboss.security.jacc;
+
+import java.security.Permission;
+import java.security.Principal;
+import java.security.ProtectionDomain;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.security.SimpleGroup;
+import org.jboss.security.SimplePrincipal;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures {@code ContextPolicy.implies} for a policy with a number of roles, each granted its own
+ * permissions, checked by a caller holding a few of the roles. It lives in the package of the
+ * {@code ContextPolicy} as the policy is not public. Run with
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.jboss.security.jacc.ContextPolicyBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContextPolicyBenchmark
+{
+   @Param({"10", "100"})
+   public int roles;
+
+   private ContextPolicy policy;
+
+   private ProtectionDomain caller;
+
+   private Permission granted;
+
+   private Permission denied;
+
+   private Permission excluded;
+
+   @Setup
+   public void setup() throws Exception
+   {
+      policy = new ContextPolicy("benchmark");
+      for (int i = 0; i < roles; i++)
+      {
+         policy.addToRole("role" + i, new RuntimePermission("resource" + i + ".read"));
+         policy.addToRole("role" + i, new RuntimePermission("resource" + i + ".write"));
+      }
+      policy.addToExcludedPolicy(new RuntimePermission("resource0.delete"));
+      policy.addToUncheckedPolicy(new RuntimePermission("public.*"));
+      policy.commit();
+
+      SimpleGroup callerRoles = new SimpleGroup("Roles");
+      callerRoles.addMember(new SimplePrincipal("role0"));
+      callerRoles.addMember(new SimplePrincipal("role" + (roles - 1)));
+      caller = new ProtectionDomain(null, null, null, new Principal[] {new SimplePrincipal("caller"), callerRoles});
+      granted = new RuntimePermission("resource" + (roles - 1) + ".write");
+      denied = new RuntimePermission("resource" + (roles / 2) + ".read");
+      excluded = new RuntimePermission("resource0.delete");
+   }
+
+   @Benchmark
+   public boolean grantedToRole()
+   {
+      return policy.implies(caller, granted);
+   }
+
+   @Benchmark
+   public boolean notGranted()
+   {
+      return policy.implies(caller, denied);
+   }
+
+   @Benchmark
+   public boolean excluded()
+   {
+      return policy.implies(caller, excluded);
+   }
+
+   public static void main(String[] args) throws RunnerException
+   {
+      Options options = new OptionsBuilder().include(ContextPolicyBenchmark.class.getSimpleName()).build();
+      new Runner(options).run();
+   }
+}
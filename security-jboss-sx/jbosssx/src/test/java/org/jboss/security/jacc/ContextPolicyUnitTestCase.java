@@ -0,0 +1,128 @@
+/*
+  * JBoss, Home of Professional Open Source
+  * Copyright 2026, Red Hat, Inc., and individual contributors as indicated
+  * by the @authors tag. See the copyright.txt in the distribution for a
+  * full listing of individual contributors.
+  *
+  * This is free software; you can redistribute it and/or modify it
+  * under the terms of the GNU Lesser General Public License as
+  * published by the Free Software Foundation; either version 2.1 of
+  * the License, or (at your option) any later version.
+  *
+  * This software is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+  * Lesser General Public License for more details.
+  *
+  * You should have received a copy of the GNU Lesser General Public
+  * License along with this software; if not, write to the Free
+  * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+  */
+package org.jboss.security.jacc;
+
+import java.security.Principal;
+import java.security.ProtectionDomain;
+import java.util.PropertyPermission;
+
+import junit.framework.TestCase;
+
+import org.jboss.security.SimpleGroup;
+import org.jboss.security.SimplePrincipal;
+
+/**
+ *  Unit tests for the permission checks of the ContextPolicy
+ */
+public class ContextPolicyUnitTestCase extends TestCase
+{
+   private ContextPolicy policy;
+
+   protected void setUp() throws Exception
+   {
+      policy = new ContextPolicy("context-a");
+      policy.addToRole("admin", new RuntimePermission("admin.*"));
+      policy.addToRole("user", new RuntimePermission("user.read"));
+      policy.addToRole("user", new PropertyPermission("user.*", "read"));
+      policy.addToExcludedPolicy(new RuntimePermission("admin.shutdown"));
+      policy.addToUncheckedPolicy(new RuntimePermission("public.*"));
+      policy.commit();
+   }
+
+   public void testRolePermissions() throws Exception
+   {
+      ProtectionDomain admin = getDomain(new SimplePrincipal("admin"));
+      ProtectionDomain user = getDomain(new SimplePrincipal("user"));
+      assertTrue(policy.implies(admin, new RuntimePermission("admin.restart")));
+      assertFalse(policy.implies(user, new RuntimePermission("admin.restart")));
+      assertTrue(policy.implies(user, new RuntimePermission("user.read")));
+      assertTrue(policy.implies(user, new PropertyPermission("user.home", "read")));
+      assertFalse(policy.implies(user, new PropertyPermission("user.home", "write")));
+      // repeated checks use the compiled decisions
+      assertTrue(policy.implies(admin, new RuntimePermission("admin.restart")));
+      assertFalse(policy.implies(user, new RuntimePermission("admin.restart")));
+   }
+
+   public void testExcludedAndUncheckedPermissions() throws Exception
+   {
+      ProtectionDomain admin = getDomain(new SimplePrincipal("admin"));
+      ProtectionDomain nobody = getDomain();
+      assertFalse(policy.implies(admin, new RuntimePermission("admin.shutdown")));
+      assertTrue(policy.implies(nobody, new RuntimePermission("public.page")));
+      assertFalse(policy.implies(nobody, new RuntimePermission("user.read")));
+   }
+
+   public void testGroupMembersAndAuthenticatedRole() throws Exception
+   {
+      SimpleGroup roles = new SimpleGroup("Roles");
+      roles.addMember(new SimplePrincipal("admin"));
+      ProtectionDomain domain = getDomain(new SimplePrincipal("someone"), roles);
+      assertTrue(policy.implies(domain, new RuntimePermission("admin.restart")));
+
+      policy.addToRole("**", new RuntimePermission("authenticated"));
+      assertTrue(policy.implies(getDomain(new SimplePrincipal("someone")), new RuntimePermission("authenticated")));
+   }
+
+   public void testPolicyChanges() throws Exception
+   {
+      ProtectionDomain user = getDomain(new SimplePrincipal("user"));
+      RuntimePermission report = new RuntimePermission("report.view");
+      assertFalse(policy.implies(user, report));
+
+      policy.addToRole("user", report);
+      assertTrue(policy.implies(user, report));
+
+      policy.addToExcludedPolicy(report);
+      assertFalse(policy.implies(user, report));
+
+      policy.removeExcludedPolicy();
+      assertTrue(policy.implies(user, report));
+
+      policy.removeRole("user");
+      assertFalse(policy.implies(user, report));
+
+      policy.addToUncheckedPolicy(report);
+      assertTrue(policy.implies(user, report));
+
+      policy.clear();
+      assertFalse(policy.implies(user, report));
+   }
+
+   public void testManyDistinctPermissions() throws Exception
+   {
+      ProtectionDomain admin = getDomain(new SimplePrincipal("admin"));
+      ProtectionDomain user = getDomain(new SimplePrincipal("user"));
+      // past the bound of the compiled decisions, which are then trimmed and recomputed
+      for (int i = 0; i < 10000; i++)
+      {
+         assertTrue(policy.implies(admin, new RuntimePermission("admin.op" + i)));
+         assertFalse(policy.implies(user, new RuntimePermission("admin.op" + i)));
+      }
+      assertTrue(policy.implies(admin, new RuntimePermission("admin.op0")));
+      assertFalse(policy.implies(admin, new RuntimePermission("admin.shutdown")));
+   }
+
+   private ProtectionDomain getDomain(Principal... principals)
+   {
+      return new ProtectionDomain(null, null, null, principals);
+   }
+}
@@ -0,0 +1,181 @@
+/*
+  * JBoss, Home of Professional Open Source
+  * Copyright 2026, Red Hat, Inc., and individual contributors as indicated
+  * by the @authors tag. See the copyright.txt in the distribution for a
+  * full listing of individual contributors.
+  *
+  * This is free software; you can redistribute it and/or modify it
+  * under the terms of the GNU Lesser General Public License as
+  * published by the Free Software Foundation; either version 2.1 of
+  * the License, or (at your option) any later version.
+  *
+  * This software is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+  * Lesser General Public License for more details.
+  *
+  * You should have received a copy of the GNU Lesser General Public
+  * License along with this software; if not, write to the Free
+  * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+  */
+package org.jboss.test.audit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+
+import org.jboss.security.audit.AbstractAuditProvider;
+import org.jboss.security.audit.AuditEvent;
+import org.jboss.security.audit.AuditLevel;
+import org.jboss.security.plugins.audit.AsyncAuditContext;
+import org.jboss.security.plugins.audit.AsyncAuditContext.OverflowPolicy;
+
+/**
+ * Tests of the delivery of the audit events on the drain thread of an AsyncAuditContext
+ */
+public class AsyncAuditContextUnitTestCase extends TestCase
+{
+   public void testDelivery() throws Exception
+   {
+      AsyncAuditContext ac = new AsyncAuditContext("test", 16, 4, OverflowPolicy.BLOCK);
+      RecordingProvider first = new RecordingProvider(null);
+      RecordingProvider second = new RecordingProvider(null);
+      ac.addProvider(new FailingProvider());
+      ac.addProvider(new ErrorProvider());
+      ac.addProvider(first);
+      ac.addProvider(second);
+      List<AuditEvent> events = new ArrayList<AuditEvent>();
+      // more events than the capacity, the caller waits for the drain thread
+      for (int i = 0; i < 100; i++)
+      {
+         AuditEvent ae = new AuditEvent(AuditLevel.INFO);
+         events.add(ae);
+         ac.audit(ae);
+      }
+      ac.flush();
+      assertEquals(events, first.events);
+      assertEquals(events, second.events);
+      assertEquals(100, ac.getDeliveredCount());
+      assertEquals(0, ac.getDroppedCount());
+      assertFalse(first.threads.contains(Thread.currentThread()));
+      // the errors of a provider do not stop the drain thread
+      assertTrue(first.threads.get(99).isAlive());
+      ac.close();
+   }
+
+   public void testCloseDeliversPendingEvents() throws Exception
+   {
+      CountDownLatch latch = new CountDownLatch(1);
+      AsyncAuditContext ac = new AsyncAuditContext("test", 64, 8, OverflowPolicy.BLOCK);
+      RecordingProvider provider = new RecordingProvider(latch);
+      ac.addProvider(provider);
+      for (int i = 0; i < 50; i++)
+         ac.audit(new AuditEvent(AuditLevel.INFO));
+      latch.countDown();
+      ac.close();
+      assertEquals(50, provider.events.size());
+
+      // the events audited after the close are delivered on the calling thread
+      AuditEvent ae = new AuditEvent(AuditLevel.ERROR);
+      ac.audit(ae);
+      assertEquals(51, provider.events.size());
+      assertSame(ae, provider.events.get(50));
+   }
+
+   public void testDropNew() throws Exception
+   {
+      CountDownLatch latch = new CountDownLatch(1);
+      AsyncAuditContext ac = new AsyncAuditContext("test", 4, 1, OverflowPolicy.DROP_NEW);
+      RecordingProvider provider = new RecordingProvider(latch);
+      ac.addProvider(provider);
+      List<AuditEvent> events = new ArrayList<AuditEvent>();
+      for (int i = 0; i < 20; i++)
+      {
+         AuditEvent ae = new AuditEvent(AuditLevel.INFO);
+         events.add(ae);
+         ac.audit(ae);
+      }
+      latch.countDown();
+      ac.close();
+      // the drain thread holds at most one event while it is blocked, the buffer holds 4
+      assertEquals(20, provider.events.size() + ac.getDroppedCount());
+      assertTrue(provider.events.size() <= 5);
+      assertEquals(events.subList(0, provider.events.size()), provider.events);
+   }
+
+   public void testDropOldest() throws Exception
+   {
+      CountDownLatch latch = new CountDownLatch(1);
+      AsyncAuditContext ac = new AsyncAuditContext("test", 4, 1, OverflowPolicy.DROP_OLDEST);
+      RecordingProvider provider = new RecordingProvider(latch);
+      ac.addProvider(provider);
+      List<AuditEvent> events = new ArrayList<AuditEvent>();
+      for (int i = 0; i < 20; i++)
+      {
+         AuditEvent ae = new AuditEvent(AuditLevel.INFO);
+         events.add(ae);
+         ac.audit(ae);
+      }
+      latch.countDown();
+      ac.close();
+      assertEquals(20, provider.events.size() + ac.getDroppedCount());
+      // the newest events are kept
+      List<AuditEvent> last = provider.events.subList(provider.events.size() - 4, provider.events.size());
+      assertEquals(events.subList(16, 20), last);
+   }
+
+   /**
+    * A provider that records the events and the delivering threads, optionally waiting for a latch
+    */
+   static class RecordingProvider extends AbstractAuditProvider
+   {
+      final List<AuditEvent> events = Collections.synchronizedList(new ArrayList<AuditEvent>());
+
+      final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+
+      private final CountDownLatch latch;
+
+      RecordingProvider(CountDownLatch latch)
+      {
+         this.latch = latch;
+      }
+
+      @Override
+      public void audit(AuditEvent ae)
+      {
+         try
+         {
+            if (latch != null)
+               latch.await();
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+         }
+         events.add(ae);
+         threads.add(Thread.currentThread());
+      }
+   }
+
+   static class FailingProvider extends AbstractAuditProvider
+   {
+      @Override
+      public void audit(AuditEvent ae)
+      {
+         throw new IllegalStateException("failed");
+      }
+   }
+
+   static class ErrorProvider extends AbstractAuditProvider
+   {
+      @Override
+      public void audit(AuditEvent ae)
+      {
+         throw new AssertionError("failed");
+      }
+   }
+}
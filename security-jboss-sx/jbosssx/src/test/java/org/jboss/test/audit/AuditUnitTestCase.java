@@ -21,10 +21,17 @@
   */
 package org.jboss.test.audit; 
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
 import junit.framework.TestCase;
 
+import org.jboss.security.PicketBoxLogger;
+
 import org.jboss.security.SecurityContext;
 import org.jboss.security.SecurityContextFactory;
+import org.jboss.security.audit.AbstractAuditProvider;
 import org.jboss.security.audit.AuditEvent;
 import org.jboss.security.audit.AuditLevel;
 import org.jboss.security.audit.AuditManager;
@@ -32,6 +39,7 @@ import org.jboss.security.audit.config.AuditProviderEntry;
 import org.jboss.security.config.ApplicationPolicy;
 import org.jboss.security.config.AuditInfo;
 import org.jboss.security.config.SecurityConfiguration;
+import org.jboss.security.plugins.audit.JBossAuditContext;
 
 //$Id$
 
@@ -71,6 +79,57 @@ public class AuditUnitTestCase extends TestCase
    }
    
    
+   /**
+    * The AuditManager reports whether a provider records the events of a level
+    */
+   public void testIsEnabled() throws Exception
+   {
+      SecurityContext sc = SecurityContextFactory.createSecurityContext("test");
+      assertTrue(sc.getAuditManager().isEnabled(AuditLevel.SUCCESS));
+
+      // Without configuration only the trace logging records the events
+      sc = SecurityContextFactory.createSecurityContext("no-audit");
+      assertEquals(PicketBoxLogger.AUDIT_LOGGER.isTraceEnabled(), sc.getAuditManager().isEnabled(AuditLevel.SUCCESS));
+
+      JBossAuditContext ac = new JBossAuditContext("test");
+      assertFalse(ac.isEnabled(AuditLevel.ERROR));
+      ac.addProvider(new ErrorAuditProvider());
+      assertTrue(ac.isEnabled(AuditLevel.ERROR));
+      assertFalse(ac.isEnabled(AuditLevel.SUCCESS));
+   }
+   
+   /**
+    * A domain without asynchronous delivery audits in the calling thread
+    */
+   public void testIsAsynchronous() throws Exception
+   {
+      SecurityContext sc = SecurityContextFactory.createSecurityContext("test");
+      assertFalse(sc.getAuditManager().isAsynchronous());
+   }
+   
+   /**
+    * The context map of a lazy event is created once, when it is read
+    */
+   public void testLazyEvent() throws Exception
+   {
+      final int[] calls = new int[1];
+      AuditEvent ae = AuditEvent.lazy(AuditLevel.SUCCESS, new Supplier<Map<String,Object>>()
+      {
+         public Map<String,Object> get()
+         {
+            calls[0]++;
+            Map<String,Object> map = new HashMap<String,Object>();
+            map.put("Action", "authorization");
+            return map;
+         }
+      }, null);
+      assertEquals(0, calls[0]);
+      assertEquals(AuditLevel.SUCCESS, ae.getAuditLevel());
+      assertEquals("authorization", ae.getContextMap().get("Action"));
+      assertSame(ae.getContextMap(), ae.getContextMap());
+      assertEquals(1, calls[0]);
+   }
+   
    private void setUpSecurityConfiguration()
    {
       String p = TestAuditProvider.class.getName();
@@ -82,4 +141,21 @@ public class AuditUnitTestCase extends TestCase
       ap.setAuditInfo(auditInfo);
       SecurityConfiguration.addApplicationPolicy(ap);
    } 
+   
+   /**
+    * A provider that only records errors
+    */
+   public static class ErrorAuditProvider extends AbstractAuditProvider
+   {
+      @Override
+      public boolean isEnabled(String level)
+      {
+         return AuditLevel.ERROR.equals(level);
+      }
+
+      @Override
+      public void audit(AuditEvent ae)
+      {
+      }
+   }
 }
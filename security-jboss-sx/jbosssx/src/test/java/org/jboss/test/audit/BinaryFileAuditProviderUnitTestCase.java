@@ -0,0 +1,154 @@
+/*
+  * JBoss, Home of Professional Open Source
+  * Copyright 2026, Red Hat, Inc., and individual contributors as indicated
+  * by the @authors tag. See the copyright.txt in the distribution for a
+  * full listing of individual contributors.
+  *
+  * This is free software; you can redistribute it and/or modify it
+  * under the terms of the GNU Lesser General Public License as
+  * published by the Free Software Foundation; either version 2.1 of
+  * the License, or (at your option) any later version.
+  *
+  * This software is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+  * Lesser General Public License for more details.
+  *
+  * You should have received a copy of the GNU Lesser General Public
+  * License along with this software; if not, write to the Free
+  * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+  */
+package org.jboss.test.audit;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.jboss.security.SecurityContext;
+import org.jboss.security.SecurityContextFactory;
+import org.jboss.security.audit.AuditEvent;
+import org.jboss.security.audit.AuditLevel;
+import org.jboss.security.audit.config.AuditProviderEntry;
+import org.jboss.security.audit.providers.BinaryAuditExporter;
+import org.jboss.security.audit.providers.BinaryFileAuditProvider;
+import org.jboss.security.config.ApplicationPolicy;
+import org.jboss.security.config.AuditInfo;
+import org.jboss.security.config.SecurityConfiguration;
+
+/**
+ * Tests of the BinaryFileAuditProvider segments and their export to JSON lines
+ */
+public class BinaryFileAuditProviderUnitTestCase extends TestCase
+{
+   private File directory;
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      super.setUp();
+      directory = File.createTempFile("audit", "");
+      directory.delete();
+      directory.mkdirs();
+   }
+
+   @Override
+   protected void tearDown() throws Exception
+   {
+      File[] files = directory.listFiles();
+      if (files != null)
+      {
+         for (File f : files)
+            f.delete();
+      }
+      directory.delete();
+      super.tearDown();
+   }
+
+   public void testRollAndExport() throws Exception
+   {
+      BinaryFileAuditProvider provider = provider("0");
+      for (int i = 0; i < 200; i++)
+         provider.audit(event(i));
+      assertTrue(directory.listFiles().length > 1);
+
+      String[] lines = export();
+      assertEquals(200, lines.length);
+      assertTrue(lines[0], lines[0].matches("\\{\"time\":\\d+,\"level\":\"Success\",\"context\":\\{.*\\},\"exception\":null\\}"));
+      assertTrue(lines[0], lines[0].contains("\"Action\":\"authorization\""));
+      assertTrue(lines[0], lines[0].contains("\"principal\":\"j\\\"duke \u00e9\u20ac\\n\""));
+      assertTrue(lines[0], lines[0].contains("\"roles\":\"[Echo, Java]\""));
+      assertTrue(lines[7], lines[7].contains("\"exception\":\"java.lang.IllegalStateException: 7\""));
+      assertTrue(lines[199], lines[199].contains("\"index\":\"199\""));
+   }
+
+   public void testRetention() throws Exception
+   {
+      BinaryFileAuditProvider provider = provider("2");
+      for (int i = 0; i < 500; i++)
+         provider.audit(event(i));
+      assertEquals(2, directory.listFiles().length);
+      String[] lines = export();
+      assertTrue(lines.length < 500);
+      assertTrue(lines[lines.length - 1], lines[lines.length - 1].contains("\"index\":\"499\""));
+   }
+
+   public void testConfiguredProvider() throws Exception
+   {
+      Map<String, Object> options = new HashMap<String, Object>();
+      options.put("directory", directory.getPath());
+      options.put("segmentSize", "4096");
+      ApplicationPolicy ap = new ApplicationPolicy("binary-audit");
+      AuditInfo auditInfo = new AuditInfo("binary-audit");
+      auditInfo.add(new AuditProviderEntry(BinaryFileAuditProvider.class.getName(), options));
+      ap.setAuditInfo(auditInfo);
+      SecurityConfiguration.addApplicationPolicy(ap);
+      try
+      {
+         SecurityContext sc = SecurityContextFactory.createSecurityContext("binary-audit");
+         sc.getAuditManager().audit(event(1));
+         String[] lines = export();
+         assertEquals(1, lines.length);
+         assertTrue(lines[0], lines[0].contains("\"index\":\"1\""));
+      }
+      finally
+      {
+         SecurityConfiguration.removeApplicationPolicy("binary-audit");
+      }
+   }
+
+   private BinaryFileAuditProvider provider(String maxSegments)
+   {
+      Map<String, Object> options = new HashMap<String, Object>();
+      options.put("directory", directory.getPath());
+      options.put("segmentSize", "4096");
+      options.put("maxSegments", maxSegments);
+      options.put("fsync", "none");
+      BinaryFileAuditProvider provider = new BinaryFileAuditProvider();
+      provider.init(options);
+      return provider;
+   }
+
+   private static AuditEvent event(int index)
+   {
+      Map<String, Object> map = new LinkedHashMap<String, Object>();
+      map.put("Action", "authorization");
+      map.put("principal", "j\"duke \u00e9\u20ac\n");
+      map.put("roles", new String[] {"Echo", "Java"});
+      map.put("index", index);
+      return new AuditEvent(AuditLevel.SUCCESS, map, index % 7 == 0 && index > 0 ? new IllegalStateException(String.valueOf(index)) : null);
+   }
+
+   private String[] export() throws IOException
+   {
+      StringWriter out = new StringWriter();
+      BinaryAuditExporter.export(directory, out);
+      String text = out.toString();
+      return text.length() == 0 ? new String[0] : text.split("\n");
+   }
+}
@@ -0,0 +1,145 @@
+/*
+  * JBoss, Home of Professional Open Source
+  * Copyright 2026, Red Hat, Inc., and individual contributors as indicated
+  * by the @authors tag. See the copyright.txt in the distribution for a
+  * full listing of individual contributors.
+  *
+  * This is free software; you can redistribute it and/or modify it
+  * under the terms of the GNU Lesser General Public License as
+  * published by the Free Software Foundation; either version 2.1 of
+  * the License, or (at your option) any later version.
+  *
+  * This software is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+  * Lesser General Public License for more details.
+  *
+  * You should have received a copy of the GNU Lesser General Public
+  * License along with this software; if not, write to the Free
+  * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+  */
+package org.jboss.test.auth.spi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.security.GeneralSecurityException;
+import java.util.Collections;
+import java.util.Map;
+
+import org.jboss.security.auth.spi.AdaptivePasswordVerifier;
+import org.jboss.security.auth.spi.PasswordHashFormat;
+import org.jboss.security.auth.spi.Pbkdf2PasswordHashFormat;
+import org.junit.Test;
+
+public class AdaptivePasswordVerifierTestCase {
+
+    // created by passlib compatible code for the password "password" and the salt 0x00..0x0f
+    private static final String PBKDF2_SHA1 = "$pbkdf2$1000$AAECAwQFBgcICQoLDA0ODw$Awni/k4L3.fQ/kgo1BwjRBbi2b8";
+
+    private static final String PBKDF2_SHA256 = "$pbkdf2-sha256$1000$AAECAwQFBgcICQoLDA0ODw$JeuGrMduQwGPGLmo.Qwv7UYtHHmeg9SK49fGkEamC2c";
+
+    @Test
+    public void testKnownHashes() throws Exception
+    {
+        PasswordHashFormat format = AdaptivePasswordVerifier.findFormat(PBKDF2_SHA1);
+        assertEquals(Pbkdf2PasswordHashFormat.PBKDF2_SHA1, format.getName());
+        assertTrue(format.verify("password", PBKDF2_SHA1));
+        assertFalse(format.verify("Password", PBKDF2_SHA1));
+
+        format = AdaptivePasswordVerifier.findFormat(PBKDF2_SHA256);
+        assertEquals(Pbkdf2PasswordHashFormat.PBKDF2_SHA256, format.getName());
+        assertTrue(format.verify("password", PBKDF2_SHA256));
+        assertFalse(format.verify("password1", PBKDF2_SHA256));
+
+        assertNull(AdaptivePasswordVerifier.findFormat("password"));
+        assertNull(AdaptivePasswordVerifier.findFormat("$unknown$1$abc$def"));
+        try
+        {
+            format.verify("password", "$pbkdf2-sha256$1000$");
+            fail("Expected a GeneralSecurityException");
+        }
+        catch (GeneralSecurityException expected)
+        {
+        }
+    }
+
+    @Test
+    public void testAdditionalFormats() throws Exception
+    {
+        PasswordHashFormat plain = new PlainFormat();
+        Map<String, PasswordHashFormat> additional = Collections.singletonMap(plain.getName(), plain);
+        assertSame(plain, AdaptivePasswordVerifier.findFormat("$pbkdf2-sha256$password", additional));
+        assertSame(plain, AdaptivePasswordVerifier.getFormat(Pbkdf2PasswordHashFormat.PBKDF2_SHA256, additional));
+        assertEquals(Pbkdf2PasswordHashFormat.PBKDF2_SHA1, AdaptivePasswordVerifier.findFormat(PBKDF2_SHA1, additional).getName());
+        // the formats of a caller do not replace the built in ones
+        PasswordHashFormat format = AdaptivePasswordVerifier.findFormat(PBKDF2_SHA256);
+        assertTrue(format instanceof Pbkdf2PasswordHashFormat);
+        assertFalse(format.verify("password", "$pbkdf2-sha256$1000$AAECAwQFBgcICQoLDA0ODw$AAAA"));
+    }
+
+    @Test
+    public void testHashAndRehash() throws Exception
+    {
+        PasswordHashFormat format = AdaptivePasswordVerifier.getFormat(Pbkdf2PasswordHashFormat.PBKDF2_SHA512).withCost(2000);
+        String hash = format.hash("secret");
+        assertTrue(hash, hash.startsWith("$pbkdf2-sha512$2000$"));
+        assertFalse(hash.equals(format.hash("secret")));
+        assertTrue(format.verify("secret", hash));
+        assertFalse(format.needsRehash(hash));
+        assertTrue(format.withCost(3000).needsRehash(hash));
+        assertFalse(format.withCost(1000).needsRehash(hash));
+    }
+
+    @Test
+    public void testVerifier() throws Exception
+    {
+        PasswordHashFormat format = AdaptivePasswordVerifier.getFormat(Pbkdf2PasswordHashFormat.PBKDF2_SHA256);
+        for (int threads = 0; threads < 2; threads++)
+        {
+            AdaptivePasswordVerifier verifier = AdaptivePasswordVerifier.getVerifier(threads, 60000);
+            assertTrue(verifier == AdaptivePasswordVerifier.getVerifier(threads, 60000));
+            assertTrue(verifier.verify(format, "password", PBKDF2_SHA256));
+            // the second verification is answered by the cache
+            assertTrue(verifier.verify(format, "password", PBKDF2_SHA256));
+            assertFalse(verifier.verify(format, "wrong", PBKDF2_SHA256));
+            assertTrue(format.verify("other", verifier.hash(format, "other")));
+        }
+    }
+
+    /**
+     * A format that pretends to be pbkdf2-sha256 but stores the passwords in clear
+     */
+    static class PlainFormat implements PasswordHashFormat
+    {
+        public String getName()
+        {
+            return Pbkdf2PasswordHashFormat.PBKDF2_SHA256;
+        }
+
+        public boolean verify(String password, String hash)
+        {
+            return hash.equals(hash(password));
+        }
+
+        public String hash(String password)
+        {
+            return "$" + getName() + "$" + password;
+        }
+
+        public boolean needsRehash(String hash)
+        {
+            return false;
+        }
+
+        public PasswordHashFormat withCost(int cost)
+        {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+  * JBoss, Home of Professional Open Source
+  * Copyright 2026, JBoss Inc., and individual contributors as indicated
+  * by the @authors tag. See the copyright.txt in the distribution for a
+  * full listing of individual contributors.
+  *
+  * This is free software; you can redistribute it and/or modify it
+  * under the terms of the GNU Lesser General Public License as
+  * published by the Free Software Foundation; either version 2.1 of
+  * the License, or (at your option) any later version.
+  *
+  * This software is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+  * Lesser General Public License for more details.
+  *
+  * You should have received a copy of the GNU Lesser General Public
+  * License along with this software; if not, write to the Free
+  * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+  */
+package org.jboss.test.authentication;
+
+import java.security.Principal;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.security.auth.Subject;
+
+import junit.framework.TestCase;
+
+import org.jboss.security.SecurityConstants;
+import org.jboss.security.SimplePrincipal;
+import org.jboss.security.cache.CredentialFingerprint;
+import org.jboss.security.cache.JBossAuthenticationCache;
+import org.jboss.security.cache.SecurityCacheException;
+
+/**
+ *  Unit tests for the bounded and expiring JBossAuthenticationCache
+ */
+public class JBossAuthenticationCacheUnitTestCase extends TestCase
+{
+   public void testCacheOperation() throws Exception
+   {
+      JBossAuthenticationCache cache = new JBossAuthenticationCache();
+      Principal p = new SimplePrincipal("jduke");
+      Subject subject = new Subject();
+      cache.addCacheEntry(p, contextMap("theduke".toCharArray(), subject));
+
+      assertTrue(cache.cacheHit(p));
+      assertSame(subject, cache.get(p));
+      cache.cacheOperation(p, contextMap("theduke", null));
+      try
+      {
+         cache.cacheOperation(p, contextMap("bad", null));
+         fail("Expected validation failure");
+      }
+      catch(SecurityCacheException expected)
+      {
+      }
+   }
+
+   public void testMaxEntries() throws Exception
+   {
+      // single segment so that the LRU order is global
+      JBossAuthenticationCache cache = new JBossAuthenticationCache(16, 0.75f, 1);
+      cache.setMaxEntries(2);
+      Principal p1 = new SimplePrincipal("p1");
+      Principal p2 = new SimplePrincipal("p2");
+      Principal p3 = new SimplePrincipal("p3");
+      cache.addCacheEntry(p1, contextMap("a", null));
+      cache.addCacheEntry(p2, contextMap("b", null));
+      cache.addCacheEntry(p3, contextMap("c", null));
+
+      assertEquals(2, cache.size());
+      assertFalse(cache.cacheHit(p1));
+      assertTrue(cache.cacheHit(p3));
+      assertEquals(1, cache.getEvictionCount());
+   }
+
+   public void testMaxEntriesAcrossSegments() throws Exception
+   {
+      JBossAuthenticationCache cache = new JBossAuthenticationCache();
+      cache.setMaxEntries(10);
+      for(int i = 0; i < 100; i++)
+         cache.addCacheEntry(new SimplePrincipal("p" + i), contextMap("a", null));
+      assertEquals(10, cache.size());
+      assertEquals(90, cache.getEvictionCount());
+      // the most recent entries survive whatever their segment
+      for(int i = 90; i < 100; i++)
+         assertTrue(cache.cacheHit(new SimplePrincipal("p" + i)));
+   }
+
+   public void testPurgeBehindLiveEntry() throws Exception
+   {
+      JBossAuthenticationCache cache = new JBossAuthenticationCache(16, 0.75f, 1);
+      cache.setExpireAfterWrite(1500);
+      Principal old = new SimplePrincipal("old");
+      Principal live = new SimplePrincipal("live");
+      cache.addCacheEntry(old, contextMap("a", null));
+      Thread.sleep(900);
+      cache.addCacheEntry(live, contextMap("b", null));
+      Thread.sleep(100);
+      // reading the old entry moves it behind the live one in access order
+      assertTrue(cache.cacheHit(old));
+      Thread.sleep(600);
+      cache.addCacheEntry(new SimplePrincipal("new"), contextMap("c", null));
+      assertEquals(2, cache.size());
+      assertTrue(cache.cacheHit(live));
+   }
+
+   public void testExpireAfterWrite() throws Exception
+   {
+      JBossAuthenticationCache cache = new JBossAuthenticationCache();
+      cache.setExpireAfterWrite(50);
+      Principal p = new SimplePrincipal("jduke");
+      cache.addCacheEntry(p, contextMap("theduke", null));
+      assertTrue(cache.cacheHit(p));
+      Thread.sleep(100);
+      assertFalse(cache.cacheHit(p));
+      assertNull(cache.get(p));
+      assertEquals(1, cache.getEvictionCount());
+   }
+
+   public void testCounters() throws Exception
+   {
+      JBossAuthenticationCache cache = new JBossAuthenticationCache();
+      Principal p = new SimplePrincipal("jduke");
+      assertFalse(cache.cacheHit(p));
+      cache.addCacheEntry(p, contextMap("theduke", null));
+      assertTrue(cache.cacheHit(p));
+      cache.cacheOperation(p, contextMap("theduke", null));
+      cache.get(p);
+      assertEquals(1, cache.getHitCount());
+      assertEquals(1, cache.getMissCount());
+
+      cache.flushCacheEntry(p);
+      assertFalse(cache.cacheHit(p));
+      assertEquals(0, cache.size());
+   }
+
+   public void testCredentialFingerprint() throws Exception
+   {
+      CredentialFingerprint fingerprint = CredentialFingerprint.create("theduke");
+      assertTrue(fingerprint.matches("theduke"));
+      assertTrue(fingerprint.matches("theduke".toCharArray()));
+      assertFalse(fingerprint.matches("theduk"));
+      assertFalse(fingerprint.matches("theduke".getBytes("UTF-16BE")));
+      assertFalse(fingerprint.matches(null));
+
+      CredentialFingerprint binary = CredentialFingerprint.create(new byte[] {1, 2, 3});
+      assertTrue(binary.matches(new byte[] {1, 2, 3}));
+      assertFalse(binary.matches(new byte[] {1, 2}));
+
+      assertNull(CredentialFingerprint.create(new Object()));
+      assertNull(CredentialFingerprint.create(null));
+
+      // fingerprints with the same salt compare by credential
+      byte[] salt = CredentialFingerprint.createSalt();
+      assertEquals(CredentialFingerprint.create("theduke", salt), CredentialFingerprint.create("theduke".toCharArray(), salt));
+      assertEquals(CredentialFingerprint.create("theduke", salt).hashCode(),
+            CredentialFingerprint.create("theduke".toCharArray(), salt).hashCode());
+      assertFalse(CredentialFingerprint.create("theduke", salt).equals(CredentialFingerprint.create("theduk", salt)));
+      assertFalse(fingerprint.equals(CredentialFingerprint.create("theduke", salt)));
+   }
+
+   public void testNonPasswordCredential() throws Exception
+   {
+      JBossAuthenticationCache cache = new JBossAuthenticationCache();
+      Principal p = new SimplePrincipal("jduke");
+      cache.addCacheEntry(p, contextMap(Integer.valueOf(42), null));
+      cache.cacheOperation(p, contextMap(Integer.valueOf(42), null));
+      cache.addCacheEntry(p, contextMap(null, null));
+      cache.cacheOperation(p, contextMap(null, null));
+   }
+
+   private Map<String, Object> contextMap(Object credential, Subject subject)
+   {
+      Map<String, Object> map = new HashMap<String, Object>();
+      map.put(SecurityConstants.CREDENTIAL, credential);
+      map.put(SecurityConstants.SUBJECT, subject);
+      return map;
+   }
+}
@@ -0,0 +1,140 @@
+/*
+  * JBoss, Home of Professional Open Source
+  * Copyright 2026, JBoss Inc., and individual contributors as indicated
+  * by the @authors tag. See the copyright.txt in the distribution for a
+  * full listing of individual contributors.
+  *
+  * This is free software; you can redistribute it and/or modify it
+  * under the terms of the GNU Lesser General Public License as
+  * published by the Free Software Foundation; either version 2.1 of
+  * the License, or (at your option) any later version.
+  *
+  * This software is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+  * Lesser General Public License for more details.
+  *
+  * You should have received a copy of the GNU Lesser General Public
+  * License along with this software; if not, write to the Free
+  * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+  */
+package org.jboss.test.authentication;
+
+import java.security.Principal;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.security.auth.Subject;
+import javax.security.auth.login.FailedLoginException;
+import javax.security.auth.login.LoginException;
+
+import junit.framework.TestCase;
+
+import org.jboss.security.SimplePrincipal;
+import org.jboss.security.plugins.auth.LoginCoalescer;
+
+/**
+ *  Unit tests for the LoginCoalescer
+ */
+public class LoginCoalescerUnitTestCase extends TestCase
+{
+   private static final int THREADS = 8;
+
+   public void testConcurrentLoginsShareResult() throws Exception
+   {
+      final Subject subject = new Subject();
+      final AtomicInteger logins = new AtomicInteger();
+      final Object[] results = runConcurrently(new SlowLogin(logins, subject, null), "theduke");
+
+      assertEquals(1, logins.get());
+      for (Object result : results)
+         assertSame(subject, result);
+   }
+
+   public void testConcurrentLoginsShareFailure() throws Exception
+   {
+      final AtomicInteger logins = new AtomicInteger();
+      final Object[] results = runConcurrently(new SlowLogin(logins, null, new FailedLoginException("bad")), "bad".toCharArray());
+
+      assertEquals(1, logins.get());
+      for (Object result : results)
+         assertTrue(result instanceof FailedLoginException);
+   }
+
+   public void testDifferentCredentialsAreNotCoalesced() throws Exception
+   {
+      LoginCoalescer coalescer = new LoginCoalescer();
+      AtomicInteger logins = new AtomicInteger();
+      Principal p = new SimplePrincipal("jduke");
+      coalescer.login(p, "one", new SlowLogin(logins, new Subject(), null));
+      coalescer.login(p, "two", new SlowLogin(logins, new Subject(), null));
+      assertEquals(2, logins.get());
+      assertEquals(0, coalescer.size());
+   }
+
+   private Object[] runConcurrently(final LoginCoalescer.Login login, final Object credential) throws Exception
+   {
+      final LoginCoalescer coalescer = new LoginCoalescer();
+      final Principal p = new SimplePrincipal("jduke");
+      final Object[] results = new Object[THREADS];
+      final CountDownLatch start = new CountDownLatch(1);
+      Thread[] threads = new Thread[THREADS];
+      for (int i = 0; i < THREADS; i++)
+      {
+         final int index = i;
+         threads[i] = new Thread()
+         {
+            public void run()
+            {
+               try
+               {
+                  start.await();
+                  // equivalent String and char[] credentials share the same login
+                  Object cred = index % 2 == 0 || !(credential instanceof String) ? credential : ((String) credential).toCharArray();
+                  results[index] = coalescer.login(p, cred, login);
+               }
+               catch (Exception e)
+               {
+                  results[index] = e;
+               }
+            }
+         };
+         threads[i].start();
+      }
+      start.countDown();
+      for (Thread thread : threads)
+         thread.join();
+      return results;
+   }
+
+   private static class SlowLogin implements LoginCoalescer.Login
+   {
+      private final AtomicInteger logins;
+      private final Subject subject;
+      private final LoginException failure;
+
+      SlowLogin(AtomicInteger logins, Subject subject, LoginException failure)
+      {
+         this.logins = logins;
+         this.subject = subject;
+         this.failure = failure;
+      }
+
+      public Subject login() throws LoginException
+      {
+         logins.incrementAndGet();
+         try
+         {
+            Thread.sleep(500);
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+         }
+         if (failure != null)
+            throw failure;
+         return subject;
+      }
+   }
+}
@@ -0,0 +1,258 @@
+/*
+  * JBoss, Home of Professional Open Source
+  * Copyright 2007, JBoss Inc., and individual contributors as indicated
+  * by the @authors tag. See the copyright.txt in the distribution for a
+  * full listing of individual contributors.
+  *
+  * This is free software; you can redistribute it and/or modify it
+  * under the terms of the GNU Lesser General Public License as
+  * published by the Free Software Foundation; either version 2.1 of
+  * the License, or (at your option) any later version.
+  *
+  * This software is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+  * Lesser General Public License for more details.
+  *
+  * You should have received a copy of the GNU Lesser General Public
+  * License along with this software; if not, write to the Free
+  * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+  */
+package org.jboss.test.authentication.jaas;
+
+import java.security.Principal;
+import java.security.acl.Group;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.naming.Context;
+import javax.security.auth.Subject;
+import javax.security.auth.login.FailedLoginException;
+import javax.sql.DataSource;
+
+import junit.framework.TestCase;
+
+import org.jboss.security.auth.callback.UsernamePasswordHandler;
+import org.jboss.security.auth.spi.DatabaseServerLoginModule;
+import org.jboss.security.plugins.DataSourceLocator;
+import org.jboss.test.util.HsqldbContextFactory;
+
+/**
+ * Tests of the DatabaseServerLoginModule queries against an in memory hsqldb database
+ * with the Principals(PrincipalID, Password) and Roles(PrincipalID, Role, RoleGroup) tables.
+ */
+public class DatabaseServerLoginModuleUnitTestCase extends TestCase
+{
+   private static final String ROLES_QUERY = "select Role, RoleGroup from Roles where PrincipalID=?";
+
+   private static final String PRINCIPALS_AND_ROLES_QUERY = "select p.Password, r.Role, r.RoleGroup from Principals p"
+      + " left outer join Roles r on r.PrincipalID = p.PrincipalID where p.PrincipalID=?";
+
+   private static final String UPDATE_PASSWORD_QUERY = "update Principals set Password=? where PrincipalID=?";
+
+   private String initialContextFactory;
+
+   private DataSource dataSource;
+
+   protected void setUp() throws Exception
+   {
+      initialContextFactory = System.getProperty(Context.INITIAL_CONTEXT_FACTORY);
+      System.setProperty(Context.INITIAL_CONTEXT_FACTORY, HsqldbContextFactory.class.getName());
+      dataSource = HsqldbContextFactory.bind("java:/TestDS", "login_module_test");
+      update("DROP TABLE IF EXISTS Principals",
+         "DROP TABLE IF EXISTS Roles",
+         "CREATE TABLE Principals (PrincipalID VARCHAR(64), Password VARCHAR(256))",
+         "CREATE TABLE Roles (PrincipalID VARCHAR(64), Role VARCHAR(32), RoleGroup VARCHAR(32))",
+         "INSERT INTO Principals VALUES ('jduke', 'theduke')",
+         "INSERT INTO Principals VALUES ('guest', 'guest')",
+         "INSERT INTO Roles VALUES ('jduke', 'Echo', 'Roles')",
+         "INSERT INTO Roles VALUES ('jduke', 'Java', NULL)",
+         "INSERT INTO Roles VALUES ('jduke', 'jduke', 'CallerPrincipal')");
+      HsqldbContextFactory.getLookups().clear();
+   }
+
+   protected void tearDown() throws Exception
+   {
+      if (initialContextFactory == null)
+         System.clearProperty(Context.INITIAL_CONTEXT_FACTORY);
+      else
+         System.setProperty(Context.INITIAL_CONTEXT_FACTORY, initialContextFactory);
+      DataSourceLocator.flush();
+      HsqldbContextFactory.clear();
+   }
+
+   public void testSeparateQueries() throws Exception
+   {
+      Map<String, Object> options = new HashMap<String, Object>();
+      options.put("rolesQuery", ROLES_QUERY);
+      assertEquals(roles("Echo", "Java"), login("jduke", "theduke", options));
+      // the DataSource is looked up once
+      List<String> lookups = HsqldbContextFactory.getLookups();
+      assertEquals(1, lookups.size());
+      login("jduke", "theduke", options);
+      assertEquals(1, lookups.size());
+   }
+
+   public void testScopedNamesNotCached() throws Exception
+   {
+      List<String> lookups = HsqldbContextFactory.getLookups();
+      // the bindings of the component, module and application namespaces depend on the caller
+      for (String name : new String[] {"java:comp/env/TestDS", "java:module/TestDS", "java:app/TestDS"})
+      {
+         HsqldbContextFactory.bind(name, "login_module_test");
+         lookups.clear();
+         DataSourceLocator.getDataSource(name);
+         DataSourceLocator.getDataSource(name);
+         assertEquals(name, 2, lookups.size());
+      }
+      HsqldbContextFactory.bind("java:global/TestDS", "login_module_test");
+      lookups.clear();
+      DataSourceLocator.getDataSource("java:global/TestDS");
+      DataSourceLocator.getDataSource("java:global/TestDS");
+      assertEquals(1, lookups.size());
+   }
+
+   public void testPrincipalsAndRolesQuery() throws Exception
+   {
+      Map<String, Object> options = new HashMap<String, Object>();
+      options.put("principalsAndRolesQuery", PRINCIPALS_AND_ROLES_QUERY);
+      // the separate queries are not run, they would fail on the missing tables
+      options.put("principalsQuery", "select Password from NoSuchPrincipals where PrincipalID=?");
+      options.put("rolesQuery", "select Role, RoleGroup from NoSuchRoles where PrincipalID=?");
+      assertEquals(roles("Echo", "Java"), login("jduke", "theduke", options));
+
+      // a user without roles is found by the outer join but rejected, as with the rolesQuery
+      try
+      {
+         login("guest", "guest", options);
+         fail("Expected a FailedLoginException");
+      }
+      catch (FailedLoginException expected)
+      {
+      }
+      try
+      {
+         login("jduke", "wrong", options);
+         fail("Expected a FailedLoginException");
+      }
+      catch (FailedLoginException expected)
+      {
+      }
+      try
+      {
+         login("nobody", "theduke", options);
+         fail("Expected a FailedLoginException");
+      }
+      catch (FailedLoginException expected)
+      {
+      }
+   }
+
+   public void testRehashOnLogin() throws Exception
+   {
+      Map<String, Object> options = new HashMap<String, Object>();
+      options.put("rolesQuery", ROLES_QUERY);
+      options.put("rehashOnLogin", "pbkdf2-sha256");
+      options.put("adaptiveHashCost", "1000");
+      options.put("adaptiveHashThreads", "1");
+      options.put("updatePasswordQuery", UPDATE_PASSWORD_QUERY);
+      // the plain password is replaced by a PBKDF2 hash
+      assertEquals(roles("Echo", "Java"), login("jduke", "theduke", options));
+      String hash = getPassword("jduke");
+      assertTrue(hash, hash.startsWith("$pbkdf2-sha256$1000$"));
+
+      // the hash is verified and kept
+      assertEquals(roles("Echo", "Java"), login("jduke", "theduke", options));
+      assertEquals(hash, getPassword("jduke"));
+      try
+      {
+         login("jduke", "wrong", options);
+         fail("Expected a FailedLoginException");
+      }
+      catch (FailedLoginException expected)
+      {
+      }
+      assertEquals(hash, getPassword("jduke"));
+
+      // a hash of a lower cost is upgraded
+      options.put("adaptiveHashCost", "2000");
+      assertEquals(roles("Echo", "Java"), login("jduke", "theduke", options));
+      hash = getPassword("jduke");
+      assertTrue(hash, hash.startsWith("$pbkdf2-sha256$2000$"));
+   }
+
+   private Set<String> login(String username, String password, Map<String, Object> options) throws Exception
+   {
+      options.put("dsJndiName", "java:/TestDS");
+      options.put("suspendResume", "false");
+      Subject subject = new Subject();
+      DatabaseServerLoginModule module = new DatabaseServerLoginModule();
+      module.initialize(subject, new UsernamePasswordHandler(username, password.toCharArray()),
+            new HashMap<String, Object>(), options);
+      assertTrue(module.login());
+      assertTrue(module.commit());
+
+      Set<String> roles = new HashSet<String>();
+      for (Group group : subject.getPrincipals(Group.class))
+      {
+         if (group.getName().equals("Roles"))
+         {
+            for (Principal role : Collections.list(group.members()))
+               roles.add(role.getName());
+         }
+         if (group.getName().equals("CallerPrincipal"))
+            assertEquals(username, group.members().nextElement().getName());
+      }
+      return roles;
+   }
+
+   private String getPassword(String username) throws SQLException
+   {
+      Connection conn = dataSource.getConnection();
+      try
+      {
+         PreparedStatement ps = conn.prepareStatement("select Password from Principals where PrincipalID=?");
+         ps.setString(1, username);
+         ResultSet rs = ps.executeQuery();
+         assertTrue(rs.next());
+         return rs.getString(1);
+      }
+      finally
+      {
+         conn.close();
+      }
+   }
+
+   private void update(String... statements) throws SQLException
+   {
+      Connection conn = dataSource.getConnection();
+      try
+      {
+         Statement stat = conn.createStatement();
+         for (String sql : statements)
+            stat.executeUpdate(sql);
+         stat.close();
+      }
+      finally
+      {
+         conn.close();
+      }
+   }
+
+   private static Set<String> roles(String... names)
+   {
+      Set<String> roles = new HashSet<String>();
+      Collections.addAll(roles, names);
+      return roles;
+   }
+}
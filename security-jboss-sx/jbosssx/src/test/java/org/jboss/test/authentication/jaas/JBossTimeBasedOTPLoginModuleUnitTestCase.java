@@ -38,6 +38,7 @@ import javax.security.jacc.PolicyContext;
 import javax.security.jacc.PolicyContextException;
 import javax.security.jacc.PolicyContextHandler;
 
+import org.jboss.security.SecurityConstants;
 import org.jboss.security.SimpleGroup;
 import org.jboss.security.SimplePrincipal;
 import org.jboss.security.auth.callback.JBossCallbackHandler;
@@ -143,6 +144,44 @@ public class JBossTimeBasedOTPLoginModuleUnitTestCase
       assertTrue( retrievedGroup.isMember( new SimplePrincipal( "RoleB" )));
    }  
    
+   @Test
+   public void testReplayPerSecurityDomain() throws Exception
+   {
+      String totp =  TimeBasedOTP.generateTOTP( seed, 6 ) ; 
+      PolicyContext.registerHandler( WEB_REQUEST_KEY, getHandler(totp), true );
+      
+      assertTrue( login( "domain-a" ) );
+      // the same user of another domain is not affected by the code used in the first one
+      assertTrue( login( "domain-b" ) );
+      try
+      {
+         login( "domain-a" );
+         fail( "Should have rejected the replayed code" );
+      }
+      catch( LoginException le )
+      {
+         //pass
+      }
+   }
+   
+   private boolean login( String securityDomain ) throws LoginException
+   {
+      Principal principal = new SimplePrincipal( "anil" );
+      
+      Subject subject = new Subject();
+      CallbackHandler callbackHandler = new JBossCallbackHandler(principal, seed );
+      Map<String,Object> sharedState = new HashMap<String,Object>();
+      Map<String, Object> options = new HashMap<String,Object>();
+      options.put( "usedCodeCacheSize", "10" );
+      // a window of 2 steps so that the code is still accepted if the time step changes meanwhile
+      options.put( "timeStepWindow", "2" );
+      options.put( SecurityConstants.SECURITY_DOMAIN_OPTION, securityDomain );
+      
+      JBossTimeBasedOTPLoginModule jtp = new JBossTimeBasedOTPLoginModule();
+      jtp.initialize(subject, callbackHandler, sharedState, options); 
+      return jtp.login();
+   }
+   
    /**
     * Create a JACC Policy Context Handler that takes in a totp string
     * and returns a {@code HttpServletRequest} with the totp as parameter
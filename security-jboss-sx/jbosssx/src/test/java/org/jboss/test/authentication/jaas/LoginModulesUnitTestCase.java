@@ -121,6 +121,17 @@ public class LoginModulesUnitTestCase extends TestCase
      {
         return other();
      } 
+     AppConfigurationEntry[] testUsernamePasswordDigestCallback()
+     {
+        HashMap options = new HashMap();
+        options.put("hashAlgorithm", "MD5");
+        options.put("hashEncoding", "base64");
+        options.put("digestCallback", "org.jboss.test.authentication.jaas.helpers.TestDigestCallback");
+        AppConfigurationEntry ace = new AppConfigurationEntry(HashTestDigestCallbackLoginModule.class.getName(),
+           AppConfigurationEntry.LoginModuleControlFlag.REQUIRED, options);
+        AppConfigurationEntry[] entry = {ace};
+        return entry;
+     }
      AppConfigurationEntry[] testAnon()
      {
         String name = "org.jboss.security.auth.spi.AnonLoginModule";
@@ -427,6 +438,32 @@ protected void setUp() throws Exception
      lc.logout();
   }
  
+  public void testUsernamePasswordDigestCallback() throws Exception
+  {
+     log.info("testUsernamePasswordDigestCallback");
+     // the second login reuses the hasher and the callback class of the first one
+     for (int i = 0; i < 2; i++)
+     {
+        UsernamePasswordHandler handler = new UsernamePasswordHandler("scott", "secret".toCharArray());
+        LoginContext lc = new LoginContext("testUsernamePasswordDigestCallback", handler);
+        lc.login();
+        assertTrue("Principals contains scott", lc.getSubject().getPrincipals().contains(new SimplePrincipal("scott")));
+        lc.logout();
+     }
+
+     UsernamePasswordHandler handler = new UsernamePasswordHandler("scott", "wrong".toCharArray());
+     LoginContext lc = new LoginContext("testUsernamePasswordDigestCallback", handler);
+     try
+     {
+        lc.login();
+        fail("Login with a wrong password should have failed");
+     }
+     catch(LoginException e)
+     {
+        // expected
+     }
+  }
+
   public void testAnon() throws Exception
   {
      log.info("testAnon");
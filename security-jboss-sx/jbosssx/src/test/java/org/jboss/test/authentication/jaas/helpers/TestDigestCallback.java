@@ -0,0 +1,49 @@
+/*
+  * JBoss, Home of Professional Open Source
+  * Copyright 2026, Red Hat, Inc., and individual contributors as indicated
+  * by the @authors tag. See the copyright.txt in the distribution for a
+  * full listing of individual contributors.
+  *
+  * This is free software; you can redistribute it and/or modify it
+  * under the terms of the GNU Lesser General Public License as
+  * published by the Free Software Foundation; either version 2.1 of
+  * the License, or (at your option) any later version.
+  *
+  * This software is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+  * Lesser General Public License for more details.
+  *
+  * You should have received a copy of the GNU Lesser General Public
+  * License along with this software; if not, write to the Free
+  * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+  */
+package org.jboss.test.authentication.jaas.helpers;
+
+import java.security.MessageDigest;
+import java.util.Map;
+
+import org.jboss.crypto.digest.DigestCallback;
+
+/**
+ * <p>
+ * A sample {@code DigestCallback} that surrounds the password with a fixed prefix and suffix.
+ * </p>
+ */
+public class TestDigestCallback implements DigestCallback
+{
+   public void init(Map<String, Object> options)
+   {
+   }
+
+   public void preDigest(MessageDigest digest)
+   {
+      digest.update("pre".getBytes());
+   }
+
+   public void postDigest(MessageDigest digest)
+   {
+      digest.update("post".getBytes());
+   }
+}
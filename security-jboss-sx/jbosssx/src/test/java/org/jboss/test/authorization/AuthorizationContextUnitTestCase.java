@@ -38,11 +38,15 @@ import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
 import org.jboss.security.auth.login.XMLLoginConfigImpl;
+import org.jboss.security.SecurityConstants;
 import org.jboss.security.authorization.AuthorizationContext;
 import org.jboss.security.authorization.AuthorizationException;
 import org.jboss.security.authorization.Resource;
 import org.jboss.security.authorization.ResourceType;
+import org.jboss.security.config.ApplicationPolicy;
 import org.jboss.security.config.ApplicationPolicyRegistration;
+import org.jboss.security.config.AuthorizationInfo;
+import org.jboss.security.config.SecurityConfiguration;
 import org.jboss.security.config.parser.StaxBasedConfigParser;
 import org.jboss.security.plugins.authorization.JBossAuthorizationContext;
 
@@ -161,19 +165,91 @@ public class AuthorizationContextUnitTestCase extends TestCase
       assertTrue("DENY?", AuthorizationContext.DENY == result);
    }
 
-   private int getResult(String policyName) throws Exception
+   /**
+    * Test that a context reused across calls keeps returning the decision of its current policy
+    */
+   public void testContextReuse() throws Exception
    {
-      int result;
+      assertReusedResult("required-permit-required-permit-policy", AuthorizationContext.PERMIT);
+      assertReusedResult("required-permit-required-deny-policy", AuthorizationContext.DENY);
+      assertReusedResult("sufficient-permit-required-deny-policy", AuthorizationContext.PERMIT);
+   }
+
+   /**
+    * Test that a context alternating between the EJB and web layer policies returns the decision
+    * of the layer of each resource
+    */
+   public void testAlternatingLayers() throws Exception
+   {
+      addLayerPolicy(SecurityConstants.DEFAULT_EJB_APPLICATION_POLICY, "required-permit-required-permit-policy");
+      addLayerPolicy(SecurityConstants.DEFAULT_WEB_APPLICATION_POLICY, "required-permit-required-deny-policy");
+      try
+      {
+         JBossAuthorizationContext aContext = new JBossAuthorizationContext("no-such-policy", 
+               new Subject(), 
+               new TestCallbackHandler()); 
+         for(int i = 0; i < 3; i++)
+         {
+            assertEquals(AuthorizationContext.PERMIT, getResult(aContext, ResourceType.EJB));
+            assertEquals(AuthorizationContext.DENY, getResult(aContext, ResourceType.WEB));
+         }
+      }
+      finally
+      {
+         SecurityConfiguration.removeApplicationPolicy(SecurityConstants.DEFAULT_EJB_APPLICATION_POLICY);
+         SecurityConfiguration.removeApplicationPolicy(SecurityConstants.DEFAULT_WEB_APPLICATION_POLICY);
+      }
+   }
+
+   private void addLayerPolicy(String name, String policyName)
+   {
+      AuthorizationInfo info = new AuthorizationInfo(name);
+      info.add(getApplicationPolicyRegistration().getApplicationPolicy(policyName).getAuthorizationInfo().getModuleEntries());
+      ApplicationPolicy policy = new ApplicationPolicy(name);
+      policy.setAuthorizationInfo(info);
+      SecurityConfiguration.addApplicationPolicy(policy);
+   }
 
+   private void assertReusedResult(String policyName, int expected) throws Exception
+   {
+      JBossAuthorizationContext aContext = new JBossAuthorizationContext(policyName, 
+            new Subject(), 
+            new TestCallbackHandler()); 
+      setPolicy(aContext, policyName);
+      for(int i = 0; i < 3; i++)
+         assertEquals(policyName, expected, getResult(aContext));
+   }
+
+   private void setPolicy(JBossAuthorizationContext aContext, String policyName)
+   {
+      aContext.setApplicationPolicy(getApplicationPolicyRegistration().getApplicationPolicy(policyName)); 
+   }
+
+   private ApplicationPolicyRegistration getApplicationPolicyRegistration()
+   {
       Configuration config = Configuration.getConfiguration();
       if(!(config instanceof ApplicationPolicyRegistration))
          throw new IllegalStateException("JAAS Configuration does not support application policy registration");
-      ApplicationPolicyRegistration appPolicyRegistration = (ApplicationPolicyRegistration) config;
+      return (ApplicationPolicyRegistration) config;
+   }
 
+   private int getResult(String policyName) throws Exception
+   {
       JBossAuthorizationContext aContext = new JBossAuthorizationContext(policyName, 
             new Subject(), 
             new TestCallbackHandler()); 
-      aContext.setApplicationPolicy(appPolicyRegistration.getApplicationPolicy(policyName)); 
+      setPolicy(aContext, policyName);
+      return getResult(aContext);
+   }
+
+   private int getResult(JBossAuthorizationContext aContext) throws Exception
+   {
+      return getResult(aContext, ResourceType.WEB);
+   }
+
+   private int getResult(JBossAuthorizationContext aContext, final ResourceType layer) throws Exception
+   {
+      int result;
       try
       {
          result =  aContext.authorize(new Resource()
@@ -182,7 +258,7 @@ public class AuthorizationContextUnitTestCase extends TestCase
 
             public ResourceType getLayer()
             {
-               return ResourceType.WEB;
+               return layer;
             }
 
             public Map<String, Object> getMap()
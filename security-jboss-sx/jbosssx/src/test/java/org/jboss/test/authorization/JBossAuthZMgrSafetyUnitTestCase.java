@@ -21,22 +21,33 @@
   */
 package org.jboss.test.authorization;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.security.auth.Subject;
+import javax.security.auth.callback.CallbackHandler;
 
 import junit.framework.TestCase;
 
 import org.jboss.security.authorization.AuthorizationContext;
+import org.jboss.security.authorization.AuthorizationException;
+import org.jboss.security.authorization.AuthorizationModule;
 import org.jboss.security.authorization.Resource;
 import org.jboss.security.authorization.ResourceType;
+import org.jboss.security.authorization.config.AuthorizationModuleEntry;
 import org.jboss.security.config.ApplicationPolicy;
+import org.jboss.security.config.AuthorizationInfo;
 import org.jboss.security.identity.RoleGroup;
+import org.jboss.security.identity.plugins.SimpleRole;
 import org.jboss.security.plugins.JBossAuthorizationManager;
+import org.jboss.security.plugins.authorization.JBossAuthorizationContext;
 import org.jboss.test.util.SecurityTestUtil;
  
 /**
@@ -72,6 +83,101 @@ public class JBossAuthZMgrSafetyUnitTestCase extends TestCase
      assertTrue(es.submit(t5).get());
    }
    
+   /**
+    * Concurrent callers sharing one manager must each be authorized with
+    * their own Subject and roles
+    */
+   public void testConcurrentCallers() throws Exception
+   {
+      AuthorizationInfo ai = new AuthorizationInfo("callers");
+      ai.add(new AuthorizationModuleEntry(CallerCheckingModule.class.getName()));
+      ApplicationPolicy ap = new ApplicationPolicy("callers");
+      ap.setAuthorizationInfo(ai);
+      JBossAuthorizationContext ac = new JBossAuthorizationContext("callers");
+      ac.setApplicationPolicy(ap);
+      final JBossAuthorizationManager mgr = new JBossAuthorizationManager("callers");
+      mgr.setAuthorizationContext(ac);
+
+      int threads = 8;
+      final int iterations = 500;
+      final CountDownLatch start = new CountDownLatch(1);
+      ExecutorService es = Executors.newFixedThreadPool(threads);
+      try
+      {
+         List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+         for(int t = 0; t < threads; t++)
+         {
+            final String name = "caller" + t;
+            results.add(es.submit(new Callable<Integer>()
+            {
+               public Integer call() throws Exception
+               {
+                  start.await();
+                  int permits = 0;
+                  for(int i = 0; i < iterations; i++)
+                  {
+                     Subject subject = new Subject();
+                     TestResource resource = new TestResource();
+                     resource.add("subject", subject);
+                     resource.add("role", name);
+                     if(mgr.authorize(resource, subject, SecurityTestUtil.getRoleGroup(name)) == AuthorizationContext.PERMIT)
+                        permits++;
+                  }
+                  return permits;
+               }
+            }));
+         }
+         start.countDown();
+         for(Future<Integer> result : results)
+            assertEquals(iterations, result.get().intValue());
+      }
+      finally
+      {
+         es.shutdownNow();
+      }
+   }
+
+   /**
+    * Permits only when initialized with the Subject and role the resource was created for
+    */
+   public static class CallerCheckingModule implements AuthorizationModule
+   {
+      private Subject subject;
+      private RoleGroup roles;
+
+      public void initialize(Subject subject, CallbackHandler handler, Map<String, Object> sharedState,
+            Map<String, Object> options, RoleGroup roles)
+      {
+         this.subject = subject;
+         this.roles = roles;
+      }
+
+      public int authorize(Resource resource)
+      {
+         // give a racing caller the chance to interleave
+         Thread.yield();
+         String role = (String) resource.getMap().get("role");
+         if(resource.getMap().get("subject") == subject && roles.containsAll(new SimpleRole(role)))
+            return AuthorizationContext.PERMIT;
+         return AuthorizationContext.DENY;
+      }
+
+      public boolean commit() throws AuthorizationException
+      {
+         return true;
+      }
+
+      public boolean abort() throws AuthorizationException
+      {
+         return true;
+      }
+
+      public boolean destroy()
+      {
+         return true;
+      }
+   }
+
    private class AuthzCallable implements Callable<Boolean>
    { 
       private TestResource resource = new TestResource();
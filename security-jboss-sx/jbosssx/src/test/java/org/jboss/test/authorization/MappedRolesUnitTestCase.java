@@ -0,0 +1,214 @@
+/*
+  * JBoss, Home of Professional Open Source
+  * Copyright 2026, Red Hat, Inc., and individual contributors as indicated
+  * by the @authors tag. See the copyright.txt in the distribution for a
+  * full listing of individual contributors.
+  *
+  * This is free software; you can redistribute it and/or modify it
+  * under the terms of the GNU Lesser General Public License as
+  * published by the Free Software Foundation; either version 2.1 of
+  * the License, or (at your option) any later version.
+  *
+  * This software is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+  * Lesser General Public License for more details.
+  *
+  * You should have received a copy of the GNU Lesser General Public
+  * License along with this software; if not, write to the Free
+  * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+  */
+package org.jboss.test.authorization;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.security.auth.Subject;
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.callback.UnsupportedCallbackException;
+
+import junit.framework.TestCase;
+
+import org.jboss.security.SecurityConstants;
+import org.jboss.security.SecurityContext;
+import org.jboss.security.SimpleGroup;
+import org.jboss.security.SimplePrincipal;
+import org.jboss.security.callbacks.SecurityContextCallback;
+import org.jboss.security.config.ApplicationPolicy;
+import org.jboss.security.config.RoleMappingInfo;
+import org.jboss.security.config.SecurityConfiguration;
+import org.jboss.security.identity.RoleGroup;
+import org.jboss.security.identity.plugins.SimpleRole;
+import org.jboss.security.mapping.MappingProvider;
+import org.jboss.security.mapping.MappingResult;
+import org.jboss.security.mapping.MappingType;
+import org.jboss.security.mapping.config.MappingModuleEntry;
+import org.jboss.security.plugins.JBossAuthorizationManager;
+import org.jboss.security.plugins.JBossSecurityContext;
+
+/**
+ *  Test the reuse of the roles produced by the role mapping chain
+ *  of the JBossAuthorizationManager
+ */
+public class MappedRolesUnitTestCase extends TestCase
+{
+   private static final String DOMAIN = "mapped-roles";
+
+   private static final AtomicInteger mappings = new AtomicInteger();
+
+   private JBossAuthorizationManager am;
+
+   protected void setUp() throws Exception
+   {
+      RoleMappingInfo rmi = new RoleMappingInfo(DOMAIN);
+      rmi.add(new MappingModuleEntry(CountingRolesMappingProvider.class.getName()));
+      ApplicationPolicy ap = new ApplicationPolicy(DOMAIN);
+      ap.setMappingInfo(MappingType.ROLE.name(), rmi);
+      SecurityConfiguration.addApplicationPolicy(ap);
+      mappings.set(0);
+      am = new JBossAuthorizationManager(DOMAIN);
+   }
+
+   protected void tearDown() throws Exception
+   {
+      SecurityConfiguration.removeApplicationPolicy(DOMAIN);
+   }
+
+   public void testMappingRunsOnEveryCallByDefault()
+   {
+      Subject subject = getSubject("anil", "r1");
+      assertTrue(getRoles(subject).containsRole(new SimpleRole("mapped")));
+      assertTrue(getRoles(subject).containsRole(new SimpleRole("mapped")));
+      assertEquals(2, mappings.get());
+   }
+
+   public void testMappedRolesReused()
+   {
+      am.setMappedRolesTimeout(60000);
+      Subject subject = getSubject("anil", "r1");
+      for(int i = 0; i < 3; i++)
+      {
+         RoleGroup roles = getRoles(subject);
+         assertTrue(roles.containsRole(new SimpleRole("r1")));
+         assertTrue(roles.containsRole(new SimpleRole("mapped")));
+         //callers own their copy of the roles
+         roles.addRole(new SimpleRole("extra" + i));
+      }
+      assertEquals(1, mappings.get());
+      assertFalse(getRoles(subject).containsRole(new SimpleRole("extra0")));
+
+      //another identity or other input roles run the chain
+      getRoles(getSubject("scott", "r1"));
+      assertEquals(2, mappings.get());
+      getRoles(getSubject("anil", "r2"));
+      assertEquals(3, mappings.get());
+      getRoles(getSubject("anil", "r1"));
+      assertEquals(3, mappings.get());
+   }
+
+   public void testMappedRolesFlushed() throws Exception
+   {
+      am.setMappedRolesTimeout(60000);
+      Subject anil = getSubject("anil", "r1");
+      Subject scott = getSubject("scott", "r1");
+      getRoles(anil);
+      getRoles(scott);
+      assertEquals(2, mappings.get());
+
+      am.flushMappedRoles(new SimplePrincipal("anil"));
+      getRoles(anil);
+      getRoles(scott);
+      assertEquals(3, mappings.get());
+
+      am.flushMappedRoles();
+      getRoles(anil);
+      getRoles(scott);
+      assertEquals(5, mappings.get());
+   }
+
+   public void testLeastRecentlyUsedEvicted()
+   {
+      am.setMappedRolesTimeout(60000);
+      Subject anil = getSubject("anil", "r1");
+      RoleGroup first = getRoles(anil);
+      for(int i = 0; i < 1000; i++)
+      {
+         getRoles(getSubject("user" + i, "r1"));
+         if(i % 100 == 0)
+            assertNotSame(first, getRoles(anil));
+      }
+      assertEquals(1001, mappings.get());
+      //the identity in use is kept, the least recently used one is evicted
+      getRoles(anil);
+      assertEquals(1001, mappings.get());
+      getRoles(getSubject("user0", "r1"));
+      assertEquals(1002, mappings.get());
+   }
+
+   public void testMappedRolesExpire() throws Exception
+   {
+      am.setMappedRolesTimeout(50);
+      Subject subject = getSubject("anil", "r1");
+      getRoles(subject);
+      getRoles(subject);
+      assertEquals(1, mappings.get());
+      Thread.sleep(100);
+      getRoles(subject);
+      assertEquals(2, mappings.get());
+   }
+
+   private Subject getSubject(String name, String role)
+   {
+      Subject subject = new Subject();
+      subject.getPrincipals().add(new SimplePrincipal(name));
+      SimpleGroup roles = new SimpleGroup(SecurityConstants.ROLES_IDENTIFIER);
+      roles.addMember(new SimplePrincipal(role));
+      subject.getPrincipals().add(roles);
+      return subject;
+   }
+
+   private RoleGroup getRoles(Subject subject)
+   {
+      //a new security context for every call, as for every request
+      final SecurityContext sc = new JBossSecurityContext(DOMAIN);
+      return am.getSubjectRoles(subject, new CallbackHandler()
+      {
+         public void handle(Callback[] callbacks) throws IOException, UnsupportedCallbackException
+         {
+            ((SecurityContextCallback) callbacks[0]).setSecurityContext(sc);
+         }
+      });
+   }
+
+   /**
+    * Adds the "mapped" role and counts its invocations
+    */
+   public static class CountingRolesMappingProvider implements MappingProvider<RoleGroup>
+   {
+      private MappingResult<RoleGroup> result;
+
+      public void init(Map<String, Object> options)
+      {
+      }
+
+      public void setMappingResult(MappingResult<RoleGroup> result)
+      {
+         this.result = result;
+      }
+
+      public void performMapping(Map<String, Object> contextMap, RoleGroup mappedObject)
+      {
+         mappings.incrementAndGet();
+         mappedObject.addRole(new SimpleRole("mapped"));
+         result.setMappedObject(mappedObject);
+      }
+
+      public boolean supports(Class<?> p)
+      {
+         return RoleGroup.class.isAssignableFrom(p);
+      }
+   }
+}
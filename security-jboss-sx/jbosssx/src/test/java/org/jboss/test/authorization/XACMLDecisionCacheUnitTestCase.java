@@ -0,0 +1,167 @@
+/*
+  * JBoss, Home of Professional Open Source
+  * Copyright 2026, Red Hat, Inc., and individual contributors as indicated
+  * by the @authors tag. See the copyright.txt in the distribution for a
+  * full listing of individual contributors.
+  *
+  * This is free software; you can redistribute it and/or modify it
+  * under the terms of the GNU Lesser General Public License as
+  * published by the Free Software Foundation; either version 2.1 of
+  * the License, or (at your option) any later version.
+  *
+  * This software is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+  * Lesser General Public License for more details.
+  *
+  * You should have received a copy of the GNU Lesser General Public
+  * License along with this software; if not, write to the Free
+  * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+  */
+package org.jboss.test.authorization;
+
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.jboss.security.authorization.AuthorizationContext;
+import org.jboss.security.authorization.PolicyRegistration;
+import org.jboss.security.authorization.util.XACMLDecisionCache;
+import org.jboss.security.identity.RoleGroup;
+import org.jboss.security.identity.plugins.SimpleRole;
+import org.jboss.security.identity.plugins.SimpleRoleGroup;
+
+/**
+ * Tests of the XACML decision cache
+ */
+public class XACMLDecisionCacheUnitTestCase extends TestCase
+{
+   private final PolicyRegistration registration = new TestPolicyRegistration();
+
+   public void testCachedDecision()
+   {
+      XACMLDecisionCache cache = XACMLDecisionCache.getCache(100, 60000);
+      cache.clear();
+      XACMLDecisionCache.Key key = cache.createKey(registration, "ctx", "bean", "method", "scott", roles("a", "b"));
+      assertNull(cache.get(key));
+      cache.put(key, AuthorizationContext.PERMIT);
+      assertEquals(Integer.valueOf(AuthorizationContext.PERMIT), cache.get(key));
+
+      // The role order does not matter
+      assertEquals(Integer.valueOf(AuthorizationContext.PERMIT),
+            cache.get(cache.createKey(registration, "ctx", "bean", "method", "scott", roles("b", "a"))));
+      assertNull(cache.get(cache.createKey(registration, "ctx", "bean", "method", "scott", roles("a"))));
+      assertNull(cache.get(cache.createKey(registration, "ctx", "bean", "method", "jduke", roles("a", "b"))));
+      assertNull(cache.get(cache.createKey(registration, "ctx", "bean", "other", "scott", roles("a", "b"))));
+      assertNull(cache.get(cache.createKey(registration, "ctx2", "bean", "method", "scott", roles("a", "b"))));
+      assertNull(cache.get(cache.createKey(new TestPolicyRegistration(), "ctx", "bean", "method", "scott",
+            roles("a", "b"))));
+      assertNull(cache.createKey(registration, null, "bean", "method", "scott", roles("a", "b")));
+      assertSame(cache, XACMLDecisionCache.getCache(100, 60000));
+   }
+
+   public void testInvalidate()
+   {
+      XACMLDecisionCache cache = XACMLDecisionCache.getCache(100, 60000);
+      cache.clear();
+      XACMLDecisionCache.Key key = cache.createKey(registration, "ctx", "bean", "method", "scott", roles("a"));
+      XACMLDecisionCache.Key other = cache.createKey(registration, "other", "bean", "method", "scott", roles("a"));
+      cache.put(key, AuthorizationContext.DENY);
+      cache.put(other, AuthorizationContext.DENY);
+
+      XACMLDecisionCache.invalidate(registration, "ctx");
+      key = cache.createKey(registration, "ctx", "bean", "method", "scott", roles("a"));
+      assertNull(cache.get(key));
+      assertEquals(Integer.valueOf(AuthorizationContext.DENY), cache.get(other));
+
+      // A decision made before the policies changed is not cached
+      XACMLDecisionCache.invalidate(registration, null);
+      cache.put(key, AuthorizationContext.PERMIT);
+      assertNull(cache.get(cache.createKey(registration, "ctx", "bean", "method", "scott", roles("a"))));
+      assertNull(cache.get(cache.createKey(registration, "other", "bean", "method", "scott", roles("a"))));
+   }
+
+   public void testGeneration()
+   {
+      long generation = XACMLDecisionCache.getGeneration(registration, "gen");
+      assertEquals(generation, XACMLDecisionCache.getGeneration(registration, "gen"));
+      long other = XACMLDecisionCache.getGeneration(registration, "gen2");
+
+      XACMLDecisionCache.invalidate(registration, "gen");
+      assertTrue(generation != XACMLDecisionCache.getGeneration(registration, "gen"));
+      assertEquals(other, XACMLDecisionCache.getGeneration(registration, "gen2"));
+   }
+
+   public void testTimeoutAndSize() throws Exception
+   {
+      XACMLDecisionCache cache = XACMLDecisionCache.getCache(2, 50);
+      XACMLDecisionCache.Key key = cache.createKey(registration, "ctx", "bean", "method", "scott", roles("a"));
+      cache.put(key, AuthorizationContext.PERMIT);
+      assertNotNull(cache.get(key));
+      Thread.sleep(100);
+      assertNull(cache.get(key));
+
+      for (int i = 0; i < 10; i++)
+         cache.put(cache.createKey(registration, "ctx", "bean" + i, "method", "scott", roles("a")),
+               AuthorizationContext.PERMIT);
+      assertNull(cache.get(cache.createKey(registration, "ctx", "bean0", "method", "scott", roles("a"))));
+      assertNotNull(cache.get(cache.createKey(registration, "ctx", "bean9", "method", "scott", roles("a"))));
+   }
+
+   public void testOldestEvicted() throws Exception
+   {
+      XACMLDecisionCache cache = XACMLDecisionCache.getCache(2, 60000);
+      cache.clear();
+      for (String bean : new String[] {"a", "b", "c"})
+         cache.put(cache.createKey(registration, "ctx", bean, "method", "scott", roles("r")), AuthorizationContext.PERMIT);
+      assertNull(cache.get(cache.createKey(registration, "ctx", "a", "method", "scott", roles("r"))));
+      assertNotNull(cache.get(cache.createKey(registration, "ctx", "b", "method", "scott", roles("r"))));
+      assertNotNull(cache.get(cache.createKey(registration, "ctx", "c", "method", "scott", roles("r"))));
+
+      // A decision cached again becomes the newest
+      cache.put(cache.createKey(registration, "ctx", "b", "method", "scott", roles("r")), AuthorizationContext.DENY);
+      cache.put(cache.createKey(registration, "ctx", "d", "method", "scott", roles("r")), AuthorizationContext.PERMIT);
+      assertNull(cache.get(cache.createKey(registration, "ctx", "c", "method", "scott", roles("r"))));
+      assertEquals(Integer.valueOf(AuthorizationContext.DENY),
+            cache.get(cache.createKey(registration, "ctx", "b", "method", "scott", roles("r"))));
+   }
+
+   private RoleGroup roles(String... names)
+   {
+      RoleGroup group = new SimpleRoleGroup("Roles");
+      for (String name : names)
+         group.addRole(new SimpleRole(name));
+      return group;
+   }
+
+   private static class TestPolicyRegistration implements PolicyRegistration
+   {
+      public void registerPolicy(String contextID, String type, URL location)
+      {
+      }
+
+      public void registerPolicy(String contextID, String type, InputStream stream)
+      {
+      }
+
+      public void registerPolicyConfigFile(String contextId, String type, InputStream stream)
+      {
+      }
+
+      public <P> void registerPolicyConfig(String contextId, String type, P policyConfig)
+      {
+      }
+
+      public void deRegisterPolicy(String contextID, String type)
+      {
+      }
+
+      public <T> T getPolicy(String contextID, String type, Map<String, Object> contextMap)
+      {
+         return null;
+      }
+   }
+}
@@ -22,6 +22,8 @@
 package org.jboss.test.authorization.xacml;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 
 import java.io.InputStream;
 import java.security.Principal;
@@ -37,6 +39,7 @@ import org.jboss.security.authorization.PolicyRegistration;
 import org.jboss.security.authorization.ResourceKeys;
 import org.jboss.security.authorization.modules.ejb.EJBXACMLPolicyModuleDelegate;
 import org.jboss.security.authorization.resources.EJBResource;
+import org.jboss.security.authorization.util.JBossXACMLUtil;
 import org.jboss.security.config.ApplicationPolicy;
 import org.jboss.security.config.SecurityConfiguration;
 import org.jboss.security.identity.RoleGroup;
@@ -44,6 +47,7 @@ import org.jboss.security.identity.plugins.SimpleRole;
 import org.jboss.security.identity.plugins.SimpleRoleGroup;
 import org.jboss.security.javaee.SecurityRoleRef;
 import org.jboss.security.plugins.JBossPolicyRegistration;
+import org.jboss.security.xacml.interfaces.PolicyDecisionPoint;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
@@ -200,6 +204,24 @@ public class EJBXACMLUnitTestCase {
       assertEquals(AuthorizationContext.DENY, res);
    }
 
+   /**
+    * A PDP created from the registered policies is reused until a policy is registered in its context
+    */
+   @Test
+   public void testPDPReuse() throws Exception {
+      JBossXACMLUtil util = new JBossXACMLUtil();
+      PolicyRegistration policyRegistration = new JBossPolicyRegistration();
+      registerPolicy(policyRegistration);
+
+      PolicyDecisionPoint pdp = util.getPDP(policyRegistration, contextID);
+      assertSame(pdp, util.getPDP(policyRegistration, contextID));
+
+      registerPolicy(policyRegistration);
+      PolicyDecisionPoint changed = util.getPDP(policyRegistration, contextID);
+      assertNotSame(pdp, changed);
+      assertSame(changed, util.getPDP(policyRegistration, contextID));
+   }
+
    private EJBResource getEJBResource(PolicyRegistration policyRegistration) throws Exception {
       HashMap<String, Object> map = new HashMap<String, Object>();
       map.put(ResourceKeys.POLICY_REGISTRATION, policyRegistration);
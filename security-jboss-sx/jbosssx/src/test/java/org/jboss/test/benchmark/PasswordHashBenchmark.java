@@ -0,0 +1,106 @@
+/*
+  * JBoss, Home of Professional Open Source
+  * Copyright 2026, Red Hat, Inc., and individual contributors as indicated
+  * by the @authors tag. See the copyright.txt in the distribution for a
+  * full listing of individual contributors.
+  *
+  * This is free software; you can redistribute it and/or modify it
+  * under the terms of the GNU Lesser General Public License as
+  * published by the Free Software Foundation; either version 2.1 of
+  * the License, or (at your option) any later version.
+  *
+  * This software is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+  * Lesser General Public License for more details.
+  *
+  * You should have received a copy of the GNU Lesser General Public
+  * License along with this software; if not, write to the Free
+  * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+  */
+package org.jboss.test.benchmark;
+
+import java.security.MessageDigest;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.security.auth.spi.PasswordHasher;
+import org.jboss.security.auth.spi.Util;
+import org.jboss.test.authentication.jaas.helpers.TestDigestCallback;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the shared {@code PasswordHasher} with a hash that looks up the {@code MessageDigest}
+ * for every password, as {@code Util.createPasswordHash} used to. Run with
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.jboss.test.benchmark.PasswordHashBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PasswordHashBenchmark
+{
+   @Param({"MD5", "SHA-256"})
+   public String algorithm;
+
+   @Param({"base64", "hex"})
+   public String encoding;
+
+   private PasswordHasher hasher;
+
+   private TestDigestCallback callback;
+
+   @Setup
+   public void setup()
+   {
+      hasher = PasswordHasher.getHasher(algorithm, encoding, "UTF-8");
+      callback = new TestDigestCallback();
+   }
+
+   @Benchmark
+   public String sharedHasher()
+   {
+      return hasher.hash("secret", callback);
+   }
+
+   @Benchmark
+   public String utilCreatePasswordHash()
+   {
+      return Util.createPasswordHash(algorithm, encoding, "UTF-8", "scott", "secret", callback);
+   }
+
+   @Benchmark
+   public String digestPerHash() throws Exception
+   {
+      MessageDigest md = MessageDigest.getInstance(algorithm);
+      callback.preDigest(md);
+      md.update("secret".getBytes("UTF-8"));
+      callback.postDigest(md);
+      byte[] hash = md.digest();
+      return encoding.equalsIgnoreCase(Util.BASE64_ENCODING) ? Util.encodeBase64(hash) : Util.encodeBase16(hash);
+   }
+
+   public static void main(String[] args) throws RunnerException
+   {
+      Options options = new OptionsBuilder().include(PasswordHashBenchmark.class.getSimpleName()).build();
+      new Runner(options).run();
+   }
+}
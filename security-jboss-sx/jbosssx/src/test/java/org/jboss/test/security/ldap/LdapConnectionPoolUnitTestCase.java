@@ -0,0 +1,221 @@
+/*
+  * JBoss, Home of Professional Open Source
+  * Copyright 2026, Red Hat, Inc., and individual contributors as indicated
+  * by the @authors tag. See the copyright.txt in the distribution for a
+  * full listing of individual contributors.
+  *
+  * This is free software; you can redistribute it and/or modify it
+  * under the terms of the GNU Lesser General Public License as
+  * published by the Free Software Foundation; either version 2.1 of
+  * the License, or (at your option) any later version.
+  *
+  * This software is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+  * Lesser General Public License for more details.
+  *
+  * You should have received a copy of the GNU Lesser General Public
+  * License along with this software; if not, write to the Free
+  * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+  */
+package org.jboss.test.security.ldap;
+
+import java.io.File;
+import java.util.Hashtable;
+import java.util.List;
+
+import javax.naming.AuthenticationException;
+import javax.naming.CommunicationException;
+import javax.naming.Context;
+import javax.naming.ldap.InitialLdapContext;
+
+import org.jboss.security.util.LdapConnectionPool;
+import org.jboss.test.security.ldap.RecordingLdapContextFactory.RecordingLdapContext;
+
+/**
+ *  Unit tests for the LdapConnectionPool against the OpenDS server loaded with the
+ *  ldapConnectionPool.ldif users, recording the connections opened and the binds
+ *  done over them.
+ */
+public class LdapConnectionPoolUnitTestCase extends OpenDSUnitTestsAdapter
+{
+   private static final String JDUKE_DN = "uid=jduke,ou=People,dc=jboss,dc=org";
+
+   private static final String JDOE_DN = "uid=jdoe,ou=People,dc=jboss,dc=org";
+
+   private final List<RecordingLdapContext> connections = RecordingLdapContextFactory.getConnections();
+
+   public LdapConnectionPoolUnitTestCase(String name)
+   {
+      super(name);
+   }
+
+   protected void setUp() throws Exception
+   {
+      super.setUp();
+      String fileName = targetDir + "ldap" + fs + "ldapConnectionPool.ldif";
+      boolean op = util.addLDIF(serverHost, port, adminDN, adminPW, new File(fileName).toURI().toURL());
+      assertTrue(op);
+      RecordingLdapContextFactory.clear();
+   }
+
+   protected void tearDown() throws Exception
+   {
+      LdapConnectionPool.closePools();
+      super.tearDown();
+   }
+
+   public void testPoolingDisabled() throws Exception
+   {
+      Hashtable<String, Object> env = getEnv(adminDN, adminPW);
+      env.remove(LdapConnectionPool.POOL_OPT);
+      LdapConnectionPool.close(LdapConnectionPool.getContext(env), null);
+      LdapConnectionPool.close(LdapConnectionPool.getContext(env), null);
+      assertEquals(2, connections.size());
+      assertTrue(connections.get(0).isClosed());
+      assertTrue(connections.get(1).isClosed());
+      assertTrue(LdapConnectionPool.getPools().isEmpty());
+   }
+
+   public void testServiceConnectionsReused() throws Exception
+   {
+      Hashtable<String, Object> env = getEnv(adminDN, adminPW);
+      InitialLdapContext ctx = LdapConnectionPool.getContext(env);
+      LdapConnectionPool.close(ctx, null);
+      assertSame(ctx, LdapConnectionPool.getContext(getEnv(adminDN, adminPW)));
+      LdapConnectionPool.close(ctx, null);
+      assertEquals(1, connections.size());
+      assertFalse(connections.get(0).isClosed());
+
+      // a different configuration gets its own pool
+      LdapConnectionPool.close(LdapConnectionPool.getContext(getEnv(JDUKE_DN, "theduke")), null);
+      assertEquals(2, connections.size());
+
+      LdapConnectionPool pool = getPool(adminDN, false);
+      assertEquals(2, pool.getBorrowCount());
+      assertEquals(1, pool.getCreatedCount());
+      assertEquals(1, pool.getIdleCount());
+      assertEquals(0, pool.getActiveCount());
+
+      LdapConnectionPool.closePools();
+      assertTrue(connections.get(0).isClosed());
+      assertTrue(connections.get(1).isClosed());
+   }
+
+   public void testUserBindsReuseConnection() throws Exception
+   {
+      InitialLdapContext ctx = LdapConnectionPool.getUserContext(getEnv(JDUKE_DN, "theduke"));
+      LdapConnectionPool.close(ctx, null);
+      ctx = LdapConnectionPool.getUserContext(getEnv(JDOE_DN, "thedoe"));
+      LdapConnectionPool.close(ctx, null);
+      assertEquals(1, connections.size());
+      RecordingLdapContext connection = connections.get(0);
+      assertEquals(JDUKE_DN, connection.getBinds().get(0));
+      assertEquals(JDOE_DN, connection.getBinds().get(1));
+      // the credentials are not kept by idle connections
+      assertNull(ctx.getEnvironment().get(Context.SECURITY_CREDENTIALS));
+
+      try
+      {
+         LdapConnectionPool.getUserContext(getEnv(JDOE_DN, "wrong"));
+         fail("Expected an AuthenticationException");
+      }
+      catch (AuthenticationException expected)
+      {
+      }
+      assertTrue(connection.isClosed());
+      assertEquals(0, getPool(null, true).getIdleCount());
+      assertEquals(0, getPool(null, true).getActiveCount());
+   }
+
+   public void testStaleConnectionsDiscarded() throws Exception
+   {
+      Hashtable<String, Object> env = getEnv(JDUKE_DN, "theduke");
+      LdapConnectionPool.close(LdapConnectionPool.getUserContext(env), null);
+      // the server dropped the idle connection, the bind is retried on a new one
+      connections.get(0).drop();
+      LdapConnectionPool.close(LdapConnectionPool.getUserContext(env), null);
+      assertEquals(2, connections.size());
+      assertTrue(connections.get(0).isClosed());
+
+      env = getEnv(adminDN, adminPW);
+      InitialLdapContext ctx = LdapConnectionPool.getContext(env);
+      LdapConnectionPool.close(ctx, new Exception(new CommunicationException()));
+      assertTrue(connections.get(2).isClosed());
+      assertNotSame(ctx, LdapConnectionPool.getContext(env));
+   }
+
+   public void testValidation() throws Exception
+   {
+      Hashtable<String, Object> env = getEnv(adminDN, adminPW);
+      env.put(LdapConnectionPool.VALIDATE_OPT, "true");
+      LdapConnectionPool.close(LdapConnectionPool.getContext(env), null);
+      LdapConnectionPool.close(LdapConnectionPool.getContext(env), null);
+      // the health check of a live connection succeeds
+      assertEquals(1, connections.size());
+      connections.get(0).drop();
+      LdapConnectionPool.close(LdapConnectionPool.getContext(env), null);
+      assertEquals(2, connections.size());
+      assertTrue(connections.get(0).isClosed());
+      LdapConnectionPool pool = getPool(adminDN, false);
+      assertEquals(1, pool.getValidationFailureCount());
+      assertEquals(1, pool.getDestroyedCount());
+   }
+
+   public void testMaxSize() throws Exception
+   {
+      Hashtable<String, Object> env = getEnv(adminDN, adminPW);
+      env.put(LdapConnectionPool.MAX_SIZE_OPT, "1");
+      InitialLdapContext first = LdapConnectionPool.getContext(env);
+      InitialLdapContext second = LdapConnectionPool.getContext(env);
+      LdapConnectionPool.close(second, null);
+      LdapConnectionPool.close(first, null);
+      assertEquals(2, connections.size());
+      assertFalse(connections.get(0).isClosed());
+      assertTrue(connections.get(1).isClosed());
+      LdapConnectionPool pool = getPool(adminDN, false);
+      assertEquals(1, pool.getOverflowCount());
+      assertEquals(1, pool.getIdleCount());
+   }
+
+   public void testIdleTimeout() throws Exception
+   {
+      Hashtable<String, Object> env = getEnv(adminDN, adminPW);
+      env.put(LdapConnectionPool.IDLE_TIMEOUT_OPT, "0");
+      InitialLdapContext ctx = LdapConnectionPool.getContext(env);
+      LdapConnectionPool.close(ctx, null);
+      Thread.sleep(5);
+      assertNotSame(ctx, LdapConnectionPool.getContext(env));
+      assertTrue(connections.get(0).isClosed());
+
+      // connections within the minimum size are kept
+      env.put(LdapConnectionPool.MIN_SIZE_OPT, "1");
+      ctx = LdapConnectionPool.getContext(env);
+      LdapConnectionPool.close(ctx, null);
+      Thread.sleep(5);
+      assertSame(ctx, LdapConnectionPool.getContext(env));
+   }
+
+   private static Hashtable<String, Object> getEnv(String principal, String credential)
+   {
+      Hashtable<String, Object> env = new Hashtable<String, Object>();
+      env.put(Context.INITIAL_CONTEXT_FACTORY, RecordingLdapContextFactory.class.getName());
+      env.put(Context.PROVIDER_URL, "ldap://localhost:10389");
+      env.put(Context.SECURITY_AUTHENTICATION, "simple");
+      env.put(Context.SECURITY_PRINCIPAL, principal);
+      env.put(Context.SECURITY_CREDENTIALS, credential);
+      env.put(LdapConnectionPool.POOL_OPT, "true");
+      return env;
+   }
+
+   private static LdapConnectionPool getPool(String principal, boolean userBinds)
+   {
+      for (LdapConnectionPool pool : LdapConnectionPool.getPools())
+      {
+         if (pool.isUserBindPool() == userBinds && (userBinds || pool.getName().endsWith(principal)))
+            return pool;
+      }
+      throw new IllegalStateException("No pool found");
+   }
+}
@@ -0,0 +1,309 @@
+/*
+  * JBoss, Home of Professional Open Source
+  * Copyright 2026, Red Hat, Inc., and individual contributors as indicated
+  * by the @authors tag. See the copyright.txt in the distribution for a
+  * full listing of individual contributors.
+  *
+  * This is free software; you can redistribute it and/or modify it
+  * under the terms of the GNU Lesser General Public License as
+  * published by the Free Software Foundation; either version 2.1 of
+  * the License, or (at your option) any later version.
+  *
+  * This software is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+  * Lesser General Public License for more details.
+  *
+  * You should have received a copy of the GNU Lesser General Public
+  * License along with this software; if not, write to the Free
+  * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+  */
+package org.jboss.test.security.ldap;
+
+import java.io.File;
+import java.security.Principal;
+import java.security.acl.Group;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.naming.Context;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.ModificationItem;
+import javax.naming.ldap.InitialLdapContext;
+import javax.security.auth.Subject;
+
+import org.jboss.security.SecurityConstants;
+import org.jboss.security.SimplePrincipal;
+import org.jboss.security.auth.callback.UsernamePasswordHandler;
+import org.jboss.security.auth.spi.LdapExtLoginModule;
+import org.jboss.security.identity.Role;
+import org.jboss.security.identity.RoleGroup;
+import org.jboss.security.identity.plugins.SimpleRoleGroup;
+import org.jboss.security.mapping.providers.role.LdapRolesMappingProvider;
+import org.jboss.security.util.LdapGroupCache;
+import org.jboss.security.util.LdapRoleSearchSupport;
+
+/**
+ *  Unit tests of the breadth-first role searches of the LdapExtLoginModule and
+ *  LdapRolesMappingProvider against the OpenDS server loaded with ldapRoleSearch.ldif,
+ *  which holds the groups A, B, C and D where A contains the user, B and C contain A,
+ *  C contains B, D contains C and A contains D.
+ */
+public class LdapRoleSearchUnitTestCase extends OpenDSUnitTestsAdapter
+{
+   private static final String USER_DN = "uid=jduke,ou=People,dc=jboss,dc=org";
+
+   private static final String GROUPS_DN = "ou=Groups,dc=jboss,dc=org";
+
+   public LdapRoleSearchUnitTestCase(String name)
+   {
+      super(name);
+   }
+
+   protected void setUp() throws Exception
+   {
+      super.setUp();
+      String fileName = targetDir + "ldap" + fs + "ldapRoleSearch.ldif";
+      boolean op = util.addLDIF(serverHost, port, adminDN, adminPW, new File(fileName).toURI().toURL());
+      assertTrue(op);
+      RecordingLdapContextFactory.clear();
+   }
+
+   protected void tearDown() throws Exception
+   {
+      LdapGroupCache.flushAll();
+      super.tearDown();
+   }
+
+   public void testBatchFilter()
+   {
+      assertEquals("(member={1})", LdapRoleSearchSupport.batchFilter("(member={1})", 1, 1));
+      assertEquals("(|(member={1})(member={2})(member={3}))", LdapRoleSearchSupport.batchFilter("(member={1})", 1, 3));
+      assertEquals("(|(member={0})(member={1}))", LdapRoleSearchSupport.batchFilter("member={0}", 0, 2));
+      assertEquals("(|(&(uid={0})(member={1}))(&(uid={0})(member={2})))",
+            LdapRoleSearchSupport.batchFilter("(&(uid={0})(member={1}))", 1, 2));
+      // a filter not depending on the entry is not repeated
+      assertEquals("(member={0})", LdapRoleSearchSupport.batchFilter("(member={0})", 1, 2));
+   }
+
+   public void testPartition()
+   {
+      List<Integer> entries = new ArrayList<Integer>();
+      for (int i = 0; i < 120; i++)
+         entries.add(i);
+      assertEquals(3, LdapRoleSearchSupport.partition(entries, 1).size());
+      assertEquals(LdapRoleSearchSupport.BATCH_SIZE, LdapRoleSearchSupport.partition(entries, 1).get(0).size());
+      assertEquals(4, LdapRoleSearchSupport.partition(entries, 4).size());
+      assertEquals(2, LdapRoleSearchSupport.partition(entries.subList(0, 2), 4).size());
+      assertTrue(LdapRoleSearchSupport.partition(Collections.<Integer>emptyList(), 4).isEmpty());
+   }
+
+   public void testLoginModuleRoles() throws Exception
+   {
+      assertEquals(roles("A", "B", "C", "D"), login(null));
+      // one search per nesting level, the cycle back to A stops the search
+      List<String> searches = getRoleSearches();
+      assertEquals(4, searches.size());
+      assertEquals("(|(member={1})(member={2}))", searches.get(2));
+   }
+
+   public void testLoginModuleConcurrentRoles() throws Exception
+   {
+      assertEquals(roles("A", "B", "C", "D"), login("2"));
+      // the level holding B and C is split in two searches, the second one on its own connection
+      assertEquals(5, getRoleSearches().size());
+      assertEquals(3, RecordingLdapContextFactory.getConnections().size());
+   }
+
+   public void testGroupCache() throws Exception
+   {
+      Map<String, Object> options = new HashMap<String, Object>();
+      options.put(LdapGroupCache.TIMEOUT_OPT, "60000");
+      options.put(LdapGroupCache.POLL_INTERVAL_OPT, "1");
+      touch("A", "B", "C", "D");
+      assertEquals(roles("A", "B", "C", "D"), login(null, options));
+      // the entries missing from the cache are searched one by one
+      assertEquals(5, getRoleSearches().size());
+
+      // only the direct memberships are searched once the groups are cached
+      RecordingLdapContextFactory.clear();
+      Thread.sleep(5);
+      assertEquals(roles("A", "B", "C", "D"), login(null, options));
+      assertEquals(1, getRoleSearches().size());
+
+      // a modified group flushes the cache, modifyTimestamp has a one second resolution
+      Thread.sleep(1100);
+      touch("B");
+      RecordingLdapContextFactory.clear();
+      assertEquals(roles("A", "B", "C", "D"), login(null, options));
+      assertEquals(5, getRoleSearches().size());
+   }
+
+   public void testGroupCacheChangeMark() throws Exception
+   {
+      Map<String, Object> options = new HashMap<String, Object>();
+      options.put(LdapGroupCache.TIMEOUT_OPT, "60000");
+      options.put(LdapGroupCache.POLL_INTERVAL_OPT, "1");
+      LdapGroupCache cache = LdapGroupCache.getCache("testGroupCacheChangeMark", options);
+      touch("A", "B", "C", "D");
+      Hashtable<String, Object> env = new Hashtable<String, Object>(getOptions(null));
+      env.put(Context.SECURITY_PRINCIPAL, adminDN);
+      env.put(Context.SECURITY_CREDENTIALS, adminPW);
+      InitialLdapContext ctx = new InitialLdapContext(env, null);
+      List<String> searches = RecordingLdapContextFactory.getSearches();
+      try
+      {
+         // the server does not publish its currentTime, the first check reads every group
+         cache.checkForChanges(ctx, GROUPS_DN, 0);
+         assertEquals(Arrays.asList("(modifyTimestamp=*)"), searches);
+
+         // a failed check flushes the cache
+         cache.putRoles("cn=A," + GROUPS_DN, Arrays.asList("A"));
+         Thread.sleep(5);
+         cache.checkForChanges(ctx, "ou=NoSuchGroups,dc=jboss,dc=org", 0);
+         assertNull(cache.getRoles("cn=A," + GROUPS_DN));
+
+         // and the next check still only reads the groups modified since the mark
+         cache.putRoles("cn=A," + GROUPS_DN, Arrays.asList("A"));
+         Thread.sleep(5);
+         cache.checkForChanges(ctx, GROUPS_DN, 0);
+         assertEquals(Arrays.asList("(modifyTimestamp=*)", "(modifyTimestamp>={0})", "(modifyTimestamp>={0})"),
+               searches);
+         assertEquals(Arrays.asList("A"), cache.getRoles("cn=A," + GROUPS_DN));
+      }
+      finally
+      {
+         ctx.close();
+      }
+   }
+
+   public void testMappingProviderRoles() throws Exception
+   {
+      assertEquals(roles("A", "B", "C", "D"), map(null));
+      List<String> searches = getRoleSearches();
+      assertEquals(4, searches.size());
+      assertEquals("(|(member={0})(member={1}))", searches.get(2));
+      assertEquals(roles("A", "B", "C", "D"), map("4"));
+      assertEquals(9, getRoleSearches().size());
+   }
+
+   private Set<String> login(String threads) throws Exception
+   {
+      return login(threads, Collections.<String, Object>emptyMap());
+   }
+
+   private Set<String> login(String threads, Map<String, Object> extraOptions) throws Exception
+   {
+      Map<String, Object> options = getOptions(threads);
+      options.putAll(extraOptions);
+      options.put("bindDN", adminDN);
+      options.put("bindCredential", adminPW);
+      options.put("baseCtxDN", "ou=People,dc=jboss,dc=org");
+      options.put("baseFilter", "(uid={0})");
+      options.put("roleFilter", "(member={1})");
+
+      Subject subject = new Subject();
+      LdapExtLoginModule module = new LdapExtLoginModule();
+      module.initialize(subject, new UsernamePasswordHandler("jduke", "theduke".toCharArray()),
+            new HashMap<String, Object>(), options);
+      assertTrue(module.login());
+      assertTrue(module.commit());
+
+      Set<String> roles = new HashSet<String>();
+      for (Group group : subject.getPrincipals(Group.class))
+      {
+         if (group.getName().equals("Roles"))
+         {
+            for (Principal role : Collections.list(group.members()))
+               roles.add(role.getName());
+         }
+      }
+      return roles;
+   }
+
+   private Set<String> map(String threads) throws Exception
+   {
+      Map<String, Object> options = getOptions(threads);
+      options.put("bindDN", adminDN);
+      options.put("bindCredential", adminPW);
+      options.put("roleFilter", "(member={0})");
+      LdapRolesMappingProvider provider = new LdapRolesMappingProvider();
+      provider.init(options);
+      Map<String, Object> contextMap = new HashMap<String, Object>();
+      contextMap.put(SecurityConstants.PRINCIPAL_IDENTIFIER, new SimplePrincipal(USER_DN));
+      RoleGroup group = new SimpleRoleGroup(SecurityConstants.ROLES_IDENTIFIER);
+      provider.performMapping(contextMap, group);
+
+      Set<String> roles = new HashSet<String>();
+      for (Role role : group.getRoles())
+         roles.add(role.getRoleName());
+      return roles;
+   }
+
+   /**
+    * Modify the description of groups, which also gives them a modifyTimestamp
+    */
+   private void touch(String... groups) throws Exception
+   {
+      Hashtable<String, String> env = new Hashtable<String, String>();
+      env.put(Context.INITIAL_CONTEXT_FACTORY, ldapCtxFactory);
+      env.put(Context.PROVIDER_URL, "ldap://" + serverHost + ":" + port);
+      env.put(Context.SECURITY_PRINCIPAL, adminDN);
+      env.put(Context.SECURITY_CREDENTIALS, adminPW);
+      DirContext ctx = new InitialLdapContext(env, null);
+      try
+      {
+         for (String group : groups)
+         {
+            ModificationItem[] mods = {new ModificationItem(DirContext.REPLACE_ATTRIBUTE,
+                  new BasicAttribute("description", "modified " + System.currentTimeMillis()))};
+            ctx.modifyAttributes("cn=" + group + "," + GROUPS_DN, mods);
+         }
+      }
+      finally
+      {
+         ctx.close();
+      }
+   }
+
+   /**
+    * @return the filters of the role searches done, without the user and change searches
+    */
+   private static List<String> getRoleSearches()
+   {
+      List<String> searches = new ArrayList<String>();
+      for (String filter : RecordingLdapContextFactory.getSearches())
+      {
+         if (filter.contains("member="))
+            searches.add(filter);
+      }
+      return searches;
+   }
+
+   private static Map<String, Object> getOptions(String threads)
+   {
+      Map<String, Object> options = new HashMap<String, Object>();
+      options.put(Context.INITIAL_CONTEXT_FACTORY, RecordingLdapContextFactory.class.getName());
+      options.put(Context.PROVIDER_URL, "ldap://localhost:10389");
+      options.put("rolesCtxDN", GROUPS_DN);
+      options.put("roleAttributeID", "cn");
+      options.put("roleRecursion", "10");
+      if (threads != null)
+         options.put(LdapRoleSearchSupport.THREADS_OPT, threads);
+      return options;
+   }
+
+   private static Set<String> roles(String... names)
+   {
+      return new HashSet<String>(Arrays.asList(names));
+   }
+}
@@ -0,0 +1,170 @@
+/*
+  * JBoss, Home of Professional Open Source
+  * Copyright 2026, Red Hat, Inc., and individual contributors as indicated
+  * by the @authors tag. See the copyright.txt in the distribution for a
+  * full listing of individual contributors.
+  *
+  * This is free software; you can redistribute it and/or modify it
+  * under the terms of the GNU Lesser General Public License as
+  * published by the Free Software Foundation; either version 2.1 of
+  * the License, or (at your option) any later version.
+  *
+  * This software is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+  * Lesser General Public License for more details.
+  *
+  * You should have received a copy of the GNU Lesser General Public
+  * License along with this software; if not, write to the Free
+  * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+  */
+package org.jboss.test.security.ldap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.List;
+
+import javax.naming.CommunicationException;
+import javax.naming.Context;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.InitialLdapContext;
+import javax.naming.spi.InitialContextFactory;
+
+/**
+ * A JNDI provider opening real LDAP connections and recording the binds and searches done
+ * over them, so the tests can tell how many connections and searches a login costs. Set it
+ * as the {@code java.naming.factory.initial} of the module; the connections are opened by
+ * the factory of the {@code ldapctx.factory} system property, the JDK one by default.
+ */
+public class RecordingLdapContextFactory implements InitialContextFactory
+{
+   private static final String LDAP_CTX_FACTORY = System.getProperty("ldapctx.factory",
+      "com.sun.jndi.ldap.LdapCtxFactory");
+
+   private static final List<RecordingLdapContext> connections = Collections.synchronizedList(new ArrayList<RecordingLdapContext>());
+
+   private static final List<String> searches = Collections.synchronizedList(new ArrayList<String>());
+
+   /**
+    * @return the connections opened since the last {@link #clear()}
+    */
+   public static List<RecordingLdapContext> getConnections()
+   {
+      return connections;
+   }
+
+   /**
+    * @return the filters of the searches done since the last {@link #clear()}
+    */
+   public static List<String> getSearches()
+   {
+      return searches;
+   }
+
+   public static void clear()
+   {
+      connections.clear();
+      searches.clear();
+   }
+
+   public Context getInitialContext(Hashtable<?, ?> environment) throws NamingException
+   {
+      Hashtable<Object, Object> env = new Hashtable<Object, Object>(environment);
+      env.put(Context.INITIAL_CONTEXT_FACTORY, LDAP_CTX_FACTORY);
+      RecordingLdapContext ctx = new RecordingLdapContext(env);
+      connections.add(ctx);
+      return ctx;
+   }
+
+   /**
+    * A connection to the directory server, bound on creation and rebound by each reconnect.
+    */
+   public static class RecordingLdapContext extends InitialLdapContext
+   {
+      private final List<Object> binds = Collections.synchronizedList(new ArrayList<Object>());
+
+      private volatile boolean closed;
+
+      private volatile boolean dropped;
+
+      RecordingLdapContext(Hashtable<?, ?> env) throws NamingException
+      {
+         super(env, null);
+         binds.add(env.get(Context.SECURITY_PRINCIPAL));
+      }
+
+      /**
+       * @return the principals the connection was bound as, in order
+       */
+      public List<Object> getBinds()
+      {
+         return binds;
+      }
+
+      public boolean isClosed()
+      {
+         return closed;
+      }
+
+      /**
+       * Make the next operations fail as if the server had dropped the connection.
+       */
+      public void drop()
+      {
+         dropped = true;
+      }
+
+      @Override
+      public void reconnect(Control[] connCtls) throws NamingException
+      {
+         checkConnection();
+         super.reconnect(connCtls);
+         binds.add(getEnvironment().get(Context.SECURITY_PRINCIPAL));
+      }
+
+      @Override
+      public Attributes getAttributes(String name, String[] attrIds) throws NamingException
+      {
+         checkConnection();
+         return super.getAttributes(name, attrIds);
+      }
+
+      @Override
+      public NamingEnumeration<SearchResult> search(String name, String filter, SearchControls cons)
+         throws NamingException
+      {
+         checkConnection();
+         searches.add(filter);
+         return super.search(name, filter, cons);
+      }
+
+      @Override
+      public NamingEnumeration<SearchResult> search(String name, String filterExpr, Object[] filterArgs,
+         SearchControls cons) throws NamingException
+      {
+         checkConnection();
+         searches.add(filterExpr);
+         return super.search(name, filterExpr, filterArgs, cons);
+      }
+
+      @Override
+      public void close() throws NamingException
+      {
+         closed = true;
+         super.close();
+      }
+
+      private void checkConnection() throws NamingException
+      {
+         if (closed || dropped)
+            throw new CommunicationException("connection closed");
+      }
+   }
+}
@@ -0,0 +1,221 @@
+/*
+  * JBoss, Home of Professional Open Source
+  * Copyright 2007, JBoss Inc., and individual contributors as indicated
+  * by the @authors tag. See the copyright.txt in the distribution for a
+  * full listing of individual contributors.
+  *
+  * This is free software; you can redistribute it and/or modify it
+  * under the terms of the GNU Lesser General Public License as
+  * published by the Free Software Foundation; either version 2.1 of
+  * the License, or (at your option) any later version.
+  *
+  * This software is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+  * Lesser General Public License for more details.
+  *
+  * You should have received a copy of the GNU Lesser General Public
+  * License along with this software; if not, write to the Free
+  * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+  */
+package org.jboss.test.security.mapping;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.naming.Context;
+import javax.sql.DataSource;
+
+import junit.framework.TestCase;
+
+import org.jboss.security.SecurityConstants;
+import org.jboss.security.SimplePrincipal;
+import org.jboss.security.identity.Role;
+import org.jboss.security.identity.RoleGroup;
+import org.jboss.security.identity.plugins.SimpleRoleGroup;
+import org.jboss.security.mapping.MappingResult;
+import org.jboss.security.mapping.providers.role.DatabaseRolesMappingProvider;
+import org.jboss.security.plugins.DataSourceLocator;
+import org.jboss.test.util.HsqldbContextFactory;
+
+/**
+ *  Unit tests of the preloading mode of the DatabaseRolesMappingProvider against an in memory
+ *  hsqldb database with the Roles(Username, RoleName) and RoleChanges(Username, Modified) tables
+ */
+public class DatabaseRolesMappingUnitTestCase extends TestCase
+{
+   private static final String ROLES_QUERY = "select RoleName from Roles where Username=?";
+
+   private static final String PRELOAD_QUERY = "select Username, RoleName from Roles";
+
+   private static final String REFRESH_QUERY = "select c.Username, r.RoleName from RoleChanges c"
+      + " left outer join Roles r on r.Username = c.Username where c.Modified > ?";
+
+   private String initialContextFactory;
+
+   private DataSource dataSource;
+
+   protected void setUp() throws Exception
+   {
+      initialContextFactory = System.getProperty(Context.INITIAL_CONTEXT_FACTORY);
+      System.setProperty(Context.INITIAL_CONTEXT_FACTORY, HsqldbContextFactory.class.getName());
+      dataSource = HsqldbContextFactory.bind("java:/TestDS", "roles_mapping_test");
+      update("DROP TABLE IF EXISTS Roles",
+         "DROP TABLE IF EXISTS RoleChanges",
+         "CREATE TABLE Roles (Username VARCHAR(64), RoleName VARCHAR(32))",
+         "CREATE TABLE RoleChanges (Username VARCHAR(64), Modified TIMESTAMP)",
+         "INSERT INTO Roles VALUES ('jduke', 'Echo')",
+         "INSERT INTO Roles VALUES ('jduke', 'Java')",
+         "INSERT INTO Roles VALUES ('anil', 'Admin')",
+         "INSERT INTO Roles VALUES ('scott', 'Guest')");
+   }
+
+   protected void tearDown() throws Exception
+   {
+      if (initialContextFactory == null)
+         System.clearProperty(Context.INITIAL_CONTEXT_FACTORY);
+      else
+         System.setProperty(Context.INITIAL_CONTEXT_FACTORY, initialContextFactory);
+      DatabaseRolesMappingProvider.flushPreloadedRoles();
+      DataSourceLocator.flush();
+      HsqldbContextFactory.clear();
+   }
+
+   public void testPerPrincipalQueries() throws Exception
+   {
+      DatabaseRolesMappingProvider provider = createProvider(new HashMap<String, Object>());
+      assertEquals(set("Echo", "Java"), map(provider, "jduke"));
+      // every mapping queries the table
+      update("INSERT INTO Roles VALUES ('jduke', 'Admin')");
+      assertEquals(set("Echo", "Java", "Admin"), map(provider, "jduke"));
+   }
+
+   public void testPreload() throws Exception
+   {
+      Map<String, Object> options = new HashMap<String, Object>();
+      options.put("preloadQuery", PRELOAD_QUERY);
+      DatabaseRolesMappingProvider provider = createProvider(options);
+      update("INSERT INTO Roles VALUES ('jduke', 'Admin')",
+         "DELETE FROM Roles WHERE Username = 'anil'",
+         "INSERT INTO Roles VALUES ('guest', 'Guest')");
+      // the loaded roles are mapped without querying the table
+      assertEquals(set("Echo", "Java"), map(provider, "jduke"));
+      assertEquals(set("Admin"), map(provider, "anil"));
+
+      // the users that were not loaded are queried
+      assertEquals(set("Guest"), map(provider, "guest"));
+      assertEquals(set(), map(provider, "nobody"));
+   }
+
+   public void testPreloadShared() throws Exception
+   {
+      Map<String, Object> options = new HashMap<String, Object>();
+      options.put("preloadQuery", PRELOAD_QUERY);
+      DatabaseRolesMappingProvider provider = createProvider(options);
+      update("INSERT INTO Roles VALUES ('jduke', 'Admin')");
+      // another provider with the same settings uses the loaded roles
+      DatabaseRolesMappingProvider other = createProvider(new HashMap<String, Object>(options));
+      assertEquals(set("Echo", "Java"), map(provider, "jduke"));
+      assertEquals(set("Echo", "Java"), map(other, "jduke"));
+
+      // but not a provider of another data source
+      HsqldbContextFactory.bind("java:/OtherDS", "roles_mapping_test");
+      options.put("dsJndiName", "java:/OtherDS");
+      DatabaseRolesMappingProvider otherDS = createProvider(options);
+      assertEquals(set("Echo", "Java", "Admin"), map(otherDS, "jduke"));
+   }
+
+   public void testIncrementalRefresh() throws Exception
+   {
+      Map<String, Object> options = new HashMap<String, Object>();
+      options.put("preloadQuery", PRELOAD_QUERY);
+      options.put("refreshQuery", REFRESH_QUERY);
+      options.put("refreshInterval", "20");
+      DatabaseRolesMappingProvider provider = createProvider(options);
+      // the changes are recorded after the time of the load
+      Thread.sleep(10);
+      Connection conn = dataSource.getConnection();
+      try
+      {
+         Statement s = conn.createStatement();
+         s.executeUpdate("INSERT INTO Roles VALUES ('jduke', 'Admin')");
+         s.executeUpdate("DELETE FROM Roles WHERE Username = 'anil'");
+         // not recorded as a change, so not refreshed
+         s.executeUpdate("DELETE FROM Roles WHERE Username = 'scott'");
+         PreparedStatement ps = conn.prepareStatement("INSERT INTO RoleChanges VALUES (?, ?)");
+         for (String user : new String[] {"jduke", "anil"})
+         {
+            ps.setString(1, user);
+            ps.setTimestamp(2, new Timestamp(System.currentTimeMillis()));
+            ps.executeUpdate();
+         }
+      }
+      finally
+      {
+         conn.close();
+      }
+      for (int i = 0; i < 100 && map(provider, "jduke").size() < 3; i++)
+         Thread.sleep(20);
+      assertEquals(set("Echo", "Java", "Admin"), map(provider, "jduke"));
+      // anil has no role left
+      assertEquals(set(), map(provider, "anil"));
+      // the roles of the unchanged users are kept in memory
+      assertEquals(set("Guest"), map(provider, "scott"));
+   }
+
+   private DatabaseRolesMappingProvider createProvider(Map<String, Object> options)
+   {
+      if (!options.containsKey("dsJndiName"))
+         options.put("dsJndiName", "java:/TestDS");
+      options.put("rolesQuery", ROLES_QUERY);
+      options.put("suspendResume", "false");
+      DatabaseRolesMappingProvider provider = new DatabaseRolesMappingProvider();
+      provider.init(options);
+      provider.setMappingResult(new MappingResult<RoleGroup>());
+      return provider;
+   }
+
+   private Set<String> map(DatabaseRolesMappingProvider provider, String user)
+   {
+      Map<String, Object> contextMap = new HashMap<String, Object>();
+      contextMap.put(SecurityConstants.PRINCIPAL_IDENTIFIER, new SimplePrincipal(user));
+      RoleGroup group = new SimpleRoleGroup(SecurityConstants.ROLES_IDENTIFIER);
+      provider.performMapping(contextMap, group);
+      Set<String> roles = new HashSet<String>();
+      for (Role role : group.getRoles())
+         roles.add(role.getRoleName());
+      return roles;
+   }
+
+   private void update(String... statements) throws SQLException
+   {
+      Connection conn = dataSource.getConnection();
+      try
+      {
+         Statement stat = conn.createStatement();
+         for (String sql : statements)
+            stat.executeUpdate(sql);
+         stat.close();
+      }
+      finally
+      {
+         conn.close();
+      }
+   }
+
+   private static Set<String> set(String... names)
+   {
+      Set<String> set = new HashSet<String>();
+      for (String name : names)
+         set.add(name);
+      return set;
+   }
+}
@@ -43,10 +43,18 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 import static org.junit.Assert.*;
 
@@ -220,6 +228,104 @@ public class SecurityVaultUnitTestCase
       assertFalse(vault.exists(vaultBlock+"1", attributeName+"2"));
    }
    
+   @Test
+   public void testCachedRetrieve() throws Exception
+   {
+      setInitialVaulConditions("src/test/resources/keystore/vault.jks", "target/vaults/vault3/vault.jks", 
+            "src/test/resources/keystore/vault_data", "target/vaults/vault3/vault_data");
+      
+      Map<String,Object> options = getVaultOptionsMap(
+            "target/vaults/vault3/vault.jks", 
+            "target/vaults/vault3/vault_data", 
+            "vault", "12438567", 50, "vault22"); 
+      options.put(PicketBoxSecurityVault.CACHE_TIMEOUT, "60000");
+
+      SecurityVault vault = getNewSecurityVaultInstance();
+      vault.init(options);
+      byte[] sharedKey = vault.handshake(null);
+      
+      vault.store("SecBean", "theAttribute", "someValue".toCharArray(), sharedKey);
+      char[] value = vault.retrieve("SecBean", "theAttribute", sharedKey);
+      assertEquals("someValue", new String(value));
+      // wiping the returned value must not affect the cached one
+      Arrays.fill(value, '\0');
+      assertEquals("someValue", new String(vault.retrieve("SecBean", "theAttribute", sharedKey)));
+      
+      // a new value replaces the cached one
+      vault.store("SecBean", "theAttribute", "otherValue".toCharArray(), sharedKey);
+      assertEquals("otherValue", new String(vault.retrieve("SecBean", "theAttribute", sharedKey)));
+      
+      assertTrue(vault.remove("SecBean", "theAttribute", sharedKey));
+      try
+      {
+         vault.retrieve("SecBean", "theAttribute", sharedKey);
+         fail("removed attribute must not be served from the cache");
+      }
+      catch (SecurityVaultException e)
+      {
+         // expected
+      }
+   }
+   
+   @Test
+   public void testStoreAll() throws Exception
+   {
+      setInitialVaulConditions("src/test/resources/keystore/vault.jks", "target/vaults/vault4/vault.jks", 
+            "src/test/resources/keystore/vault_data", "target/vaults/vault4/vault_data");
+      
+      Map<String,Object> options = getVaultOptionsMap(
+            "target/vaults/vault4/vault.jks", 
+            "target/vaults/vault4/vault_data", 
+            "vault", "12438567", 50, "vault22"); 
+
+      PicketBoxSecurityVault vault = (PicketBoxSecurityVault) getNewSecurityVaultInstance();
+      vault.init(options);
+      byte[] sharedKey = vault.handshake(null);
+      
+      Map<String, Map<String, char[]>> attributes = new HashMap<String, Map<String, char[]>>();
+      for (int i = 0; i < 3; i++)
+      {
+         Map<String, char[]> block = new HashMap<String, char[]>();
+         for (int j = 0; j < 10; j++)
+            block.put("attr" + j, ("secret" + i + j).toCharArray());
+         attributes.put("vb" + i, block);
+      }
+      vault.storeAll(attributes, sharedKey);
+      assertSecretValue(vault, "vb2", "attr7", "secret27");
+      
+      // the values must have been persisted
+      SecurityVault restarted = getNewSecurityVaultInstance();
+      restarted.init(options);
+      restarted.handshake(null);
+      for (int i = 0; i < 3; i++)
+         for (int j = 0; j < 10; j++)
+            assertSecretValue(restarted, "vb" + i, "attr" + j, "secret" + i + j);
+      assertFalse(new File("target/vaults/vault4/vault_data/VAULT.dat.tmp").exists());
+   }
+   
+   @Test
+   public void testVaultDataPermissionsKept() throws Exception
+   {
+      setInitialVaulConditions("src/test/resources/keystore/vault.jks", "target/vaults/vault5/vault.jks", 
+            "src/test/resources/keystore/vault_data", "target/vaults/vault5/vault_data");
+      Map<String,Object> options = getVaultOptionsMap(
+            "target/vaults/vault5/vault.jks", 
+            "target/vaults/vault5/vault_data", 
+            "vault", "12438567", 50, "vault22"); 
+
+      SecurityVault vault = getNewSecurityVaultInstance();
+      vault.init(options);
+      byte[] sharedKey = vault.handshake(null);
+
+      Path vaultData = Paths.get("target/vaults/vault5/vault_data/VAULT.dat");
+      Assume.assumeTrue(Files.getFileAttributeView(vaultData, PosixFileAttributeView.class) != null);
+      Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rw-------");
+      Files.setPosixFilePermissions(vaultData, permissions);
+      vault.store("vb", "attr", "secret".toCharArray(), sharedKey);
+      // the rewritten vault data file keeps the permissions of the previous one
+      assertEquals(permissions, Files.getPosixFilePermissions(vaultData));
+   }
+   
    @Test
    public void testClassBasedKeystorePassword() throws Exception
    {
@@ -21,20 +21,33 @@
   */
 package org.jboss.test.securitycontext; 
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jboss.security.SecurityConstants;
 import org.jboss.security.SecurityContext;
+import org.jboss.security.SimplePrincipal;
+import org.jboss.security.config.RoleMappingInfo;
 import org.jboss.security.config.SecurityConfiguration;
 import org.jboss.security.identity.Attribute;
 import org.jboss.security.identity.RoleGroup;
 import org.jboss.security.identity.plugins.SimpleRole;
 import org.jboss.security.identity.plugins.SimpleRoleGroup;
 import org.jboss.security.mapping.MappingContext;
+import org.jboss.security.mapping.MappingManager;
+import org.jboss.security.mapping.MappingProvider;
+import org.jboss.security.mapping.MappingResult;
 import org.jboss.security.mapping.MappingType;
+import org.jboss.security.mapping.config.MappingModuleEntry;
 
 
 /**
@@ -106,4 +119,130 @@ public class MappingContextTestCase extends SecurityContextBaseTest
             assertEquals("anil@test", att.getValue());
       }
    }
+
+   public void testMappingProvidersReused()
+   {
+      RoleMappingInfo rmi = new RoleMappingInfo(securityDomain);
+      rmi.add(new MappingModuleEntry(CountingMappingProvider.class.getName()));
+      SecurityConfiguration.addApplicationPolicy(createApplicationPolicy(securityDomain, rmi));
+      CountingMappingProvider.instances.set(0);
+      //Providers are kept across the MappingManager instances of the domain
+      for(int i = 0; i < 10; i++)
+      {
+         MappingContext<RoleGroup> mc = getSC(securityDomain).getMappingManager().getMappingContext(MappingType.ROLE.name());
+         assertTrue(mc.hasModules());
+         mc.performMapping(new HashMap<String,Object>(), new SimpleRoleGroup(SecurityConstants.ROLES_IDENTIFIER));
+      }
+      assertEquals("Providers are reused", 1, CountingMappingProvider.instances.get());
+
+      //A chain handed out by getModules is not shared with another context
+      MappingContext<RoleGroup> mc1 = getSC(securityDomain).getMappingManager().getMappingContext(MappingType.ROLE.name());
+      MappingContext<RoleGroup> mc2 = getSC(securityDomain).getMappingManager().getMappingContext(MappingType.ROLE.name());
+      assertNotSame(mc1.getModules().get(0), mc2.getModules().get(0));
+      mc1.performMapping(new HashMap<String,Object>(), new SimpleRoleGroup(SecurityConstants.ROLES_IDENTIFIER));
+      MappingContext<RoleGroup> mc3 = getSC(securityDomain).getMappingManager().getMappingContext(MappingType.ROLE.name());
+      assertNotSame(mc1.getModules().get(0), mc3.getModules().get(0));
+
+      //Replacing the application policy replaces the providers
+      CountingMappingProvider.instances.set(0);
+      SecurityConfiguration.addApplicationPolicy(createApplicationPolicy(securityDomain, rmi));
+      MappingContext<RoleGroup> mc4 = getSC(securityDomain).getMappingManager().getMappingContext(MappingType.ROLE.name());
+      mc4.performMapping(new HashMap<String,Object>(), new SimpleRoleGroup(SecurityConstants.ROLES_IDENTIFIER));
+      assertEquals(1, CountingMappingProvider.instances.get());
+   }
+
+   public void testMappingProvidersReleasedWithPolicy() throws Exception
+   {
+      RoleMappingInfo rmi = new RoleMappingInfo(securityDomain);
+      rmi.add(new MappingModuleEntry(CountingMappingProvider.class.getName()));
+      SecurityConfiguration.addApplicationPolicy(createApplicationPolicy(securityDomain, rmi));
+      MappingContext<RoleGroup> mc = getSC(securityDomain).getMappingManager().getMappingContext(MappingType.ROLE.name());
+      mc.performMapping(new HashMap<String,Object>(), new SimpleRoleGroup(SecurityConstants.ROLES_IDENTIFIER));
+
+      //The pooled providers do not keep the MappingInfo of a removed application policy
+      WeakReference<RoleMappingInfo> ref = new WeakReference<RoleMappingInfo>(rmi);
+      rmi = null;
+      SecurityConfiguration.removeApplicationPolicy(securityDomain);
+      for(int i = 0; i < 50 && ref.get() != null; i++)
+      {
+         System.gc();
+         Thread.sleep(20);
+      }
+      assertNull("MappingInfo released", ref.get());
+   }
+
+   public void testConcurrentMappings() throws Exception
+   {
+      SecurityConfiguration.addApplicationPolicy(createApplicationPolicy(securityDomain));
+      final MappingManager mm = getSC(securityDomain).getMappingManager();
+      ExecutorService es = Executors.newFixedThreadPool(4);
+      try
+      {
+         List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+         for(int t = 0; t < 4; t++)
+         {
+            final String name = "user" + t;
+            results.add(es.submit(new Callable<Boolean>()
+            {
+               public Boolean call() throws Exception
+               {
+                  HashSet<String> hs = new HashSet<String>();
+                  hs.add(name + "Role");
+                  HashMap<String,Object> rolesMap = new HashMap<String,Object>();
+                  rolesMap.put(name, hs);
+                  HashMap<String,Object> map = new HashMap<String,Object>();
+                  map.put(SecurityConstants.PRINCIPAL_IDENTIFIER, new SimplePrincipal(name));
+                  map.put(SecurityConstants.DEPLOYMENT_PRINCIPAL_ROLES_MAP, rolesMap);
+                  for(int i = 0; i < 500; i++)
+                  {
+                     RoleGroup grp = new SimpleRoleGroup(SecurityConstants.ROLES_IDENTIFIER);
+                     MappingContext<RoleGroup> mc = mm.getMappingContext(MappingType.ROLE.name());
+                     mc.performMapping(map, grp);
+                     RoleGroup mapped = mc.getMappingResult().getMappedObject();
+                     if(mapped != grp || !mapped.containsRole(new SimpleRole(name + "Role")))
+                        return false;
+                  }
+                  return true;
+               }
+            }));
+         }
+         for(Future<Boolean> result : results)
+            assertTrue("Each mapping sees its own result", result.get());
+      }
+      finally
+      {
+         es.shutdownNow();
+      }
+   }
+
+   /**
+    * Counts its instances
+    */
+   public static class CountingMappingProvider implements MappingProvider<RoleGroup>
+   {
+      static final AtomicInteger instances = new AtomicInteger();
+
+      public CountingMappingProvider()
+      {
+         instances.incrementAndGet();
+      }
+
+      public void init(Map<String, Object> options)
+      {
+      }
+
+      public void setMappingResult(MappingResult<RoleGroup> result)
+      {
+         result.setMappedObject(null);
+      }
+
+      public void performMapping(Map<String, Object> contextMap, RoleGroup mappedObject)
+      {
+      }
+
+      public boolean supports(Class<?> p)
+      {
+         return RoleGroup.class.isAssignableFrom(p);
+      }
+   }
 }
\ No newline at end of file
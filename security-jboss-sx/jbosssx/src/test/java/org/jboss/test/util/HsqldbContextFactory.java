@@ -0,0 +1,105 @@
+/*
+  * JBoss, Home of Professional Open Source
+  * Copyright 2026, Red Hat, Inc., and individual contributors as indicated
+  * by the @authors tag. See the copyright.txt in the distribution for a
+  * full listing of individual contributors.
+  *
+  * This is free software; you can redistribute it and/or modify it
+  * under the terms of the GNU Lesser General Public License as
+  * published by the Free Software Foundation; either version 2.1 of
+  * the License, or (at your option) any later version.
+  *
+  * This software is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+  * Lesser General Public License for more details.
+  *
+  * You should have received a copy of the GNU Lesser General Public
+  * License along with this software; if not, write to the Free
+  * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+  */
+package org.jboss.test.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
+import javax.naming.spi.InitialContextFactory;
+import javax.sql.DataSource;
+
+import org.hsqldb.jdbc.JDBCDataSource;
+
+/**
+ * A JNDI provider serving in memory hsqldb databases to the login modules and mapping
+ * providers that look their DataSource up. Set it as the {@code java.naming.factory.initial}
+ * system property and bind the databases with {@link #bind(String, String)}.
+ */
+public class HsqldbContextFactory implements InitialContextFactory
+{
+   private static final Map<String, DataSource> dataSources = new ConcurrentHashMap<String, DataSource>();
+
+   private static final List<String> lookups = Collections.synchronizedList(new ArrayList<String>());
+
+   /**
+    * Bind an in memory database, created on first connection.
+    *
+    * @param jndiName - the name the DataSource is looked up with
+    * @param database - the name of the in memory database
+    * @return the DataSource of the database
+    */
+   public static DataSource bind(String jndiName, String database)
+   {
+      JDBCDataSource ds = new JDBCDataSource();
+      ds.setUrl("jdbc:hsqldb:mem:" + database);
+      ds.setUser("sa");
+      ds.setPassword("");
+      dataSources.put(jndiName, ds);
+      return ds;
+   }
+
+   /**
+    * @return the names looked up since the last {@link #clear()}
+    */
+   public static List<String> getLookups()
+   {
+      return lookups;
+   }
+
+   /**
+    * Unbind all the DataSources and forget the lookups.
+    */
+   public static void clear()
+   {
+      dataSources.clear();
+      lookups.clear();
+   }
+
+   public Context getInitialContext(Hashtable<?, ?> environment) throws NamingException
+   {
+      return new InitialContext(true)
+      {
+         @Override
+         public Object lookup(String name) throws NamingException
+         {
+            lookups.add(name);
+            DataSource ds = dataSources.get(name);
+            if (ds == null)
+               throw new NameNotFoundException(name);
+            return ds;
+         }
+
+         @Override
+         public void close()
+         {
+         }
+      };
+   }
+}
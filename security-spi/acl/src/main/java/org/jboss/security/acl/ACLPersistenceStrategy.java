@@ -1,6 +1,8 @@
 package org.jboss.security.acl;
 
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.jboss.security.authorization.Resource;
 
@@ -36,6 +38,25 @@ public interface ACLPersistenceStrategy
     */
    public Collection<ACL> getACLs();
 
+   /**
+    * <p>
+    * Obtains the {@code ACL}s associated to the given resources. Strategies that are able to retrieve several
+    * {@code ACL}s at once (for example all the resources of a hierarchy) should override this method, which
+    * looks up each resource in turn by default.
+    * </p>
+    * 
+    * @param resources  the {@code Resource}s for which the associated ACLs are wanted.
+    * @return   a {@code Map} of each resource that has been looked up to its {@code ACL}, or to null if the resource
+    * has no ACL. Resources that are not keys of the map have not been looked up.
+    */
+   public default Map<Resource, ACL> getACLs(Collection<Resource> resources)
+   {
+      Map<Resource, ACL> acls = new HashMap<Resource, ACL>();
+      for (Resource resource : resources)
+         acls.put(resource, this.getACL(resource));
+      return acls;
+   }
+
    /**
     * <p>
     * Creates a new {@code ACL} and associates it to the given resource.
@@ -747,4 +747,56 @@ public interface PicketBoxLogger extends BasicLogger {
     @Message(id = 380, value = "%s processing failed")
     void traceFailureExecutingMethod(String methodName, @Cause Throwable throwable);
 
+    @LogMessage(level = Logger.Level.TRACE)
+    @Message(id = 381, value = "Properties file %s was modified, reloading")
+    void tracePropertiesFileModified(String fileName);
+
+    @LogMessage(level = Logger.Level.TRACE)
+    @Message(id = 382, value = "Opened LDAP connection %d of pool %s")
+    void traceLdapPoolConnectionOpened(int count, String poolName);
+
+    @LogMessage(level = Logger.Level.DEBUG)
+    @Message(id = 383, value = "Discarding LDAP connection of pool %s")
+    void debugLdapPoolConnectionDiscarded(String poolName, @Cause Throwable throwable);
+
+    @LogMessage(level = Logger.Level.TRACE)
+    @Message(id = 384, value = "Searching roles of %d entries at nesting level %d with %d searches")
+    void traceLdapRoleSearchLevel(int entries, int nesting, int searches);
+
+    @LogMessage(level = Logger.Level.DEBUG)
+    @Message(id = 385, value = "Flushing LDAP group cache %s")
+    void debugLdapGroupCacheFlushed(String cacheName, @Cause Throwable throwable);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 386, value = "Failed to load the roles from %s")
+    void warnFailureToLoadRoles(String dsJndiName, @Cause Throwable throwable);
+
+    @LogMessage(level = Logger.Level.TRACE)
+    @Message(id = 387, value = "Loaded the roles of %d principals from %s")
+    void traceRolesLoaded(int count, String dsJndiName);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 388, value = "Failed to update the password hash of %s")
+    void warnFailedToUpdatePasswordHash(String username, @Cause Throwable throwable);
+
+    @LogMessage(level = Logger.Level.TRACE)
+    @Message(id = 389, value = "Updated the password hash of %s to the %s format")
+    void tracePasswordHashUpdated(String username, String format);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 390, value = "Audit provider %s failed to audit an event")
+    void warnAuditProviderFailure(String provider, @Cause Throwable throwable);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 391, value = "Dropped %d audit events of security domain %s, the audit queue was full")
+    void warnDroppedAuditEvents(long count, String securityDomain);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 392, value = "Dropped an audit record of %d bytes, larger than the segment size %d")
+    void warnAuditRecordTooLarge(int recordSize, long segmentSize);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 393, value = "Failed to write the audit segment %s")
+    void warnFailedToWriteAuditSegment(String segment, @Cause Throwable throwable);
+
 }
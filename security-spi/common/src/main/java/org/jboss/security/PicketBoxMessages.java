@@ -473,4 +473,16 @@ public interface PicketBoxMessages {
     @Message(id = 145, value = "Unable to initialize login context")
     String unableToInitializeLoginContext(@Cause Throwable cause);
 
+    @Message(id = 146, value = "Interrupted while waiting for a concurrent login of the same principal")
+    String interruptedWhileWaitingForLoginMessage();
+
+    @Message(id = 147, value = "Too many concurrent password hash verifications, the login was rejected")
+    LoginException tooManyPasswordHashVerifications();
+
+    @Message(id = 148, value = "Invalid %s password hash")
+    String invalidPasswordHashMessage(String format);
+
+    @Message(id = 149, value = "%s is not an audit segment")
+    IOException invalidAuditSegment(String file);
+
 }
@@ -50,6 +50,23 @@ public abstract class AuditContext
       } 
    }
    
+   /**
+    * Whether a provider of this context records events of the given level
+    * @param level the audit level
+    * @return true if at least one provider is enabled for the level
+    */
+   public boolean isEnabled(String level)
+   {
+      int len = this.providerList.size();
+      
+      for(int i = 0; i < len; i++)
+      {
+         if(this.providerList.get(i).isEnabled(level))
+            return true;
+      }
+      return false;
+   }
+   
    public void addProvider(AuditProvider ap)
    {
       providerList.add(ap);
@@ -10,6 +10,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap; 
 import java.util.Map;
+import java.util.function.Supplier;
 
 /**
  *  Holder of audit information
@@ -24,6 +25,9 @@ public class AuditEvent
    private Map<String,Object> contextMap = new HashMap<String,Object>();
    
    private Exception underlyingException = null;
+
+   /** Creates the context map on first use, null once the map is created */
+   private Supplier<Map<String,Object>> contextMapSupplier = null;
    
    public AuditEvent(String level)
    {
@@ -42,6 +46,20 @@ public class AuditEvent
       this.underlyingException = ex;
    }
    
+   /**
+    * Create an event whose context map is only created when a provider reads it
+    * @param level the audit level
+    * @param contextMap creates the context map
+    * @param ex the exception on which an audit is happening, can be null
+    * @return the event
+    */
+   public static AuditEvent lazy(String level, Supplier<Map<String,Object>> contextMap, Exception ex)
+   {
+      AuditEvent ae = new AuditEvent(level, null, ex);
+      ae.contextMapSupplier = contextMap;
+      return ae;
+   }
+   
    /**
     * Return the Audit Level
     * @return
@@ -55,8 +73,13 @@ public class AuditEvent
     * Get the Contextual Map
     * @return Map that is final 
     */
-   public Map<String,Object> getContextMap()
+   public synchronized Map<String,Object> getContextMap()
    {
+      if(contextMapSupplier != null)
+      {
+         contextMap = contextMapSupplier.get();
+         contextMapSupplier = null;
+      }
       return contextMap;
    }
    
@@ -64,8 +87,9 @@ public class AuditEvent
     * Set a non-modifiable Context Map
     * @param cmap Map that is final
     */
-   public void setContextMap(final Map<String,Object> cmap)
+   public synchronized void setContextMap(final Map<String,Object> cmap)
    {
+      this.contextMapSupplier = null;
       this.contextMap = cmap;
    }
    
@@ -104,6 +128,7 @@ public class AuditEvent
    private String dissectContextMap()
    {
       StringBuilder sbu  = new StringBuilder(); 
+      Map<String,Object> contextMap = getContextMap();
       if(contextMap != null)
       {
          for(String key:contextMap.keySet())
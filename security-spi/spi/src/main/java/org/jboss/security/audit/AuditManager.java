@@ -37,4 +37,25 @@ public interface AuditManager extends BaseSecurityManager
     * @see AuditEvent
     */
    public void audit(AuditEvent ae);
+
+   /**
+    * Whether an event of the given level would be recorded by a provider
+    * @param level the audit level, see {@link AuditLevel}
+    * @return true by default
+    */
+   default boolean isEnabled(String level)
+   {
+      return true;
+   }
+
+   /**
+    * Whether the events are passed to the providers on another thread, after
+    * {@link #audit(AuditEvent)} returns. The content of an event must then not
+    * change once it is audited.
+    * @return false by default
+    */
+   default boolean isAsynchronous()
+   {
+      return false;
+   }
 }
@@ -6,15 +6,31 @@
  */ 
 package org.jboss.security.audit;
 
+import java.util.Map;
+
 /**
  *  Audit Provider that can log audit events to an external
  *  sink
+ *  <p>
+ *  A provider configured for a security domain is created once and then
+ *  shared: {@link #audit(AuditEvent)} is called concurrently by the threads
+ *  of the domain, or by a drain thread if the events are delivered
+ *  asynchronously. Implementations must be thread safe.
  *  @author <a href="mailto:Anil.Saldhana@jboss.org">Anil Saldhana</a>
  *  @version $Revision$
  *  @since  Aug 21, 2006
  */
 public interface AuditProvider
 {
+   /**
+    * Initialize the provider with the module options of its configuration,
+    * called once before the first audit
+    * @param options the module options, never null
+    */
+  default void init(Map<String,Object> options)
+  {
+  }
+
    /**
     * Perform an audit of the event passed
     * A provider can log the audit as per needs.
@@ -22,4 +38,15 @@ public interface AuditProvider
     * @see AuditEvent
     */
   public void audit(AuditEvent ae);
+
+   /**
+    * Whether this provider records events of the given level. Callers use it to skip
+    * building an event that no provider records.
+    * @param level the audit level, see {@link AuditLevel}
+    * @return true by default
+    */
+  default boolean isEnabled(String level)
+  {
+     return true;
+  }
 }
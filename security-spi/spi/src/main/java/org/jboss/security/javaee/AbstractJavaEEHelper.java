@@ -26,6 +26,7 @@ import java.security.Principal;
 import java.security.PrivilegedAction;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Supplier;
 
 import org.jboss.security.PicketBoxMessages;
 import org.jboss.security.SecurityContext;
@@ -91,28 +92,40 @@ public abstract class AbstractJavaEEHelper
       });
    }
    
-   protected void authorizationAudit(String level, Resource resource, Exception e)
+   protected void authorizationAudit(String level, final Resource resource, final Exception e)
    {
-      if(securityContext.getAuditManager() == null)
-         return;
-      Map<String, Object> contextualMap = resource.getMap();
-      Map<String,Object> auditContextMap = new HashMap<String,Object>(contextualMap.size() + 3);
-      auditContextMap.putAll(contextualMap);
-      auditContextMap.put("Resource:", resource);
-      auditContextMap.put("Action", "authorization");
-      if (e != null) {
-         //Authorization Exception stacktrace is huge. Scale it down
-         //as the original stack trace can be seen in server.log (if needed)
-         String exceptionMessage = e != null ? e.getLocalizedMessage() : "";  
-         auditContextMap.put("Exception:", exceptionMessage);
-      }
       if (e instanceof AuthorizationException) {
          // changing level of audit, since in case of AuthorizationException it is FAILURE
-         audit(AuditLevel.FAILURE, auditContextMap, null);
-      }
-      else {
-         audit(level, auditContextMap, null);
+         level = AuditLevel.FAILURE;
       }
+      AuditManager am = securityContext.getAuditManager();
+      // Nothing is allocated unless a provider records the event
+      if(am == null || am.isEnabled(level) == false)
+         return;
+      final String source = getClass().getName();
+      Supplier<Map<String,Object>> contextMap = new Supplier<Map<String,Object>>()
+      {
+         public Map<String,Object> get()
+         {
+            Map<String, Object> contextualMap = resource.getMap();
+            Map<String,Object> auditContextMap = new HashMap<String,Object>(contextualMap.size() + 4);
+            auditContextMap.putAll(contextualMap);
+            auditContextMap.put("Resource:", resource);
+            auditContextMap.put("Action", "authorization");
+            if (e != null) {
+               //Authorization Exception stacktrace is huge. Scale it down
+               //as the original stack trace can be seen in server.log (if needed)
+               auditContextMap.put("Exception:", e.getLocalizedMessage());
+            }
+            auditContextMap.put("Source", source);
+            return auditContextMap;
+         }
+      };
+      // a drain thread would read the resource and the exception after they may have changed
+      if (am.isAsynchronous())
+         am.audit(new AuditEvent(level, contextMap.get(), null));
+      else
+         am.audit(AuditEvent.lazy(level, contextMap, null));
    }  
    
    protected void authenticationAudit(String level, Map<String,Object> contextMap, Exception e)
@@ -127,7 +140,7 @@ public abstract class AbstractJavaEEHelper
          Map<String,Object> contextMap, Exception e)
    { 
       AuditManager am = securityContext.getAuditManager();
-      if(am == null)
+      if(am == null || am.isEnabled(level) == false)
          return;
       contextMap.put("Source", getClass().getName());
       AuditEvent ae = new AuditEvent(level,contextMap,e); 
@@ -21,7 +21,6 @@
  */
 package org.jboss.security.otp;
 
-import java.math.BigInteger;
 import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
@@ -241,8 +240,7 @@ public class TimeBasedOTP
     */
    private static byte[] hmac_sha1(String crypto, byte[] keyBytes, byte[] text) throws GeneralSecurityException
    {
-      Mac hmac;
-      hmac = Mac.getInstance(crypto);
+      Mac hmac = TimeBasedOTPVerifier.getMac(crypto);
       SecretKeySpec macKey =
          new SecretKeySpec(keyBytes, "RAW");
       hmac.init(macKey);
@@ -259,14 +257,6 @@ public class TimeBasedOTP
     */
    private static byte[] hexStr2Bytes(String hex)
    {
-      // Adding one byte to get the right conversion
-      // values starting with "0" can be converted
-      byte[] bArray = new BigInteger("10" + hex,16).toByteArray();
-
-      // Copy all the REAL bytes, not the "first"
-      byte[] ret = new byte[bArray.length - 1];
-      for (int i = 0; i < ret.length ; i++)
-         ret[i] = bArray[i+1];
-      return ret;
+      return TimeBasedOTPVerifier.decodeKey(hex);
    }
 }
\ No newline at end of file
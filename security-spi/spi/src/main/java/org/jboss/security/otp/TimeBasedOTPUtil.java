@@ -22,8 +22,8 @@
 package org.jboss.security.otp;
 
 import java.security.GeneralSecurityException;
-import java.util.Calendar;
-import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Utility class associated with the {@code TimeBasedOTP} class
@@ -32,7 +32,8 @@ import java.util.TimeZone;
  */
 public class TimeBasedOTPUtil
 {   
-   private static long TIME_INTERVAL = 30 * 1000; //30 secs
+   /** Verifiers accepting the previous, current and next time steps, by algorithm and number of digits */
+   private static final ConcurrentMap<String, TimeBasedOTPVerifier> verifiers = new ConcurrentHashMap<String, TimeBasedOTPVerifier>();
    
    /**
    * Validate a submitted OTP string
@@ -43,30 +44,7 @@ public class TimeBasedOTPUtil
    */
   public static boolean validate( String submittedOTP, byte[] secret, int numDigits ) throws GeneralSecurityException
   {
-     TimeZone utc = TimeZone.getTimeZone( "UTC" );
-     Calendar currentDateTime = Calendar.getInstance( utc );
-     
-     String generatedTOTP = TimeBasedOTP.generateTOTP( new String( secret ) , numDigits );
-     boolean result =  generatedTOTP.equals( submittedOTP );
-
-     long timeInMilis = currentDateTime.getTimeInMillis();
-     
-     if( !result )
-     {   
-        timeInMilis -= TIME_INTERVAL;
-        
-        generatedTOTP = TimeBasedOTP.generateTOTP( new String( secret ) , "" + timeInMilis, numDigits );
-        result =  generatedTOTP.equals( submittedOTP );
-     }
-     
-     if( !result )
-     {
-        timeInMilis += TIME_INTERVAL;
-        generatedTOTP = TimeBasedOTP.generateTOTP( new String( secret ) , "" + timeInMilis, numDigits );
-        result =  generatedTOTP.equals( submittedOTP );
-     }
-     
-     return result;
+     return validate( TimeBasedOTP.HMAC_SHA1, submittedOTP, secret, numDigits );
   }
   
   /**
@@ -78,33 +56,7 @@ public class TimeBasedOTPUtil
    */
   public static boolean validate256( String submittedOTP, byte[] secret, int numDigits ) throws GeneralSecurityException
   {
-     TimeZone utc = TimeZone.getTimeZone( "UTC" );
-     Calendar currentDateTime = Calendar.getInstance( utc );
-     
-     String generatedTOTP = TimeBasedOTP.generateTOTP256( new String( secret ) , numDigits );
-     boolean result =  generatedTOTP.equals( submittedOTP );
-     
-     if( !result )
-     {
-        //Step back time interval
-        long timeInMilis = currentDateTime.getTimeInMillis();
-        timeInMilis -= TIME_INTERVAL;
-        
-        generatedTOTP = TimeBasedOTP.generateTOTP256( new String( secret ) , "" + timeInMilis, numDigits );
-        result =  generatedTOTP.equals( submittedOTP );
-     }
-     
-     if( !result )
-     {
-        //Step ahead time interval
-        long timeInMilis = currentDateTime.getTimeInMillis();
-        timeInMilis += TIME_INTERVAL;
-        
-        generatedTOTP = TimeBasedOTP.generateTOTP256( new String( secret ) , "" + timeInMilis, numDigits );
-        result =  generatedTOTP.equals( submittedOTP );
-     }
-     
-     return result;
+     return validate( TimeBasedOTP.HMAC_SHA256, submittedOTP, secret, numDigits );
   }
   
   /**
@@ -116,32 +68,26 @@ public class TimeBasedOTPUtil
    */
   public static boolean validate512( String submittedOTP, byte[] secret, int numDigits ) throws GeneralSecurityException
   {
-     TimeZone utc = TimeZone.getTimeZone( "UTC" );
-     Calendar currentDateTime = Calendar.getInstance( utc );
-     
-     String generatedTOTP = TimeBasedOTP.generateTOTP512( new String( secret ) , numDigits );
-     boolean result =  generatedTOTP.equals( submittedOTP );
-     
-     if( !result )
-     {
-        //Step back time interval
-        long timeInMilis = currentDateTime.getTimeInMillis();
-        timeInMilis -= TIME_INTERVAL;
-        
-        generatedTOTP = TimeBasedOTP.generateTOTP512( new String( secret ) , "" + timeInMilis, numDigits );
-        result =  generatedTOTP.equals( submittedOTP );
-     }
-     
-     if( !result )
+     return validate( TimeBasedOTP.HMAC_SHA512, submittedOTP, secret, numDigits );
+  }
+  
+  /**
+   * Validate a submitted OTP string against the previous, current and next time steps
+   * @param algorithm the HMAC algorithm
+   * @param submittedOTP OTP string to validate
+   * @param secret Shared secret, HEX encoded 
+   * @return 
+   * @throws GeneralSecurityException
+   */
+  private static boolean validate( String algorithm, String submittedOTP, byte[] secret, int numDigits ) throws GeneralSecurityException
+  {
+     String key = algorithm + ":" + numDigits;
+     TimeBasedOTPVerifier verifier = verifiers.get( key );
+     if( verifier == null )
      {
-        //Step ahead time interval
-        long timeInMilis = currentDateTime.getTimeInMillis();
-        timeInMilis += TIME_INTERVAL;
-        
-        generatedTOTP = TimeBasedOTP.generateTOTP512( new String( secret ) , "" + timeInMilis, numDigits );
-        result =  generatedTOTP.equals( submittedOTP );
+        verifier = new TimeBasedOTPVerifier( algorithm, numDigits, 1, 0 );
+        verifiers.putIfAbsent( key, verifier );
      }
-     
-     return result;
+     return verifier.verify( null, new String( secret ), submittedOTP );
   }
 }
\ No newline at end of file
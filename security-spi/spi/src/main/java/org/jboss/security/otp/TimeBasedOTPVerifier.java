@@ -0,0 +1,328 @@
+/*
+  * JBoss, Home of Professional Open Source
+  * Copyright 2026, Red Hat, Inc., and individual contributors as indicated
+  * by the @authors tag. See the copyright.txt in the distribution for a
+  * full listing of individual contributors.
+  *
+  * This is free software; you can redistribute it and/or modify it
+  * under the terms of the GNU Lesser General Public License as
+  * published by the Free Software Foundation; either version 2.1 of
+  * the License, or (at your option) any later version.
+  *
+  * This software is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+  * Lesser General Public License for more details.
+  *
+  * You should have received a copy of the GNU Lesser General Public
+  * License along with this software; if not, write to the Free
+  * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+  */
+package org.jboss.security.otp;
+
+import java.security.GeneralSecurityException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Verifies time based one time passwords against pre-decoded shared secrets.
+ * <p>
+ * A verifier is thread safe and meant to be shared: the {@code Mac} objects are held per thread
+ * and per algorithm, the most recently used decoded secrets are cached by their HEX representation and the window
+ * of accepted time steps is checked in a single pass that reuses per thread buffers, so a
+ * verification only allocates when a new secret or a new thread is seen.
+ * <p>
+ * When created with a used code cache the verifier remembers, for a bounded number of users,
+ * the last time step that was accepted and rejects any code for the same or an earlier time
+ * step, so an observed code cannot be replayed while it is still within the window. The users are
+ * only known by their name, so a verifier should not be shared by several user stores.
+ */
+public class TimeBasedOTPVerifier
+{
+   /** The default time step, 30 seconds */
+   public static final long DEFAULT_TIME_STEP = 30000;
+
+   // 0 1  2   3    4     5      6       7        8
+   private static final int[] DIGITS_POWER  = {1, 10, 100, 1000, 10000, 100000, 1000000, 10000000, 100000000 };
+
+   private static final int MAX_KEYS = 10000;
+
+   private static final ThreadLocal<State> state = new ThreadLocal<State>()
+   {
+      @Override
+      protected State initialValue()
+      {
+         return new State();
+      }
+   };
+
+   private final String algorithm;
+
+   private final int numDigits;
+
+   private final int window;
+
+   private final long timeStep;
+
+   /** The decoded secrets by HEX representation, the least recently used evicted past MAX_KEYS */
+   private final Map<String, SecretKey> keys = new LinkedHashMap<String, SecretKey>(16, 0.75f, true)
+   {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, SecretKey> eldest)
+      {
+         return size() > MAX_KEYS;
+      }
+   };
+
+   /** Last accepted time step by user, null if replays are not checked */
+   private final Map<String, Long> usedSteps;
+
+   /**
+    * Create a verifier that accepts codes for the current time step and {@code window} steps either side.
+    *
+    * @param algorithm the HMAC algorithm (HmacSHA1, HmacSHA256, HmacSHA512)
+    * @param numDigits the number of digits of the codes
+    * @param window the number of time steps before and after the current one that are accepted
+    * @param usedCodeCacheSize the number of users whose last accepted code is remembered to block
+    *           replays, or 0 to accept replayed codes
+    * @throws GeneralSecurityException if the algorithm is not available
+    */
+   public TimeBasedOTPVerifier(String algorithm, int numDigits, int window, int usedCodeCacheSize)
+         throws GeneralSecurityException
+   {
+      this(algorithm, numDigits, window, DEFAULT_TIME_STEP, usedCodeCacheSize);
+   }
+
+   /**
+    * Create a verifier that accepts codes for the current time step and {@code window} steps either side.
+    *
+    * @param algorithm the HMAC algorithm (HmacSHA1, HmacSHA256, HmacSHA512)
+    * @param numDigits the number of digits of the codes
+    * @param window the number of time steps before and after the current one that are accepted
+    * @param timeStep the length of a time step in milliseconds
+    * @param usedCodeCacheSize the number of users whose last accepted code is remembered to block
+    *           replays, or 0 to accept replayed codes
+    * @throws GeneralSecurityException if the algorithm is not available
+    */
+   public TimeBasedOTPVerifier(String algorithm, int numDigits, int window, long timeStep, final int usedCodeCacheSize)
+         throws GeneralSecurityException
+   {
+      // fail early on an unknown algorithm
+      getMac(algorithm);
+      this.algorithm = algorithm;
+      this.numDigits = numDigits;
+      this.window = window;
+      this.timeStep = timeStep;
+      if (usedCodeCacheSize > 0)
+      {
+         this.usedSteps = new LinkedHashMap<String, Long>(16, 0.75f, true)
+         {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest)
+            {
+               return size() > usedCodeCacheSize;
+            }
+         };
+      }
+      else
+         this.usedSteps = null;
+   }
+
+   /**
+    * Verify a submitted code for the current time.
+    *
+    * @param username the user the code was submitted by, used to block replays; may be null
+    * @param hexKey the shared secret, HEX encoded
+    * @param submittedOTP the submitted code
+    * @return true if the code is valid and has not been used before
+    * @throws GeneralSecurityException
+    */
+   public boolean verify(String username, String hexKey, String submittedOTP) throws GeneralSecurityException
+   {
+      return verify(username, getKey(hexKey), submittedOTP, System.currentTimeMillis());
+   }
+
+   /**
+    * Verify a submitted code for the given time.
+    *
+    * @param username the user the code was submitted by, used to block replays; may be null
+    * @param key the shared secret as returned by {@link #getKey(String)}
+    * @param submittedOTP the submitted code
+    * @param timeInMillis the time to verify the code for
+    * @return true if the code is valid and has not been used before
+    * @throws GeneralSecurityException
+    */
+   public boolean verify(String username, SecretKey key, String submittedOTP, long timeInMillis)
+         throws GeneralSecurityException
+   {
+      int code = parseCode(submittedOTP);
+      if (code < 0)
+         return false;
+
+      long current = timeInMillis / timeStep;
+      State s = state.get();
+      Mac mac = s.getMac(algorithm);
+      mac.init(key);
+      // check the current step first, then move outwards
+      for (int i = 0; i <= 2 * window; i++)
+      {
+         long step = (i & 1) == 0 ? current + i / 2 : current - (i + 1) / 2;
+         if (generate(mac, s, step) == code)
+            return markUsed(username, step);
+      }
+      return false;
+   }
+
+   /**
+    * Get the decoded form of a HEX encoded shared secret. Decoded secrets are cached.
+    *
+    * @param hexKey the shared secret, HEX encoded
+    * @return the key to pass to {@link #verify(String, SecretKey, String, long)}
+    */
+   public SecretKey getKey(String hexKey)
+   {
+      SecretKey key;
+      synchronized (keys)
+      {
+         key = keys.get(hexKey);
+      }
+      if (key == null)
+      {
+         key = new SecretKeySpec(decodeKey(hexKey), "RAW");
+         synchronized (keys)
+         {
+            keys.put(hexKey, key);
+         }
+      }
+      return key;
+   }
+
+   /**
+    * Compute the code of a given time step.
+    *
+    * @param key the shared secret
+    * @param step the time step, i.e. the time in milliseconds divided by the time step length
+    * @return the code
+    * @throws GeneralSecurityException
+    */
+   public int generate(SecretKey key, long step) throws GeneralSecurityException
+   {
+      State s = state.get();
+      Mac mac = s.getMac(algorithm);
+      mac.init(key);
+      return generate(mac, s, step);
+   }
+
+   /**
+    * Convert a HEX string into bytes. A string of odd length is read as if it had a leading zero.
+    *
+    * @param hex the HEX string
+    * @return the decoded bytes
+    */
+   public static byte[] decodeKey(String hex)
+   {
+      int length = hex.length();
+      byte[] bytes = new byte[(length + 1) / 2];
+      int i = bytes.length - 1;
+      for (int j = length; j > 0; j -= 2, i--)
+      {
+         int low = Character.digit(hex.charAt(j - 1), 16);
+         int high = j > 1 ? Character.digit(hex.charAt(j - 2), 16) : 0;
+         if (low < 0 || high < 0)
+            throw new NumberFormatException(hex);
+         bytes[i] = (byte) ((high << 4) | low);
+      }
+      return bytes;
+   }
+
+   /**
+    * Get the calling thread's {@code Mac} for the given algorithm. The caller must initialize it
+    * and must not hand it to another thread.
+    */
+   static Mac getMac(String algorithm) throws GeneralSecurityException
+   {
+      return state.get().getMac(algorithm);
+   }
+
+   private int generate(Mac mac, State s, long step) throws GeneralSecurityException
+   {
+      byte[] msg = s.msg;
+      for (int i = 7; i >= 0; i--)
+      {
+         msg[i] = (byte) step;
+         step >>>= 8;
+      }
+      mac.update(msg);
+      byte[] hash = s.hash;
+      int length = mac.getMacLength();
+      mac.doFinal(hash, 0);
+
+      int offset = hash[length - 1] & 0xf;
+      int binary =
+         ((hash[offset] & 0x7f) << 24) |
+         ((hash[offset + 1] & 0xff) << 16) |
+         ((hash[offset + 2] & 0xff) << 8) |
+         (hash[offset + 3] & 0xff);
+      return binary % DIGITS_POWER[numDigits];
+   }
+
+   private int parseCode(String submittedOTP)
+   {
+      if (submittedOTP == null || submittedOTP.length() != numDigits)
+         return -1;
+      int code = 0;
+      for (int i = 0; i < numDigits; i++)
+      {
+         char c = submittedOTP.charAt(i);
+         if (c < '0' || c > '9')
+            return -1;
+         code = code * 10 + (c - '0');
+      }
+      return code;
+   }
+
+   private boolean markUsed(String username, long step)
+   {
+      if (usedSteps == null || username == null)
+         return true;
+      synchronized (usedSteps)
+      {
+         Long last = usedSteps.get(username);
+         if (last != null && step <= last.longValue())
+            return false;
+         usedSteps.put(username, Long.valueOf(step));
+         return true;
+      }
+   }
+
+   /** The per thread Mac objects and buffers */
+   private static class State
+   {
+      private final Map<String, Mac> macs = new HashMap<String, Mac>(4);
+
+      private final byte[] msg = new byte[8];
+
+      private final byte[] hash = new byte[64];
+
+      Mac getMac(String algorithm) throws GeneralSecurityException
+      {
+         Mac mac = macs.get(algorithm);
+         if (mac == null)
+         {
+            mac = Mac.getInstance(algorithm);
+            macs.put(algorithm, mac);
+         }
+         return mac;
+      }
+   }
+}
@@ -0,0 +1,117 @@
+/*
+  * JBoss, Home of Professional Open Source
+  * Copyright 2026, Red Hat, Inc., and individual contributors as indicated
+  * by the @authors tag. See the copyright.txt in the distribution for a
+  * full listing of individual contributors.
+  *
+  * This is free software; you can redistribute it and/or modify it
+  * under the terms of the GNU Lesser General Public License as
+  * published by the Free Software Foundation; either version 2.1 of
+  * the License, or (at your option) any later version.
+  *
+  * This software is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+  * Lesser General Public License for more details.
+  *
+  * You should have received a copy of the GNU Lesser General Public
+  * License along with this software; if not, write to the Free
+  * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+  */
+package org.jboss.test.security.otp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import javax.crypto.SecretKey;
+
+import org.jboss.security.otp.TimeBasedOTP;
+import org.jboss.security.otp.TimeBasedOTPVerifier;
+import org.junit.Test;
+
+/**
+ * Unit test the {@code TimeBasedOTPVerifier}
+ */
+public class TimeBasedOTPVerifierUnitTestCase
+{
+   String seed = "3132333435363738393031323334353637383930";
+
+   long[] testTime = { 59, 1111111109, 1111111111, 1234567890, 2000000000 };
+
+   String[] totp = new String[] { "94287082", "07081804", "14050471", "89005924", "69279037" };
+
+   @Test
+   public void testRFCVectors() throws Exception
+   {
+      TimeBasedOTPVerifier verifier = new TimeBasedOTPVerifier( TimeBasedOTP.HMAC_SHA1, 8, 0, 0 );
+      SecretKey key = verifier.getKey( seed );
+      for( int i = 0; i < testTime.length; i++ )
+      {
+         assertTrue( verifier.verify( null, key, totp[i], testTime[i] * 1000 ) );
+         assertEquals( Integer.parseInt( totp[i] ), verifier.generate( key, testTime[i] / 30 ) );
+      }
+      assertFalse( verifier.verify( null, key, "94287083", 59000 ) );
+      assertFalse( verifier.verify( null, key, "9428708", 59000 ) );
+      assertFalse( verifier.verify( null, key, "9428708x", 59000 ) );
+   }
+
+   @Test
+   public void testWindow() throws Exception
+   {
+      TimeBasedOTPVerifier strict = new TimeBasedOTPVerifier( TimeBasedOTP.HMAC_SHA1, 8, 0, 0 );
+      TimeBasedOTPVerifier lenient = new TimeBasedOTPVerifier( TimeBasedOTP.HMAC_SHA1, 8, 1, 0 );
+      SecretKey key = strict.getKey( seed );
+      // 07081804 is the code of the step starting at 1111111090
+      long previous = 1111111109000L - 30000;
+      long next = 1111111109000L + 30000;
+      long tooLate = 1111111109000L + 60000;
+      assertFalse( strict.verify( null, key, "07081804", previous ) );
+      assertTrue( lenient.verify( null, key, "07081804", previous ) );
+      assertTrue( lenient.verify( null, key, "07081804", next ) );
+      assertFalse( lenient.verify( null, key, "07081804", tooLate ) );
+   }
+
+   @Test
+   public void testReplay() throws Exception
+   {
+      TimeBasedOTPVerifier verifier = new TimeBasedOTPVerifier( TimeBasedOTP.HMAC_SHA1, 8, 1, 10 );
+      SecretKey key = verifier.getKey( seed );
+      long now = 1111111111000L;
+      assertTrue( verifier.verify( "anil", key, "14050471", now ) );
+      assertFalse( "replayed code", verifier.verify( "anil", key, "14050471", now ) );
+      // an older code that is still within the window is rejected too
+      assertFalse( verifier.verify( "anil", key, "07081804", now ) );
+      // other users are not affected
+      assertTrue( verifier.verify( "other", key, "14050471", now ) );
+      // the next step is accepted
+      String next = String.format( "%08d", verifier.generate( key, now / 30000 + 1 ) );
+      assertTrue( verifier.verify( "anil", key, next, now + 30000 ) );
+   }
+
+   @Test
+   public void testRecentlyUsedKeysKept() throws Exception
+   {
+      TimeBasedOTPVerifier verifier = new TimeBasedOTPVerifier( TimeBasedOTP.HMAC_SHA1, 8, 0, 0 );
+      SecretKey key = verifier.getKey( seed );
+      // the secret in use stays decoded while many others come and go
+      for( int i = 0; i < 25000; i++ )
+      {
+         verifier.getKey( Integer.toHexString( i ) );
+         if( i % 100 == 0 )
+            assertSame( key, verifier.getKey( seed ) );
+      }
+   }
+
+   @Test
+   public void testDecodeKey() throws Exception
+   {
+      assertTrue( Arrays.equals( new byte[] { 0x01, (byte) 0xab }, TimeBasedOTPVerifier.decodeKey( "01ab" ) ) );
+      assertTrue( Arrays.equals( new byte[] { 0x0a, (byte) 0xbc }, TimeBasedOTPVerifier.decodeKey( "abc" ) ) );
+      assertTrue( Arrays.equals( new byte[0], TimeBasedOTPVerifier.decodeKey( "" ) ) );
+   }
+}